@@ -2,12 +2,17 @@ package com.flaute.photosono;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @SpringBootApplication
 public class PhotosonoApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(PhotosonoApplication.class, args);
+		ConfigurableApplicationContext context = SpringApplication.run(PhotosonoApplication.class, args);
+		// A shutdown signal that ended a serving run has closed the context already
+		if (context.isActive()) {
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 
 }
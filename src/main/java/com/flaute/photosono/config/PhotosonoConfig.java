@@ -3,21 +3,44 @@ package com.flaute.photosono.config;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 @ConfigurationProperties(prefix = "photosono")
 public class PhotosonoConfig {
 
     private String inputDir;
+    private List<Source> sources = new ArrayList<>();
     private String originalsDir;
     private String timelineDir;
     private String unknownDateDir;
     private String unknownTypeDir;
     private String corruptedDir;
     private String invalidSizeDir;
+    private String quarantineDir;
+    private String stateDir;
     private int minWidth = 100; // Default values
     private int minHeight = 100;
     private Deduplication deduplication = new Deduplication();
     private Timeline timeline = new Timeline();
+    private Index index = new Index();
+    private Similarity similarity = new Similarity();
+    private Scrub scrub = new Scrub();
+    private Query query = new Query();
+    private Journal journal = new Journal();
+    private ChunkStore chunkStore = new ChunkStore();
+    private Cluster cluster = new Cluster();
+    private Storage storage = new Storage();
+    private Copy copy = new Copy();
+    private Io io = new Io();
+    private Prune prune = new Prune();
+    private Thumbnail thumbnail = new Thumbnail();
+    private DuplicateReport duplicateReport = new DuplicateReport();
+    private Validation validation = new Validation();
+    private Archive archive = new Archive();
+    private Views views = new Views();
 
     public String getInputDir() {
         return inputDir;
@@ -27,6 +50,17 @@ public class PhotosonoConfig {
         this.inputDir = inputDir;
     }
 
+    /**
+     * Input sources ingested side by side. When empty, {@link #getInputDir()} is the only source.
+     */
+    public List<Source> getSources() {
+        return sources;
+    }
+
+    public void setSources(List<Source> sources) {
+        this.sources = sources;
+    }
+
     public String getOriginalsDir() {
         return originalsDir;
     }
@@ -75,6 +109,22 @@ public class PhotosonoConfig {
         this.invalidSizeDir = invalidSizeDir;
     }
 
+    public String getQuarantineDir() {
+        return quarantineDir;
+    }
+
+    public void setQuarantineDir(String quarantineDir) {
+        this.quarantineDir = quarantineDir;
+    }
+
+    public String getStateDir() {
+        return stateDir;
+    }
+
+    public void setStateDir(String stateDir) {
+        this.stateDir = stateDir;
+    }
+
     public int getMinWidth() {
         return minWidth;
     }
@@ -107,8 +157,240 @@ public class PhotosonoConfig {
         this.timeline = timeline;
     }
 
+    public Index getIndex() {
+        return index;
+    }
+
+    public void setIndex(Index index) {
+        this.index = index;
+    }
+
+    public Similarity getSimilarity() {
+        return similarity;
+    }
+
+    public void setSimilarity(Similarity similarity) {
+        this.similarity = similarity;
+    }
+
+    public Scrub getScrub() {
+        return scrub;
+    }
+
+    public void setScrub(Scrub scrub) {
+        this.scrub = scrub;
+    }
+
+    public Query getQuery() {
+        return query;
+    }
+
+    public void setQuery(Query query) {
+        this.query = query;
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    public ChunkStore getChunkStore() {
+        return chunkStore;
+    }
+
+    public void setChunkStore(ChunkStore chunkStore) {
+        this.chunkStore = chunkStore;
+    }
+
+    public Cluster getCluster() {
+        return cluster;
+    }
+
+    public void setCluster(Cluster cluster) {
+        this.cluster = cluster;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public void setStorage(Storage storage) {
+        this.storage = storage;
+    }
+
+    public Copy getCopy() {
+        return copy;
+    }
+
+    public void setCopy(Copy copy) {
+        this.copy = copy;
+    }
+
+    public Io getIo() {
+        return io;
+    }
+
+    public void setIo(Io io) {
+        this.io = io;
+    }
+
+    public Prune getPrune() {
+        return prune;
+    }
+
+    public void setPrune(Prune prune) {
+        this.prune = prune;
+    }
+
+    public Thumbnail getThumbnail() {
+        return thumbnail;
+    }
+
+    public void setThumbnail(Thumbnail thumbnail) {
+        this.thumbnail = thumbnail;
+    }
+
+    public DuplicateReport getDuplicateReport() {
+        return duplicateReport;
+    }
+
+    public void setDuplicateReport(DuplicateReport duplicateReport) {
+        this.duplicateReport = duplicateReport;
+    }
+
+    public Validation getValidation() {
+        return validation;
+    }
+
+    public void setValidation(Validation validation) {
+        this.validation = validation;
+    }
+
+    public Archive getArchive() {
+        return archive;
+    }
+
+    public void setArchive(Archive archive) {
+        this.archive = archive;
+    }
+
+    public Views getViews() {
+        return views;
+    }
+
+    public void setViews(Views views) {
+        this.views = views;
+    }
+
     public static class Deduplication {
         private boolean enabled = true;
+        private int threads = 4;
+        private long largeFileThreshold = 256L * 1024 * 1024;
+        private double largeFileShare = 0.5;
+        private boolean smallestFirst = false;
+        private boolean xattrHashCache = false; // Trust user.photosono.sha256 on input files
+        private boolean adaptiveThreads = false; // Vary files in flight between min-threads and threads
+        private int minThreads = 1;
+        private long adaptiveWindowMillis = 2000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public long getLargeFileThreshold() {
+            return largeFileThreshold;
+        }
+
+        public void setLargeFileThreshold(long largeFileThreshold) {
+            this.largeFileThreshold = largeFileThreshold;
+        }
+
+        public double getLargeFileShare() {
+            return largeFileShare;
+        }
+
+        public void setLargeFileShare(double largeFileShare) {
+            this.largeFileShare = largeFileShare;
+        }
+
+        public boolean isSmallestFirst() {
+            return smallestFirst;
+        }
+
+        public void setSmallestFirst(boolean smallestFirst) {
+            this.smallestFirst = smallestFirst;
+        }
+
+        public boolean isXattrHashCache() {
+            return xattrHashCache;
+        }
+
+        public void setXattrHashCache(boolean xattrHashCache) {
+            this.xattrHashCache = xattrHashCache;
+        }
+
+        public boolean isAdaptiveThreads() {
+            return adaptiveThreads;
+        }
+
+        public void setAdaptiveThreads(boolean adaptiveThreads) {
+            this.adaptiveThreads = adaptiveThreads;
+        }
+
+        public int getMinThreads() {
+            return minThreads;
+        }
+
+        public void setMinThreads(int minThreads) {
+            this.minThreads = minThreads;
+        }
+
+        public long getAdaptiveWindowMillis() {
+            return adaptiveWindowMillis;
+        }
+
+        public void setAdaptiveWindowMillis(long adaptiveWindowMillis) {
+            this.adaptiveWindowMillis = adaptiveWindowMillis;
+        }
+    }
+
+    public static class Source {
+        private String name;
+        private String dir;
+        private boolean enabled = true;
+        private int priority = 0;
+        private int concurrency = 2;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getDir() {
+            return dir;
+        }
+
+        public void setDir(String dir) {
+            this.dir = dir;
+        }
 
         public boolean isEnabled() {
             return enabled;
@@ -117,10 +399,29 @@ public class PhotosonoConfig {
         public void setEnabled(boolean enabled) {
             this.enabled = enabled;
         }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public void setPriority(int priority) {
+            this.priority = priority;
+        }
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        public void setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+        }
     }
 
     public static class Timeline {
         private boolean enabled = true;
+        private int rebuildThreads = 4;
+        private List<String> dateSources = new ArrayList<>(List.of("metadata", "filename")); // In order of trust
+        private List<String> filenamePatterns = new ArrayList<>(); // Empty = built-in camera/messenger patterns
 
         public boolean isEnabled() {
             return enabled;
@@ -129,5 +430,675 @@ public class PhotosonoConfig {
         public void setEnabled(boolean enabled) {
             this.enabled = enabled;
         }
+
+        public int getRebuildThreads() {
+            return rebuildThreads;
+        }
+
+        public void setRebuildThreads(int rebuildThreads) {
+            this.rebuildThreads = rebuildThreads;
+        }
+
+        public List<String> getDateSources() {
+            return dateSources;
+        }
+
+        public void setDateSources(List<String> dateSources) {
+            this.dateSources = dateSources;
+        }
+
+        public List<String> getFilenamePatterns() {
+            return filenamePatterns;
+        }
+
+        public void setFilenamePatterns(List<String> filenamePatterns) {
+            this.filenamePatterns = filenamePatterns;
+        }
+    }
+
+    public static class Index {
+        private long expectedOriginals = 100_000;
+        private boolean bloomEnabled = true;
+        private double bloomFalsePositiveRate = 0.01;
+
+        public long getExpectedOriginals() {
+            return expectedOriginals;
+        }
+
+        public void setExpectedOriginals(long expectedOriginals) {
+            this.expectedOriginals = expectedOriginals;
+        }
+
+        public boolean isBloomEnabled() {
+            return bloomEnabled;
+        }
+
+        public void setBloomEnabled(boolean bloomEnabled) {
+            this.bloomEnabled = bloomEnabled;
+        }
+
+        public double getBloomFalsePositiveRate() {
+            return bloomFalsePositiveRate;
+        }
+
+        public void setBloomFalsePositiveRate(double bloomFalsePositiveRate) {
+            this.bloomFalsePositiveRate = bloomFalsePositiveRate;
+        }
+    }
+
+    public static class Similarity {
+        private boolean enabled = false;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int maxDistance = 3;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getMaxDistance() {
+            return maxDistance;
+        }
+
+        public void setMaxDistance(int maxDistance) {
+            this.maxDistance = maxDistance;
+        }
+    }
+
+    public static class Scrub {
+        private boolean enabled = false;
+        private int threads = 2;
+        private long maxBytesPerSecond = 0; // 0 = unlimited
+        private Duration period; // Pace a full pass over this period, based on the last pass size
+        private boolean continuous = false;
+        private Duration minInterval = Duration.ofMinutes(1); // Shortest time from one pass start to the next
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public long getMaxBytesPerSecond() {
+            return maxBytesPerSecond;
+        }
+
+        public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+            this.maxBytesPerSecond = maxBytesPerSecond;
+        }
+
+        public Duration getPeriod() {
+            return period;
+        }
+
+        public void setPeriod(Duration period) {
+            this.period = period;
+        }
+
+        public boolean isContinuous() {
+            return continuous;
+        }
+
+        public void setContinuous(boolean continuous) {
+            this.continuous = continuous;
+        }
+
+        public Duration getMinInterval() {
+            return minInterval;
+        }
+
+        public void setMinInterval(Duration minInterval) {
+            this.minInterval = minInterval;
+        }
+    }
+
+    public static class Query {
+        private boolean enabled = false;
+        private String bindAddress = "127.0.0.1";
+        private int port = 8080;
+        private int threads = 4;
+        private int maxPageSize = 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getBindAddress() {
+            return bindAddress;
+        }
+
+        public void setBindAddress(String bindAddress) {
+            this.bindAddress = bindAddress;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getMaxPageSize() {
+            return maxPageSize;
+        }
+
+        public void setMaxPageSize(int maxPageSize) {
+            this.maxPageSize = maxPageSize;
+        }
+    }
+
+    public static class Journal {
+        private boolean enabled = true;
+        private int queueCapacity = 65536;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    public static class ChunkStore {
+        private boolean enabled = false;
+        private String dir = "./chunks";
+        private int threads = 4;
+        private int averageChunkSize = 1 << 20;
+        private List<String> extensions = List.of("mp4", "mov", "avi");
+        private boolean removeOriginals = false;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDir() {
+            return dir;
+        }
+
+        public void setDir(String dir) {
+            this.dir = dir;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getAverageChunkSize() {
+            return averageChunkSize;
+        }
+
+        public void setAverageChunkSize(int averageChunkSize) {
+            this.averageChunkSize = averageChunkSize;
+        }
+
+        public List<String> getExtensions() {
+            return extensions;
+        }
+
+        public void setExtensions(List<String> extensions) {
+            this.extensions = extensions;
+        }
+
+        public boolean isRemoveOriginals() {
+            return removeOriginals;
+        }
+
+        public void setRemoveOriginals(boolean removeOriginals) {
+            this.removeOriginals = removeOriginals;
+        }
+    }
+
+    public static class Cluster {
+        private boolean enabled = false;
+        private String leaseDir = "./leases";
+        private String nodeId = "";
+        private Duration leaseTtl = Duration.ofSeconds(60);
+        private Duration heartbeatInterval = Duration.ofSeconds(15);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getLeaseDir() {
+            return leaseDir;
+        }
+
+        public void setLeaseDir(String leaseDir) {
+            this.leaseDir = leaseDir;
+        }
+
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        public void setNodeId(String nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        public Duration getLeaseTtl() {
+            return leaseTtl;
+        }
+
+        public void setLeaseTtl(Duration leaseTtl) {
+            this.leaseTtl = leaseTtl;
+        }
+
+        public Duration getHeartbeatInterval() {
+            return heartbeatInterval;
+        }
+
+        public void setHeartbeatInterval(Duration heartbeatInterval) {
+            this.heartbeatInterval = heartbeatInterval;
+        }
+    }
+
+    public static class Storage {
+        private String type = "local";
+        private int threads = 8;
+        private S3 s3 = new S3();
+
+        public String getType() {
+            return type;
+        }
+
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public S3 getS3() {
+            return s3;
+        }
+
+        public void setS3(S3 s3) {
+            this.s3 = s3;
+        }
+    }
+
+    public static class S3 {
+        private String endpoint = "https://s3.amazonaws.com";
+        private String region = "us-east-1";
+        private String bucket;
+        private String prefix = "";
+        private String accessKey;
+        private String secretKey;
+        private int maxConcurrency = 32;
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public void setEndpoint(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public String getRegion() {
+            return region;
+        }
+
+        public void setRegion(String region) {
+            this.region = region;
+        }
+
+        public String getBucket() {
+            return bucket;
+        }
+
+        public void setBucket(String bucket) {
+            this.bucket = bucket;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public void setPrefix(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public String getAccessKey() {
+            return accessKey;
+        }
+
+        public void setAccessKey(String accessKey) {
+            this.accessKey = accessKey;
+        }
+
+        public String getSecretKey() {
+            return secretKey;
+        }
+
+        public void setSecretKey(String secretKey) {
+            this.secretKey = secretKey;
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        public void setMaxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+        }
+    }
+
+    public static class Copy {
+        private int bufferSize = 4 << 20;
+        private boolean directIo = false;
+        private long directThreshold = 64L << 20;
+        private long syncBytes = 64L << 20;
+        private int pooledBuffers = 0; // 0 = three per deduplication thread
+
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        public void setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+
+        public boolean isDirectIo() {
+            return directIo;
+        }
+
+        public void setDirectIo(boolean directIo) {
+            this.directIo = directIo;
+        }
+
+        public long getDirectThreshold() {
+            return directThreshold;
+        }
+
+        public void setDirectThreshold(long directThreshold) {
+            this.directThreshold = directThreshold;
+        }
+
+        public long getSyncBytes() {
+            return syncBytes;
+        }
+
+        public void setSyncBytes(long syncBytes) {
+            this.syncBytes = syncBytes;
+        }
+
+        public int getPooledBuffers() {
+            return pooledBuffers;
+        }
+
+        public void setPooledBuffers(int pooledBuffers) {
+            this.pooledBuffers = pooledBuffers;
+        }
+    }
+
+    public static class Io {
+        private long maxBytesPerSecond = 0; // 0 = unlimited
+        private long maxOpsPerSecond = 0; // 0 = unlimited
+        private String schedule; // e.g. 07:00-23:00=20M/200,23:00-07:00=unlimited
+
+        public long getMaxBytesPerSecond() {
+            return maxBytesPerSecond;
+        }
+
+        public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+            this.maxBytesPerSecond = maxBytesPerSecond;
+        }
+
+        public long getMaxOpsPerSecond() {
+            return maxOpsPerSecond;
+        }
+
+        public void setMaxOpsPerSecond(long maxOpsPerSecond) {
+            this.maxOpsPerSecond = maxOpsPerSecond;
+        }
+
+        public String getSchedule() {
+            return schedule;
+        }
+
+        public void setSchedule(String schedule) {
+            this.schedule = schedule;
+        }
+    }
+
+    public static class Prune {
+        private int threads = 8;
+        private boolean delete = false; // false = only report broken links and empty directories
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public boolean isDelete() {
+            return delete;
+        }
+
+        public void setDelete(boolean delete) {
+            this.delete = delete;
+        }
+    }
+
+    public static class Thumbnail {
+        private boolean enabled = false;
+        private String dir = "./thumbnails";
+        private int size = 320; // Longest edge in pixels
+        private float quality = 0.8f;
+        private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        private int queueSize = 64;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDir() {
+            return dir;
+        }
+
+        public void setDir(String dir) {
+            this.dir = dir;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public void setSize(int size) {
+            this.size = size;
+        }
+
+        public float getQuality() {
+            return quality;
+        }
+
+        public void setQuality(float quality) {
+            this.quality = quality;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        public void setQueueSize(int queueSize) {
+            this.queueSize = queueSize;
+        }
+    }
+
+    public static class DuplicateReport {
+        private boolean enabled = false;
+        private long sortMemory = 64L << 20; // Heap for buffered records before they spill to disk
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getSortMemory() {
+            return sortMemory;
+        }
+
+        public void setSortMemory(long sortMemory) {
+            this.sortMemory = sortMemory;
+        }
+    }
+
+    public static class Validation {
+        private boolean deep = false; // Fully decode images and walk video boxes before placing
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private long timeoutMillis = 30_000; // Per file; a file that takes longer is let through
+
+        public boolean isDeep() {
+            return deep;
+        }
+
+        public void setDeep(boolean deep) {
+            this.deep = deep;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public long getTimeoutMillis() {
+            return timeoutMillis;
+        }
+
+        public void setTimeoutMillis(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+
+    public static class Archive {
+        private boolean enabled = false; // Ingest the entries of ZIP and TAR inputs instead of the archive
+        private String stagingDir; // Defaults to <originals-dir>/.staging; keep it on the originals file system
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getStagingDir() {
+            return stagingDir;
+        }
+
+        public void setStagingDir(String stagingDir) {
+            this.stagingDir = stagingDir;
+        }
+    }
+
+    public static class Views {
+        private String dir = "./views";
+        // Path templates such as by-camera/{make}/{model}/{yyyy}, optionally limited by a prefix: video:videos/{yyyy}
+        private List<String> definitions = new ArrayList<>();
+        private int batchSize = 4096; // Links buffered before they are written, grouped by directory
+
+        public String getDir() {
+            return dir;
+        }
+
+        public void setDir(String dir) {
+            this.dir = dir;
+        }
+
+        public List<String> getDefinitions() {
+            return definitions;
+        }
+
+        public void setDefinitions(List<String> definitions) {
+            this.definitions = definitions;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
     }
 }
@@ -0,0 +1,388 @@
+package com.flaute.photosono.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Open-addressing hash table of 32-byte digests kept in direct (off-heap) memory.
+ * <p>
+ * Each slot holds the raw digest followed by {@code valueBytes} of payload, so a set
+ * costs 32 bytes per slot and a long-valued map 40. The table is split into segments
+ * selected by the first digest byte; inserts take the segment's write lock while lookups
+ * use an optimistic read that only falls back to the read lock when it races a writer.
+ * Digests are expected to be uniformly distributed (SHA-256), so no further mixing is done.
+ */
+abstract class AbstractDigestTable {
+
+    static final int DIGEST_BYTES = 32;
+
+    private static final int FILE_MAGIC = 0x50534454; // "PSDT"
+
+    private static final int SEGMENTS = 64;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+    private static final double MAX_LOAD = 0.8;
+
+    private final int valueBytes;
+    private final int slotBytes;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    AbstractDigestTable(int valueBytes, long expectedEntries) {
+        this.valueBytes = valueBytes;
+        this.slotBytes = DIGEST_BYTES + valueBytes;
+        long perSegment = Math.max(1, expectedEntries / SEGMENTS);
+        int capacity = (int) Math.min(maxCapacity(), Math.max(MIN_SEGMENT_CAPACITY, (long) (perSegment / MAX_LOAD) + 1));
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    /**
+     * Inserts or replaces the entry. Returns {@code true} if the digest was not present.
+     */
+    final boolean putEntry(byte[] digest, long value) {
+        checkDigest(digest);
+        Segment segment = segmentFor(digest);
+        long stamp = segment.lock.writeLock();
+        try {
+            return segment.put(digest, value);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Inserts the entry only if the digest is absent. Returns {@code true} if it was inserted.
+     */
+    final boolean putEntryIfAbsent(byte[] digest, long value) {
+        checkDigest(digest);
+        Segment segment = segmentFor(digest);
+        if (segment.find(digest) >= 0) {
+            return false;
+        }
+        long stamp = segment.lock.writeLock();
+        try {
+            if (segment.findLocked(digest) >= 0) {
+                return false;
+            }
+            return segment.put(digest, value);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    final boolean containsEntry(byte[] digest) {
+        checkDigest(digest);
+        return segmentFor(digest).find(digest) >= 0;
+    }
+
+    /**
+     * Returns the stored value, or {@code missing} if the digest is absent.
+     */
+    final long getEntry(byte[] digest, long missing) {
+        checkDigest(digest);
+        return segmentFor(digest).get(digest, missing);
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Off-heap bytes currently reserved by all segments.
+     */
+    public long reservedBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += (long) segment.table.capacity * slotBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Visits every entry. Concurrent inserts may or may not be observed.
+     */
+    final void forEachEntry(EntryVisitor visitor) {
+        byte[] digest = new byte[DIGEST_BYTES];
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                if (segment.hasZeroKey) {
+                    visitor.visit(new byte[DIGEST_BYTES], segment.zeroValue);
+                }
+                Table table = segment.table;
+                for (int slot = 0; slot < table.capacity; slot++) {
+                    int offset = slot * slotBytes;
+                    if (!table.isEmpty(offset)) {
+                        table.buffer.get(offset, digest);
+                        visitor.visit(digest.clone(), table.readValue(offset));
+                    }
+                }
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * Writes all entries to {@code file}, replacing it atomically.
+     */
+    public void save(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(valueBytes);
+            IOException[] failure = new IOException[1];
+            forEachEntry((digest, value) -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                try {
+                    out.write(digest);
+                    if (valueBytes == 8) {
+                        out.writeLong(value);
+                    }
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Inserts all entries previously written by {@link #save(Path)}.
+     */
+    final void loadFrom(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != valueBytes) {
+                throw new IOException("Not a digest table file with " + valueBytes + " value bytes: " + file);
+            }
+            byte[] digest = new byte[DIGEST_BYTES];
+            while (true) {
+                try {
+                    in.readFully(digest);
+                } catch (EOFException e) {
+                    return;
+                }
+                putEntry(digest, valueBytes == 8 ? in.readLong() : 0L);
+            }
+        }
+    }
+
+    private Segment segmentFor(byte[] digest) {
+        return segments[(digest[0] & 0xff) & (SEGMENTS - 1)];
+    }
+
+    private int maxCapacity() {
+        return Integer.MAX_VALUE / slotBytes;
+    }
+
+    private static void checkDigest(byte[] digest) {
+        if (digest == null || digest.length != DIGEST_BYTES) {
+            throw new IllegalArgumentException("Digest must be " + DIGEST_BYTES + " bytes");
+        }
+    }
+
+    private static boolean isZero(byte[] digest) {
+        for (byte b : digest) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @FunctionalInterface
+    interface EntryVisitor {
+        void visit(byte[] digest, long value);
+    }
+
+    private final class Table {
+        final ByteBuffer buffer;
+        final int capacity;
+
+        Table(int capacity) {
+            this.capacity = capacity;
+            this.buffer = ByteBuffer.allocateDirect(capacity * slotBytes);
+        }
+
+        int home(byte[] digest) {
+            // Bytes 8..15 are independent of the segment selector in byte 0
+            long h = ((long) (digest[8] & 0xff) << 24 | (digest[9] & 0xff) << 16 | (digest[10] & 0xff) << 8
+                    | (digest[11] & 0xff)) & 0xffffffffL;
+            return (int) ((h * capacity) >>> 32);
+        }
+
+        boolean isEmpty(int offset) {
+            return buffer.getLong(offset) == 0 && buffer.getLong(offset + 8) == 0
+                    && buffer.getLong(offset + 16) == 0 && buffer.getLong(offset + 24) == 0;
+        }
+
+        boolean matches(int offset, long k0, long k1, long k2, long k3) {
+            return buffer.getLong(offset) == k0 && buffer.getLong(offset + 8) == k1
+                    && buffer.getLong(offset + 16) == k2 && buffer.getLong(offset + 24) == k3;
+        }
+
+        /**
+         * Returns the matching slot, or {@code -(emptySlot + 1)} if the digest is absent.
+         */
+        int probe(byte[] digest) {
+            ByteBuffer key = ByteBuffer.wrap(digest);
+            long k0 = key.getLong(0), k1 = key.getLong(8), k2 = key.getLong(16), k3 = key.getLong(24);
+            int slot = home(digest);
+            for (int i = 0; i < capacity; i++) {
+                int offset = slot * slotBytes;
+                if (matches(offset, k0, k1, k2, k3)) {
+                    return slot;
+                }
+                if (isEmpty(offset)) {
+                    return -(slot + 1);
+                }
+                slot = (slot + 1 == capacity) ? 0 : slot + 1;
+            }
+            return -(capacity + 1);
+        }
+
+        long readValue(int offset) {
+            return switch (valueBytes) {
+                case 0 -> 0L;
+                case 8 -> buffer.getLong(offset + DIGEST_BYTES);
+                default -> throw new IllegalStateException("Unsupported value size: " + valueBytes);
+            };
+        }
+
+        void write(int slot, byte[] digest, long value) {
+            int offset = slot * slotBytes;
+            if (valueBytes == 8) {
+                buffer.putLong(offset + DIGEST_BYTES, value);
+            }
+            buffer.put(offset, digest);
+        }
+    }
+
+    private final class Segment {
+        final StampedLock lock = new StampedLock();
+        volatile Table table;
+        int size;
+        boolean hasZeroKey;
+        long zeroValue;
+
+        Segment(int capacity) {
+            this.table = new Table(capacity);
+        }
+
+        int find(byte[] digest) {
+            long stamp = lock.tryOptimisticRead();
+            int slot = findLocked(digest);
+            if (lock.validate(stamp)) {
+                return slot;
+            }
+            stamp = lock.readLock();
+            try {
+                return findLocked(digest);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        int findLocked(byte[] digest) {
+            if (isZero(digest)) {
+                return hasZeroKey ? Integer.MAX_VALUE : -1;
+            }
+            int slot = table.probe(digest);
+            return slot >= 0 ? slot : -1;
+        }
+
+        long get(byte[] digest, long missing) {
+            long stamp = lock.tryOptimisticRead();
+            long value = getLocked(digest, missing);
+            if (lock.validate(stamp)) {
+                return value;
+            }
+            stamp = lock.readLock();
+            try {
+                return getLocked(digest, missing);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private long getLocked(byte[] digest, long missing) {
+            if (isZero(digest)) {
+                return hasZeroKey ? zeroValue : missing;
+            }
+            Table current = table;
+            int slot = current.probe(digest);
+            return slot >= 0 ? current.readValue(slot * slotBytes) : missing;
+        }
+
+        boolean put(byte[] digest, long value) {
+            if (isZero(digest)) {
+                boolean added = !hasZeroKey;
+                hasZeroKey = true;
+                zeroValue = value;
+                if (added) {
+                    size++;
+                }
+                return added;
+            }
+            int slot = table.probe(digest);
+            if (slot >= 0) {
+                table.write(slot, digest, value);
+                return false;
+            }
+            if (size + 1 > table.capacity * MAX_LOAD) {
+                grow();
+                slot = table.probe(digest);
+            }
+            table.write(-(slot + 1), digest, value);
+            size++;
+            return true;
+        }
+
+        private void grow() {
+            Table old = table;
+            long wanted = Math.max(old.capacity + 1L, old.capacity * 3L / 2);
+            if (wanted > maxCapacity()) {
+                throw new IllegalStateException("Digest table segment is full");
+            }
+            Table grown = new Table((int) wanted);
+            byte[] digest = new byte[DIGEST_BYTES];
+            for (int slot = 0; slot < old.capacity; slot++) {
+                int offset = slot * slotBytes;
+                if (!old.isEmpty(offset)) {
+                    old.buffer.get(offset, digest);
+                    grown.write(-(grown.probe(digest) + 1), digest, old.readValue(offset));
+                }
+            }
+            table = grown;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.flaute.photosono.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent Bloom filter over 32-byte digests.
+ * <p>
+ * Digests are already uniformly distributed, so the probe positions are derived from two
+ * 64-bit words of the digest itself (Kirsch-Mitzenmacher double hashing) instead of rehashing.
+ */
+public final class BloomFilter {
+
+    private static final int FILE_MAGIC = 0x5053424c; // "PSBL"
+
+    private final AtomicLongArray words;
+    private final long numBits;
+    private final int numHashes;
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+    private final AtomicLong insertions;
+
+    private BloomFilter(long numBits, int numHashes, long expectedInsertions, double falsePositiveRate,
+            long insertions) {
+        long wordCount = (numBits + 63) / 64;
+        if (wordCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter too large: " + numBits + " bits");
+        }
+        this.words = new AtomicLongArray((int) wordCount);
+        this.numBits = wordCount * 64;
+        this.numHashes = numHashes;
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.insertions = new AtomicLong(insertions);
+    }
+
+    /**
+     * Creates a filter sized for {@code expectedInsertions} entries at the given false-positive rate.
+     */
+    public static BloomFilter create(long expectedInsertions, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False-positive rate must be between 0 and 1: " + falsePositiveRate);
+        }
+        long n = Math.max(1, expectedInsertions);
+        long bits = Math.max(64, (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+        int hashes = Math.max(1, (int) Math.round((double) bits / n * Math.log(2)));
+        return new BloomFilter(bits, hashes, n, falsePositiveRate, 0);
+    }
+
+    /**
+     * Returns {@code true} if any bit changed, i.e. the digest was definitely not present before.
+     */
+    public boolean put(byte[] digest) {
+        long h1 = firstWord(digest);
+        long h2 = secondWord(digest);
+        boolean changed = false;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long word = words.get(index);
+            while ((word & mask) == 0) {
+                if (words.compareAndSet(index, word, word | mask)) {
+                    changed = true;
+                    break;
+                }
+                word = words.get(index);
+            }
+        }
+        if (changed) {
+            insertions.incrementAndGet();
+        }
+        return changed;
+    }
+
+    /**
+     * Returns {@code false} only if the digest was definitely never added.
+     */
+    public boolean mightContain(byte[] digest) {
+        long h1 = firstWord(digest);
+        long h2 = secondWord(digest);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long expectedInsertions() {
+        return expectedInsertions;
+    }
+
+    public double falsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * Number of distinct digests added so far (never over-counts).
+     */
+    public long insertions() {
+        return insertions.get();
+    }
+
+    /**
+     * Returns {@code true} once more entries were added than the filter was sized for.
+     */
+    public boolean isSaturated() {
+        return insertions.get() > expectedInsertions;
+    }
+
+    /**
+     * Writes the filter to {@code file}, replacing it atomically.
+     */
+    public void save(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeLong(numBits);
+            out.writeInt(numHashes);
+            out.writeLong(expectedInsertions);
+            out.writeDouble(falsePositiveRate);
+            out.writeLong(insertions.get());
+            for (int i = 0; i < words.length(); i++) {
+                out.writeLong(words.get(i));
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static BloomFilter load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a Bloom filter file: " + file);
+            }
+            long numBits = in.readLong();
+            int numHashes = in.readInt();
+            long expected = in.readLong();
+            double rate = in.readDouble();
+            long insertions = in.readLong();
+            BloomFilter filter = new BloomFilter(numBits, numHashes, expected, rate, insertions);
+            for (int i = 0; i < filter.words.length(); i++) {
+                filter.words.set(i, in.readLong());
+            }
+            return filter;
+        }
+    }
+
+    private static long firstWord(byte[] digest) {
+        return ByteBuffer.wrap(digest).getLong(0);
+    }
+
+    private static long secondWord(byte[] digest) {
+        // Force an odd stride so successive probes never collapse onto one bit
+        return ByteBuffer.wrap(digest).getLong(8) | 1L;
+    }
+}
@@ -0,0 +1,424 @@
+package com.flaute.photosono.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Read-only, memory-mapped catalog of source records with sorted secondary indexes.
+ * <p>
+ * The source log is an append-only sequence of length-prefixed records (see
+ * {@link #encodeSource}). {@link #build} scans it once and writes fixed-width index files sorted
+ * by hash, by source path and by extension, plus a date index over dated originals. Lookups are
+ * binary searches over the mapped files, so a query touches a few dozen pages regardless of the
+ * number of records and nothing is held on the heap.
+ */
+public final class CatalogIndex {
+
+    public record Source(String path, String sha256, String extension, String result, long recordedAt) {
+    }
+
+    public record Dated(String sha256, long epochSecond, String extension) {
+    }
+
+    public record Page<T>(long total, long offset, List<T> items) {
+    }
+
+    @FunctionalInterface
+    public interface DateConsumer {
+        void accept(byte[] digest, long epochSecond, String extension);
+    }
+
+    @FunctionalInterface
+    public interface DateSource {
+        void forEach(DateConsumer consumer);
+    }
+
+    static final String HASH_INDEX = "hash.idx";
+    static final String PATH_INDEX = "path.idx";
+    static final String EXTENSION_INDEX = "extension.idx";
+    static final String DATE_INDEX = "date.idx";
+
+    // Record layout relative to its offset in the log
+    private static final int RECORDED_AT = 4;
+    private static final int DIGEST = 12;
+    private static final int RESULT = 44;
+    private static final int EXTENSION_LENGTH = 45;
+    private static final int EXTENSION = 46;
+    private static final int MAX_EXTENSION = 8;
+
+    private static final int HASH_ENTRY = 40;
+    private static final int DATE_ENTRY = 48;
+
+    private final MappedFile log;
+    private final MappedFile byHash;
+    private final MappedFile byPath;
+    private final MappedFile byExtension;
+    private final MappedFile byDate;
+    private final String[] resultNames;
+
+    private CatalogIndex(MappedFile log, MappedFile byHash, MappedFile byPath, MappedFile byExtension,
+            MappedFile byDate, String[] resultNames) {
+        this.log = log;
+        this.byHash = byHash;
+        this.byPath = byPath;
+        this.byExtension = byExtension;
+        this.byDate = byDate;
+        this.resultNames = resultNames;
+    }
+
+    /**
+     * Encodes one source record for appending to the log.
+     */
+    public static byte[] encodeSource(long recordedAt, byte[] digest, int result, String extension, String path) {
+        byte[] ext = extension.getBytes(StandardCharsets.UTF_8);
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        if (ext.length > MAX_EXTENSION) {
+            ext = Arrays.copyOf(ext, MAX_EXTENSION);
+        }
+        if (pathBytes.length > MappedFile.MAX_READ - 64) {
+            throw new IllegalArgumentException("Path too long for the catalog: " + path);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(EXTENSION + ext.length + 2 + pathBytes.length);
+        buffer.putInt(buffer.capacity() - 4);
+        buffer.putLong(recordedAt);
+        buffer.put(digest);
+        buffer.put((byte) result);
+        buffer.put((byte) ext.length);
+        buffer.put(ext);
+        buffer.putShort((short) pathBytes.length);
+        buffer.put(pathBytes);
+        return buffer.array();
+    }
+
+    /**
+     * Builds all index files for {@code logFile} into {@code dir}, replacing earlier ones.
+     * Returns the log length covered, ignoring a trailing partially written record. A record that
+     * repeats the previous one for its path is indexed only once.
+     */
+    public static long build(Path logFile, DateSource dates, Path dir) throws IOException {
+        Files.createDirectories(dir);
+        long covered = 0;
+        if (Files.exists(logFile)) {
+            MappedFile log = MappedFile.open(logFile);
+            long[] offsets = new long[1024];
+            int count = 0;
+            long position = 0;
+            while (position + 4 <= log.size()) {
+                long next = position + 4 + log.getInt(position);
+                if (next > log.size()) {
+                    break;
+                }
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                offsets[count++] = position;
+                position = next;
+            }
+            covered = position;
+
+            LongSorter.sort(offsets, count, (a, b) -> {
+                int c = comparePaths(log, a, b);
+                return c != 0 ? c : Long.compare(a, b);
+            });
+            count = collapse(log, offsets, count);
+
+            long[] byHash = Arrays.copyOf(offsets, count);
+            LongSorter.sort(byHash, count, (a, b) -> {
+                int c = log.compare(a + DIGEST, 32, b + DIGEST, 32);
+                return c != 0 ? c : Long.compare(a, b);
+            });
+            byte[] digest = new byte[32];
+            writeSorted(dir.resolve(HASH_INDEX), byHash, count, (out, offset) -> {
+                log.get(offset + DIGEST, digest, 0, 32);
+                out.write(digest);
+                out.writeLong(offset);
+            });
+
+            writeSorted(dir.resolve(PATH_INDEX), offsets, count, DataOutputStream::writeLong);
+
+            // Stable sort keeps path order within each extension
+            LongSorter.sort(offsets, count, (a, b) -> log.compare(a + EXTENSION, extensionLength(log, a),
+                    b + EXTENSION, extensionLength(log, b)));
+            writeSorted(dir.resolve(EXTENSION_INDEX), offsets, count, DataOutputStream::writeLong);
+        } else {
+            for (String name : List.of(HASH_INDEX, PATH_INDEX, EXTENSION_INDEX)) {
+                writeSorted(dir.resolve(name), new long[0], 0, DataOutputStream::writeLong);
+            }
+        }
+        buildDateIndex(dates, dir);
+        return covered;
+    }
+
+    /**
+     * Maps a log and the index files previously built for it.
+     */
+    public static CatalogIndex open(Path logFile, Path dir, String[] resultNames) throws IOException {
+        if (!Files.exists(logFile)) {
+            Files.createDirectories(logFile.toAbsolutePath().getParent());
+            Files.write(logFile, new byte[0]);
+        }
+        return new CatalogIndex(MappedFile.open(logFile), MappedFile.open(dir.resolve(HASH_INDEX)),
+                MappedFile.open(dir.resolve(PATH_INDEX)), MappedFile.open(dir.resolve(EXTENSION_INDEX)),
+                MappedFile.open(dir.resolve(DATE_INDEX)), resultNames);
+    }
+
+    /**
+     * Every source file that produced this hash, in the order they were recorded.
+     */
+    public List<Source> sourcesByHash(byte[] digest) {
+        long n = byHash.size() / HASH_ENTRY;
+        long from = lowerBound(n, i -> byHash.compare(i * HASH_ENTRY, 32, digest));
+        List<Source> sources = new ArrayList<>();
+        for (long i = from; i < n && byHash.compare(i * HASH_ENTRY, 32, digest) == 0; i++) {
+            sources.add(readSource(byHash.getLong(i * HASH_ENTRY + 32)));
+        }
+        return sources;
+    }
+
+    /**
+     * Source records whose path starts with {@code prefix}, in path order.
+     */
+    public Page<Source> sourcesByPathPrefix(String prefix, long offset, int limit) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        long n = byPath.size() / 8;
+        LongUnaryOperator compare = i -> {
+            long record = byPath.getLong(i * 8);
+            return log.compare(pathPosition(log, record), Math.min(pathLength(log, record), key.length), key);
+        };
+        long from = lowerBound(n, compare);
+        long to = upperBound(n, compare);
+        return page(from, to, offset, limit, i -> readSource(byPath.getLong(i * 8)));
+    }
+
+    /**
+     * The most recent source record for exactly this path, or {@code null} if it was never recorded.
+     */
+    public Source latestByPath(String path) {
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        long n = byPath.size() / 8;
+        LongUnaryOperator compare = i -> {
+            long record = byPath.getLong(i * 8);
+            return log.compare(pathPosition(log, record), pathLength(log, record), key);
+        };
+        long to = upperBound(n, compare);
+        return to > lowerBound(n, compare) ? readSource(byPath.getLong((to - 1) * 8)) : null;
+    }
+
+    /**
+     * Source records with the given (normalized) extension, in path order.
+     */
+    public Page<Source> sourcesByExtension(String extension, long offset, int limit) {
+        byte[] key = extension.getBytes(StandardCharsets.UTF_8);
+        long n = byExtension.size() / 8;
+        LongUnaryOperator compare = i -> {
+            long record = byExtension.getLong(i * 8);
+            return log.compare(record + EXTENSION, extensionLength(log, record), key);
+        };
+        long from = lowerBound(n, compare);
+        long to = upperBound(n, compare);
+        return page(from, to, offset, limit, i -> readSource(byExtension.getLong(i * 8)));
+    }
+
+    /**
+     * Dated originals created in {@code [fromSecond, toSecond)}, oldest first.
+     */
+    public Page<Dated> originalsByDate(long fromSecond, long toSecond, long offset, int limit) {
+        long n = byDate.size() / DATE_ENTRY;
+        long from = lowerBound(n, i -> Long.compare(byDate.getLong(i * DATE_ENTRY), fromSecond));
+        long to = lowerBound(n, i -> Long.compare(byDate.getLong(i * DATE_ENTRY), toSecond));
+        return page(from, to, offset, limit, i -> {
+            long position = i * DATE_ENTRY;
+            byte[] digest = new byte[32];
+            byDate.get(position + 8, digest, 0, 32);
+            byte[] ext = new byte[MAX_EXTENSION];
+            byDate.get(position + 40, ext, 0, MAX_EXTENSION);
+            int length = 0;
+            while (length < MAX_EXTENSION && ext[length] != 0) {
+                length++;
+            }
+            return new Dated(Digests.toHex(digest), byDate.getLong(position),
+                    new String(ext, 0, length, StandardCharsets.UTF_8));
+        });
+    }
+
+    public long sourceCount() {
+        return byHash.size() / HASH_ENTRY;
+    }
+
+    public long datedCount() {
+        return byDate.size() / DATE_ENTRY;
+    }
+
+    private Source readSource(long record) {
+        byte[] digest = new byte[32];
+        log.get(record + DIGEST, digest, 0, 32);
+        int result = log.get(record + RESULT) & 0xff;
+        int extLength = extensionLength(log, record);
+        byte[] ext = new byte[extLength];
+        log.get(record + EXTENSION, ext, 0, extLength);
+        int length = pathLength(log, record);
+        byte[] path = new byte[length];
+        log.get(pathPosition(log, record), path, 0, length);
+        return new Source(new String(path, StandardCharsets.UTF_8), Digests.toHex(digest),
+                new String(ext, StandardCharsets.UTF_8),
+                result < resultNames.length ? resultNames[result] : Integer.toString(result),
+                log.getLong(record + RECORDED_AT));
+    }
+
+    @FunctionalInterface
+    private interface EntryReader<T> {
+        T read(long index);
+    }
+
+    private static <T> Page<T> page(long from, long to, long offset, int limit, EntryReader<T> reader) {
+        List<T> items = new ArrayList<>();
+        for (long i = from + Math.max(0, offset); i < to && items.size() < limit; i++) {
+            items.add(reader.read(i));
+        }
+        return new Page<>(to - from, offset, items);
+    }
+
+    /**
+     * First index whose comparison against the key is {@code >= 0}.
+     */
+    private static long lowerBound(long n, LongUnaryOperator compare) {
+        long low = 0;
+        long high = n;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (compare.applyAsLong(middle) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * First index whose comparison against the key is {@code > 0}.
+     */
+    private static long upperBound(long n, LongUnaryOperator compare) {
+        long low = 0;
+        long high = n;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (compare.applyAsLong(middle) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int extensionLength(MappedFile log, long record) {
+        return log.get(record + EXTENSION_LENGTH) & 0xff;
+    }
+
+    private static int pathLength(MappedFile log, long record) {
+        return log.getShort(record + EXTENSION + extensionLength(log, record)) & 0xffff;
+    }
+
+    private static long pathPosition(MappedFile log, long record) {
+        return record + EXTENSION + extensionLength(log, record) + 2;
+    }
+
+    /**
+     * Drops records that repeat the previous record for the same path, so rerunning over unchanged
+     * inputs does not grow the indexes. Expects {@code offsets} in path order and keeps the earliest.
+     */
+    private static int collapse(MappedFile log, long[] offsets, int count) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (kept == 0 || !sameSource(log, offsets[kept - 1], offsets[i])) {
+                offsets[kept++] = offsets[i];
+            }
+        }
+        return kept;
+    }
+
+    private static boolean sameSource(MappedFile log, long a, long b) {
+        return comparePaths(log, a, b) == 0
+                && log.compare(a + DIGEST, 32, b + DIGEST, 32) == 0
+                && log.get(a + RESULT) == log.get(b + RESULT)
+                && log.compare(a + EXTENSION, extensionLength(log, a), b + EXTENSION, extensionLength(log, b)) == 0;
+    }
+
+    private static int comparePaths(MappedFile log, long a, long b) {
+        return log.compare(pathPosition(log, a), pathLength(log, a), pathPosition(log, b), pathLength(log, b));
+    }
+
+    private static void buildDateIndex(DateSource dates, Path dir) throws IOException {
+        Path unsorted = Files.createTempFile(dir, DATE_INDEX, ".unsorted");
+        try {
+            long[] count = { 0 };
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(unsorted), 1 << 16))) {
+                IOException[] failure = new IOException[1];
+                dates.forEach((digest, second, extension) -> {
+                    if (failure[0] != null) {
+                        return;
+                    }
+                    try {
+                        out.writeLong(second);
+                        out.write(digest);
+                        out.write(Arrays.copyOf(extension.getBytes(StandardCharsets.UTF_8), MAX_EXTENSION));
+                        count[0]++;
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+            }
+
+            MappedFile entries = MappedFile.open(unsorted);
+            long[] offsets = new long[Math.toIntExact(count[0])];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = (long) i * DATE_ENTRY;
+            }
+            LongSorter.sort(offsets, offsets.length, (a, b) -> {
+                int c = Long.compare(entries.getLong(a), entries.getLong(b));
+                return c != 0 ? c : entries.compare(a + 8, 32, b + 8, 32);
+            });
+            byte[] entry = new byte[DATE_ENTRY];
+            writeSorted(dir.resolve(DATE_INDEX), offsets, offsets.length, (out, offset) -> {
+                entries.get(offset, entry, 0, DATE_ENTRY);
+                out.write(entry);
+            });
+        } finally {
+            Files.deleteIfExists(unsorted);
+        }
+    }
+
+    @FunctionalInterface
+    private interface EntryWriter {
+        void write(DataOutputStream out, long offset) throws IOException;
+    }
+
+    private static void writeSorted(Path file, long[] offsets, int count, EntryWriter writer) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            for (int i = 0; i < count; i++) {
+                writer.write(out, offsets[i]);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
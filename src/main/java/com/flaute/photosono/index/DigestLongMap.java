@@ -0,0 +1,54 @@
+package com.flaute.photosono.index;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Concurrent map from raw 32-byte digests to a {@code long}, stored off-heap at 40 bytes per slot.
+ */
+public final class DigestLongMap extends AbstractDigestTable {
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(byte[] digest, long value);
+    }
+
+    public DigestLongMap(long expectedEntries) {
+        super(8, expectedEntries);
+    }
+
+    /**
+     * Loads a map previously written with {@link #save(Path)}.
+     */
+    public static DigestLongMap load(Path file, long expectedEntries) throws IOException {
+        DigestLongMap map = new DigestLongMap(expectedEntries);
+        map.loadFrom(file);
+        return map;
+    }
+
+    /**
+     * Returns {@code true} if the digest was not already present.
+     */
+    public boolean put(byte[] digest, long value) {
+        return putEntry(digest, value);
+    }
+
+    /**
+     * Returns {@code true} if the entry was inserted.
+     */
+    public boolean putIfAbsent(byte[] digest, long value) {
+        return putEntryIfAbsent(digest, value);
+    }
+
+    public long get(byte[] digest, long missing) {
+        return getEntry(digest, missing);
+    }
+
+    public boolean containsKey(byte[] digest) {
+        return containsEntry(digest);
+    }
+
+    public void forEach(EntryConsumer action) {
+        forEachEntry(action::accept);
+    }
+}
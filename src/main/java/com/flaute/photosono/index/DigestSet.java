@@ -0,0 +1,39 @@
+package com.flaute.photosono.index;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Concurrent set of raw 32-byte digests stored off-heap, 32 bytes per slot.
+ */
+public final class DigestSet extends AbstractDigestTable {
+
+    public DigestSet(long expectedEntries) {
+        super(0, expectedEntries);
+    }
+
+    /**
+     * Loads a set previously written with {@link #save(Path)}.
+     */
+    public static DigestSet load(Path file, long expectedEntries) throws IOException {
+        DigestSet set = new DigestSet(expectedEntries);
+        set.loadFrom(file);
+        return set;
+    }
+
+    /**
+     * Returns {@code true} if the digest was not already present.
+     */
+    public boolean add(byte[] digest) {
+        return putEntryIfAbsent(digest, 0L);
+    }
+
+    public boolean contains(byte[] digest) {
+        return containsEntry(digest);
+    }
+
+    public void forEach(Consumer<byte[]> action) {
+        forEachEntry((digest, value) -> action.accept(digest));
+    }
+}
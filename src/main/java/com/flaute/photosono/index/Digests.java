@@ -0,0 +1,40 @@
+package com.flaute.photosono.index;
+
+import java.util.HexFormat;
+
+/**
+ * Conversions between the hex digests produced by {@code HashService} and raw bytes.
+ */
+public final class Digests {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private Digests() {
+    }
+
+    /**
+     * Parses a 64-character SHA-256 hex string, returning {@code null} for anything else.
+     */
+    public static byte[] fromHex(String hex) {
+        if (hex == null || hex.length() != AbstractDigestTable.DIGEST_BYTES * 2) {
+            return null;
+        }
+        try {
+            return HEX.parseHex(hex);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the digest from a store file name such as {@code {sha256}.jpg}.
+     */
+    public static byte[] fromFileName(String fileName) {
+        int dot = fileName.indexOf('.');
+        return fromHex(dot == -1 ? fileName : fileName.substring(0, dot));
+    }
+
+    public static String toHex(byte[] digest) {
+        return HEX.formatHex(digest);
+    }
+}
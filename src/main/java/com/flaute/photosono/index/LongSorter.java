@@ -0,0 +1,54 @@
+package com.flaute.photosono.index;
+
+/**
+ * Stable merge sort of a {@code long[]} with a primitive comparator, avoiding boxing when
+ * sorting millions of record offsets by the records they point to.
+ */
+public final class LongSorter {
+
+    @FunctionalInterface
+    public interface LongComparator {
+        int compare(long a, long b);
+    }
+
+    private static final int INSERTION_THRESHOLD = 16;
+
+    private LongSorter() {
+    }
+
+    public static void sort(long[] values, int count, LongComparator comparator) {
+        long[] scratch = new long[count];
+        mergeSort(values, scratch, 0, count, comparator);
+    }
+
+    private static void mergeSort(long[] values, long[] scratch, int from, int to, LongComparator comparator) {
+        if (to - from <= INSERTION_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                long value = values[i];
+                int j = i - 1;
+                while (j >= from && comparator.compare(values[j], value) > 0) {
+                    values[j + 1] = values[j];
+                    j--;
+                }
+                values[j + 1] = value;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(values, scratch, from, middle, comparator);
+        mergeSort(values, scratch, middle, to, comparator);
+        if (comparator.compare(values[middle - 1], values[middle]) <= 0) {
+            return;
+        }
+        System.arraycopy(values, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && comparator.compare(scratch[left], scratch[right]) <= 0)) {
+                values[i] = scratch[left++];
+            } else {
+                values[i] = scratch[right++];
+            }
+        }
+    }
+}
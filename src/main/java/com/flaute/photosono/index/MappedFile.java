@@ -0,0 +1,108 @@
+package com.flaute.photosono.index;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only memory mapping of a file of any size.
+ * <p>
+ * The file is mapped in 1 GiB windows that overlap by {@link #MAX_READ} bytes, so any read of
+ * up to that length can be served from a single window without copying.
+ */
+public final class MappedFile {
+
+    public static final int MAX_READ = 128 * 1024;
+
+    private static final long WINDOW = 1L << 30;
+
+    private final MappedByteBuffer[] windows;
+    private final long size;
+
+    private MappedFile(MappedByteBuffer[] windows, long size) {
+        this.windows = windows;
+        this.size = size;
+    }
+
+    public static MappedFile open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int count = (int) Math.max(1, (size + WINDOW - 1) / WINDOW);
+            MappedByteBuffer[] windows = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = i * WINDOW;
+                long length = Math.min(size - start, WINDOW + MAX_READ);
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(0, length));
+            }
+            return new MappedFile(windows, size);
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public byte get(long position) {
+        return window(position).get(offset(position));
+    }
+
+    public short getShort(long position) {
+        return window(position).getShort(offset(position));
+    }
+
+    public int getInt(long position) {
+        return window(position).getInt(offset(position));
+    }
+
+    public long getLong(long position) {
+        return window(position).getLong(offset(position));
+    }
+
+    public void get(long position, byte[] destination, int offset, int length) {
+        window(position).get(offset(position), destination, offset, length);
+    }
+
+    /**
+     * Unsigned lexicographic comparison of two ranges of this file.
+     */
+    public int compare(long a, int aLength, long b, int bLength) {
+        int length = Math.min(aLength, bLength);
+        MappedByteBuffer aWindow = window(a);
+        MappedByteBuffer bWindow = window(b);
+        int aOffset = offset(a);
+        int bOffset = offset(b);
+        for (int i = 0; i < length; i++) {
+            int diff = (aWindow.get(aOffset + i) & 0xff) - (bWindow.get(bOffset + i) & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return Integer.compare(aLength, bLength);
+    }
+
+    /**
+     * Unsigned lexicographic comparison of a range of this file against {@code key}.
+     */
+    public int compare(long position, int length, byte[] key) {
+        MappedByteBuffer window = window(position);
+        int start = offset(position);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int diff = (window.get(start + i) & 0xff) - (key[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private MappedByteBuffer window(long position) {
+        return windows[(int) (position / WINDOW)];
+    }
+
+    private static int offset(long position) {
+        return (int) (position % WINDOW);
+    }
+}
@@ -0,0 +1,111 @@
+package com.flaute.photosono.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Groups 64-bit perceptual hashes whose Hamming distance is within a threshold.
+ * <p>
+ * Uses multi-index hashing: the hash is split into {@code maxDistance + 1} bands, and by the
+ * pigeonhole principle two hashes within the threshold agree exactly on at least one band. Each
+ * band is sorted once, and only hashes sharing a band value are compared, so the work is close to
+ * linear for well-spread hashes instead of all-pairs. Memory is a few primitive arrays of the input
+ * size; no per-entry objects are allocated.
+ */
+public final class NearDuplicateIndex {
+
+    /**
+     * Buckets larger than this (e.g. many blank frames) are compared within a sliding window only.
+     */
+    static final int MAX_BUCKET_COMPARISONS = 2048;
+
+    private NearDuplicateIndex() {
+    }
+
+    /**
+     * Returns clusters of indexes into {@code hashes} whose members are transitively within
+     * {@code maxDistance} bits of each other. Singletons are omitted.
+     */
+    public static List<int[]> findClusters(long[] hashes, int count, int maxDistance) {
+        if (maxDistance < 1 || maxDistance > 15) {
+            throw new IllegalArgumentException("Max distance must be between 1 and 15: " + maxDistance);
+        }
+        int[] parent = new int[count];
+        for (int i = 0; i < count; i++) {
+            parent[i] = i;
+        }
+
+        int bands = maxDistance + 1;
+        long[] keys = new long[count];
+        int start = 0;
+        for (int band = 0; band < bands; band++) {
+            int width = 64 / bands + (band < 64 % bands ? 1 : 0);
+            long mask = (1L << width) - 1;
+            for (int i = 0; i < count; i++) {
+                keys[i] = (((hashes[i] >>> start) & mask) << 32) | i;
+            }
+            Arrays.sort(keys, 0, count);
+            compareBuckets(hashes, keys, count, maxDistance, parent);
+            start += width;
+        }
+
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            sizes[find(parent, i)]++;
+        }
+        int[][] members = new int[count][];
+        int[] filled = new int[count];
+        List<int[]> clusters = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int root = find(parent, i);
+            if (sizes[root] < 2) {
+                continue;
+            }
+            if (members[root] == null) {
+                members[root] = new int[sizes[root]];
+                clusters.add(members[root]);
+            }
+            members[root][filled[root]++] = i;
+        }
+        return clusters;
+    }
+
+    private static void compareBuckets(long[] hashes, long[] keys, int count, int maxDistance, int[] parent) {
+        int bucketStart = 0;
+        while (bucketStart < count) {
+            long band = keys[bucketStart] >>> 32;
+            int bucketEnd = bucketStart + 1;
+            while (bucketEnd < count && (keys[bucketEnd] >>> 32) == band) {
+                bucketEnd++;
+            }
+            for (int a = bucketStart; a < bucketEnd; a++) {
+                int i = (int) keys[a];
+                int limit = Math.min(bucketEnd, a + 1 + MAX_BUCKET_COMPARISONS);
+                for (int b = a + 1; b < limit; b++) {
+                    int j = (int) keys[b];
+                    if (Long.bitCount(hashes[i] ^ hashes[j]) <= maxDistance) {
+                        union(parent, i, j);
+                    }
+                }
+            }
+            bucketStart = bucketEnd;
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) {
+            parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+}
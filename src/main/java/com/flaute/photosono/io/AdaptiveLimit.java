@@ -0,0 +1,145 @@
+package com.flaute.photosono.io;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A concurrency limit that follows what the hardware can take, in the manner of TCP congestion
+ * control: additive increase, multiplicative decrease.
+ * <p>
+ * Completed files are collected in windows of at least {@code windowMillis}. After each window
+ * the files per second, bytes per second and mean per-file latency are compared with the
+ * previous window and with a slow-moving latency baseline. Latency that climbs above the
+ * baseline without a matching gain in throughput means work is queueing on the device, so the
+ * limit is cut by a quarter; so is a drop in both rates. Otherwise the limit grows by one to
+ * probe for more. Until the first cut the limit doubles instead, so a fast device is found in a
+ * few windows.
+ * <p>
+ * Windows also need as many completions as the current limit, so a few slow files cannot decide
+ * for all of them. Methods are thread-safe.
+ */
+public final class AdaptiveLimit {
+
+    /**
+     * The current limit, the range it moved in, and how often it was raised and cut.
+     */
+    public record Stats(int limit, int lowest, int highest, long increases, long decreases) {
+    }
+
+    // Relative changes smaller than this are noise
+    private static final double TOLERANCE = 0.1;
+    // Latency may rise this far above the baseline before it counts as queueing
+    private static final double QUEUEING = 1.5;
+    private static final double BACKOFF = 0.75;
+    private static final double BASELINE_WEIGHT = 0.1;
+    private static final int MIN_SAMPLES = 4;
+
+    private final int min;
+    private final int max;
+    private final long windowNanos;
+    private final LongSupplier clock;
+
+    // Guarded by this
+    private int limit;
+    private boolean slowStart = true;
+    private long windowStart;
+    private int files;
+    private long bytes;
+    private long latencyNanos;
+    private double lastFilesPerSecond;
+    private double lastBytesPerSecond;
+    private double baselineLatency;
+    private int lowest;
+    private int highest;
+    private long increases;
+    private long decreases;
+
+    public AdaptiveLimit(int min, int max, long windowMillis) {
+        this(min, max, windowMillis, System::nanoTime);
+    }
+
+    AdaptiveLimit(int min, int max, long windowMillis, LongSupplier clock) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("Invalid concurrency range " + min + "-" + max);
+        }
+        this.min = min;
+        this.max = max;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMillis));
+        this.clock = clock;
+        this.limit = min;
+        this.lowest = min;
+        this.highest = min;
+        this.windowStart = clock.getAsLong();
+    }
+
+    public synchronized int limit() {
+        return limit;
+    }
+
+    /**
+     * Books one finished file. Returns {@code true} if this closed a window and the limit changed.
+     */
+    public synchronized boolean record(long latencyNanos, long bytes) {
+        this.files++;
+        this.bytes += bytes;
+        this.latencyNanos += latencyNanos;
+        long now = clock.getAsLong();
+        long elapsed = now - windowStart;
+        if (elapsed < windowNanos || files < Math.max(MIN_SAMPLES, limit)) {
+            return false;
+        }
+
+        double seconds = elapsed / 1e9;
+        double filesPerSecond = files / seconds;
+        double bytesPerSecond = this.bytes / seconds;
+        double latency = (double) this.latencyNanos / files;
+        int previous = limit;
+        if (baselineLatency == 0) {
+            increase();
+            baselineLatency = latency;
+        } else {
+            boolean faster = filesPerSecond > lastFilesPerSecond * (1 + TOLERANCE)
+                    || bytesPerSecond > lastBytesPerSecond * (1 + TOLERANCE);
+            boolean slower = filesPerSecond < lastFilesPerSecond * (1 - TOLERANCE)
+                    && bytesPerSecond < lastBytesPerSecond * (1 - TOLERANCE);
+            boolean queueing = latency > baselineLatency * QUEUEING;
+            if (slower || (queueing && !faster)) {
+                decrease();
+            } else {
+                increase();
+            }
+            baselineLatency += (latency - baselineLatency) * BASELINE_WEIGHT;
+        }
+
+        lastFilesPerSecond = filesPerSecond;
+        lastBytesPerSecond = bytesPerSecond;
+        windowStart = now;
+        files = 0;
+        this.bytes = 0;
+        this.latencyNanos = 0;
+        return limit != previous;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(limit, lowest, highest, increases, decreases);
+    }
+
+    private void increase() {
+        int raised = Math.min(max, slowStart ? limit * 2 : limit + 1);
+        if (raised > limit) {
+            limit = raised;
+            highest = Math.max(highest, limit);
+            increases++;
+        }
+    }
+
+    private void decrease() {
+        slowStart = false;
+        int cut = Math.max(min, Math.min(limit - 1, (int) (limit * BACKOFF)));
+        if (cut < limit) {
+            limit = cut;
+            lowest = Math.min(lowest, limit);
+            decreases++;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.flaute.photosono.io;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Hands the regular file entries of ZIP, TAR and gzip-compressed TAR archives to a handler, one
+ * at a time and without unpacking the archive anywhere.
+ * <p>
+ * ZIP files are read through their central directory, which also covers the ZIP64 and data
+ * descriptor variants that large exports use. TAR files are read as a single stream; ustar,
+ * GNU long names and pax {@code path}/{@code size} records are understood. Directories, links
+ * and device entries are skipped.
+ */
+public final class ArchiveReader {
+
+    /**
+     * Receives one entry. {@code content} is only valid during the call and need not be read to
+     * the end.
+     */
+    @FunctionalInterface
+    public interface EntryHandler {
+        void entry(String name, InputStream content) throws IOException;
+    }
+
+    private static final int BLOCK = 512;
+    private static final int STREAM_BUFFER = 1 << 16;
+
+    private ArchiveReader() {
+    }
+
+    public static boolean isArchive(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        return name.endsWith(".zip") || name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tgz");
+    }
+
+    /**
+     * Returns the number of entries handed to {@code handler}.
+     */
+    public static int read(Path archive, EntryHandler handler) throws IOException {
+        String name = archive.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".zip")) {
+            return readZip(archive, handler);
+        }
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(archive), STREAM_BUFFER)) {
+            InputStream in = name.endsWith(".tar") ? raw : new GZIPInputStream(raw, STREAM_BUFFER);
+            return readTar(in, handler);
+        }
+    }
+
+    private static int readZip(Path archive, EntryHandler handler) throws IOException {
+        int count = 0;
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                try (InputStream content = zip.getInputStream(entry)) {
+                    handler.entry(entry.getName(), content);
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int readTar(InputStream in, EntryHandler handler) throws IOException {
+        byte[] header = new byte[BLOCK];
+        String longName = null;
+        String paxPath = null;
+        long paxSize = -1;
+        int count = 0;
+        while (true) {
+            if (!readBlock(in, header)) {
+                return count;
+            }
+            if (isZero(header)) {
+                // End of archive: two zero blocks, though some writers stop after one
+                return count;
+            }
+            byte type = header[156];
+            long size = paxSize >= 0 ? paxSize : number(header, 124, 12);
+            String name = paxPath != null ? paxPath : longName != null ? longName : name(header);
+            long padded = (size + BLOCK - 1) / BLOCK * BLOCK;
+            switch (type) {
+                case 'L' -> {
+                    longName = trimNul(new String(readFully(in, size), StandardCharsets.UTF_8));
+                    skip(in, padded - size);
+                    continue;
+                }
+                case 'x' -> {
+                    byte[] records = readFully(in, size);
+                    skip(in, padded - size);
+                    paxPath = paxValue(records, "path");
+                    String paxLength = paxValue(records, "size");
+                    paxSize = paxLength != null ? Long.parseLong(paxLength) : -1;
+                    continue;
+                }
+                case '0', 0, '7' -> {
+                    BoundedInputStream content = new BoundedInputStream(in, size);
+                    handler.entry(name, content);
+                    skip(in, content.remaining + padded - size);
+                    count++;
+                }
+                default -> skip(in, padded);
+            }
+            longName = null;
+            paxPath = null;
+            paxSize = -1;
+        }
+    }
+
+    private static String name(byte[] header) {
+        String name = string(header, 0, 100);
+        boolean ustar = new String(header, 257, 5, StandardCharsets.US_ASCII).equals("ustar");
+        String prefix = ustar ? string(header, 345, 155) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    /**
+     * Octal, or base-256 when the high bit of the first byte is set (GNU, for files of 8 GiB and
+     * more).
+     */
+    private static long number(byte[] header, int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7f;
+            for (int i = 1; i < length; i++) {
+                value = (value << 8) | (header[offset + i] & 0xff);
+            }
+            return value;
+        }
+        String digits = string(header, offset, length).trim();
+        try {
+            return digits.isEmpty() ? 0 : Long.parseLong(digits, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt tar header: size " + digits);
+        }
+    }
+
+    private static String paxValue(byte[] records, String key) throws IOException {
+        // Records are "<length> <key>=<value>\n", the length in bytes and counting itself
+        int position = 0;
+        while (position < records.length) {
+            int space = position;
+            while (space < records.length && records[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(records, position, space - position, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw new IOException("Corrupt pax header");
+            }
+            if (space >= records.length || length <= space - position + 1 || position + length > records.length) {
+                throw new IOException("Corrupt pax header");
+            }
+            String record = new String(records, space + 1, position + length - space - 2, StandardCharsets.UTF_8);
+            if (record.startsWith(key + "=")) {
+                return record.substring(key.length() + 1);
+            }
+            position += length;
+        }
+        return null;
+    }
+
+    private static String string(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static String trimNul(String value) {
+        int nul = value.indexOf('\0');
+        return nul < 0 ? value : value.substring(0, nul);
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int read = in.readNBytes(block, 0, BLOCK);
+        if (read == 0) {
+            return false;
+        }
+        if (read < BLOCK) {
+            throw new EOFException("Truncated tar header");
+        }
+        return true;
+    }
+
+    private static byte[] readFully(InputStream in, long size) throws IOException {
+        if (size > Integer.MAX_VALUE - BLOCK) {
+            throw new IOException("Tar header record too large: " + size);
+        }
+        byte[] data = in.readNBytes((int) size);
+        if (data.length < size) {
+            throw new EOFException("Truncated tar header record");
+        }
+        return data;
+    }
+
+    private static void skip(InputStream in, long bytes) throws IOException {
+        in.skipNBytes(bytes);
+    }
+
+    /**
+     * One entry's content: reads stop at its end and closing leaves the archive stream open.
+     */
+    private static final class BoundedInputStream extends FilterInputStream {
+        long remaining;
+
+        BoundedInputStream(InputStream in, long size) {
+            super(in);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+            // The archive stream belongs to the reader
+        }
+    }
+}
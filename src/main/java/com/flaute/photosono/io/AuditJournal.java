@@ -0,0 +1,287 @@
+package com.flaute.photosono.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Append-only binary journal of per-file actions, written by a background thread.
+ * <p>
+ * Producers only enqueue an {@link Entry}; a single writer thread drains the queue in batches,
+ * encodes them into one buffer and appends it with a single write, so journaling costs neither
+ * string formatting nor a synchronous I/O call per file. When the queue is full producers block,
+ * which keeps the journal complete at the price of briefly throttling the pipeline.
+ * <p>
+ * Each record is {@code int length | long timestamp | long durationMicros | short+bytes action |
+ * byte hasDigest | [32 digest] | short+bytes result | short+bytes source | short+bytes target},
+ * following a {@code PSAJ} file header. Opening an existing journal first cuts off a record left
+ * half-written by a crash, so the records of the next session start where a reader expects them.
+ */
+public final class AuditJournal implements AutoCloseable {
+
+    private static final int FILE_MAGIC = 0x5053414a; // "PSAJ"
+    private static final int MAX_BATCH = 4096;
+    private static final int DIGEST_BYTES = 32;
+    // Timestamp, duration, the digest flag and four empty string lengths
+    private static final int MIN_RECORD = 8 + 8 + 1 + 4 * 2;
+
+    /**
+     * One journaled action. {@code sha256} and {@code target} may be {@code null}.
+     */
+    public record Entry(long timestamp, String action, String result, long durationMicros, String sha256,
+            String source, String target) {
+    }
+
+    private static final Entry CLOSE = new Entry(0, "", "", 0, null, "", null);
+
+    private final Path file;
+    private final BlockingQueue<Entry> queue;
+    private final FileChannel channel;
+    private final Thread writer;
+    private volatile IOException failure;
+
+    private AuditJournal(Path file, int queueCapacity) throws IOException {
+        this.file = file;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        // A file shorter than the header is one whose creation was cut short
+        long end = Files.exists(file) && Files.size(file) >= 4 ? scan(file, null) : 0;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(end);
+        channel.position(end);
+        if (end == 0) {
+            writeFully(ByteBuffer.allocate(4).putInt(FILE_MAGIC).flip());
+        }
+        this.writer = Thread.ofPlatform().name("audit-journal").daemon().start(this::drain);
+    }
+
+    /**
+     * Opens {@code file} for appending, creating it if needed, and starts the writer thread. An
+     * incomplete last record is truncated away first.
+     */
+    public static AuditJournal open(Path file, int queueCapacity) throws IOException {
+        return new AuditJournal(file, queueCapacity);
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * Queues an entry, blocking while the queue is full.
+     */
+    public void append(Entry entry) {
+        if (!writer.isAlive()) {
+            return;
+        }
+        try {
+            queue.put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes everything queued so far and stops the writer thread.
+     */
+    @Override
+    public void close() throws IOException {
+        if (writer.isAlive()) {
+            append(CLOSE);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        channel.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void drain() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                boolean closing = false;
+                buffer.clear();
+                for (Entry entry : batch) {
+                    if (entry == CLOSE) {
+                        closing = true;
+                        continue;
+                    }
+                    byte[] record = encode(entry);
+                    if (record.length > buffer.remaining()) {
+                        writeFully(buffer.flip());
+                        buffer.clear();
+                    }
+                    if (record.length > buffer.capacity()) {
+                        writeFully(ByteBuffer.wrap(record));
+                    } else {
+                        buffer.put(record);
+                    }
+                }
+                writeFully(buffer.flip());
+                batch.clear();
+                if (closing) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            queue.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static byte[] encode(Entry entry) {
+        byte[] digest = parseDigest(entry.sha256());
+        byte[] result = utf8(entry.result());
+        byte[] action = utf8(entry.action());
+        byte[] source = utf8(entry.source());
+        byte[] target = utf8(entry.target());
+        int length = 8 + 8 + 2 + action.length + 1 + (digest != null ? DIGEST_BYTES : 0) + 2 + result.length
+                + 2 + source.length + 2 + target.length;
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length);
+        buffer.putLong(entry.timestamp());
+        buffer.putLong(entry.durationMicros());
+        putString(buffer, action);
+        buffer.put((byte) (digest != null ? 1 : 0));
+        if (digest != null) {
+            buffer.put(digest);
+        }
+        putString(buffer, result);
+        putString(buffer, source);
+        putString(buffer, target);
+        return buffer.array();
+    }
+
+    /**
+     * Reads every complete entry of a journal file in order. A trailing partially written
+     * record, as left by a crash, is ignored.
+     */
+    public static void read(Path file, Consumer<Entry> consumer) throws IOException {
+        scan(file, consumer);
+    }
+
+    /**
+     * Passes each complete record to {@code consumer}, if given, and returns the offset just past
+     * the last one.
+     */
+    private static long scan(Path file, Consumer<Entry> consumer) throws IOException {
+        long size = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (readIntOrEof(in) != FILE_MAGIC) {
+                throw new IOException("Not an audit journal: " + file);
+            }
+            long end = 4;
+            while (true) {
+                int length = readIntOrEof(in);
+                if (length < MIN_RECORD || length > size - end - 4) {
+                    return end;
+                }
+                byte[] record = new byte[length];
+                try {
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    return end;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                Entry entry;
+                try {
+                    entry = decode(buffer);
+                } catch (BufferUnderflowException e) {
+                    return end;
+                }
+                if (buffer.hasRemaining()) {
+                    return end;
+                }
+                if (consumer != null) {
+                    consumer.accept(entry);
+                }
+                end += 4 + length;
+            }
+        }
+    }
+
+    private static Entry decode(ByteBuffer buffer) {
+        long timestamp = buffer.getLong();
+        long durationMicros = buffer.getLong();
+        String action = getString(buffer);
+        String sha256 = null;
+        if (buffer.get() != 0) {
+            byte[] digest = new byte[DIGEST_BYTES];
+            buffer.get(digest);
+            sha256 = HexFormat.of().formatHex(digest);
+        }
+        String result = getString(buffer);
+        String source = getString(buffer);
+        String target = getString(buffer);
+        return new Entry(timestamp, action, result, durationMicros, sha256, source,
+                target.isEmpty() ? null : target);
+    }
+
+    private static int readIntOrEof(InputStream in) throws IOException {
+        byte[] bytes = in.readNBytes(4);
+        return bytes.length < 4 ? -1 : ByteBuffer.wrap(bytes).getInt();
+    }
+
+    private static byte[] parseDigest(String sha256) {
+        if (sha256 == null || sha256.length() != DIGEST_BYTES * 2) {
+            return null;
+        }
+        try {
+            return HexFormat.of().parseHex(sha256);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        if (value == null) {
+            return new byte[0];
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        // Paths never get close; truncating beats losing the record
+        return bytes.length > 0xffff ? Arrays.copyOf(bytes, 0xffff) : bytes;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,103 @@
+package com.flaute.photosono.io;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A bounded set of reusable direct buffers of one size, aligned for {@code O_DIRECT}.
+ * <p>
+ * Buffers are allocated on first demand up to {@code capacity} and then handed round, so a long
+ * run settles on a fixed amount of off-heap memory instead of allocating per file. Once all are
+ * out, callers wait for one to come back. Callers that need several buffers at once take them in
+ * one call, so two of them can never each hold half of what they need.
+ */
+public final class BufferPool {
+
+    public static final int ALIGNMENT = 4096;
+
+    /**
+     * Buffers handed out, how many of them were reused rather than allocated, and how often and
+     * how long callers waited for one.
+     */
+    public record Stats(long acquired, long hits, int allocated, long waits, long waitNanos) {
+    }
+
+    private final int bufferSize;
+    private final int capacity;
+    private final Deque<ByteBuffer> free = new ArrayDeque<>();
+
+    // Guarded by this
+    private int allocated;
+    private long acquired;
+    private long hits;
+    private long waits;
+    private long waitNanos;
+
+    public BufferPool(int bufferSize, int capacity) {
+        if (bufferSize < ALIGNMENT || capacity < 1) {
+            throw new IllegalArgumentException("Invalid buffer pool of " + capacity + " x " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    public ByteBuffer acquire() throws InterruptedIOException {
+        return acquire(1)[0];
+    }
+
+    /**
+     * Takes {@code count} cleared buffers, waiting until that many are free.
+     */
+    public synchronized ByteBuffer[] acquire(int count) throws InterruptedIOException {
+        if (count > capacity) {
+            throw new IllegalArgumentException("Only " + capacity + " buffers in the pool, " + count + " requested");
+        }
+        if (free.size() + capacity - allocated < count) {
+            waits++;
+            long start = System.nanoTime();
+            try {
+                while (free.size() + capacity - allocated < count) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a buffer");
+            } finally {
+                waitNanos += System.nanoTime() - start;
+            }
+        }
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            ByteBuffer buffer = free.poll();
+            if (buffer != null) {
+                hits++;
+            } else {
+                buffer = ByteBuffer.allocateDirect(bufferSize + ALIGNMENT).alignedSlice(ALIGNMENT).limit(bufferSize)
+                        .slice();
+                allocated++;
+            }
+            buffers[i] = buffer;
+        }
+        acquired += count;
+        return buffers;
+    }
+
+    public synchronized void release(ByteBuffer... buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer != null) {
+                free.push(buffer.clear());
+            }
+        }
+        notifyAll();
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(acquired, hits, allocated, waits, waitNanos);
+    }
+}
@@ -0,0 +1,66 @@
+package com.flaute.photosono.io;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting throughput in bytes per second, shared by any number of threads.
+ * <p>
+ * Callers reserve bytes before reading them; the reservation is granted immediately and the
+ * caller sleeps until the bucket has refilled enough to cover it. Up to one second of unused
+ * budget may be spent as a burst after an idle period. A rate of zero or less means unlimited.
+ */
+public final class ByteRateLimiter {
+
+    public static final ByteRateLimiter UNLIMITED = new ByteRateLimiter(0);
+
+    private static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private volatile long bytesPerSecond;
+    private long nextFreeNanos = System.nanoTime();
+
+    public ByteRateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Blocks until {@code bytes} may be transferred. Returns the nanoseconds spent waiting.
+     */
+    public long acquire(long bytes) {
+        long wait = reserve(bytes);
+        if (wait <= 0) {
+            return 0;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return wait;
+    }
+
+    /**
+     * Books {@code bytes} against the bucket without waiting; returns how long the caller should
+     * sleep before using them (zero or less means straight away).
+     */
+    synchronized long reserve(long bytes) {
+        long rate = bytesPerSecond;
+        if (rate <= 0 || bytes <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        if (nextFreeNanos < now - BURST_NANOS) {
+            nextFreeNanos = now - BURST_NANOS;
+        }
+        long wait = nextFreeNanos - now;
+        nextFreeNanos += (long) (bytes * 1_000_000_000.0 / rate);
+        return wait;
+    }
+}
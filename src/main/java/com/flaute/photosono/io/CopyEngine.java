@@ -0,0 +1,267 @@
+package com.flaute.photosono.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Copies files through large buffers, reading the next chunk while the previous one is still
+ * being written.
+ * <p>
+ * Files of at least {@code directThreshold} bytes can be copied with {@code O_DIRECT}, which
+ * keeps a bulk import from evicting everything else from the page cache. Direct transfers need
+ * block-aligned buffers, offsets and lengths, so the unaligned tail of a file is written through
+ * a regular channel afterwards. Where the file system or the JDK refuses {@code O_DIRECT} the copy
+ * silently falls back to buffered I/O. Buffered copies are flushed every {@code syncBytes} so dirty pages
+ * are written back steadily rather than in one large stall.
+ * <p>
+ * The target is created exclusively and removed again if the copy fails, like {@link Files#copy}.
+ * Each chunk read and each chunk written is charged to the {@link IoGovernor}. Given a
+ * {@link BufferPool}, both buffers of a copy are taken from it and returned afterwards instead of
+ * being allocated per file.
+ */
+public class CopyEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(CopyEngine.class);
+
+    private static final int DEFAULT_ALIGNMENT = 4096;
+    // JDK-specific, so looked up by name rather than compiled against; null where it is missing
+    private static final OpenOption DIRECT = directOption();
+
+    private final int bufferSize;
+    private final boolean directIo;
+    private final long directThreshold;
+    private final long syncBytes;
+    private final IoGovernor governor;
+    private final BufferPool pool;
+
+    public CopyEngine(int bufferSize, boolean directIo, long directThreshold, long syncBytes) {
+        this(bufferSize, directIo, directThreshold, syncBytes, IoGovernor.UNLIMITED);
+    }
+
+    public CopyEngine(int bufferSize, boolean directIo, long directThreshold, long syncBytes, IoGovernor governor) {
+        this(bufferSize, directIo, directThreshold, syncBytes, governor, null);
+    }
+
+    /**
+     * Copies through buffers of the pool's size, taken from the pool.
+     */
+    public CopyEngine(BufferPool pool, boolean directIo, long directThreshold, long syncBytes, IoGovernor governor) {
+        this(pool.bufferSize(), directIo, directThreshold, syncBytes, governor, pool);
+    }
+
+    private CopyEngine(int bufferSize, boolean directIo, long directThreshold, long syncBytes, IoGovernor governor,
+            BufferPool pool) {
+        if (bufferSize < DEFAULT_ALIGNMENT) {
+            throw new IllegalArgumentException(
+                    "Buffer size must be at least " + DEFAULT_ALIGNMENT + ": " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        this.directIo = directIo;
+        this.directThreshold = directThreshold;
+        this.syncBytes = syncBytes;
+        this.governor = governor;
+        this.pool = pool;
+    }
+
+    /**
+     * Buffered copies with the given buffer size and no periodic flushing.
+     */
+    public static CopyEngine buffered(int bufferSize) {
+        return new CopyEngine(bufferSize, false, Long.MAX_VALUE, 0);
+    }
+
+    /**
+     * Returns {@code true} if this JDK offers {@code O_DIRECT}; the file system may still refuse it.
+     */
+    static boolean isDirectIoAvailable() {
+        return DIRECT != null;
+    }
+
+    /**
+     * Copies {@code source} to {@code target}, which must not exist. Returns the bytes copied.
+     */
+    public long copy(Path source, Path target) throws IOException {
+        long size = Files.size(source);
+        if (directIo && DIRECT != null && size >= directThreshold) {
+            try {
+                return transfer(source, target, size, true);
+            } catch (FileAlreadyExistsException e) {
+                throw e;
+            } catch (IOException | UnsupportedOperationException e) {
+                logger.debug("Direct I/O copy of {} failed ({}), retrying buffered", source, e.getMessage());
+            }
+        }
+        return transfer(source, target, size, false);
+    }
+
+    private long transfer(Path source, Path target, long size, boolean direct) throws IOException {
+        int alignment = direct ? alignment(source, target) : 1;
+        // Small files get a buffer of their own size (one spare block so the end is seen in one read)
+        long fitted = (size / alignment + 1) * alignment;
+        int chunk = (int) Math.min(bufferSize / alignment * alignment, fitted);
+        // Pooled buffers are aligned for any block size that divides the pool's alignment
+        boolean pooled = pool != null && BufferPool.ALIGNMENT % alignment == 0;
+        ByteBuffer[] buffers = pooled ? pool.acquire(2) : new ByteBuffer[] { allocate(chunk, alignment), null };
+
+        boolean created = false;
+        try (FileChannel in = FileChannel.open(source, options(direct, StandardOpenOption.READ))) {
+            // Claim the name first: a refused O_DIRECT open must not leave a file behind unnoticed
+            Files.newByteChannel(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE).close();
+            created = true;
+            long position = 0;
+            ByteBuffer tail = null;
+            try (AsynchronousFileChannel out = AsynchronousFileChannel.open(target,
+                    options(direct, StandardOpenOption.WRITE))) {
+                CompletableFuture<Void> pending = CompletableFuture.completedFuture(null);
+                long unsynced = 0;
+                for (int current = 0;; current ^= 1) {
+                    if (buffers[current] == null) {
+                        buffers[current] = allocate(chunk, alignment);
+                    }
+                    ByteBuffer buffer = buffers[current];
+                    buffer.clear().limit(chunk);
+                    int read = readFully(in, buffer, alignment);
+                    await(pending);
+                    if (read <= 0) {
+                        break;
+                    }
+                    governor.acquire(read);
+                    buffer.flip();
+                    if (direct && read % alignment != 0) {
+                        tail = buffer;
+                        break;
+                    }
+                    governor.acquire(read);
+                    pending = writeFully(out, buffer, position);
+                    position += read;
+                    unsynced += read;
+                    if (!direct && syncBytes > 0 && unsynced >= syncBytes) {
+                        await(pending);
+                        out.force(false);
+                        unsynced = 0;
+                    }
+                }
+            }
+            if (tail != null) {
+                governor.acquire(tail.remaining());
+                try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE)) {
+                    while (tail.hasRemaining()) {
+                        position += out.write(tail, position);
+                    }
+                }
+            }
+            return position;
+        } catch (IOException | RuntimeException e) {
+            if (created) {
+                Files.deleteIfExists(target);
+            }
+            throw e;
+        } finally {
+            if (pooled) {
+                pool.release(buffers);
+            }
+        }
+    }
+
+    private static OpenOption[] options(boolean direct, OpenOption mode) {
+        return direct ? new OpenOption[] { mode, DIRECT } : new OpenOption[] { mode };
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static OpenOption directOption() {
+        try {
+            Class<? extends Enum> options = Class.forName("com.sun.nio.file.ExtendedOpenOption").asSubclass(Enum.class);
+            return (OpenOption) Enum.valueOf(options, "DIRECT");
+        } catch (ReflectiveOperationException | IllegalArgumentException | ClassCastException e) {
+            logger.debug("Direct I/O is not available in this JDK: {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Fills {@code buffer} unless the end of the file comes first; returns the bytes read or -1.
+     * A read ending off the alignment can only be the end of the file, and reading on from there
+     * would be refused under direct I/O.
+     */
+    private static int readFully(FileChannel in, ByteBuffer buffer, int alignment) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer);
+            if (read < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += read;
+            if (total % alignment != 0) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    private static CompletableFuture<Void> writeFully(AsynchronousFileChannel out, ByteBuffer buffer, long position) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        out.write(buffer, position, position, new CompletionHandler<Integer, Long>() {
+            @Override
+            public void completed(Integer written, Long at) {
+                if (buffer.hasRemaining()) {
+                    out.write(buffer, at + written, at + written, this);
+                } else {
+                    done.complete(null);
+                }
+            }
+
+            @Override
+            public void failed(Throwable error, Long at) {
+                done.completeExceptionally(error);
+            }
+        });
+        return done;
+    }
+
+    private static void await(CompletableFuture<Void> write) throws IOException {
+        try {
+            write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while copying", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static int alignment(Path source, Path target) {
+        return Math.max(blockSize(source), blockSize(target.toAbsolutePath().getParent()));
+    }
+
+    private static int blockSize(Path path) {
+        try {
+            long size = Files.getFileStore(path).getBlockSize();
+            return size > 0 && size <= 1 << 20 ? (int) size : DEFAULT_ALIGNMENT;
+        } catch (IOException | UnsupportedOperationException e) {
+            return DEFAULT_ALIGNMENT;
+        }
+    }
+
+    private static ByteBuffer allocate(int size, int alignment) {
+        if (alignment <= 1) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        return ByteBuffer.allocateDirect(size + alignment).alignedSlice(alignment).limit(size).slice();
+    }
+}
@@ -0,0 +1,176 @@
+package com.flaute.photosono.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts more records than fit in memory: records are collected until their estimated heap size
+ * reaches {@code memoryBytes}, then sorted and spilled to a run file in {@code dir}. Reading the
+ * result merges up to {@value #FAN_IN} runs at a time, in several passes if needed, so heap use
+ * stays fixed however many records were added.
+ * <p>
+ * {@link #add} may be called from several threads. Run files are deleted on {@link #close()}.
+ */
+public final class ExternalSorter<T> implements Closeable {
+
+    /**
+     * Writes and reads one record, and estimates what it costs on the heap while buffered.
+     */
+    public interface Codec<T> {
+        void write(DataOutput out, T record) throws IOException;
+
+        T read(DataInput in) throws IOException;
+
+        long heapSize(T record);
+    }
+
+    @FunctionalInterface
+    public interface RecordConsumer<T> {
+        void accept(T record) throws IOException;
+    }
+
+    private static final int FAN_IN = 64;
+    private static final int STREAM_BUFFER = 1 << 16;
+
+    private record Run(Path file, long count) {
+    }
+
+    private final Path dir;
+    private final Comparator<? super T> order;
+    private final Codec<T> codec;
+    private final long memoryBytes;
+
+    // Guarded by this
+    private final List<T> buffer = new ArrayList<>();
+    private long bufferedBytes;
+    private final List<Run> runs = new ArrayList<>();
+    private long count;
+    private int nextRun;
+
+    public ExternalSorter(Path dir, Comparator<? super T> order, Codec<T> codec, long memoryBytes) {
+        this.dir = dir;
+        this.order = order;
+        this.codec = codec;
+        this.memoryBytes = memoryBytes;
+    }
+
+    public synchronized void add(T record) throws IOException {
+        buffer.add(record);
+        bufferedBytes += codec.heapSize(record);
+        count++;
+        if (bufferedBytes >= memoryBytes) {
+            spill();
+        }
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    /**
+     * Hands every record added so far to {@code consumer} in order.
+     */
+    public synchronized void forEachSorted(RecordConsumer<? super T> consumer) throws IOException {
+        if (runs.isEmpty()) {
+            buffer.sort(order);
+            for (T record : buffer) {
+                consumer.accept(record);
+            }
+            return;
+        }
+        spill();
+        while (runs.size() > FAN_IN) {
+            List<Run> batch = new ArrayList<>(runs.subList(0, FAN_IN));
+            runs.subList(0, FAN_IN).clear();
+            Path file = nextRunFile();
+            try (DataOutputStream out = output(file)) {
+                merge(batch, record -> codec.write(out, record));
+            }
+            runs.add(new Run(file, batch.stream().mapToLong(Run::count).sum()));
+            for (Run run : batch) {
+                Files.deleteIfExists(run.file());
+            }
+        }
+        merge(runs, consumer);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Run run : runs) {
+            Files.deleteIfExists(run.file());
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    private void spill() throws IOException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        buffer.sort(order);
+        Path file = nextRunFile();
+        try (DataOutputStream out = output(file)) {
+            for (T record : buffer) {
+                codec.write(out, record);
+            }
+        }
+        runs.add(new Run(file, buffer.size()));
+        buffer.clear();
+        bufferedBytes = 0;
+    }
+
+    private void merge(List<Run> sources, RecordConsumer<? super T> consumer) throws IOException {
+        record Head<T>(T record, int source) {
+        }
+        DataInputStream[] inputs = new DataInputStream[sources.size()];
+        long[] remaining = new long[sources.size()];
+        PriorityQueue<Head<T>> heads = new PriorityQueue<>(Math.max(1, sources.size()),
+                // Equal records come out in run order, which keeps the merge stable
+                Comparator.<Head<T>, T>comparing(Head::record, order).thenComparingInt(Head::source));
+        try {
+            for (int i = 0; i < sources.size(); i++) {
+                inputs[i] = new DataInputStream(new BufferedInputStream(Files.newInputStream(sources.get(i).file()),
+                        STREAM_BUFFER));
+                remaining[i] = sources.get(i).count();
+                if (remaining[i]-- > 0) {
+                    heads.add(new Head<>(codec.read(inputs[i]), i));
+                }
+            }
+            while (!heads.isEmpty()) {
+                Head<T> head = heads.poll();
+                consumer.accept(head.record());
+                int source = head.source();
+                if (remaining[source]-- > 0) {
+                    heads.add(new Head<>(codec.read(inputs[source]), source));
+                }
+            }
+        } finally {
+            for (DataInputStream in : inputs) {
+                if (in != null) {
+                    in.close();
+                }
+            }
+        }
+    }
+
+    private Path nextRunFile() throws IOException {
+        Files.createDirectories(dir);
+        return dir.resolve("run-" + nextRun++ + ".bin");
+    }
+
+    private static DataOutputStream output(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), STREAM_BUFFER));
+    }
+}
@@ -0,0 +1,132 @@
+package com.flaute.photosono.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.SplittableRandom;
+
+/**
+ * Content-defined chunking with the FastCDC gear hash and normalized chunk sizes.
+ * <p>
+ * A rolling gear hash ({@code h = (h << 1) + GEAR[b]}) is updated per byte and a chunk ends
+ * where its top bits are all zero. Before the average size a stricter mask is used and after it
+ * a looser one, which concentrates chunk lengths around the average. Because boundaries depend
+ * only on nearby content, inserting or trimming bytes only changes the chunks around the edit,
+ * and the rest of a trimmed or re-muxed file produces identical chunks.
+ */
+public final class FastCdc {
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed seed: chunk boundaries must be identical across runs and machines
+        SplittableRandom random = new SplittableRandom(0x5053434443L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        /**
+         * Receives one chunk. The array is reused after the call returns.
+         */
+        void accept(byte[] data, int offset, int length) throws IOException;
+    }
+
+    private final int minSize;
+    private final int averageSize;
+    private final int maxSize;
+    private final long strictMask;
+    private final long looseMask;
+
+    /**
+     * Creates a chunker with the given average chunk size (a power of two of at least 256),
+     * cutting no smaller than a quarter and no larger than four times the average.
+     */
+    public FastCdc(int averageSize) {
+        if (averageSize < 256 || Integer.bitCount(averageSize) != 1 || averageSize > 1 << 26) {
+            throw new IllegalArgumentException("Average chunk size must be a power of two in [256, 64 MiB]");
+        }
+        int bits = Integer.numberOfTrailingZeros(averageSize);
+        this.minSize = averageSize / 4;
+        this.averageSize = averageSize;
+        this.maxSize = averageSize * 4;
+        this.strictMask = topBits(bits + 1);
+        this.looseMask = topBits(bits - 1);
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the length of the chunk starting at {@code offset}, at most {@code length}.
+     * When fewer than {@link #getMaxSize()} bytes are available and no boundary is found the
+     * whole remainder is returned, so callers must only do that at end of input.
+     */
+    public int cut(byte[] data, int offset, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+        int end = Math.min(length, maxSize);
+        int normal = Math.min(end, averageSize);
+        long hash = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & strictMask) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & looseMask) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Splits everything readable from {@code channel} into chunks, in order. Returns the total
+     * number of bytes read.
+     */
+    public long split(ReadableByteChannel channel, ChunkConsumer consumer) throws IOException {
+        // Two maximum chunks per refill keeps compaction copies small relative to the data
+        ByteBuffer buffer = ByteBuffer.allocate(maxSize * 2);
+        byte[] data = buffer.array();
+        long total = 0;
+        boolean eof = false;
+        while (true) {
+            while (!eof && buffer.hasRemaining()) {
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    total += read;
+                }
+            }
+            int limit = buffer.position();
+            int position = 0;
+            while (limit - position >= maxSize || (eof && position < limit)) {
+                int length = cut(data, position, limit - position);
+                consumer.accept(data, position, length);
+                position += length;
+            }
+            if (eof) {
+                return total;
+            }
+            System.arraycopy(data, position, data, 0, limit - position);
+            buffer.position(limit - position);
+        }
+    }
+
+    private static long topBits(int count) {
+        return -1L << (64 - count);
+    }
+}
@@ -0,0 +1,245 @@
+package com.flaute.photosono.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared I/O budget for everything that reads or writes media files: a bandwidth bucket in bytes
+ * per second and an operation bucket in I/O calls per second. Every call books its bytes and one
+ * operation and then sleeps for whichever bucket is further behind, so a run of small reads is
+ * held back by the IOPS budget and a run of large ones by the bandwidth budget.
+ * <p>
+ * An optional schedule swaps the budget by time of day, e.g. full speed at night and a trickle
+ * while the disks are also serving media. Outside every window the base budget applies. Rates of
+ * zero or less mean unlimited.
+ * <p>
+ * The governor counts what passed through it and how often and how long it made callers wait.
+ */
+public final class IoGovernor {
+
+    public static final IoGovernor UNLIMITED = new IoGovernor(Budget.UNLIMITED, List.of());
+
+    private static final long RECHECK_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    /**
+     * Rates applied while a window (or the base budget) is active.
+     */
+    public record Budget(long bytesPerSecond, long opsPerSecond) {
+
+        public static final Budget UNLIMITED = new Budget(0, 0);
+
+        /**
+         * Parses {@code <bytes>[/<ops>]}, where bytes may end in {@code K}, {@code M} or {@code G}
+         * (binary units) and {@code unlimited} stands for no limit at all.
+         */
+        public static Budget parse(String spec) {
+            String trimmed = spec.trim().toUpperCase(Locale.ROOT);
+            if (trimmed.equals("UNLIMITED")) {
+                return UNLIMITED;
+            }
+            int slash = trimmed.indexOf('/');
+            String bytes = slash < 0 ? trimmed : trimmed.substring(0, slash).trim();
+            long ops = slash < 0 ? 0 : Long.parseLong(trimmed.substring(slash + 1).trim());
+            return new Budget(parseBytes(bytes), ops);
+        }
+
+        private static long parseBytes(String bytes) {
+            String value = bytes.endsWith("B") ? bytes.substring(0, bytes.length() - 1) : bytes;
+            int shift = switch (value.isEmpty() ? ' ' : value.charAt(value.length() - 1)) {
+                case 'K' -> 10;
+                case 'M' -> 20;
+                case 'G' -> 30;
+                default -> 0;
+            };
+            if (shift > 0) {
+                value = value.substring(0, value.length() - 1);
+            }
+            return Long.parseLong(value.trim()) << shift;
+        }
+    }
+
+    /**
+     * A daily window from {@code from} (inclusive) to {@code to} (exclusive); a window whose end
+     * is before its start runs past midnight.
+     */
+    public record Window(LocalTime from, LocalTime to, Budget budget) {
+
+        public boolean contains(LocalTime time) {
+            if (from.isBefore(to)) {
+                return !time.isBefore(from) && time.isBefore(to);
+            }
+            return !time.isBefore(from) || time.isBefore(to);
+        }
+    }
+
+    /**
+     * Totals since the governor was created.
+     */
+    public record Stats(long bytes, long operations, long throttledOperations, long throttledNanos) {
+    }
+
+    private final Budget base;
+    private final List<Window> schedule;
+    private final Clock clock;
+    private final ByteRateLimiter bytes = new ByteRateLimiter(0);
+    // Counts operations rather than bytes, the bucket arithmetic is the same
+    private final ByteRateLimiter operations = new ByteRateLimiter(0);
+
+    private final LongAdder bytesTotal = new LongAdder();
+    private final LongAdder operationsTotal = new LongAdder();
+    private final LongAdder throttledOperations = new LongAdder();
+    private final LongAdder throttledNanos = new LongAdder();
+
+    private volatile Budget active;
+    private volatile long nextCheckMillis;
+
+    public IoGovernor(Budget base, List<Window> schedule) {
+        this(base, schedule, Clock.systemDefaultZone());
+    }
+
+    IoGovernor(Budget base, List<Window> schedule, Clock clock) {
+        this.base = base;
+        this.schedule = List.copyOf(schedule);
+        this.clock = clock;
+        apply(budgetAt(LocalTime.now(clock)));
+        this.nextCheckMillis = clock.millis() + RECHECK_MILLIS;
+    }
+
+    /**
+     * Parses a comma separated schedule of {@code HH:mm-HH:mm=<budget>} entries, see
+     * {@link Budget#parse}. The first matching window wins.
+     */
+    public static List<Window> parseSchedule(String spec) {
+        List<Window> windows = new ArrayList<>();
+        if (spec == null || spec.isBlank()) {
+            return windows;
+        }
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.split("=", 2);
+            String[] times = parts[0].split("-", 2);
+            if (parts.length != 2 || times.length != 2) {
+                throw new IllegalArgumentException("Expected HH:mm-HH:mm=<budget>: " + entry.trim());
+            }
+            try {
+                windows.add(new Window(LocalTime.parse(times[0].trim()), LocalTime.parse(times[1].trim()),
+                        Budget.parse(parts[1])));
+            } catch (DateTimeParseException | NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid schedule entry: " + entry.trim(), e);
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * Blocks until one operation moving {@code byteCount} bytes fits the budget. Returns the
+     * nanoseconds spent waiting.
+     */
+    public long acquire(long byteCount) {
+        refresh();
+        bytesTotal.add(Math.max(0, byteCount));
+        operationsTotal.increment();
+        long wait = Math.max(bytes.reserve(byteCount), operations.reserve(1));
+        if (wait <= 0) {
+            return 0;
+        }
+        throttledOperations.increment();
+        throttledNanos.add(wait);
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return wait;
+    }
+
+    /**
+     * Opens {@code file} for reading with every read and skip charged to this governor.
+     */
+    public InputStream newInputStream(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        return this == UNLIMITED ? in : new GovernedInputStream(in);
+    }
+
+    public Budget getActiveBudget() {
+        refresh();
+        return active;
+    }
+
+    public Stats stats() {
+        return new Stats(bytesTotal.sum(), operationsTotal.sum(), throttledOperations.sum(), throttledNanos.sum());
+    }
+
+    Budget budgetAt(LocalTime time) {
+        for (Window window : schedule) {
+            if (window.contains(time)) {
+                return window.budget();
+            }
+        }
+        return base;
+    }
+
+    private void refresh() {
+        if (schedule.isEmpty()) {
+            return;
+        }
+        long now = clock.millis();
+        if (now < nextCheckMillis) {
+            return;
+        }
+        nextCheckMillis = now + RECHECK_MILLIS;
+        Budget budget = budgetAt(LocalTime.now(clock));
+        if (!budget.equals(active)) {
+            apply(budget);
+        }
+    }
+
+    private void apply(Budget budget) {
+        active = budget;
+        bytes.setBytesPerSecond(budget.bytesPerSecond());
+        operations.setBytesPerSecond(budget.opsPerSecond());
+    }
+
+    private final class GovernedInputStream extends FilterInputStream {
+
+        GovernedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                acquire(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                acquire(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // A skip is a seek: no bandwidth, but still an operation against the disk
+            long skipped = super.skip(n);
+            acquire(0);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.flaute.photosono.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+/**
+ * Checks the box structure of ISO base media files (MP4, MOV): every box must fit inside its
+ * parent, the top-level boxes must add up to the file size, and a {@code moov} box must exist.
+ * A download cut short leaves the last box (usually {@code mdat}) claiming more bytes than the
+ * file has, which header parsers never notice.
+ * <p>
+ * Only box headers are read, so a walk costs a few dozen small reads however large the file.
+ */
+public final class IsoBoxes {
+
+    private static final Set<String> CONTAINERS = Set.of("moov", "trak", "mdia", "minf", "stbl", "edts", "dinf",
+            "udta", "mvex", "moof", "traf", "mfra");
+    private static final int MAX_DEPTH = 16;
+
+    private IsoBoxes() {
+    }
+
+    /**
+     * Returns {@code null} if the structure is consistent, otherwise what is wrong with it.
+     */
+    public static String verify(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Walk walk = new Walk(channel);
+            String problem = walk.boxes(0, channel.size(), 0);
+            if (problem == null && !walk.movie) {
+                problem = "no moov box";
+            }
+            return problem;
+        }
+    }
+
+    private static final class Walk {
+        final FileChannel channel;
+        final ByteBuffer header = ByteBuffer.allocate(16);
+        boolean movie;
+
+        Walk(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        String boxes(long start, long end, int depth) throws IOException {
+            long position = start;
+            while (position < end) {
+                long available = end - position;
+                if (available < 8) {
+                    // QuickTime ends some containers with a 32-bit zero terminator
+                    return depth > 0 && zeros(position, (int) available) ? null
+                            : available + " stray bytes at " + position;
+                }
+                read(position, 8);
+                long size = Integer.toUnsignedLong(header.getInt(0));
+                String type = new String(header.array(), 4, 4, StandardCharsets.ISO_8859_1);
+                int headerSize = 8;
+                if (size == 1) {
+                    if (available < 16) {
+                        return "box " + type + " at " + position + " is cut off";
+                    }
+                    read(position + 8, 8);
+                    size = header.getLong(0);
+                    headerSize = 16;
+                } else if (size == 0) {
+                    if (depth > 0) {
+                        return "box " + type + " at " + position + " has size 0 inside a container";
+                    }
+                    // Extends to the end of the file
+                    size = available;
+                }
+                if (size < headerSize) {
+                    return "box " + type + " at " + position + " has invalid size " + size;
+                }
+                if (size > available) {
+                    return "box " + type + " at " + position + " needs " + size + " bytes, only " + available
+                            + " left";
+                }
+                if (depth == 0 && type.equals("moov")) {
+                    movie = true;
+                }
+                if (CONTAINERS.contains(type) && depth < MAX_DEPTH) {
+                    String problem = boxes(position + headerSize, position + size, depth + 1);
+                    if (problem != null) {
+                        return problem;
+                    }
+                }
+                position += size;
+            }
+            return null;
+        }
+
+        private void read(long position, int length) throws IOException {
+            header.clear().limit(length);
+            while (header.hasRemaining()) {
+                if (channel.read(header, position + header.position()) < 0) {
+                    throw new IOException("Unexpected end of file at " + (position + header.position()));
+                }
+            }
+        }
+
+        private boolean zeros(long position, int length) throws IOException {
+            if (length == 0) {
+                return true;
+            }
+            read(position, length);
+            for (int i = 0; i < length; i++) {
+                if (header.get(i) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
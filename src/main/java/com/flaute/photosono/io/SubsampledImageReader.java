@@ -0,0 +1,64 @@
+package com.flaute.photosono.io;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadWarningListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Decodes images with ImageIO source subsampling, so only every n-th pixel of every n-th row is
+ * materialised. For a small result this is far cheaper than decoding at full size and scaling.
+ */
+public final class SubsampledImageReader {
+
+    /**
+     * Follows a decode: gets hold of the reader before decoding starts, so another thread can
+     * {@link ImageReader#abort() abort} it, and hears about damage the decoder skipped over.
+     */
+    public interface Observer extends IIOReadWarningListener {
+        void started(ImageReader reader);
+    }
+
+    private SubsampledImageReader() {
+    }
+
+    /**
+     * Reads the first image in {@code file}, with the step for both axes chosen from its full
+     * width and height. Returns {@code null} if no ImageIO reader recognises the file.
+     */
+    public static BufferedImage read(Path file, IntBinaryOperator step) throws IOException {
+        return read(file, step, null);
+    }
+
+    public static BufferedImage read(Path file, IntBinaryOperator step, Observer observer) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file.toFile())) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                if (observer != null) {
+                    reader.addIIOReadWarningListener(observer);
+                    observer.started(reader);
+                }
+                int subsampling = Math.max(1, step.applyAsInt(reader.getWidth(0), reader.getHeight(0)));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
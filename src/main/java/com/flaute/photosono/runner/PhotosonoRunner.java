@@ -1,59 +1,177 @@
 package com.flaute.photosono.runner;
 
 import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.service.AuditJournalService;
+import com.flaute.photosono.service.BufferPoolService;
+import com.flaute.photosono.service.ChunkStoreService;
+import com.flaute.photosono.service.DuplicateReportService;
 import com.flaute.photosono.service.FileScannerService;
+import com.flaute.photosono.service.IoGovernorService;
+import com.flaute.photosono.service.MediaValidationService;
+import com.flaute.photosono.service.OriginalsIndexService;
+import com.flaute.photosono.service.PruneService;
+import com.flaute.photosono.service.QueryService;
+import com.flaute.photosono.service.ScrubService;
+import com.flaute.photosono.service.SimilarityScannerService;
+import com.flaute.photosono.service.StorageService;
+import com.flaute.photosono.service.ThumbnailService;
+import com.flaute.photosono.service.TimelineRebuildService;
 import com.flaute.photosono.service.TimelineScannerService;
+import com.flaute.photosono.service.WarmupService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.CommandLineRunner;
-import org.springframework.boot.SpringApplication;
-import org.springframework.context.ApplicationContext;
+import org.springframework.boot.ExitCodeGenerator;
 import org.springframework.stereotype.Component;
 
+import java.util.Arrays;
+
 @Component
-public class PhotosonoRunner implements CommandLineRunner {
+public class PhotosonoRunner implements CommandLineRunner, ExitCodeGenerator {
 
     private static final Logger logger = LoggerFactory.getLogger(PhotosonoRunner.class);
 
     private final FileScannerService fileScannerService;
     private final TimelineScannerService timelineScannerService;
-    private final ApplicationContext context;
+    private final OriginalsIndexService originalsIndexService;
+    private final SimilarityScannerService similarityScannerService;
+    private final ScrubService scrubService;
+    private final TimelineRebuildService timelineRebuildService;
+    private final QueryService queryService;
+    private final AuditJournalService auditJournalService;
+    private final ChunkStoreService chunkStoreService;
+    private final WarmupService warmupService;
+    private final IoGovernorService ioGovernorService;
+    private final PruneService pruneService;
+    private final ThumbnailService thumbnailService;
+    private final BufferPoolService bufferPoolService;
+    private final DuplicateReportService duplicateReportService;
+    private final MediaValidationService mediaValidationService;
+    private final StorageService storageService;
     private final PhotosonoConfig config;
 
+    private volatile int exitCode;
+
     public PhotosonoRunner(FileScannerService fileScannerService, TimelineScannerService timelineScannerService,
-            ApplicationContext context, PhotosonoConfig config) {
+            OriginalsIndexService originalsIndexService, SimilarityScannerService similarityScannerService,
+            ScrubService scrubService, TimelineRebuildService timelineRebuildService, QueryService queryService,
+            AuditJournalService auditJournalService, ChunkStoreService chunkStoreService, WarmupService warmupService,
+            IoGovernorService ioGovernorService, PruneService pruneService, ThumbnailService thumbnailService,
+            BufferPoolService bufferPoolService, DuplicateReportService duplicateReportService,
+            MediaValidationService mediaValidationService, StorageService storageService, PhotosonoConfig config) {
         this.fileScannerService = fileScannerService;
         this.timelineScannerService = timelineScannerService;
-        this.context = context;
+        this.originalsIndexService = originalsIndexService;
+        this.similarityScannerService = similarityScannerService;
+        this.scrubService = scrubService;
+        this.timelineRebuildService = timelineRebuildService;
+        this.queryService = queryService;
+        this.auditJournalService = auditJournalService;
+        this.chunkStoreService = chunkStoreService;
+        this.warmupService = warmupService;
+        this.ioGovernorService = ioGovernorService;
+        this.pruneService = pruneService;
+        this.thumbnailService = thumbnailService;
+        this.bufferPoolService = bufferPoolService;
+        this.duplicateReportService = duplicateReportService;
+        this.mediaValidationService = mediaValidationService;
+        this.storageService = storageService;
         this.config = config;
     }
 
     @Override
     public void run(String... args) {
         try {
+            if (args.length > 0 && "journal".equalsIgnoreCase(args[0])) {
+                // journal [key=value ...] prints matching audit journal entries and exits
+                long matched = auditJournalService.dump(Arrays.asList(args).subList(1, args.length), System.out);
+                logger.info("Audit journal entries matched: {}", matched);
+                return;
+            }
+
+            if (args.length > 0 && "warmup".equalsIgnoreCase(args[0])) {
+                // Training run for the class data sharing archive, see the Dockerfile
+                warmupService.warmup();
+                return;
+            }
+
             boolean runDedupe = false;
             boolean runTimeline = false;
+            boolean runSimilar = false;
+            boolean runScrub = false;
+            boolean rebuildFilter = false;
+            boolean rebuildTimeline = false;
+            boolean runChunk = false;
+            boolean restoreChunks = false;
+            boolean prune = false;
+            boolean serve = false;
 
             if (args.length == 0) {
                 runDedupe = config.getDeduplication().isEnabled();
                 runTimeline = config.getTimeline().isEnabled();
-                logger.info("No arguments provided. Using configuration: dedupe={}, timeline={}", runDedupe,
-                        runTimeline);
+                runSimilar = config.getSimilarity().isEnabled();
+                runScrub = config.getScrub().isEnabled();
+                runChunk = config.getChunkStore().isEnabled();
+                serve = config.getQuery().isEnabled();
+                logger.info(
+                        "No arguments provided. Using configuration: dedupe={}, timeline={}, similar={}, scrub={}, chunk={}, serve={}",
+                        runDedupe, runTimeline, runSimilar, runScrub, runChunk, serve);
             } else {
                 for (String arg : args) {
                     if ("dedupe".equalsIgnoreCase(arg)) {
                         runDedupe = true;
                     } else if ("timeline".equalsIgnoreCase(arg)) {
                         runTimeline = true;
+                    } else if ("similar".equalsIgnoreCase(arg)) {
+                        runSimilar = true;
+                    } else if ("scrub".equalsIgnoreCase(arg)) {
+                        runScrub = true;
+                    } else if ("rebuild-filter".equalsIgnoreCase(arg)) {
+                        rebuildFilter = true;
+                    } else if ("rebuild-timeline".equalsIgnoreCase(arg)) {
+                        rebuildTimeline = true;
+                    } else if ("chunk".equalsIgnoreCase(arg)) {
+                        runChunk = true;
+                    } else if ("restore-chunks".equalsIgnoreCase(arg)) {
+                        restoreChunks = true;
+                    } else if ("prune".equalsIgnoreCase(arg)) {
+                        prune = true;
+                    } else if ("serve".equalsIgnoreCase(arg)) {
+                        serve = true;
                     }
                 }
-                logger.info("Arguments provided. Executing specified phases: dedupe={}, timeline={}", runDedupe,
-                        runTimeline);
+                logger.info(
+                        "Arguments provided. Executing specified phases: rebuild-filter={}, restore-chunks={}, dedupe={}, timeline={}, rebuild-timeline={}, prune={}, similar={}, scrub={}, chunk={}, serve={}",
+                        rebuildFilter, restoreChunks, runDedupe, runTimeline, rebuildTimeline, prune, runSimilar,
+                        runScrub, runChunk, serve);
+            }
+
+            // Refuse up front rather than after dedupe has run
+            String[] localPhases = { runTimeline ? "timeline" : null, rebuildTimeline ? "rebuild-timeline" : null,
+                    prune ? "prune" : null, runSimilar ? "similar" : null, runScrub ? "scrub" : null,
+                    runChunk ? "chunk" : null, restoreChunks ? "restore-chunks" : null };
+            for (String phase : localPhases) {
+                if (phase != null) {
+                    storageService.requireLocalOriginals(phase);
+                }
+            }
+
+            if (rebuildFilter) {
+                logger.info("Rebuilding originals filter from the originals directory");
+                originalsIndexService.rebuildFilter();
+            }
+
+            if (restoreChunks) {
+                logger.info("Restoring chunked originals from the chunk store");
+                chunkStoreService.restoreOriginals();
             }
 
             if (runDedupe) {
                 logger.info("Executing Phase 1: Deduplication (Input -> Originals)");
                 fileScannerService.scanInputDirectory();
+                thumbnailService.awaitIdle();
+                mediaValidationService.logSummary();
+                duplicateReportService.writeReport();
             }
 
             if (runTimeline) {
@@ -61,12 +179,61 @@ public class PhotosonoRunner implements CommandLineRunner {
                 timelineScannerService.scanOriginalsDirectory();
             }
 
+            if (rebuildTimeline) {
+                logger.info("Rebuilding timeline links from the timeline index");
+                timelineRebuildService.rebuildTimeline();
+            }
+
+            if (prune) {
+                logger.info("Pruning dangling timeline and unknown-date links");
+                pruneService.prune();
+            }
+
+            if (runSimilar) {
+                logger.info("Executing Phase 3: Near-Duplicate Detection (Originals -> Report)");
+                similarityScannerService.scanOriginalsDirectory();
+            }
+
+            // A continuous scrub never finishes, so it starts after the chunk phase on its own thread
+            boolean continuousScrub = runScrub && config.getScrub().isContinuous();
+            if (runScrub && !continuousScrub) {
+                logger.info("Executing Phase 4: Integrity Scrub (Originals -> Quarantine)");
+                scrubService.scrubOriginalsDirectory();
+            }
+
+            if (runChunk) {
+                logger.info("Executing Phase 5: Chunk Store (Video Originals -> Chunks)");
+                chunkStoreService.chunkOriginalsDirectory();
+            }
+
+            Thread scrubThread = null;
+            if (continuousScrub) {
+                logger.info("Executing Phase 4: Integrity Scrub (Originals -> Quarantine), continuously");
+                scrubThread = Thread.ofPlatform().name("scrub").daemon().start(scrubService::scrubOriginalsDirectory);
+            }
+
+            ioGovernorService.logSummary();
+            bufferPoolService.logSummary();
+
+            if (serve) {
+                logger.info("Serving catalog queries until shutdown");
+                queryService.serve();
+            } else if (scrubThread != null) {
+                logger.info("Scrubbing until shutdown");
+                scrubThread.join();
+            }
+
             logger.info("Processing complete. Application will now exit.");
 
         } catch (Exception e) {
             logger.error("Error during execution", e);
-        } finally {
-            SpringApplication.exit(context, () -> 0);
+            // Fails the process, and with it the Dockerfile training stage on a broken warmup
+            exitCode = 1;
         }
     }
+
+    @Override
+    public int getExitCode() {
+        return exitCode;
+    }
 }
@@ -0,0 +1,180 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.io.AuditJournal;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Provenance journal of every per-file decision, replacing per-file INFO logging.
+ * <p>
+ * Entries go to {@code journal/actions.bin} in the state directory through an
+ * {@link AuditJournal}, so recording one costs an enqueue on the calling thread. The journal is
+ * read back with the {@code journal} runner command, e.g.
+ * {@code journal action=dedupe result=SKIPPED path=/input/phone since=2026-01-01}.
+ */
+@Service
+public class AuditJournalService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditJournalService.class);
+
+    static final String JOURNAL_DIR = "journal";
+    static final String JOURNAL_FILE = "actions.bin";
+
+    public enum Action {
+        DEDUPE,
+        TIMELINE
+    }
+
+    private final PhotosonoConfig config;
+
+    private AuditJournal journal;
+    private boolean unavailable;
+
+    public AuditJournalService(PhotosonoConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Records the outcome of one file. {@code startNanos} is the {@link System#nanoTime()} at
+     * which its processing began; {@code sha256} and {@code target} may be {@code null}.
+     */
+    public void record(Action action, Path source, String sha256, Enum<?> result, String target, long startNanos) {
+        AuditJournal current = journal();
+        if (current == null) {
+            return;
+        }
+        current.append(new AuditJournal.Entry(System.currentTimeMillis(), action.name(), result.name(),
+                TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos), sha256, source.toString(),
+                target));
+    }
+
+    /**
+     * Prints the journal entries matching all {@code key=value} filters as tab-separated lines.
+     * Supported keys are {@code action}, {@code result}, {@code hash} (prefix), {@code path}
+     * (substring of source or target), {@code since} and {@code until} (ISO date or date-time).
+     * Returns the number of matching entries.
+     */
+    public long dump(List<String> filters, PrintStream out) throws IOException {
+        Path file = journalFile();
+        if (!Files.exists(file)) {
+            logger.warn("No audit journal at {}", file);
+            return 0;
+        }
+        // Everything appended by this process should be visible
+        closeJournal();
+
+        Predicate<AuditJournal.Entry> matcher = entry -> true;
+        for (String filter : filters) {
+            matcher = matcher.and(parseFilter(filter));
+        }
+        Predicate<AuditJournal.Entry> selected = matcher;
+        AtomicLong matched = new AtomicLong();
+        AuditJournal.read(file, entry -> {
+            if (selected.test(entry)) {
+                matched.incrementAndGet();
+                out.println(format(entry));
+            }
+        });
+        out.flush();
+        return matched.get();
+    }
+
+    @PreDestroy
+    public void close() {
+        closeJournal();
+    }
+
+    private synchronized AuditJournal journal() {
+        if (journal == null && !unavailable) {
+            if (!config.getJournal().isEnabled()) {
+                unavailable = true;
+                return null;
+            }
+            try {
+                journal = AuditJournal.open(journalFile(), config.getJournal().getQueueCapacity());
+            } catch (IOException e) {
+                logger.warn("Could not open audit journal {}, continuing without it: {}", journalFile(),
+                        e.getMessage());
+                unavailable = true;
+            }
+        }
+        return journal;
+    }
+
+    private synchronized void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.warn("Could not write audit journal {}: {}", journal.file(), e.getMessage());
+        }
+        journal = null;
+    }
+
+    private Path journalFile() {
+        return Paths.get(config.getStateDir(), JOURNAL_DIR, JOURNAL_FILE);
+    }
+
+    private static Predicate<AuditJournal.Entry> parseFilter(String filter) {
+        int eq = filter.indexOf('=');
+        if (eq <= 0) {
+            throw new IllegalArgumentException("Journal filter must be key=value: " + filter);
+        }
+        String key = filter.substring(0, eq).toLowerCase();
+        String value = filter.substring(eq + 1);
+        return switch (key) {
+            case "action" -> entry -> entry.action().equalsIgnoreCase(value);
+            case "result" -> entry -> entry.result().equalsIgnoreCase(value);
+            case "hash" -> entry -> entry.sha256() != null && entry.sha256().startsWith(value.toLowerCase());
+            case "path" -> entry -> entry.source().contains(value)
+                    || (entry.target() != null && entry.target().contains(value));
+            case "since" -> {
+                long since = parseInstant(value);
+                yield entry -> entry.timestamp() >= since;
+            }
+            case "until" -> {
+                long until = parseInstant(value);
+                yield entry -> entry.timestamp() < until;
+            }
+            default -> throw new IllegalArgumentException("Unknown journal filter: " + key);
+        };
+    }
+
+    private static long parseInstant(String value) {
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            if (value.length() == 10) {
+                return LocalDate.parse(value).atStartOfDay(zone).toInstant().toEpochMilli();
+            }
+            return LocalDateTime.parse(value).atZone(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid journal date: " + value);
+        }
+    }
+
+    private static String format(AuditJournal.Entry entry) {
+        return Instant.ofEpochMilli(entry.timestamp()) + "\t" + entry.action() + "\t" + entry.result() + "\t"
+                + entry.durationMicros() + "us\t" + (entry.sha256() != null ? entry.sha256() : "-") + "\t"
+                + entry.source() + "\t" + (entry.target() != null ? entry.target() : "-");
+    }
+}
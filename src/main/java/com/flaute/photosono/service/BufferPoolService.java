@@ -0,0 +1,50 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.io.BufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the one {@link BufferPool} that hashing and copying read through, sized from
+ * {@code photosono.copy}: {@code buffer-size} bytes each, {@code pooled-buffers} of them, or three
+ * per deduplication worker (one to hash with, two to copy with, plus slack for other phases).
+ */
+@Service
+public class BufferPoolService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BufferPoolService.class);
+
+    private static final int BUFFERS_PER_WORKER = 3;
+
+    private final BufferPool pool;
+
+    public BufferPoolService(PhotosonoConfig config) {
+        PhotosonoConfig.Copy copy = config.getCopy();
+        int count = copy.getPooledBuffers() > 0 ? copy.getPooledBuffers()
+                : BUFFERS_PER_WORKER * Math.max(1, config.getDeduplication().getThreads());
+        // A copy takes two buffers at once
+        pool = new BufferPool(copy.getBufferSize(), Math.max(2, count));
+    }
+
+    public BufferPool pool() {
+        return pool;
+    }
+
+    /**
+     * Logs how well the pool covered demand: a high share of hits means steady state without
+     * allocation, many waits mean it is too small for the concurrency.
+     */
+    public void logSummary() {
+        BufferPool.Stats stats = pool.stats();
+        if (stats.acquired() == 0) {
+            return;
+        }
+        logger.info("Buffer pool: {} buffers handed out, {} reused, {} allocated of {} bytes, {} waits for {} ms",
+                stats.acquired(), stats.hits(), stats.allocated(), pool.bufferSize(), stats.waits(),
+                TimeUnit.NANOSECONDS.toMillis(stats.waitNanos()));
+    }
+}
@@ -0,0 +1,243 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.index.CatalogIndex;
+import com.flaute.photosono.index.DigestLongMap;
+import com.flaute.photosono.index.Digests;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Records where every deduplicated file came from and serves indexed lookups over that
+ * provenance together with the creation dates kept by {@link TimelineIndexService}.
+ * <p>
+ * Records are appended to {@code catalog/sources.log} in the state directory. Index files are
+ * rebuilt whenever the log or the saved timeline index changed since the last build, so several
+ * processes can append while one of them serves queries. Only the first build blocks; later ones
+ * run on a background thread while lookups keep using the previous snapshot. A record identical to
+ * the last indexed one for its path is not appended again.
+ */
+@Service
+public class CatalogService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CatalogService.class);
+
+    static final String CATALOG_DIR = "catalog";
+    static final String SOURCES_LOG = "sources.log";
+
+    private static final String[] RESULT_NAMES = Arrays.stream(FileProcessorService.Result.values())
+            .map(Enum::name)
+            .toArray(String[]::new);
+
+    /**
+     * Consistent view of the catalog indexes and the dates they were built from.
+     */
+    public record Snapshot(CatalogIndex index, DigestLongMap dates) {
+
+        /**
+         * Returns the packed timeline entry for the hash, if the timeline has seen it.
+         */
+        public OptionalLong timelineEntry(byte[] digest) {
+            long entry = dates.get(digest, 0L);
+            return entry == 0L ? OptionalLong.empty() : OptionalLong.of(entry);
+        }
+    }
+
+    private final PhotosonoConfig config;
+    private final TimelineIndexService timelineIndex;
+
+    private OutputStream out;
+    private volatile Snapshot snapshot;
+    private Future<Snapshot> rebuild;
+    private boolean served;
+    private ExecutorService indexer;
+    private long indexedLogSize = -1;
+    private long indexedDatesModified = -1;
+
+    public CatalogService(PhotosonoConfig config, TimelineIndexService timelineIndex) {
+        this.config = config;
+        this.timelineIndex = timelineIndex;
+    }
+
+    public synchronized void recordSource(Path source, String sha256, String extension,
+            FileProcessorService.Result result) {
+        byte[] digest = Digests.fromHex(sha256);
+        if (digest == null) {
+            return;
+        }
+        String path = source.toAbsolutePath().normalize().toString();
+        if (isRecorded(path, digest, extension, result)) {
+            return;
+        }
+        try {
+            if (out == null) {
+                Path log = logFile();
+                Files.createDirectories(log.getParent());
+                out = new BufferedOutputStream(Files.newOutputStream(log, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND), 1 << 16);
+            }
+            out.write(CatalogIndex.encodeSource(System.currentTimeMillis(), digest, result.ordinal(), extension,
+                    path));
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Could not record {} in catalog: {}", source, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns indexes covering everything recorded so far. The first call waits for them to be built;
+     * after that a stale snapshot is returned while a rebuild runs in the background.
+     */
+    public Snapshot snapshot() throws IOException {
+        Future<Snapshot> pending;
+        long logSize;
+        long datesModified;
+        synchronized (this) {
+            if (out != null) {
+                out.flush();
+            }
+            Path log = logFile();
+            Path datesFile = timelineIndex.savedFile();
+            logSize = Files.exists(log) ? Files.size(log) : 0;
+            datesModified = Files.exists(datesFile) ? Files.getLastModifiedTime(datesFile).toMillis() : 0;
+            // One built early for isRecorded may predate records and dates the caller expects
+            Snapshot current = snapshot;
+            if (current != null && served) {
+                if (logSize != indexedLogSize || datesModified != indexedDatesModified) {
+                    rebuild(logSize, datesModified);
+                }
+                return current;
+            }
+            pending = rebuild(logSize, datesModified);
+        }
+        // A build already running may have started before the last records were flushed
+        while (true) {
+            await(pending);
+            synchronized (this) {
+                if (snapshot != null && indexedLogSize >= logSize && indexedDatesModified >= datesModified) {
+                    served = true;
+                    return snapshot;
+                }
+                pending = rebuild(logSize, datesModified);
+            }
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (indexer != null) {
+            indexer.shutdownNow();
+            indexer = null;
+        }
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.warn("Could not close catalog log {}: {}", logFile(), e.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * Whether the last indexed record for this path already says the same thing. Before any snapshot
+     * exists this starts building one and records everything until it is ready.
+     */
+    private boolean isRecorded(String path, byte[] digest, String extension, FileProcessorService.Result result) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            if (rebuild == null) {
+                rebuild(-1, -1);
+            }
+            return false;
+        }
+        CatalogIndex.Source last = current.index().latestByPath(path);
+        return last != null && last.sha256().equals(Digests.toHex(digest)) && last.extension().equals(extension)
+                && last.result().equals(result.name());
+    }
+
+    /**
+     * Starts a background build unless one is already running; must be called holding the lock.
+     */
+    private Future<Snapshot> rebuild(long logSize, long datesModified) {
+        if (rebuild == null) {
+            if (indexer == null) {
+                indexer = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "catalog-index");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            rebuild = indexer.submit(() -> build(logSize, datesModified));
+        }
+        return rebuild;
+    }
+
+    private static void await(Future<Snapshot> pending) throws IOException {
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while indexing the catalog");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
+
+    private Snapshot build(long logSize, long datesModified) throws IOException {
+        try {
+            long start = System.nanoTime();
+            DigestLongMap dates = timelineIndex.readSaved();
+            Path log = logFile();
+            Path dir = catalogDir();
+            CatalogIndex.build(log, consumer -> dates.forEach((digest, entry) -> {
+                OptionalLong second = TimelineIndexService.epochSecond(entry);
+                if (second.isPresent()) {
+                    consumer.accept(digest, second.getAsLong(), TimelineIndexService.extension(entry));
+                }
+            }), dir);
+            CatalogIndex index = CatalogIndex.open(log, dir, RESULT_NAMES);
+            Snapshot built = new Snapshot(index, dates);
+            synchronized (this) {
+                snapshot = built;
+                indexedLogSize = logSize;
+                indexedDatesModified = datesModified;
+                rebuild = null;
+            }
+            logger.info("Indexed catalog: {} source records, {} dated originals in {} ms", index.sourceCount(),
+                    index.datedCount(), (System.nanoTime() - start) / 1_000_000);
+            return built;
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                rebuild = null;
+            }
+            logger.warn("Could not index catalog: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    private Path catalogDir() {
+        return Paths.get(config.getStateDir(), CATALOG_DIR);
+    }
+
+    private Path logFile() {
+        return catalogDir().resolve(SOURCES_LOG);
+    }
+}
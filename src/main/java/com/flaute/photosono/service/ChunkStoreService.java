@@ -0,0 +1,581 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.index.DigestLongMap;
+import com.flaute.photosono.index.Digests;
+import com.flaute.photosono.io.FastCdc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Chunk-level deduplication store for video originals.
+ * <p>
+ * Each video is split with content-defined chunking ({@link FastCdc}), every chunk is stored
+ * once under {@code chunks/h0/h1/<sha256>} in the chunk store directory, and the file itself
+ * becomes a manifest of chunk hashes under {@code manifests/h0/h1/<sha256>.manifest}. A trimmed
+ * or re-muxed clip therefore only costs the chunks that actually differ.
+ * <p>
+ * Originals stay in place unless {@code remove-originals} is set. Removed originals are still
+ * recognized as duplicates during deduplication and can be read with {@link #open(String)} or
+ * written back with the {@code restore-chunks} phase. Timeline and view links point at the
+ * originals, would dangle without them and be deleted by {@code prune}, so originals are only
+ * removed while the timeline is disabled; run {@code restore-chunks} before enabling it again.
+ * <p>
+ * Chunks and manifests are synced to disk, directories included, before they are renamed into
+ * place, and an original is only removed once its manifest reads back to the original's hash.
+ * The chunk index is a cache of which chunks exist: it is saved every
+ * {@value #INDEX_SAVE_INTERVAL} files, and a chunk it lists is written again if the file is gone.
+ */
+@Service
+public class ChunkStoreService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkStoreService.class);
+
+    static final String CHUNKS_DIR = "chunks";
+    static final String MANIFESTS_DIR = "manifests";
+    static final String INDEX_FILE = "chunk-index.bin";
+    static final String STATS_FILE = "chunk-store.properties";
+
+    private static final int MANIFEST_MAGIC = 0x5053434d; // "PSCM"
+    private static final int MANIFEST_ENTRY = 36;
+    private static final int INDEX_SAVE_INTERVAL = 64;
+    private static final String LOGICAL_BYTES = "logicalBytes";
+    private static final String STORED_BYTES = "storedBytes";
+    private static final String FILES = "files";
+
+    private final PhotosonoConfig config;
+
+    public ChunkStoreService(PhotosonoConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Chunks every video original that has no manifest yet.
+     */
+    public void chunkOriginalsDirectory() {
+        if (!config.getChunkStore().isEnabled()) {
+            return;
+        }
+
+        logger.info("Chunking video originals into {}", config.getChunkStore().getDir());
+        Path originalsPath = Paths.get(config.getOriginalsDir());
+
+        if (!Files.exists(originalsPath)) {
+            logger.warn("Originals directory does not exist: {}", originalsPath);
+            return;
+        }
+
+        Path indexFile = storeDir().resolve(INDEX_FILE);
+        DigestLongMap chunks;
+        try {
+            chunks = Files.exists(indexFile)
+                    ? DigestLongMap.load(indexFile, config.getIndex().getExpectedOriginals())
+                    : new DigestLongMap(config.getIndex().getExpectedOriginals());
+        } catch (IOException e) {
+            logger.error("Could not load chunk index from {}", indexFile, e);
+            return;
+        }
+
+        boolean removeOriginals = config.getChunkStore().isRemoveOriginals();
+        if (removeOriginals && config.getTimeline().isEnabled()) {
+            logger.warn("Keeping chunked originals although remove-originals is set: timeline links point at them");
+            removeOriginals = false;
+        }
+        boolean remove = removeOriginals;
+        FastCdc chunker = new FastCdc(config.getChunkStore().getAverageChunkSize());
+        AtomicInteger total = new AtomicInteger(0);
+        AtomicInteger chunked = new AtomicInteger(0);
+        AtomicInteger alreadyChunked = new AtomicInteger(0);
+        AtomicInteger errors = new AtomicInteger(0);
+        AtomicLong logicalBytes = new AtomicLong();
+        AtomicLong storedBytes = new AtomicLong();
+        long start = System.nanoTime();
+
+        int threads = Math.max(1, config.getChunkStore().getThreads());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // Bounds the number of queued files so the walk never runs far ahead of the workers
+        Semaphore inFlight = new Semaphore(threads * 2);
+        try (Stream<Path> paths = Files.walk(originalsPath)) {
+            paths.filter(Files::isRegularFile)
+                    .forEach(file -> {
+                        byte[] digest = Digests.fromFileName(file.getFileName().toString());
+                        if (digest == null || !isChunked(getExtension(file))) {
+                            return;
+                        }
+                        total.incrementAndGet();
+                        String sha256 = Digests.toHex(digest);
+                        boolean manifested = Files.exists(manifestFile(sha256));
+                        if (manifested && !remove) {
+                            alreadyChunked.incrementAndGet();
+                            return;
+                        }
+                        inFlight.acquireUninterruptibly();
+                        executor.execute(() -> {
+                            try {
+                                // A manifest left behind by a crash is only trusted once it reads back
+                                if (manifested && isIntact(sha256)) {
+                                    alreadyChunked.incrementAndGet();
+                                } else {
+                                    long[] sizes = chunkFile(file, digest, chunker, chunks);
+                                    logicalBytes.addAndGet(sizes[0]);
+                                    storedBytes.addAndGet(sizes[1]);
+                                    if (chunked.incrementAndGet() % INDEX_SAVE_INTERVAL == 0) {
+                                        saveIndex(chunks, indexFile);
+                                    }
+                                    if (remove && !isIntact(sha256)) {
+                                        throw new IOException("Manifest does not read back, keeping the original");
+                                    }
+                                }
+                                if (remove) {
+                                    removeOriginal(file);
+                                }
+                            } catch (Exception e) {
+                                logger.error("Error chunking file: {}", file, e);
+                                errors.incrementAndGet();
+                            } finally {
+                                inFlight.release();
+                            }
+                        });
+                    });
+        } catch (IOException e) {
+            logger.error("Error scanning originals directory: {}", originalsPath, e);
+        } finally {
+            executor.shutdown();
+            awaitTermination(executor);
+        }
+
+        Properties stats = loadStats();
+        try {
+            saveIndex(chunks, indexFile);
+            stats.setProperty(LOGICAL_BYTES, Long.toString(statLong(stats, LOGICAL_BYTES) + logicalBytes.get()));
+            stats.setProperty(STORED_BYTES, Long.toString(statLong(stats, STORED_BYTES) + storedBytes.get()));
+            stats.setProperty(FILES, Long.toString(statLong(stats, FILES) + chunked.get()));
+            saveStats(stats);
+        } catch (IOException e) {
+            logger.error("Error saving chunk index to {}", storeDir(), e);
+            errors.incrementAndGet();
+        }
+
+        long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+        logger.info("--- Chunk Store Summary ---");
+        logger.info("Video originals found:   {}", total.get());
+        logger.info("Newly chunked:           {}", chunked.get());
+        logger.info("Previously chunked:      {}", alreadyChunked.get());
+        logger.info("Bytes chunked:           {} ({} MB/s)", logicalBytes.get(),
+                logicalBytes.get() / seconds / (1 << 20));
+        logger.info("New chunk bytes stored:  {}", storedBytes.get());
+        logger.info("Run dedupe ratio:        {}", ratio(logicalBytes.get(), storedBytes.get()));
+        logger.info("Store dedupe ratio:      {} ({} chunks, {} files)",
+                ratio(statLong(stats, LOGICAL_BYTES), statLong(stats, STORED_BYTES)), chunks.size(),
+                statLong(stats, FILES));
+        if (errors.get() > 0) {
+            logger.error("Errors encountered:      {}", errors.get());
+        }
+        logger.info("---------------------------");
+    }
+
+    /**
+     * Writes back every chunked original that is missing from the originals directory.
+     */
+    public void restoreOriginals() {
+        Path manifests = storeDir().resolve(MANIFESTS_DIR);
+        if (!Files.exists(manifests)) {
+            logger.warn("No chunk manifests found in {}", manifests);
+            return;
+        }
+
+        AtomicInteger restored = new AtomicInteger(0);
+        AtomicInteger present = new AtomicInteger(0);
+        AtomicInteger errors = new AtomicInteger(0);
+        try (Stream<Path> paths = Files.walk(manifests)) {
+            paths.filter(Files::isRegularFile)
+                    .forEach(manifest -> {
+                        String sha256 = manifest.getFileName().toString().split("\\.")[0];
+                        try {
+                            Path target = Paths.get(config.getOriginalsDir(), sha256.substring(0, 1),
+                                    sha256.substring(1, 2), sha256 + "." + readExtension(manifest));
+                            if (Files.exists(target)) {
+                                present.incrementAndGet();
+                                return;
+                            }
+                            restore(sha256, target);
+                            restored.incrementAndGet();
+                        } catch (Exception e) {
+                            logger.error("Error restoring chunked original {}", sha256, e);
+                            errors.incrementAndGet();
+                        }
+                    });
+        } catch (IOException e) {
+            logger.error("Error scanning chunk manifests: {}", manifests, e);
+        }
+
+        logger.info("--- Chunk Restore Summary ---");
+        logger.info("Originals restored:      {}", restored.get());
+        logger.info("Already present:         {}", present.get());
+        if (errors.get() > 0) {
+            logger.error("Errors encountered:      {}", errors.get());
+        }
+        logger.info("-----------------------------");
+    }
+
+    /**
+     * Returns {@code true} if the file with this hash is held in the chunk store.
+     */
+    public boolean hasManifest(String sha256) {
+        return config.getChunkStore().isEnabled() && Digests.fromHex(sha256) != null
+                && Files.exists(manifestFile(sha256));
+    }
+
+    /**
+     * Opens the content of a chunked file as a regular stream.
+     */
+    public InputStream open(String sha256) throws IOException {
+        Path manifest = manifestFile(sha256);
+        if (!Files.exists(manifest)) {
+            throw new NoSuchFileException(manifest.toString());
+        }
+        return new ChunkedInputStream(readChunkList(manifest));
+    }
+
+    /**
+     * Reassembles a chunked file into {@code target}, verifying its hash on the way.
+     */
+    void restore(String sha256, Path target) throws IOException, NoSuchAlgorithmException {
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = open(sha256);
+                OutputStream out = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(temp),
+                        1 << 16), digest)) {
+            in.transferTo(out);
+        }
+        if (!Digests.toHex(digest.digest()).equals(sha256)) {
+            Files.deleteIfExists(temp);
+            throw new IOException("Reassembled content does not match " + sha256);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Chunks one file and writes its manifest. Returns the file size and the bytes of chunks
+     * that were new to the store.
+     */
+    private long[] chunkFile(Path file, byte[] fileDigest, FastCdc chunker, DigestLongMap chunks)
+            throws IOException, NoSuchAlgorithmException {
+        MessageDigest whole = MessageDigest.getInstance("SHA-256");
+        MessageDigest chunkDigest = MessageDigest.getInstance("SHA-256");
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream manifestEntries = new DataOutputStream(entries);
+        long[] stored = new long[1];
+        int[] count = new int[1];
+        Set<Path> unsynced = new HashSet<>();
+
+        long size;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = chunker.split(channel, (data, offset, length) -> {
+                whole.update(data, offset, length);
+                chunkDigest.update(data, offset, length);
+                byte[] digest = chunkDigest.digest();
+                if (!chunks.containsKey(digest) || !Files.exists(chunkFile(Digests.toHex(digest)))) {
+                    writeChunk(digest, data, offset, length, unsynced);
+                    if (chunks.putIfAbsent(digest, length)) {
+                        stored[0] += length;
+                    }
+                }
+                manifestEntries.write(digest);
+                manifestEntries.writeInt(length);
+                count[0]++;
+            });
+        }
+        // The name is the hash of the content; a mismatch is left for the scrub to quarantine
+        if (!Arrays.equals(whole.digest(), fileDigest)) {
+            throw new IOException("Content does not match its name, not chunking");
+        }
+
+        // Every chunk the manifest names must be durable before the manifest is
+        for (Path dir : unsynced) {
+            syncDirectory(dir);
+        }
+        unsynced.clear();
+
+        Path manifest = manifestFile(Digests.toHex(fileDigest));
+        createDirectories(manifest.getParent(), unsynced);
+        Path temp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(MANIFEST_MAGIC);
+            out.writeUTF(getExtension(file));
+            out.writeLong(size);
+            out.writeInt(count[0]);
+            entries.writeTo(out);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        unsynced.add(manifest.getParent());
+        for (Path dir : unsynced) {
+            syncDirectory(dir);
+        }
+        return new long[] { size, stored[0] };
+    }
+
+    /**
+     * Returns {@code true} if the manifest and every chunk it names read back to {@code sha256}.
+     */
+    private boolean isIntact(String sha256) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = open(sha256);
+                    OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+                in.transferTo(out);
+            }
+            return Digests.toHex(digest.digest()).equals(sha256);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            logger.warn("Chunked copy of {} is incomplete: {}", sha256, e.toString());
+            return false;
+        }
+    }
+
+    private void saveIndex(DigestLongMap chunks, Path indexFile) throws IOException {
+        // Workers save while others insert; one save at a time is enough
+        synchronized (chunks) {
+            chunks.save(indexFile);
+        }
+    }
+
+    private void removeOriginal(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Could not remove chunked original {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a chunk synced to disk; the directories whose entries changed are added to
+     * {@code unsynced}.
+     */
+    private void writeChunk(byte[] digest, byte[] data, int offset, int length, Set<Path> unsynced)
+            throws IOException {
+        Path chunk = chunkFile(Digests.toHex(digest));
+        createDirectories(chunk.getParent(), unsynced);
+        // Unique temp name: two workers may store the same new chunk at once
+        Path temp = Files.createTempFile(chunk.getParent(), chunk.getFileName().toString(), ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(temp, chunk, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        unsynced.add(chunk.getParent());
+    }
+
+    /**
+     * Creates {@code dir} and any missing parents, adding the directories that gained an entry
+     * to {@code unsynced}.
+     */
+    private static void createDirectories(Path dir, Set<Path> unsynced) throws IOException {
+        dir = dir.toAbsolutePath();
+        if (Files.isDirectory(dir)) {
+            return;
+        }
+        createDirectories(dir.getParent(), unsynced);
+        try {
+            Files.createDirectory(dir);
+        } catch (FileAlreadyExistsException e) {
+            // Created by another worker in the meantime
+        }
+        unsynced.add(dir.getParent());
+    }
+
+    private static void syncDirectory(Path dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
+            // Not every platform can open a directory; there renames are as durable as it gets
+            logger.debug("Cannot sync directory {}: {}", dir, e.toString());
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    private Path[] readChunkList(Path manifest) throws IOException {
+        try (DataInputStream in = openManifest(manifest)) {
+            in.readUTF();
+            in.readLong();
+            int count = in.readInt();
+            Path[] files = new Path[count];
+            byte[] digest = new byte[32];
+            for (int i = 0; i < count; i++) {
+                in.readFully(digest);
+                in.readInt();
+                files[i] = chunkFile(Digests.toHex(digest));
+            }
+            return files;
+        }
+    }
+
+    private String readExtension(Path manifest) throws IOException {
+        try (DataInputStream in = openManifest(manifest)) {
+            return in.readUTF();
+        }
+    }
+
+    /**
+     * Opens a manifest positioned just after its magic number.
+     */
+    private DataInputStream openManifest(Path manifest) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifest),
+                MANIFEST_ENTRY * 1024));
+        if (in.readInt() != MANIFEST_MAGIC) {
+            in.close();
+            throw new IOException("Not a chunk manifest: " + manifest);
+        }
+        return in;
+    }
+
+    private boolean isChunked(String extension) {
+        return config.getChunkStore().getExtensions().contains(extension.toLowerCase());
+    }
+
+    private Path storeDir() {
+        return Paths.get(config.getChunkStore().getDir());
+    }
+
+    private Path chunkFile(String sha256) {
+        return storeDir().resolve(CHUNKS_DIR).resolve(sha256.substring(0, 1)).resolve(sha256.substring(1, 2))
+                .resolve(sha256);
+    }
+
+    private Path manifestFile(String sha256) {
+        return storeDir().resolve(MANIFESTS_DIR).resolve(sha256.substring(0, 1)).resolve(sha256.substring(1, 2))
+                .resolve(sha256 + ".manifest");
+    }
+
+    private Properties loadStats() {
+        Properties stats = new Properties();
+        Path file = storeDir().resolve(STATS_FILE);
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                stats.load(in);
+            } catch (IOException e) {
+                logger.warn("Could not read chunk store statistics {}: {}", file, e.getMessage());
+            }
+        }
+        return stats;
+    }
+
+    private void saveStats(Properties stats) throws IOException {
+        Path file = storeDir().resolve(STATS_FILE);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            stats.store(out, "photosono chunk store totals");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long statLong(Properties stats, String key) {
+        return Long.parseLong(stats.getProperty(key, "0"));
+    }
+
+    private static String ratio(long logical, long stored) {
+        return stored == 0 ? (logical == 0 ? "n/a" : "all reused") : String.format("%.2f:1", (double) logical / stored);
+    }
+
+    private void awaitTermination(ExecutorService executor) {
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String getExtension(Path file) {
+        String fileName = file.getFileName().toString();
+        int lastDot = fileName.lastIndexOf('.');
+        return (lastDot == -1) ? "" : fileName.substring(lastDot + 1);
+    }
+
+    /**
+     * Concatenation of chunk files, opening each one only when it is reached.
+     */
+    private static final class ChunkedInputStream extends InputStream {
+
+        private final Path[] chunks;
+        private int next;
+        private InputStream current = InputStream.nullInputStream();
+
+        ChunkedInputStream(Path[] chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (true) {
+                int read = current.read(buffer, offset, length);
+                if (read >= 0) {
+                    return read;
+                }
+                if (next == chunks.length) {
+                    return -1;
+                }
+                current.close();
+                current = Files.newInputStream(chunks[next++]);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            current.close();
+        }
+    }
+}
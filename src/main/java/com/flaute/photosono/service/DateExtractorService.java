@@ -8,73 +8,247 @@ import com.drew.metadata.exif.ExifSubIFDDirectory;
 import com.drew.metadata.mov.QuickTimeDirectory;
 import com.drew.metadata.mp4.Mp4Directory;
 import com.drew.metadata.avi.AviDirectory;
+import com.flaute.photosono.config.PhotosonoConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Service
 public class DateExtractorService {
 
     private static final Logger logger = LoggerFactory.getLogger(DateExtractorService.class);
 
+    /**
+     * Where a creation date can come from, tried in the configured order.
+     */
+    public enum DateSource {
+        METADATA,
+        FILENAME
+    }
+
+    /**
+     * Camera and messenger naming schemes. Groups {@code y}, {@code M} and {@code d} are required,
+     * {@code H}, {@code m} and {@code s} default to midnight.
+     */
+    static final List<String> DEFAULT_FILENAME_PATTERNS = List.of(
+            // IMG_20190704_153012.jpg, PXL_20230101_120000123.mp4, 20190704_153012.jpg
+            "(?<!\\d)(?<y>(?:19|20)\\d{2})(?<M>0[1-9]|1[0-2])(?<d>0[1-9]|[12]\\d|3[01])[_-]"
+                    + "(?<H>[01]\\d|2[0-3])(?<m>[0-5]\\d)(?<s>[0-5]\\d)",
+            // VID-20200101-WA0001.mp4, IMG-20200101-WA0001.jpg
+            "(?<!\\d)(?<y>(?:19|20)\\d{2})(?<M>0[1-9]|1[0-2])(?<d>0[1-9]|[12]\\d|3[01])-WA\\d+",
+            // Screenshot_2021-03-04-10-11-12.png, 2021-03-04 10.11.12.jpg
+            "(?<!\\d)(?<y>(?:19|20)\\d{2})-(?<M>0[1-9]|1[0-2])-(?<d>0[1-9]|[12]\\d|3[01])[ _-]"
+                    + "(?<H>[01]\\d|2[0-3])[.:-](?<m>[0-5]\\d)[.:-](?<s>[0-5]\\d)");
+
+    private final IoGovernorService io;
+    private final List<DateSource> ranking;
+    private final List<Pattern> filenamePatterns;
+    private final Map<DateSource, LongAdder> wins = new EnumMap<>(DateSource.class);
+    private final LongAdder undated = new LongAdder();
+
+    public DateExtractorService(PhotosonoConfig config, IoGovernorService io) {
+        this.io = io;
+        PhotosonoConfig.Timeline timeline = config.getTimeline();
+        this.ranking = ranking(timeline.getDateSources());
+        List<String> patterns = timeline.getFilenamePatterns() == null || timeline.getFilenamePatterns().isEmpty()
+                ? DEFAULT_FILENAME_PATTERNS
+                : timeline.getFilenamePatterns();
+        this.filenamePatterns = patterns.stream().map(DateExtractorService::compile).toList();
+        for (DateSource source : DateSource.values()) {
+            wins.put(source, new LongAdder());
+        }
+    }
+
+    /**
+     * Extracts the creation date from the sources in configured order and counts which one
+     * supplied it. {@code originalNames} are the paths the file was ingested from; they are only
+     * asked for when the file name is consulted.
+     */
+    public Optional<Date> extractCreationDate(Path path, Supplier<? extends Collection<String>> originalNames) {
+        return extractCreationDate(path, () -> readMetadata(path), originalNames);
+    }
+
+    /**
+     * Like {@link #extractCreationDate(Path, Supplier)} with metadata the caller already parsed or
+     * parses on demand, so one read of the file can serve other uses too. {@code metadata} may
+     * supply {@code null} for files that have none.
+     */
+    public Optional<Date> extractCreationDate(Path path, Supplier<Metadata> metadata,
+            Supplier<? extends Collection<String>> originalNames) {
+        for (DateSource source : ranking) {
+            Optional<Date> date = switch (source) {
+                case METADATA -> dateFromMetadata(metadata.get());
+                case FILENAME -> dateFromFileNames(path, originalNames);
+            };
+            if (date.isPresent()) {
+                wins.get(source).increment();
+                return date;
+            }
+        }
+        undated.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the date encoded in a file name by one of the configured patterns. Like EXIF
+     * timestamps these carry no zone and are read as UTC, matching the metadata reader.
+     */
+    public Optional<Date> dateFromFileName(String fileName) {
+        for (Pattern pattern : filenamePatterns) {
+            Matcher matcher = pattern.matcher(fileName);
+            while (matcher.find()) {
+                try {
+                    LocalDateTime time = LocalDateTime.of(number(matcher, "y"), number(matcher, "M"),
+                            number(matcher, "d"), number(matcher, "H"), number(matcher, "m"), number(matcher, "s"));
+                    return Optional.of(Date.from(time.toInstant(ZoneOffset.UTC)));
+                } catch (DateTimeException e) {
+                    // 20190231 and the like: keep looking
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * How many dates each source supplied so far, plus the files no source could date.
+     */
+    public Map<String, Long> dateSourceCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (DateSource source : ranking) {
+            counts.put(source.name().toLowerCase(Locale.ROOT), wins.get(source).sum());
+        }
+        counts.put("none", undated.sum());
+        return counts;
+    }
+
     /**
      * Extracts creation date from image/video metadata.
      * Only returns dates found within the file metadata (EXIF, etc.).
      * No filesystem fallback is performed here.
      */
     public Optional<Date> extractCreationDate(Path path) {
-        File file = path.toFile();
-        try {
-            Metadata metadata = ImageMetadataReader.readMetadata(file);
-
-            // 1: DateTimeOriginal (Highest priority)
-            Optional<Date> originalDate = getDateFromDirectory(metadata, ExifSubIFDDirectory.class,
-                    ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL);
-            if (originalDate.isPresent())
-                return originalDate;
-
-            // 2: CreateDate (Digitized)
-            Optional<Date> createDate = getDateFromDirectory(metadata, ExifSubIFDDirectory.class,
-                    ExifSubIFDDirectory.TAG_DATETIME_DIGITIZED);
-            if (createDate.isPresent())
-                return createDate;
-
-            // 3: ModifyDate (Internal metadata)
-            Optional<Date> modifyDate = getDateFromDirectory(metadata, ExifIFD0Directory.class,
-                    ExifIFD0Directory.TAG_DATETIME);
-            if (modifyDate.isPresent())
-                return modifyDate;
-
-            // 4: Video Creation Date (MP4)
-            Optional<Date> mp4Date = getDateFromDirectory(metadata, Mp4Directory.class,
-                    Mp4Directory.TAG_CREATION_TIME);
-            if (mp4Date.isPresent())
-                return mp4Date;
-
-            // 5: Video Creation Date (QuickTime/MOV)
-            Optional<Date> movDate = getDateFromDirectory(metadata, QuickTimeDirectory.class,
-                    QuickTimeDirectory.TAG_CREATION_TIME);
-            if (movDate.isPresent())
-                return movDate;
-
-            // 6: Video Creation Date (AVI)
-            Optional<Date> aviDate = getDateFromDirectory(metadata, AviDirectory.class,
-                    AviDirectory.TAG_DATETIME_ORIGINAL);
-            if (aviDate.isPresent())
-                return aviDate;
+        return dateFromMetadata(readMetadata(path));
+    }
 
+    /**
+     * Parses the file's metadata, or returns {@code null} if it cannot be read.
+     */
+    public Metadata readMetadata(Path path) {
+        try (InputStream in = io.newInputStream(path)) {
+            return ImageMetadataReader.readMetadata(in, Files.size(path));
         } catch (Exception e) {
-            logger.warn("Could not extract metadata from {}: {}", path, e.getMessage());
+            logger.debug("Could not extract metadata from {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    private Optional<Date> dateFromMetadata(Metadata metadata) {
+        if (metadata == null) {
+            return Optional.empty();
         }
 
+        // 1: DateTimeOriginal (Highest priority)
+        Optional<Date> originalDate = getDateFromDirectory(metadata, ExifSubIFDDirectory.class,
+                ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL);
+        if (originalDate.isPresent())
+            return originalDate;
+
+        // 2: CreateDate (Digitized)
+        Optional<Date> createDate = getDateFromDirectory(metadata, ExifSubIFDDirectory.class,
+                ExifSubIFDDirectory.TAG_DATETIME_DIGITIZED);
+        if (createDate.isPresent())
+            return createDate;
+
+        // 3: ModifyDate (Internal metadata)
+        Optional<Date> modifyDate = getDateFromDirectory(metadata, ExifIFD0Directory.class,
+                ExifIFD0Directory.TAG_DATETIME);
+        if (modifyDate.isPresent())
+            return modifyDate;
+
+        // 4: Video Creation Date (MP4)
+        Optional<Date> mp4Date = getDateFromDirectory(metadata, Mp4Directory.class,
+                Mp4Directory.TAG_CREATION_TIME);
+        if (mp4Date.isPresent())
+            return mp4Date;
+
+        // 5: Video Creation Date (QuickTime/MOV)
+        Optional<Date> movDate = getDateFromDirectory(metadata, QuickTimeDirectory.class,
+                QuickTimeDirectory.TAG_CREATION_TIME);
+        if (movDate.isPresent())
+            return movDate;
+
+        // 6: Video Creation Date (AVI)
+        Optional<Date> aviDate = getDateFromDirectory(metadata, AviDirectory.class,
+                AviDirectory.TAG_DATETIME_ORIGINAL);
+        if (aviDate.isPresent())
+            return aviDate;
+
         return Optional.empty();
     }
 
+    private Optional<Date> dateFromFileNames(Path path, Supplier<? extends Collection<String>> originalNames) {
+        Optional<Date> own = dateFromFileName(path.getFileName().toString());
+        if (own.isPresent()) {
+            return own;
+        }
+        for (String original : originalNames.get()) {
+            Optional<Date> date = dateFromFileName(Paths.get(original).getFileName().toString());
+            if (date.isPresent()) {
+                logger.debug("Dated {} from original name {}", path, original);
+                return date;
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static int number(Matcher matcher, String group) {
+        String value = matcher.namedGroups().containsKey(group) ? matcher.group(group) : null;
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    private static Pattern compile(String regex) {
+        Pattern pattern = Pattern.compile(regex);
+        if (!pattern.namedGroups().keySet().containsAll(List.of("y", "M", "d"))) {
+            throw new IllegalArgumentException("Filename date pattern needs groups y, M and d: " + regex);
+        }
+        return pattern;
+    }
+
+    private static List<DateSource> ranking(List<String> names) {
+        if (names == null || names.isEmpty()) {
+            return List.of(DateSource.METADATA, DateSource.FILENAME);
+        }
+        List<DateSource> ranking = new ArrayList<>();
+        for (String name : names) {
+            DateSource source = DateSource.valueOf(name.trim().toUpperCase(Locale.ROOT));
+            if (!ranking.contains(source)) {
+                ranking.add(source);
+            }
+        }
+        return List.copyOf(ranking);
+    }
+
     private <T extends Directory> Optional<Date> getDateFromDirectory(Metadata metadata, Class<T> directoryClass,
             int tag) {
         T directory = metadata.getFirstDirectoryOfType(directoryClass);
@@ -0,0 +1,227 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.index.Digests;
+import com.flaute.photosono.io.ExternalSorter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists every input path of each content hash seen more than once during deduplication, so
+ * source disks can be cleaned up after an import.
+ * <p>
+ * Each hashed input is streamed into an {@link ExternalSorter} as (hash, size, path), which
+ * spills sorted runs to the state directory whenever {@code sort-memory} is used up. The report
+ * is written from one merge pass over those runs, so the number of inputs is bounded by disk
+ * space, not heap. Only the per-directory totals are kept in memory, one entry per directory
+ * that holds a duplicate.
+ * <p>
+ * {@code duplicates.txt} has one block per duplicated hash with the bytes a single copy would
+ * save. {@code duplicate-directories.txt} lists, per directory, the files and bytes that have a
+ * copy elsewhere, largest first.
+ */
+@Service
+public class DuplicateReportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DuplicateReportService.class);
+
+    static final String REPORT_FILE = "duplicates.txt";
+    static final String DIRECTORIES_FILE = "duplicate-directories.txt";
+    private static final String SORT_DIR = "duplicate-report";
+    private static final int DIGEST_BYTES = 32;
+
+    // Object headers, the digest array and the references that hold an entry in the sort buffer
+    private static final long ENTRY_OVERHEAD = 128;
+
+    record Entry(byte[] digest, long size, String path) {
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator.<Entry, byte[]>comparing(Entry::digest,
+            Arrays::compareUnsigned).thenComparing(Entry::path);
+
+    private static final ExternalSorter.Codec<Entry> CODEC = new ExternalSorter.Codec<>() {
+        @Override
+        public void write(DataOutput out, Entry entry) throws IOException {
+            out.write(entry.digest());
+            out.writeLong(entry.size());
+            out.writeUTF(entry.path());
+        }
+
+        @Override
+        public Entry read(DataInput in) throws IOException {
+            byte[] digest = new byte[DIGEST_BYTES];
+            in.readFully(digest);
+            return new Entry(digest, in.readLong(), in.readUTF());
+        }
+
+        @Override
+        public long heapSize(Entry entry) {
+            return ENTRY_OVERHEAD + entry.path().length();
+        }
+    };
+
+    private final PhotosonoConfig config;
+
+    private ExternalSorter<Entry> sorter;
+
+    public DuplicateReportService(PhotosonoConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Adds a hashed input file to the report. Does nothing unless the report is enabled.
+     */
+    public void record(Path source, String sha256) {
+        record(source, sha256, source);
+    }
+
+    /**
+     * Like {@link #record(Path, String)} for an input whose content is read from {@code content},
+     * such as an archive entry staged on disk.
+     */
+    public void record(Path source, String sha256, Path content) {
+        if (!config.getDuplicateReport().isEnabled()) {
+            return;
+        }
+        try {
+            record(source, sha256, Files.size(content));
+        } catch (IOException e) {
+            logger.warn("Could not add {} to the duplicate report: {}", source, e.getMessage());
+        }
+    }
+
+    /**
+     * Like {@link #record(Path, String)} for an input of {@code size} bytes that is not on disk,
+     * such as an archive entry only read into memory.
+     */
+    public void record(Path source, String sha256, long size) {
+        if (!config.getDuplicateReport().isEnabled()) {
+            return;
+        }
+        byte[] digest = Digests.fromHex(sha256);
+        if (digest == null) {
+            return;
+        }
+        try {
+            sorter().add(new Entry(digest, size, source.toAbsolutePath().toString()));
+        } catch (IOException e) {
+            logger.warn("Could not add {} to the duplicate report: {}", source, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the report for everything recorded so far and discards the records.
+     */
+    public void writeReport() {
+        ExternalSorter<Entry> records;
+        synchronized (this) {
+            records = sorter;
+            sorter = null;
+        }
+        if (records == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        Path reportFile = Paths.get(config.getStateDir(), REPORT_FILE);
+        Path directoriesFile = Paths.get(config.getStateDir(), DIRECTORIES_FILE);
+        Report report = new Report();
+        try (records; BufferedWriter out = Files.newBufferedWriter(reportFile)) {
+            report.out = out;
+            records.forEachSorted(report::add);
+            report.flushGroup();
+            writeDirectories(report.directories, directoriesFile);
+        } catch (IOException e) {
+            logger.error("Error writing duplicate report {}", reportFile, e);
+            return;
+        }
+
+        logger.info("--- Duplicate Report ---");
+        logger.info("Inputs recorded:       {}", records.count());
+        logger.info("Duplicated hashes:     {}", report.groups);
+        logger.info("Redundant copies:      {}", report.redundantCopies);
+        logger.info("Wasted bytes:          {}", report.wastedBytes);
+        logger.info("Report:                {}", reportFile);
+        logger.info("By directory:          {}", directoriesFile);
+        logger.info("Took {} ms", (System.nanoTime() - start) / 1_000_000);
+        logger.info("------------------------");
+    }
+
+    private synchronized ExternalSorter<Entry> sorter() throws IOException {
+        if (sorter == null) {
+            Path dir = Paths.get(config.getStateDir(), SORT_DIR);
+            Files.createDirectories(dir);
+            sorter = new ExternalSorter<>(dir, ORDER, CODEC, config.getDuplicateReport().getSortMemory());
+        }
+        return sorter;
+    }
+
+    private static void writeDirectories(Map<String, long[]> directories, Path file) throws IOException {
+        List<Map.Entry<String, long[]>> sorted = new ArrayList<>(directories.entrySet());
+        sorted.sort(Comparator.<Map.Entry<String, long[]>>comparingLong(entry -> entry.getValue()[1]).reversed()
+                .thenComparing(Map.Entry::getKey));
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            for (Map.Entry<String, long[]> entry : sorted) {
+                out.write(entry.getValue()[1] + " bytes in " + entry.getValue()[0] + " files " + entry.getKey());
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Collects one hash at a time from the sorted stream and writes it out if it has copies.
+     */
+    private static final class Report {
+        BufferedWriter out;
+        final List<Entry> group = new ArrayList<>();
+        // Directory -> {files, bytes} that also exist elsewhere
+        final Map<String, long[]> directories = new HashMap<>();
+        long groups;
+        long redundantCopies;
+        long wastedBytes;
+
+        void add(Entry entry) throws IOException {
+            if (!group.isEmpty() && !Arrays.equals(group.get(0).digest(), entry.digest())) {
+                flushGroup();
+            }
+            group.add(entry);
+        }
+
+        void flushGroup() throws IOException {
+            if (group.size() > 1) {
+                long size = group.get(0).size();
+                long wasted = size * (group.size() - 1);
+                groups++;
+                redundantCopies += group.size() - 1;
+                wastedBytes += wasted;
+                out.write(Digests.toHex(group.get(0).digest()) + " size=" + size + " copies=" + group.size()
+                        + " wasted=" + wasted);
+                out.newLine();
+                for (Entry copy : group) {
+                    out.write("  " + copy.path());
+                    out.newLine();
+                    Path parent = Paths.get(copy.path()).getParent();
+                    long[] totals = directories.computeIfAbsent(parent == null ? "" : parent.toString(),
+                            key -> new long[2]);
+                    totals[0]++;
+                    totals[1] += copy.size();
+                }
+            }
+            group.clear();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.flaute.photosono.service;
 
 import com.drew.imaging.ImageMetadataReader;
+import com.drew.imaging.ImageProcessingException;
 import com.drew.metadata.Metadata;
 import com.drew.metadata.avi.AviDirectory;
 import com.drew.metadata.bmp.BmpHeaderDirectory;
@@ -11,23 +12,51 @@ import com.drew.metadata.mp4.media.Mp4VideoDirectory;
 import com.drew.metadata.png.PngDirectory;
 import com.drew.metadata.webp.WebpDirectory;
 import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.io.ArchiveReader;
+import com.flaute.photosono.storage.LocalObjectStore;
+import com.flaute.photosono.storage.ObjectStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 
 @Service
 public class FileProcessorService {
 
     private static final Logger logger = LoggerFactory.getLogger(FileProcessorService.class);
 
+    // Inside the originals root, so a staged entry is moved into place by a link, never copied
+    static final String STAGING_DIR = ".staging";
+
+    // Entries up to this size are hashed in memory first, so a duplicate is never written to staging
+    private static final int IN_MEMORY_ENTRY = 8 << 20;
+
     private final PhotosonoConfig config;
     private final HashService hashService;
+    private final OriginalsIndexService originalsIndex;
+    private final CatalogService catalogService;
+    private final AuditJournalService journal;
+    private final ChunkStoreService chunkStore;
+    private final StorageService storage;
+    private final IoGovernorService io;
+    private final ThumbnailService thumbnails;
+    private final DuplicateReportService duplicateReport;
+    private final MediaValidationService validation;
+
+    private Semaphore uploads;
 
     public enum Result {
         PROCESSED,
@@ -38,6 +67,20 @@ public class FileProcessorService {
         INVALID_SIZE
     }
 
+    /**
+     * Where a file ended up; {@code target} is {@code null} when nothing was written.
+     */
+    private record Placement(Result result, String target) {
+    }
+
+    /**
+     * Told about each entry of an archive once it is placed, with its size and how long it took.
+     */
+    @FunctionalInterface
+    public interface EntryListener {
+        void entry(Result result, long bytes, long nanos);
+    }
+
     private static final Map<String, String> EXTENSION_NORMALIZATION = Map.of(
             "jpeg", "jpg",
             "jpg", "jpg");
@@ -47,82 +90,350 @@ public class FileProcessorService {
             "mp4", "mov", "avi" // Videos
     );
 
-    public FileProcessorService(PhotosonoConfig config, HashService hashService) {
+    public FileProcessorService(PhotosonoConfig config, HashService hashService,
+            OriginalsIndexService originalsIndex, CatalogService catalogService, AuditJournalService journal,
+            ChunkStoreService chunkStore, StorageService storage, IoGovernorService io, ThumbnailService thumbnails,
+            DuplicateReportService duplicateReport, MediaValidationService validation) {
         this.config = config;
         this.hashService = hashService;
+        this.originalsIndex = originalsIndex;
+        this.catalogService = catalogService;
+        this.journal = journal;
+        this.chunkStore = chunkStore;
+        this.storage = storage;
+        this.io = io;
+        this.thumbnails = thumbnails;
+        this.duplicateReport = duplicateReport;
+        this.validation = validation;
     }
 
     public Result processFile(Path file) {
-        logger.info("Processing file for deduplication: {}", file);
+        return processFile(file, (result, bytes, nanos) -> {
+        });
+    }
+
+    /**
+     * Like {@link #processFile(Path)}, reporting each entry to {@code entries} when the file is an
+     * archive. An archive that cannot be read is reported as one failed entry.
+     */
+    public Result processFile(Path file, EntryListener entries) {
+        return submitFile(file, entries).join();
+    }
+
+    /**
+     * Like {@link #processFile(Path, EntryListener)}, but returns as soon as a new original is
+     * handed to a remote originals store: the upload completes the future, so the caller can go on
+     * to the next file instead of waiting out one round trip per file. At most twice the store's
+     * {@code max-concurrency} uploads are pending; past that, this call waits for one to finish.
+     * Local stores, rejected files and archive entries complete before this returns. The future
+     * never completes exceptionally.
+     */
+    public CompletableFuture<Result> submitFile(Path file, EntryListener entries) {
+        if (config.getArchive().isEnabled() && ArchiveReader.isArchive(file.getFileName().toString())) {
+            return CompletableFuture.completedFuture(processArchive(file, entries));
+        }
+        logger.debug("Processing file for deduplication: {}", file);
+        return process(file, file, null, System.nanoTime());
+    }
+
+    /**
+     * Ingests each entry of an archive as if it were an input file of its own, so the archive is
+     * never unpacked as a whole. Entries up to {@value #IN_MEMORY_ENTRY} bytes are read into
+     * memory and hashed there, and one that is already in originals is recorded as a duplicate
+     * without touching the disk. Every other entry is streamed into the staging directory, hashed
+     * on the way, and moved into place from there: larger duplicates are therefore written to
+     * staging once and deleted. Staging defaults to a directory inside the originals root, where
+     * the move is a link; elsewhere each new entry is copied a second time. The catalog, journal
+     * and duplicate report name entries {@code <archive>!/<entry>}. Archives inside archives are
+     * treated as plain files.
+     */
+    private Result processArchive(Path archive, EntryListener listener) {
+        logger.debug("Ingesting archive: {}", archive);
+        long start = System.nanoTime();
+        Path entries = archive.resolveSibling(archive.getFileName() + "!");
+        Map<Result, Integer> counts = new EnumMap<>(Result.class);
         try {
-            String extension = getExtension(file).toLowerCase();
-            String normalizedExtension = EXTENSION_NORMALIZATION.getOrDefault(extension, extension);
-            String sha256 = hashService.calculateSHA256(file);
+            Path staging = stagingDir();
+            Files.createDirectories(staging);
+            ArchiveReader.read(archive, (name, content) -> {
+                Path source = entries.resolve(name.replaceFirst("^/+", ""));
+                long entryStart = System.nanoTime();
+                long[] bytes = new long[1];
+                Result result = processEntry(source, content, staging, bytes);
+                counts.merge(result, 1, Integer::sum);
+                listener.entry(result, bytes[0], System.nanoTime() - entryStart);
+            });
+        } catch (Exception e) {
+            logger.error("Error reading archive: {}", archive, e);
+            journal.record(AuditJournalService.Action.DEDUPE, archive, null, Result.ERROR, null, start);
+            listener.entry(Result.ERROR, 0, System.nanoTime() - start);
+            return Result.ERROR;
+        }
+        logger.info("Ingested archive {} in {} ms: {}", archive, (System.nanoTime() - start) / 1_000_000, counts);
+        return counts.containsKey(Result.ERROR) ? Result.ERROR : Result.PROCESSED;
+    }
 
-            if (!SUPPORTED_EXTENSIONS.contains(extension)) {
-                return copyToUnknownType(file, sha256, extension);
+    /**
+     * Places one archive entry; its size is left in {@code bytes[0]}.
+     */
+    private Result processEntry(Path source, InputStream content, Path staging, long[] bytes) throws IOException {
+        long start = System.nanoTime();
+        String extension = getExtension(source);
+        Path staged = null;
+        try {
+            String sha256;
+            try {
+                byte[] head = content.readNBytes(IN_MEMORY_ENTRY + 1);
+                bytes[0] = head.length;
+                if (head.length <= IN_MEMORY_ENTRY) {
+                    String inMemory = hashService.calculateInMemorySHA256(head);
+                    Result known = skipKnownEntry(source, inMemory, head.length, start);
+                    if (known != null) {
+                        return known;
+                    }
+                }
+                staged = Files.createTempFile(staging, "entry-", extension.isEmpty() ? "" : "." + extension);
+                sha256 = hashService.spool(new SequenceInputStream(new ByteArrayInputStream(head), content), staged);
+                bytes[0] = Files.size(staged);
+            } catch (IOException e) {
+                logger.error("Error extracting archive entry: {}", source, e);
+                journal.record(AuditJournalService.Action.DEDUPE, source, null, Result.ERROR, null, start);
+                return Result.ERROR;
             }
-
-            if (!isValidMedia(file)) {
-                return moveToCorrupted(file, sha256, extension);
+            // The staged file is deleted below, so its move has to be complete
+            return process(source, staged, sha256, start).join();
+        } finally {
+            if (staged != null) {
+                Files.deleteIfExists(staged);
             }
+        }
+    }
 
-            if (!hasMinimumDimensions(file)) {
-                return moveToInvalidSize(file, sha256, extension);
+    /**
+     * Records an entry held in memory as a duplicate if its content is already in originals, and
+     * returns {@code null} if it is not, or if that cannot be told here.
+     */
+    private Result skipKnownEntry(Path source, String sha256, long size, long start) {
+        String extension = getExtension(source).toLowerCase();
+        if (!SUPPORTED_EXTENSIONS.contains(extension)) {
+            return null;
+        }
+        String normalizedExtension = EXTENSION_NORMALIZATION.getOrDefault(extension, extension);
+        Placement placement;
+        try {
+            placement = existingOriginal(sha256, normalizedExtension);
+        } catch (IOException e) {
+            // Staged and placed the usual way, which reports the failure if it persists
+            return null;
+        }
+        if (placement == null) {
+            return null;
+        }
+        duplicateReport.record(source, sha256, size);
+        return finish(source, sha256, normalizedExtension, placement, localOriginal(sha256, normalizedExtension),
+                start);
+    }
+
+    /**
+     * Places one input. {@code source} is the name it is recorded under and {@code content} where
+     * its bytes are; they differ for archive entries, whose content is staged and already hashed
+     * ({@code stagedSha256}), and which are moved rather than copied into place.
+     */
+    private CompletableFuture<Result> process(Path source, Path content, String stagedSha256, long start) {
+        boolean staged = stagedSha256 != null;
+        String sha256 = stagedSha256;
+        try {
+            String extension = getExtension(source).toLowerCase();
+            String normalizedExtension = EXTENSION_NORMALIZATION.getOrDefault(extension, extension);
+            if (!staged) {
+                sha256 = hashService.calculateInputSHA256(content);
             }
+            // Before placing: a staged entry is gone once it is moved
+            duplicateReport.record(source, sha256, content);
 
-            Path originalsDir = Paths.get(config.getOriginalsDir(), sha256.substring(0, 1), sha256.substring(1, 2));
-            Files.createDirectories(originalsDir);
+            String hash = sha256;
+            return placeFile(content, sha256, extension, normalizedExtension, staged).handle((placement, e) -> {
+                if (e != null) {
+                    return failed(source, hash, e.getCause() != null ? e.getCause() : e, start);
+                }
+                // Any copy of the content will do, and an input is already in the page cache
+                return finish(source, hash, normalizedExtension, placement,
+                        staged ? localOriginal(hash, normalizedExtension) : content, start);
+            });
 
-            Path targetFile = originalsDir.resolve(sha256 + "." + normalizedExtension);
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(failed(source, sha256, e, start));
+        }
+    }
 
-            if (Files.exists(targetFile)) {
-                logger.info("File already exists in originals, skipping: {}", targetFile);
-                return Result.SKIPPED;
-            }
+    private Result failed(Path source, String sha256, Throwable e, long start) {
+        logger.error("Error processing file: {}", source, e);
+        journal.record(AuditJournalService.Action.DEDUPE, source, sha256, Result.ERROR, null, start);
+        return Result.ERROR;
+    }
+
+    /**
+     * Records where an input ended up and queues its thumbnail from {@code thumbnailSource}, if
+     * there is one.
+     */
+    private Result finish(Path source, String sha256, String normalizedExtension, Placement placement,
+            Path thumbnailSource, long start) {
+        catalogService.recordSource(source, sha256, normalizedExtension, placement.result());
+        if ((placement.result() == Result.PROCESSED || placement.result() == Result.SKIPPED)
+                && thumbnailSource != null) {
+            thumbnails.submit(sha256, thumbnailSource, normalizedExtension);
+        }
+        journal.record(AuditJournalService.Action.DEDUPE, source, sha256, placement.result(), placement.target(),
+                start);
+        return placement.result();
+    }
 
-            Files.copy(file, targetFile);
-            logger.info("Copied {} to {}", file, targetFile);
-            return Result.PROCESSED;
+    private CompletableFuture<Placement> placeFile(Path file, String sha256, String extension,
+            String normalizedExtension, boolean staged) throws Exception {
+        if (!SUPPORTED_EXTENSIONS.contains(extension)) {
+            return copyToStore(storage.unknownType(), file, sha256, extension, Result.UNKNOWN_TYPE, staged);
+        }
 
-        } catch (Exception e) {
-            logger.error("Error processing file: {}", file, e);
-            return Result.ERROR;
+        Placement existing = existingOriginal(sha256, normalizedExtension);
+        if (existing != null) {
+            logger.debug("File already exists in originals, skipping: {}", file);
+            return CompletableFuture.completedFuture(existing);
         }
+
+        // One parse serves both checks
+        Metadata metadata = validMetadata(file);
+        if (metadata == null) {
+            return copyToStore(storage.corrupted(), file, sha256, extension, Result.CORRUPTED, staged);
+        }
+
+        if (!hasMinimumDimensions(file, metadata)) {
+            return copyToStore(storage.invalidSize(), file, sha256, extension, Result.INVALID_SIZE, staged);
+        }
+
+        if (!validation.isIntact(file, sha256, normalizedExtension)) {
+            return copyToStore(storage.corrupted(), file, sha256, extension, Result.CORRUPTED, staged);
+        }
+
+        ObjectStore originals = storage.originals();
+        String key = shardedKey(sha256, normalizedExtension);
+        String target = originals.location(key);
+        return upload(() -> put(originals, key, file, staged)).thenApply(written -> {
+            originalsIndex.markKnown(sha256);
+            if (!written) {
+                logger.debug("File already exists in originals, skipping: {}", target);
+                return new Placement(Result.SKIPPED, target);
+            }
+            logger.debug("Copied {} to {}", file, target);
+            return new Placement(Result.PROCESSED, target);
+        });
     }
 
-    private boolean isValidMedia(Path path) {
+    /**
+     * Starts a write of a new original. Local writes are waited for here; remote ones are left in
+     * flight within the upload window.
+     */
+    private CompletableFuture<Boolean> upload(Supplier<CompletableFuture<Boolean>> put) throws IOException {
+        if (storage.isLocal()) {
+            return CompletableFuture.completedFuture(ObjectStore.await(put.get()));
+        }
+        Semaphore window = uploads();
         try {
-            // For images and videos, metadata-extractor will throw an exception if the file
-            // structure is invalid
-            ImageMetadataReader.readMetadata(path.toFile());
-            return true;
-        } catch (Exception e) {
-            logger.warn("File validation failed for {}: {}", path, e.getMessage());
-            return false;
+            window.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for an upload slot", e);
+        }
+        try {
+            return put.get().whenComplete((written, e) -> window.release());
+        } catch (RuntimeException e) {
+            window.release();
+            throw e;
         }
     }
 
-    private Result moveToCorrupted(Path source, String sha256, String extension) throws Exception {
-        Path corruptedBaseDir = Paths.get(config.getCorruptedDir(), sha256.substring(0, 1), sha256.substring(1, 2));
-        Files.createDirectories(corruptedBaseDir);
+    private synchronized Semaphore uploads() {
+        if (uploads == null) {
+            uploads = new Semaphore(Math.max(1, 2 * config.getStorage().getS3().getMaxConcurrency()));
+        }
+        return uploads;
+    }
 
-        String fileName = sha256 + (extension.isEmpty() ? "" : "." + extension);
-        Path targetFile = corruptedBaseDir.resolve(fileName);
+    /**
+     * Where content already in originals is, or {@code null} if it is new. Content that is the
+     * same as a placed original needs no validation of its own.
+     */
+    private Placement existingOriginal(String sha256, String normalizedExtension) throws IOException {
+        // Identical content was already validated and placed during this run
+        if (originalsIndex.isKnown(sha256)) {
+            return new Placement(Result.SKIPPED, null);
+        }
+        // A definite filter miss skips both probes; the write itself still refuses to overwrite.
+        // Originals moved into the chunk store are only known by their manifest, which the filter covers.
+        if (!originalsIndex.mightContain(sha256)) {
+            return null;
+        }
+        ObjectStore originals = storage.originals();
+        String key = shardedKey(sha256, normalizedExtension);
+        if (ObjectStore.await(originals.exists(key)) || chunkStore.hasManifest(sha256)) {
+            originalsIndex.markKnown(sha256);
+            return new Placement(Result.SKIPPED, originals.location(key));
+        }
+        return null;
+    }
 
-        if (Files.exists(targetFile)) {
-            logger.info("Corrupted file already exists, skipping: {}", targetFile);
-            return Result.SKIPPED;
+    private static CompletableFuture<Boolean> put(ObjectStore store, String key, Path file, boolean staged) {
+        return staged ? store.moveIfAbsent(key, file) : store.putIfAbsent(key, file);
+    }
+
+    /**
+     * The placed original to render a thumbnail from once a staged entry is gone, if originals
+     * are on local disk.
+     */
+    private Path localOriginal(String sha256, String extension) {
+        if (storage.originals() instanceof LocalObjectStore local) {
+            Path original = local.getRoot().resolve(shardedKey(sha256, extension));
+            return Files.isRegularFile(original) ? original : null;
         }
+        return null;
+    }
 
-        Files.copy(source, targetFile);
-        logger.warn("Moved corrupted file {} to {}", source, targetFile);
-        return Result.CORRUPTED;
+    /**
+     * The configured staging directory, else one inside local originals so entries are linked into
+     * place, else one in the state directory for originals a move has to upload anyway.
+     */
+    private Path stagingDir() {
+        String configured = config.getArchive().getStagingDir();
+        if (configured != null && !configured.isBlank()) {
+            return Paths.get(configured);
+        }
+        if (storage.originals() instanceof LocalObjectStore local) {
+            return local.getRoot().resolve(STAGING_DIR);
+        }
+        return Paths.get(config.getStateDir(), "staging");
     }
 
-    private boolean hasMinimumDimensions(Path path) {
+    private Metadata readMetadata(Path path) throws IOException, ImageProcessingException {
+        try (InputStream in = io.newInputStream(path)) {
+            return ImageMetadataReader.readMetadata(in, Files.size(path));
+        }
+    }
+
+    /**
+     * Returns the file's metadata, or {@code null} if the file is not valid media.
+     */
+    private Metadata validMetadata(Path path) {
+        try {
+            // For images and videos, metadata-extractor will throw an exception if the file
+            // structure is invalid
+            return readMetadata(path);
+        } catch (Exception e) {
+            logger.debug("File validation failed for {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean hasMinimumDimensions(Path path, Metadata metadata) {
         try {
-            Metadata metadata = ImageMetadataReader.readMetadata(path.toFile());
             Integer width = null;
             Integer height = null;
 
@@ -190,55 +501,44 @@ public class FileProcessorService {
             }
 
             if (width == null || height == null) {
-                logger.warn("Could not determine dimensions for {}. Assuming valid size.", path);
+                logger.debug("Could not determine dimensions for {}. Assuming valid size.", path);
                 return true;
             }
 
             boolean isValid = width >= config.getMinWidth() && height >= config.getMinHeight();
             if (!isValid) {
-                logger.info("File {} has invalid size: {}x{} (min: {}x{})", path, width, height, config.getMinWidth(),
+                logger.debug("File {} has invalid size: {}x{} (min: {}x{})", path, width, height, config.getMinWidth(),
                         config.getMinHeight());
             }
             return isValid;
 
         } catch (Exception e) {
-            logger.warn("Error checking dimensions for {}: {}. Assuming valid size.", path, e.getMessage());
+            logger.debug("Error checking dimensions for {}: {}. Assuming valid size.", path, e.getMessage());
             return true;
         }
     }
 
-    private Result moveToInvalidSize(Path source, String sha256, String extension) throws Exception {
-        Path invalidSizeBaseDir = Paths.get(config.getInvalidSizeDir(), sha256.substring(0, 1), sha256.substring(1, 2));
-        Files.createDirectories(invalidSizeBaseDir);
-
-        String fileName = sha256 + (extension.isEmpty() ? "" : "." + extension);
-        Path targetFile = invalidSizeBaseDir.resolve(fileName);
-
-        if (Files.exists(targetFile)) {
-            logger.info("Invalid size file already exists, skipping: {}", targetFile);
-            return Result.SKIPPED;
+    /**
+     * Copies a file that is not placed in originals (unknown type, corrupted, too small) to the
+     * store for its kind, under its hash like originals.
+     */
+    private CompletableFuture<Placement> copyToStore(ObjectStore store, Path source, String sha256,
+            String extension, Result result, boolean staged) throws IOException {
+        String key = shardedKey(sha256, extension);
+        String target = store.location(key);
+        if (!ObjectStore.await(put(store, key, source, staged))) {
+            logger.debug("{} file already exists, skipping: {}", result, target);
+            return CompletableFuture.completedFuture(new Placement(Result.SKIPPED, target));
         }
-
-        Files.copy(source, targetFile);
-        logger.info("Moved invalid size file {} to {}", source, targetFile);
-        return Result.INVALID_SIZE;
+        logger.debug("Copied {} file {} to {}", result, source, target);
+        return CompletableFuture.completedFuture(new Placement(result, target));
     }
 
-    private Result copyToUnknownType(Path source, String sha256, String extension) throws Exception {
-        Path unknownTypeBaseDir = Paths.get(config.getUnknownTypeDir(), sha256.substring(0, 1), sha256.substring(1, 2));
-        Files.createDirectories(unknownTypeBaseDir);
-
-        String fileName = sha256 + (extension.isEmpty() ? "" : "." + extension);
-        Path targetFile = unknownTypeBaseDir.resolve(fileName);
-
-        if (Files.exists(targetFile)) {
-            logger.info("Unknown type file already exists, skipping: {}", targetFile);
-            return Result.SKIPPED;
-        }
-
-        Files.copy(source, targetFile);
-        logger.info("Copied unknown type file {} to {}", source, targetFile);
-        return Result.UNKNOWN_TYPE;
+    /**
+     * {@code {h0}/{h1}/{hash}.ext}, the layout shared by all hash-named stores.
+     */
+    private static String shardedKey(String sha256, String extension) {
+        return sha256.charAt(0) + "/" + sha256.charAt(1) + "/" + sha256 + (extension.isEmpty() ? "" : "." + extension);
     }
 
     private String getExtension(Path file) {
@@ -1,28 +1,89 @@
 package com.flaute.photosono.service;
 
 import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.io.AdaptiveLimit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
 import java.util.stream.Stream;
 
+/**
+ * Feeds the files of every configured input source to the {@link FileProcessorService}.
+ * <p>
+ * All sources share one worker pool. Whenever a worker is free it is handed the next file of the
+ * highest-priority source that is below its own concurrency limit, taking turns between sources of
+ * equal priority. A slow source therefore never holds up a faster one beyond the workers it is
+ * allowed to occupy.
+ * <p>
+ * Files at or above {@code large-file-threshold} go to a separate lane that may occupy at most
+ * {@code large-file-share} of the workers, so a batch of huge videos cannot take every worker
+ * while thousands of photos wait behind it. The sizes come from the same stat that lists each
+ * directory. With {@code smallest-first}, each directory's files are handed out by size instead
+ * of by name, so results show up early.
+ * <p>
+ * A directory that cannot be listed, typically one removed while a card or backup is being
+ * rewritten, is logged and counted against its source; its shard is released for the next run
+ * and the remaining directories and sources carry on.
+ * <p>
+ * With {@code adaptive-threads}, {@code threads} is only the ceiling: an {@link AdaptiveLimit}
+ * fed with each file's latency and size decides how many files are in flight, between
+ * {@code min-threads} and {@code threads}, so the same settings suit a fast SSD and a busy USB
+ * disk. The limit it settled on is logged and kept in the ingest statistics.
+ */
 @Service
 public class FileScannerService {
 
     private static final Logger logger = LoggerFactory.getLogger(FileScannerService.class);
 
+    static final String STATS_FILE = "ingest.properties";
+
+    private static final String DEFAULT_SOURCE = "input";
+
+    // Stats keys of the adaptive concurrency limit, next to the per-source ones
+    static final String ADAPTIVE_PREFIX = "dedupe.concurrency.";
+
+    // Large files a source may have listed but not yet handed out before it stops listing
+    private static final int MAX_LARGE_BACKLOG = 1024;
+
     private final PhotosonoConfig config;
     private final FileProcessorService processorService;
+    private final LeaseService leaseService;
 
-    public FileScannerService(PhotosonoConfig config, FileProcessorService processorService) {
+    public FileScannerService(PhotosonoConfig config, FileProcessorService processorService,
+            LeaseService leaseService) {
         this.config = config;
         this.processorService = processorService;
+        this.leaseService = leaseService;
     }
 
     public void scanInputDirectory() {
@@ -30,50 +91,588 @@ public class FileScannerService {
             return;
         }
 
-        logger.info("Scanning input directory for deduplication: {}", config.getInputDir());
-        Path inputPath = Paths.get(config.getInputDir());
-
-        if (!Files.exists(inputPath)) {
-            logger.warn("Input directory does not exist: {}", inputPath);
+        int threads = Math.max(1, config.getDeduplication().getThreads());
+        long largeThreshold = config.getDeduplication().getLargeFileThreshold();
+        boolean smallestFirst = config.getDeduplication().isSmallestFirst();
+        List<SourceRun> runs = new ArrayList<>();
+        for (PhotosonoConfig.Source source : sources(threads)) {
+            if (!source.isEnabled()) {
+                logger.info("Input source {} is disabled", source.getName());
+                continue;
+            }
+            Path inputPath = Paths.get(source.getDir());
+            if (!Files.exists(inputPath)) {
+                logger.warn("Input directory does not exist: {}", inputPath);
+                continue;
+            }
+            logger.info("Scanning input source {} for deduplication: {} (priority {}, concurrency {})",
+                    source.getName(), inputPath, source.getPriority(), source.getConcurrency());
+            runs.add(new SourceRun(source, inputPath, largeThreshold, smallestFirst));
+        }
+        if (runs.isEmpty()) {
             return;
         }
 
-        AtomicInteger total = new AtomicInteger(0);
-        AtomicInteger processed = new AtomicInteger(0);
-        AtomicInteger skipped = new AtomicInteger(0);
-        AtomicInteger unknownType = new AtomicInteger(0);
-        AtomicInteger corrupted = new AtomicInteger(0);
-        AtomicInteger invalidSize = new AtomicInteger(0);
-        AtomicInteger errors = new AtomicInteger(0);
-
-        try (Stream<Path> paths = Files.walk(inputPath)) {
-            paths.filter(Files::isRegularFile)
-                    .forEach(file -> {
-                        total.incrementAndGet();
-                        FileProcessorService.Result result = processorService.processFile(file);
-                        switch (result) {
-                            case PROCESSED -> processed.incrementAndGet();
-                            case SKIPPED -> skipped.incrementAndGet();
-                            case UNKNOWN_TYPE -> unknownType.incrementAndGet();
-                            case CORRUPTED -> corrupted.incrementAndGet();
-                            case INVALID_SIZE -> invalidSize.incrementAndGet();
-                            case ERROR -> errors.incrementAndGet();
-                        }
-                    });
+        AdaptiveLimit adaptive = config.getDeduplication().isAdaptiveThreads()
+                ? new AdaptiveLimit(Math.max(1, Math.min(threads, config.getDeduplication().getMinThreads())), threads,
+                        config.getDeduplication().getAdaptiveWindowMillis())
+                : null;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            dispatch(runs, leaseService.begin("dedupe"), executor, adaptive);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Deduplication interrupted");
         } catch (IOException e) {
-            logger.error("Error scanning directory: {}", inputPath, e);
+            logger.error("Could not start the deduplication phase", e);
+        } finally {
+            // Files already handed out are finished rather than interrupted half-copied
+            executor.shutdown();
+            awaitWorkers(executor);
+            for (SourceRun run : runs) {
+                run.awaitUploads();
+                run.releaseShards();
+            }
+        }
+
+        logSummary(runs, adaptive);
+        saveStats(runs, adaptive);
+    }
+
+    /**
+     * Workers the large-file lane may occupy. At least one, and one short of the whole pool
+     * whenever there is more than one worker.
+     */
+    private int largeSlots(int threads) {
+        if (threads == 1) {
+            return 1;
+        }
+        int share = (int) (threads * config.getDeduplication().getLargeFileShare());
+        return Math.max(1, Math.min(threads - 1, share));
+    }
+
+    /**
+     * Hands files to the pool one at a time, so the choice of source is made when a worker is
+     * actually free rather than when the file was found. Returns once every source is drained.
+     */
+    private void dispatch(List<SourceRun> runs, LeaseService.Phase phase, ExecutorService executor,
+            AdaptiveLimit adaptive) throws InterruptedException {
+        int threads = Math.max(1, config.getDeduplication().getThreads());
+        IntSupplier limit = adaptive != null ? adaptive::limit : () -> threads;
+        Object monitor = new Object();
+        // All running files, and the large ones among them
+        int[] running = { 0, 0 };
+        long turn = 0;
+        while (true) {
+            SourceRun chosen;
+            boolean largeFree;
+            synchronized (monitor) {
+                int allowed;
+                while ((chosen = running[0] < (allowed = limit.getAsInt())
+                        ? pick(runs, running[1] < largeSlots(allowed)) : null) == null) {
+                    if (running[0] == 0 && runs.stream().allMatch(run -> run.exhausted)) {
+                        return;
+                    }
+                    monitor.wait();
+                }
+                largeFree = running[1] < largeSlots(allowed);
+                chosen.inFlight++;
+                chosen.lastTurn = ++turn;
+                running[0]++;
+            }
+
+            // Listing directories and claiming shards happens here, outside the monitor
+            SourceRun run = chosen;
+            Work work = run.next(phase, largeFree);
+            synchronized (monitor) {
+                if (work == null) {
+                    run.inFlight--;
+                    running[0]--;
+                    if (run.hasLargeBacklog()) {
+                        // Only large files are left to hand out, and their lane is full
+                        run.waitingForLarge = true;
+                    } else {
+                        run.exhausted = true;
+                        run.finishedNanos = System.nanoTime();
+                    }
+                    monitor.notifyAll();
+                    continue;
+                }
+                run.waitingForLarge = false;
+                if (work.large()) {
+                    running[1]++;
+                }
+            }
+            executor.execute(() -> {
+                try {
+                    processFile(run, work, adaptive);
+                } finally {
+                    synchronized (monitor) {
+                        run.inFlight--;
+                        running[0]--;
+                        if (work.large()) {
+                            running[1]--;
+                        }
+                        monitor.notifyAll();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Highest priority first, then the source that has waited longest for its turn. Sources with
+     * only large files left wait while the large-file lane is full.
+     */
+    private static SourceRun pick(List<SourceRun> runs, boolean largeFree) {
+        SourceRun best = null;
+        for (SourceRun run : runs) {
+            if (run.exhausted || run.inFlight >= run.concurrency || (run.waitingForLarge && !largeFree)) {
+                continue;
+            }
+            if (best == null || run.source.getPriority() > best.source.getPriority()
+                    || (run.source.getPriority() == best.source.getPriority() && run.lastTurn < best.lastTurn)) {
+                best = run;
+            }
+        }
+        return best;
+    }
+
+    private List<PhotosonoConfig.Source> sources(int threads) {
+        List<PhotosonoConfig.Source> sources = config.getSources();
+        if (sources != null && !sources.isEmpty()) {
+            for (int i = 0; i < sources.size(); i++) {
+                if (sources.get(i).getName() == null || sources.get(i).getName().isBlank()) {
+                    sources.get(i).setName("source-" + i);
+                }
+            }
+            return sources;
+        }
+        PhotosonoConfig.Source single = new PhotosonoConfig.Source();
+        single.setName(DEFAULT_SOURCE);
+        single.setDir(config.getInputDir());
+        single.setConcurrency(threads);
+        return List.of(single);
+    }
+
+    /**
+     * Processes one file. The entries of an archive are counted and sampled one by one, like files
+     * of their own, rather than the archive as a whole. A file still uploading is counted, and its
+     * shard finished, when the upload completes; the worker moves on meanwhile.
+     */
+    private void processFile(SourceRun run, Work work, AdaptiveLimit adaptive) {
+        long start = System.nanoTime();
+        AtomicInteger entries = new AtomicInteger();
+        CompletableFuture<FileProcessorService.Result> result;
+        try {
+            result = processorService.submitFile(work.file(), (entryResult, bytes, nanos) -> {
+                entries.incrementAndGet();
+                run.counts.get(entryResult).incrementAndGet();
+                sample(adaptive, nanos, bytes);
+            });
+        } catch (RuntimeException e) {
+            logger.error("Error processing file: {}", work.file(), e);
+            result = CompletableFuture.completedFuture(FileProcessorService.Result.ERROR);
         }
+        CompletableFuture<Void> done = result.thenAccept(placed -> {
+            if (entries.get() == 0) {
+                run.counts.get(placed).incrementAndGet();
+                sample(adaptive, System.nanoTime() - start, work.size());
+            }
+            work.shard().finished(placed != FileProcessorService.Result.ERROR);
+        });
+        if (!done.isDone()) {
+            run.uploads.add(done);
+            done.whenComplete((ignored, e) -> run.uploads.remove(done));
+        }
+    }
 
+    private static void sample(AdaptiveLimit adaptive, long nanos, long bytes) {
+        if (adaptive != null && adaptive.record(nanos, bytes)) {
+            logger.debug("Deduplication concurrency limit now {}", adaptive.limit());
+        }
+    }
+
+    private static void awaitWorkers(ExecutorService executor) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.info("Waiting for deduplication workers to finish their files");
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void logSummary(List<SourceRun> runs, AdaptiveLimit adaptive) {
         logger.info("--- Deduplication Summary ---");
-        logger.info("Total files found:   {}", total.get());
-        logger.info("Unique files copied: {}", processed.get());
-        logger.info("Duplicates skipped:  {}", skipped.get());
-        logger.info("Unknown type:        {}", unknownType.get());
-        logger.info("Corrupted files:      {}", corrupted.get());
-        logger.info("Invalid size:        {}", invalidSize.get());
-        if (errors.get() > 0) {
-            logger.error("Errors encountered:  {}", errors.get());
+        for (SourceRun run : runs) {
+            logger.info("Source {}: {} files ({} large), {} copied, {} duplicates, {} unknown type, {} corrupted, "
+                    + "{} invalid size, {} errors, {} unlisted directories in {} ms", run.source.getName(),
+                    run.total(), run.largeFiles, run.count(FileProcessorService.Result.PROCESSED),
+                    run.count(FileProcessorService.Result.SKIPPED), run.count(FileProcessorService.Result.UNKNOWN_TYPE),
+                    run.count(FileProcessorService.Result.CORRUPTED),
+                    run.count(FileProcessorService.Result.INVALID_SIZE), run.count(FileProcessorService.Result.ERROR),
+                    run.listingErrors, run.elapsedMillis());
+        }
+        int errors = sum(runs, FileProcessorService.Result.ERROR)
+                + runs.stream().mapToInt(run -> run.listingErrors).sum();
+        logger.info("Total files found:   {}", runs.stream().mapToInt(SourceRun::total).sum());
+        logger.info("Unique files copied: {}", sum(runs, FileProcessorService.Result.PROCESSED));
+        logger.info("Duplicates skipped:  {}", sum(runs, FileProcessorService.Result.SKIPPED));
+        logger.info("Unknown type:        {}", sum(runs, FileProcessorService.Result.UNKNOWN_TYPE));
+        logger.info("Corrupted files:      {}", sum(runs, FileProcessorService.Result.CORRUPTED));
+        logger.info("Invalid size:        {}", sum(runs, FileProcessorService.Result.INVALID_SIZE));
+        if (config.getCluster().isEnabled()) {
+            logger.info("Shards left to other nodes: {}", runs.stream().mapToInt(run -> run.otherNodeShards).sum());
+            logger.info("Files left with lost leases: {}", runs.stream().mapToInt(run -> run.lostShardFiles).sum());
+        }
+        if (adaptive != null) {
+            AdaptiveLimit.Stats stats = adaptive.stats();
+            logger.info("Concurrency limit:   {} (between {} and {}, raised {} times, cut {} times)", stats.limit(),
+                    stats.lowest(), stats.highest(), stats.increases(), stats.decreases());
+        }
+        if (errors > 0) {
+            logger.error("Errors encountered:  {}", errors);
         }
         logger.info("-----------------------------");
     }
+
+    private static int sum(List<SourceRun> runs, FileProcessorService.Result result) {
+        return runs.stream().mapToInt(run -> run.count(result)).sum();
+    }
+
+    /**
+     * Records the last run of each source next to the other state files, for monitoring.
+     */
+    private void saveStats(List<SourceRun> runs, AdaptiveLimit adaptive) {
+        if (config.getStateDir() == null) {
+            return;
+        }
+        Path file = Paths.get(config.getStateDir(), STATS_FILE);
+        Properties stats = new Properties();
+        try {
+            Files.createDirectories(file.getParent());
+            if (Files.exists(file)) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    stats.load(in);
+                }
+            }
+            String now = Instant.now().toString();
+            for (SourceRun run : runs) {
+                String prefix = run.source.getName() + ".";
+                stats.setProperty(prefix + "lastRun", now);
+                stats.setProperty(prefix + "millis", Long.toString(run.elapsedMillis()));
+                stats.setProperty(prefix + "files", Integer.toString(run.total()));
+                stats.setProperty(prefix + "large", Integer.toString(run.largeFiles));
+                stats.setProperty(prefix + "listingErrors", Integer.toString(run.listingErrors));
+                for (FileProcessorService.Result result : FileProcessorService.Result.values()) {
+                    stats.setProperty(prefix + result.name().toLowerCase(), Integer.toString(run.count(result)));
+                }
+            }
+            if (adaptive != null) {
+                AdaptiveLimit.Stats limit = adaptive.stats();
+                stats.setProperty(ADAPTIVE_PREFIX + "limit", Integer.toString(limit.limit()));
+                stats.setProperty(ADAPTIVE_PREFIX + "lowest", Integer.toString(limit.lowest()));
+                stats.setProperty(ADAPTIVE_PREFIX + "highest", Integer.toString(limit.highest()));
+            }
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                stats.store(out, "photosono last ingest per source");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Could not write ingest statistics {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * A directory's entries change when files are added or removed, and so does its modification time.
+     */
+    private static String shardVersion(Path dir) throws IOException {
+        return Long.toString(Files.getLastModifiedTime(dir).toMillis());
+    }
+
+    private record Work(Path file, long size, boolean large, Shard shard) {
+    }
+
+    /**
+     * One input source during a run. Its cursor is only advanced by the dispatching thread.
+     */
+    private final class SourceRun {
+
+        private final PhotosonoConfig.Source source;
+        private final Path root;
+        private final int concurrency;
+        private final long largeThreshold;
+        private final Comparator<Work> order;
+        private final Map<FileProcessorService.Result, AtomicInteger> counts =
+                new EnumMap<>(FileProcessorService.Result.class);
+        private final Set<Shard> openShards = ConcurrentHashMap.newKeySet();
+        private final Set<CompletableFuture<Void>> uploads = ConcurrentHashMap.newKeySet();
+        private final long startedNanos = System.nanoTime();
+
+        // Guarded by the dispatch monitor
+        private int inFlight;
+        private long lastTurn;
+        private boolean exhausted;
+        private boolean waitingForLarge;
+        private long finishedNanos;
+
+        // Dispatching thread only
+        private Iterator<Path> dirs;
+        private final Deque<Work> small = new ArrayDeque<>();
+        private final Deque<Work> large = new ArrayDeque<>();
+        private int otherNodeShards;
+        private int lostShardFiles;
+        private int largeFiles;
+        private int listingErrors;
+
+        SourceRun(PhotosonoConfig.Source source, Path root, long largeThreshold, boolean smallestFirst) {
+            this.source = source;
+            this.root = root;
+            this.concurrency = Math.max(1, source.getConcurrency());
+            // A threshold of 0 or less puts every file in the small lane
+            this.largeThreshold = largeThreshold > 0 ? largeThreshold : Long.MAX_VALUE;
+            this.order = smallestFirst ? Comparator.comparingLong(Work::size).thenComparing(Work::file)
+                    : Comparator.comparing(Work::file);
+            for (FileProcessorService.Result result : FileProcessorService.Result.values()) {
+                counts.put(result, new AtomicInteger());
+            }
+        }
+
+        /**
+         * Next file of this source, claiming the next directory shard when both lanes are used
+         * up. A large file is only returned if {@code largeFree}; while large files wait for
+         * their lane, further shards are listed so small files keep flowing. Returns
+         * {@code null} when nothing can be handed out now.
+         */
+        Work next(LeaseService.Phase phase, boolean largeFree) {
+            while (true) {
+                Work work;
+                if (largeFree && !large.isEmpty()) {
+                    work = large.poll();
+                } else if (!small.isEmpty()) {
+                    work = small.poll();
+                } else if (large.size() >= MAX_LARGE_BACKLOG || !listNextShard(phase)) {
+                    return null;
+                } else {
+                    continue;
+                }
+                if (!work.shard().isLost()) {
+                    return work;
+                }
+                // The node that took the shard over processes what is left of it
+                lostShardFiles++;
+                work.shard().finished(false);
+            }
+        }
+
+        boolean hasLargeBacklog() {
+            return !large.isEmpty();
+        }
+
+        /**
+         * Claims the next directory and sorts its files into the two lanes. Returns {@code false}
+         * once every directory has been claimed. A directory that cannot be listed is skipped.
+         */
+        private boolean listNextShard(LeaseService.Phase phase) {
+            if (dirs == null) {
+                dirs = listDirectories().iterator();
+            }
+            while (dirs.hasNext()) {
+                Path dir = dirs.next();
+                String name = source.getName() + "/" + root.relativize(dir);
+                LeaseService.Lease lease;
+                try {
+                    lease = phase.tryAcquire(name, shardVersion(dir));
+                } catch (IOException e) {
+                    listingFailed(dir, e);
+                    continue;
+                }
+                if (lease == null) {
+                    otherNodeShards++;
+                    continue;
+                }
+                Shard shard = new Shard(lease, openShards);
+                List<Work> listed;
+                try {
+                    listed = listFiles(dir, shard);
+                } catch (IOException e) {
+                    shard.release();
+                    listingFailed(dir, e);
+                    continue;
+                }
+                for (Work work : listed) {
+                    shard.dispatched();
+                    if (work.large()) {
+                        large.add(work);
+                        largeFiles++;
+                    } else {
+                        small.add(work);
+                    }
+                }
+                shard.listed();
+                return true;
+            }
+            return false;
+        }
+
+        private List<Path> listDirectories() {
+            List<Path> found = new ArrayList<>();
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                        found.add(dir);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                        // A link to a directory is a shard of its own, but is not descended into
+                        if (attributes.isSymbolicLink() && Files.isDirectory(file)) {
+                            found.add(file);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        listingFailed(file, e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                listingFailed(root, e);
+            }
+            return found;
+        }
+
+        private List<Work> listFiles(Path dir, Shard shard) throws IOException {
+            List<Work> listed = new ArrayList<>();
+            try (Stream<Path> listing = Files.list(dir)) {
+                listing.forEach(file -> {
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        // Gone since the listing, or a dangling link
+                        return;
+                    }
+                    if (attributes.isRegularFile()) {
+                        long size = attributes.size();
+                        listed.add(new Work(file, size, size >= largeThreshold, shard));
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            listed.sort(order);
+            return listed;
+        }
+
+        private void listingFailed(Path dir, IOException e) {
+            listingErrors++;
+            logger.warn("Could not list {} of input source {}, skipping it: {}", dir, source.getName(), e.toString());
+        }
+
+        /**
+         * Waits for the files whose upload was still in flight when their worker moved on.
+         */
+        void awaitUploads() {
+            if (uploads.isEmpty()) {
+                return;
+            }
+            logger.info("Waiting for {} uploads of source {}", uploads.size(), source.getName());
+            CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)).join();
+            finishedNanos = System.nanoTime();
+        }
+
+        void releaseShards() {
+            for (Shard open : openShards) {
+                open.release();
+            }
+        }
+
+        int count(FileProcessorService.Result result) {
+            return counts.get(result).get();
+        }
+
+        int total() {
+            return counts.values().stream().mapToInt(AtomicInteger::get).sum();
+        }
+
+        long elapsedMillis() {
+            long end = finishedNanos != 0 ? finishedNanos : System.nanoTime();
+            return TimeUnit.NANOSECONDS.toMillis(end - startedNanos);
+        }
+    }
+
+    /**
+     * A claimed directory. Its lease is completed once every file handed out has been processed
+     * without errors, or released so the shard is retried otherwise.
+     */
+    private static final class Shard {
+
+        private final LeaseService.Lease lease;
+        private final Set<Shard> open;
+        private int pending;
+        private boolean listed;
+        private boolean failed;
+        private boolean closed;
+
+        Shard(LeaseService.Lease lease, Set<Shard> open) {
+            this.lease = lease;
+            this.open = open;
+            open.add(this);
+        }
+
+        synchronized void dispatched() {
+            pending++;
+        }
+
+        boolean isLost() {
+            return lease.isLost();
+        }
+
+        synchronized void listed() {
+            listed = true;
+            closeIfDone();
+        }
+
+        synchronized void finished(boolean ok) {
+            pending--;
+            failed |= !ok;
+            closeIfDone();
+        }
+
+        synchronized void release() {
+            failed = true;
+            close();
+        }
+
+        private void closeIfDone() {
+            if (listed && pending == 0) {
+                close();
+            }
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            open.remove(this);
+            try {
+                if (failed) {
+                    lease.close();
+                } else {
+                    lease.complete();
+                }
+            } catch (IOException e) {
+                logger.warn("Could not release input shard lease: {}", e.getMessage());
+            }
+        }
+    }
 }
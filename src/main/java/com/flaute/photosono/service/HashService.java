@@ -1,25 +1,123 @@
 package com.flaute.photosono.service;
 
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.index.Digests;
+import com.flaute.photosono.io.BufferPool;
+import com.flaute.photosono.io.ByteRateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 public class HashService {
 
+    private static final Logger logger = LoggerFactory.getLogger(HashService.class);
+
+    // Stored under the "user." namespace, so it reads as user.photosono.sha256 on Linux
+    static final String HASH_ATTRIBUTE = "photosono.sha256";
+
+    // "<sha256> <size> <mtime in ns>"
+    private static final int MAX_ATTRIBUTE_LENGTH = 128;
+
+    // One per worker thread: getInstance looks the provider up and allocates on every call
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final PhotosonoConfig config;
+    private final IoGovernorService io;
+    private final BufferPoolService buffers;
+    private final AtomicBoolean writeWarned = new AtomicBoolean();
+
+    public HashService(PhotosonoConfig config, IoGovernorService io, BufferPoolService buffers) {
+        this.config = config;
+        this.io = io;
+        this.buffers = buffers;
+    }
+
+    /**
+     * Hashes an input file. With {@code xattr-hash-cache} enabled, the hash is kept in an extended
+     * attribute on the file together with its size and modification time, and taken from there
+     * on later runs while both still match. The attribute travels with the file when a card or
+     * dump is copied elsewhere with its attributes, which a path-keyed cache cannot follow. File
+     * systems without extended attributes, or mounted read-only, simply hash every time.
+     */
+    public String calculateInputSHA256(Path file) throws IOException, NoSuchAlgorithmException {
+        if (!config.getDeduplication().isXattrHashCache()) {
+            return calculateSHA256(file);
+        }
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (view == null) {
+            return calculateSHA256(file);
+        }
+        String stamp = stamp(file);
+        String cached = readCachedHash(view, stamp);
+        if (cached != null) {
+            logger.debug("Using cached hash for {}", file);
+            return cached;
+        }
+        String sha256 = calculateSHA256(file);
+        // A file that changed while it was read must not be stamped with the hash of either version
+        if (stamp.equals(stamp(file))) {
+            writeCachedHash(view, file, sha256 + " " + stamp);
+        }
+        return sha256;
+    }
+
     public String calculateSHA256(Path file) throws IOException, NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        try (InputStream is = Files.newInputStream(file)) {
-            byte[] buffer = new byte[8192];
+        return calculateSHA256(file, ByteRateLimiter.UNLIMITED);
+    }
+
+    /**
+     * Hashes content already read into memory, such as a small archive entry, counting it against
+     * the shared I/O budget like a read.
+     */
+    public String calculateInMemorySHA256(byte[] content) {
+        io.governor().acquire(content.length);
+        MessageDigest digest = DIGESTS.get();
+        digest.reset();
+        return Digests.toHex(digest.digest(content));
+    }
+
+    /**
+     * Calculates the hash while keeping reads within the limiter's budget, on top of the shared
+     * I/O budget. Reads go through a pooled buffer, so hashing allocates next to nothing per file.
+     */
+    public String calculateSHA256(Path file, ByteRateLimiter limiter) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = DIGESTS.get();
+        digest.reset();
+        BufferPool pool = buffers.pool();
+        ByteBuffer buffer = pool.acquire();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
             int read;
-            while ((read = is.read(buffer)) != -1) {
-                digest.update(buffer, 0, read);
+            while ((read = channel.read(buffer.clear())) != -1) {
+                io.governor().acquire(read);
+                limiter.acquire(read);
+                digest.update(buffer.flip());
             }
+        } finally {
+            pool.release(buffer);
         }
         byte[] hash = digest.digest();
         StringBuilder hexString = new StringBuilder();
@@ -31,4 +129,74 @@ public class HashService {
         }
         return hexString.toString();
     }
+
+    /**
+     * Writes a stream to {@code target} and returns the hash of what was written, so content that
+     * only exists as a stream (an archive entry) is read once for both. Shares the pooled buffers
+     * and the I/O budget with hashing.
+     */
+    public String spool(InputStream in, Path target) throws IOException {
+        MessageDigest digest = DIGESTS.get();
+        digest.reset();
+        BufferPool pool = buffers.pool();
+        ByteBuffer buffer = pool.acquire();
+        ReadableByteChannel source = Channels.newChannel(in);
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            int read;
+            while ((read = source.read(buffer.clear())) != -1) {
+                io.governor().acquire(read);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                digest.update(buffer.rewind());
+            }
+        } finally {
+            pool.release(buffer);
+        }
+        return Digests.toHex(digest.digest());
+    }
+
+    private static String stamp(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return attributes.size() + " " + attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    private static String readCachedHash(UserDefinedFileAttributeView view, String stamp) {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_ATTRIBUTE_LENGTH);
+        try {
+            view.read(HASH_ATTRIBUTE, buffer);
+        } catch (IOException | IllegalArgumentException e) {
+            // Missing, unsupported or too long to be ours
+            return null;
+        }
+        buffer.flip();
+        String value = StandardCharsets.US_ASCII.decode(buffer).toString();
+        int space = value.indexOf(' ');
+        if (space != 64 || !value.substring(space + 1).equals(stamp)) {
+            return null;
+        }
+        String sha256 = value.substring(0, space);
+        for (int i = 0; i < sha256.length(); i++) {
+            if (Character.digit(sha256.charAt(i), 16) == -1) {
+                return null;
+            }
+        }
+        return sha256;
+    }
+
+    private void writeCachedHash(UserDefinedFileAttributeView view, Path file, String value) {
+        try {
+            view.write(HASH_ATTRIBUTE, StandardCharsets.US_ASCII.encode(value));
+        } catch (IOException | UnsupportedOperationException e) {
+            // Read-only media or no xattr support: warn once, the hash itself is still good
+            if (writeWarned.compareAndSet(false, true)) {
+                logger.warn("Could not store hash attribute on {}, hashes there will be recomputed: {}", file,
+                        e.toString());
+            } else {
+                logger.debug("Could not store hash attribute on {}: {}", file, e.toString());
+            }
+        }
+    }
 }
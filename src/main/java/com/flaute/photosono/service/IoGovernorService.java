@@ -0,0 +1,62 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.io.IoGovernor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the one {@link IoGovernor} that hashing, metadata reads and copies all draw from, so the
+ * configured {@code photosono.io} budget bounds their combined load on the disks.
+ */
+@Service
+public class IoGovernorService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IoGovernorService.class);
+
+    private final IoGovernor governor;
+
+    public IoGovernorService(PhotosonoConfig config) {
+        PhotosonoConfig.Io io = config.getIo();
+        if (io == null) {
+            governor = IoGovernor.UNLIMITED;
+            return;
+        }
+        IoGovernor.Budget base = new IoGovernor.Budget(io.getMaxBytesPerSecond(), io.getMaxOpsPerSecond());
+        List<IoGovernor.Window> schedule = IoGovernor.parseSchedule(io.getSchedule());
+        if (base.equals(IoGovernor.Budget.UNLIMITED) && schedule.isEmpty()) {
+            governor = IoGovernor.UNLIMITED;
+        } else {
+            governor = new IoGovernor(base, schedule);
+            logger.info("I/O limited to {} bytes/s and {} ops/s, {} scheduled windows", base.bytesPerSecond(),
+                    base.opsPerSecond(), schedule.size());
+        }
+    }
+
+    public IoGovernor governor() {
+        return governor;
+    }
+
+    public InputStream newInputStream(Path file) throws IOException {
+        return governor.newInputStream(file);
+    }
+
+    /**
+     * Logs how much I/O went through the governor and how much of it was held back.
+     */
+    public void logSummary() {
+        if (governor == IoGovernor.UNLIMITED) {
+            return;
+        }
+        IoGovernor.Stats stats = governor.stats();
+        logger.info("I/O governor: {} bytes in {} operations, {} throttled for {} ms in total", stats.bytes(),
+                stats.operations(), stats.throttledOperations(), TimeUnit.NANOSECONDS.toMillis(stats.throttledNanos()));
+    }
+}
@@ -0,0 +1,385 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits a phase's work between several nodes sharing the same storage.
+ * <p>
+ * Work is divided into shards (directories). Before processing a shard a node creates
+ * {@code <phase>/<shard>.lease} in the shared lease directory with an exclusive create, and
+ * keeps it alive by renaming a freshly written copy over it every heartbeat interval. A lease
+ * whose file has not been written for longer than the lease TTL belongs to a dead node and is
+ * reclaimed by renaming it away, which only one contender can do. A finished shard gets a
+ * {@code .done} marker holding the shard version it was completed at (for example the
+ * directory's modification time), so other nodes skip it until it changes.
+ * <p>
+ * A node only renews a lease it still owns and whose last renewal is well inside the TTL, so it
+ * never writes over a lease another node has reclaimed. A lease that fails either check is
+ * {@linkplain Lease#isLost() lost}: its shard is not marked done and scanners stop handing out
+ * its files.
+ * <p>
+ * Lease ages are measured against modification times set by the shared storage itself, so node
+ * clocks need not agree. With clustering disabled every shard is granted immediately.
+ */
+@Service
+public class LeaseService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaseService.class);
+
+    static final String NODES_DIR = "nodes";
+
+    private static final Lease UNSHARED = new Lease(null, null, null, null, 0);
+    private static final Phase LOCAL = new Phase(null, null);
+
+    private final PhotosonoConfig config;
+    private final Set<Lease> held = ConcurrentHashMap.newKeySet();
+
+    private String nodeId;
+    private ScheduledExecutorService heartbeat;
+
+    public LeaseService(PhotosonoConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Starts a phase, creating its lease directory.
+     */
+    public Phase begin(String phase) throws IOException {
+        if (!config.getCluster().isEnabled()) {
+            return LOCAL;
+        }
+        Path dir = Paths.get(config.getCluster().getLeaseDir(), phase);
+        Files.createDirectories(dir);
+        logger.info("Node {} sharing phase {} through {}", nodeId(), phase, dir);
+        return new Phase(this, dir);
+    }
+
+    /**
+     * Claims for a single phase run. Obtained from {@link #begin(String)}.
+     */
+    public static final class Phase {
+
+        private final LeaseService service;
+        private final Path dir;
+
+        private Phase(LeaseService service, Path dir) {
+            this.service = service;
+            this.dir = dir;
+        }
+
+        /**
+         * A phase that grants every shard, for single-node runs.
+         */
+        public static Phase local() {
+            return LOCAL;
+        }
+
+        /**
+         * Claims a shard. Returns {@code null} if another live node holds it or it was already
+         * completed at the given version.
+         */
+        public Lease tryAcquire(String shard, String version) throws IOException {
+            return service == null ? UNSHARED : service.tryAcquire(this, shard, version);
+        }
+    }
+
+    /**
+     * A claimed shard. Closing it without {@link #complete()} releases it for other nodes.
+     */
+    public static final class Lease implements AutoCloseable {
+
+        private final LeaseService service;
+        private final Path file;
+        private final String owner;
+        private final String version;
+        private volatile boolean lost;
+        private volatile long renewedAt;
+
+        private Lease(LeaseService service, Path file, String owner, String version, long renewedAt) {
+            this.service = service;
+            this.file = file;
+            this.owner = owner;
+            this.version = version;
+            this.renewedAt = renewedAt;
+        }
+
+        /**
+         * Whether another node may have taken the shard over, so its remaining work belongs to
+         * that node.
+         */
+        public boolean isLost() {
+            return lost;
+        }
+
+        /**
+         * Marks the shard finished for nodes running the same phase and releases the lease. A
+         * lost lease is only released, since its shard is now another node's to finish.
+         */
+        public void complete() throws IOException {
+            if (service == null) {
+                return;
+            }
+            if (!lost && !service.owns(this)) {
+                service.lose(this, "was taken over by another node");
+            }
+            if (lost) {
+                logger.warn("Not marking shard of lost lease {} done", file);
+            } else {
+                Files.writeString(doneFile(file), version, StandardCharsets.UTF_8);
+            }
+            close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (service == null || !service.held.remove(this)) {
+                return;
+            }
+            if (!lost) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+        for (Lease lease : held) {
+            try {
+                lease.close();
+            } catch (IOException e) {
+                logger.warn("Could not release lease {}: {}", lease.file, e.getMessage());
+            }
+        }
+    }
+
+    private Lease tryAcquire(Phase phase, String shard, String version) throws IOException {
+        String key = shardKey(shard);
+        Path file = phase.dir.resolve(key + ".lease");
+        if (isDone(file, version)) {
+            return null;
+        }
+
+        String owner = nodeId() + " " + shard;
+        long started = System.nanoTime();
+        if (create(file, owner)) {
+            return hold(file, owner, version, started);
+        }
+
+        FileTime leased = modified(file);
+        if (leased != null && !isExpired(leased)) {
+            return null;
+        }
+
+        // Only one contender can move the expired file away
+        Path stale = file.resolveSibling(key + ".stale-" + nodeId());
+        try {
+            Files.move(file, stale, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            started = System.nanoTime();
+            return create(file, owner) ? hold(file, owner, version, started) : null;
+        }
+        FileTime moved = modified(stale);
+        if (moved != null && !isExpired(moved)) {
+            // Lost a race: what was moved is a fresh lease of the node that reclaimed it first
+            try {
+                Files.move(stale, file);
+            } catch (FileAlreadyExistsException e) {
+                Files.deleteIfExists(stale);
+            }
+            return null;
+        }
+        Files.deleteIfExists(stale);
+        logger.info("Reclaimed expired lease for shard {} in {}", shard, phase.dir);
+        started = System.nanoTime();
+        return create(file, owner) ? hold(file, owner, version, started) : null;
+    }
+
+    private Lease hold(Path file, String owner, String version, long createdAt) throws IOException {
+        Lease lease = new Lease(this, file, owner, version, createdAt);
+        held.add(lease);
+        // The previous holder may have completed the shard between the check and the create
+        if (isDone(file, version)) {
+            lease.close();
+            return null;
+        }
+        startHeartbeat();
+        return lease;
+    }
+
+    private static boolean isDone(Path leaseFile, String version) throws IOException {
+        try {
+            return Files.readString(doneFile(leaseFile), StandardCharsets.UTF_8).equals(version);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private synchronized void startHeartbeat() {
+        if (heartbeat != null) {
+            return;
+        }
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lease-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, config.getCluster().getHeartbeatInterval().toMillis());
+        heartbeat.scheduleWithFixedDelay(this::renewAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    void renewAll() {
+        for (Lease lease : held) {
+            try {
+                renew(lease);
+            } catch (IOException e) {
+                logger.warn("Could not renew lease {}: {}", lease.file, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes a fresh copy of the lease next to it and renames it over the lease, but only while
+     * the lease is still ours and its last renewal is closer to now than to expiry. Rewriting the
+     * file in place could overwrite a lease another node reclaimed after it was read.
+     */
+    private void renew(Lease lease) throws IOException {
+        long started = System.nanoTime();
+        if (!isFresh(lease)) {
+            lose(lease, "was not renewed in time and may have been reclaimed");
+            return;
+        }
+        if (!owns(lease)) {
+            lose(lease, "was taken over by another node");
+            return;
+        }
+        Path renewed = lease.file.resolveSibling(lease.file.getFileName() + ".renew-" + nodeId());
+        Files.writeString(renewed, lease.owner, StandardCharsets.UTF_8);
+        if (!isFresh(lease) || !owns(lease)) {
+            Files.deleteIfExists(renewed);
+            lose(lease, "changed hands while being renewed");
+            return;
+        }
+        Files.move(renewed, lease.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lease.renewedAt = started;
+    }
+
+    /**
+     * Whether less time than halfway between a heartbeat and expiry has passed since the lease was
+     * last written, leaving the rest as margin before another node may reclaim it.
+     */
+    private boolean isFresh(Lease lease) {
+        long ttl = config.getCluster().getLeaseTtl().toNanos();
+        long interval = Math.min(ttl, config.getCluster().getHeartbeatInterval().toNanos());
+        return System.nanoTime() - lease.renewedAt < (ttl + interval) / 2;
+    }
+
+    private boolean owns(Lease lease) throws IOException {
+        try {
+            return Files.readString(lease.file, StandardCharsets.UTF_8).equals(lease.owner);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private void lose(Lease lease, String reason) {
+        if (!lease.lost) {
+            lease.lost = true;
+            logger.warn("Lease {} {}", lease.file, reason);
+        }
+    }
+
+    private boolean isExpired(FileTime modified) throws IOException {
+        return storageNow().toMillis() - modified.toMillis() > config.getCluster().getLeaseTtl().toMillis();
+    }
+
+    /**
+     * Current time according to the shared storage, read back from this node's own marker file.
+     */
+    private FileTime storageNow() throws IOException {
+        Path marker = Paths.get(config.getCluster().getLeaseDir(), NODES_DIR, nodeId());
+        Files.createDirectories(marker.getParent());
+        Files.writeString(marker, Long.toString(System.currentTimeMillis()), StandardCharsets.UTF_8);
+        return Files.getLastModifiedTime(marker);
+    }
+
+    private synchronized String nodeId() {
+        if (nodeId == null) {
+            String configured = config.getCluster().getNodeId();
+            if (configured != null && !configured.isBlank()) {
+                nodeId = configured;
+            } else {
+                String host;
+                try {
+                    host = InetAddress.getLocalHost().getHostName();
+                } catch (IOException e) {
+                    host = "localhost";
+                }
+                nodeId = host + "-" + ManagementFactory.getRuntimeMXBean().getPid();
+            }
+        }
+        return nodeId;
+    }
+
+    private static boolean create(Path file, String owner) throws IOException {
+        try {
+            Files.writeString(file, owner, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    private static FileTime modified(Path file) throws IOException {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static Path doneFile(Path leaseFile) {
+        String name = leaseFile.getFileName().toString();
+        return leaseFile.resolveSibling(name.substring(0, name.length() - ".lease".length()) + ".done");
+    }
+
+    /**
+     * File-name-safe, fixed-length key for an arbitrary shard name such as a relative path.
+     */
+    private static String shardKey(String shard) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(shard.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
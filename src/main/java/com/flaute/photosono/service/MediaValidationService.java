@@ -0,0 +1,221 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.index.DigestLongMap;
+import com.flaute.photosono.index.Digests;
+import com.flaute.photosono.io.IsoBoxes;
+import com.flaute.photosono.io.SubsampledImageReader;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageReader;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deep validation: proves a file is intact beyond what the metadata parser checks, which only
+ * reads headers. Images are decoded in full through ImageIO, where a truncated or damaged
+ * stream shows up as an error or a decoder warning; subsampling keeps the decoded result small
+ * while every compressed byte is still read. MP4 and MOV files have their box structure walked
+ * by {@link IsoBoxes}, which catches videos cut short. Other formats pass.
+ * <p>
+ * Decoding runs on its own pool sized for the CPU. A file that is not judged within
+ * {@code timeout-millis} of its check starting is aborted and let through, since slowness alone
+ * is no proof of damage. Time spent queued for the pool does not count, so more dedupe workers
+ * than validation threads only slow the checks down rather than skipping them.
+ * Verdicts are kept by hash, so copies of the same content are checked once per run.
+ */
+@Service
+public class MediaValidationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaValidationService.class);
+
+    private static final Set<String> BOX_FORMATS = Set.of("mp4", "mov");
+    // Decoded images are subsampled to about this size; only the compressed stream has to be read in full
+    private static final int DECODED_SIZE = 512;
+    private static final long INTACT = 1;
+    private static final long DAMAGED = 2;
+
+    private final PhotosonoConfig config;
+    private final PerceptualHashService images;
+    private final DigestLongMap verdicts;
+
+    private final LongAdder intact = new LongAdder();
+    private final LongAdder damaged = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder cached = new LongAdder();
+
+    private ExecutorService executor;
+
+    public MediaValidationService(PhotosonoConfig config, PerceptualHashService images) {
+        this.config = config;
+        this.images = images;
+        this.verdicts = new DigestLongMap(config.getValidation().isDeep() ? config.getIndex().getExpectedOriginals()
+                : 1);
+    }
+
+    /**
+     * Returns {@code false} only if deep validation is enabled and found the file damaged.
+     */
+    public boolean isIntact(Path file, String sha256, String extension) {
+        if (!config.getValidation().isDeep()) {
+            return true;
+        }
+        boolean boxes = BOX_FORMATS.contains(extension);
+        if (!boxes && !images.supports(extension)) {
+            return true;
+        }
+        byte[] digest = Digests.fromHex(sha256);
+        long verdict = digest == null ? 0 : verdicts.get(digest, 0L);
+        if (verdict != 0) {
+            cached.increment();
+            return verdict == INTACT;
+        }
+
+        Check check = new Check(file, boxes);
+        Future<String> result = executor().submit(check::run);
+        String problem;
+        try {
+            problem = await(result, check, TimeUnit.MILLISECONDS.toNanos(config.getValidation().getTimeoutMillis()));
+        } catch (TimeoutException e) {
+            check.abort();
+            result.cancel(true);
+            timedOut.increment();
+            logger.warn("Deep validation of {} took longer than {} ms, letting it through", file,
+                    config.getValidation().getTimeoutMillis());
+            return true;
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            return true;
+        } catch (ExecutionException e) {
+            // Decoders throw anything from deep inside on broken input
+            problem = e.getCause().toString();
+        }
+
+        if (digest != null) {
+            verdicts.put(digest, problem == null ? INTACT : DAMAGED);
+        }
+        if (problem != null) {
+            damaged.increment();
+            logger.info("Deep validation failed for {}: {}", file, problem);
+            return false;
+        }
+        intact.increment();
+        return true;
+    }
+
+    /**
+     * Waits for a check until it has been running for {@code timeoutNanos}.
+     */
+    private static String await(Future<String> result, Check check, long timeoutNanos)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        while (true) {
+            long wait = check.running ? check.startedNanos + timeoutNanos - System.nanoTime() : timeoutNanos;
+            try {
+                return result.get(Math.max(0, wait), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (check.running && System.nanoTime() - check.startedNanos >= timeoutNanos) {
+                    throw e;
+                }
+                // Still queued behind other checks, or started during the wait
+            }
+        }
+    }
+
+    public void logSummary() {
+        if (!config.getValidation().isDeep()) {
+            return;
+        }
+        logger.info("Deep validation: {} intact, {} damaged, {} timed out, {} from cache", intact.sum(),
+                damaged.sum(), timedOut.sum(), cached.sum());
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            int threads = Math.max(1, config.getValidation().getThreads());
+            executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "validation");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * One file's check. Returns {@code null} if intact, otherwise the problem found.
+     */
+    private static final class Check implements SubsampledImageReader.Observer {
+        private final Path file;
+        private final boolean boxes;
+        private volatile ImageReader reader;
+        private volatile String warning;
+        private volatile long startedNanos;
+        private volatile boolean running;
+
+        Check(Path file, boolean boxes) {
+            this.file = file;
+            this.boxes = boxes;
+        }
+
+        String run() throws Exception {
+            startedNanos = System.nanoTime();
+            running = true;
+            if (boxes) {
+                return IsoBoxes.verify(file);
+            }
+            BufferedImage image = SubsampledImageReader.read(file,
+                    (width, height) -> Math.max(width, height) / DECODED_SIZE, this);
+            if (warning != null) {
+                return warning;
+            }
+            return image == null && reader != null ? "decoder returned no image" : null;
+        }
+
+        /**
+         * ImageIO reads from a stream that ignores interrupts, so a running decode is stopped
+         * through its reader. The JPEG reader refuses that from another thread while it is busy;
+         * the decode then finishes in the background and its verdict is dropped.
+         */
+        void abort() {
+            ImageReader current = reader;
+            if (current != null) {
+                try {
+                    current.abort();
+                } catch (IllegalStateException e) {
+                    logger.debug("Could not abort decoding {}: {}", file, e.getMessage());
+                }
+            }
+        }
+
+        @Override
+        public void started(ImageReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public void warningOccurred(ImageReader source, String warning) {
+            if (this.warning == null) {
+                this.warning = warning;
+            }
+        }
+    }
+}
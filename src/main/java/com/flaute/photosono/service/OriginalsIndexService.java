@@ -0,0 +1,193 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.index.BloomFilter;
+import com.flaute.photosono.index.DigestSet;
+import com.flaute.photosono.index.Digests;
+import com.flaute.photosono.storage.ObjectStore;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Knowledge about which content hashes are in the originals store.
+ * <p>
+ * An exact off-heap set remembers hashes seen during this run, so repeated duplicates are
+ * skipped without validating or probing the filesystem again. A persisted Bloom filter over
+ * every original answers definite misses, letting new files skip the existence check.
+ * The filter file is removed while it is in use and written back on shutdown, so a crashed
+ * run leaves no stale filter behind and the next run rebuilds it from the originals tree and the
+ * chunk store's manifests, which stand in for originals the chunk store has removed. Originals on
+ * a remote backend are listed from the store instead, one {@code h0} prefix per request.
+ */
+@Service
+public class OriginalsIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(OriginalsIndexService.class);
+
+    static final String FILTER_FILE = "originals.bloom";
+
+    private final PhotosonoConfig config;
+    private final StorageService storage;
+    private final DigestSet known;
+    private volatile BloomFilter filter;
+
+    public OriginalsIndexService(PhotosonoConfig config, StorageService storage) {
+        this.config = config;
+        this.storage = storage;
+        this.known = new DigestSet(config.getIndex().getExpectedOriginals());
+    }
+
+    /**
+     * Returns {@code true} if the hash was already placed or found in originals during this run.
+     * Values that are not SHA-256 hex digests are never known.
+     */
+    public boolean isKnown(String sha256) {
+        byte[] digest = Digests.fromHex(sha256);
+        return digest != null && known.contains(digest);
+    }
+
+    /**
+     * Returns {@code false} only if the hash is definitely not in the originals store.
+     */
+    public boolean mightContain(String sha256) {
+        byte[] digest = Digests.fromHex(sha256);
+        if (digest == null || !config.getIndex().isBloomEnabled()) {
+            return true;
+        }
+        return filter().mightContain(digest);
+    }
+
+    public void markKnown(String sha256) {
+        byte[] digest = Digests.fromHex(sha256);
+        if (digest == null) {
+            return;
+        }
+        known.add(digest);
+        if (config.getIndex().isBloomEnabled()) {
+            filter().put(digest);
+        }
+    }
+
+    public long size() {
+        return known.size();
+    }
+
+    /**
+     * Discards the current filter and builds a new one from the names in the originals store and
+     * the chunk manifests.
+     */
+    public synchronized void rebuildFilter() throws IOException {
+        filter = buildFilterFromOriginals();
+    }
+
+    private BloomFilter buildFilterFromOriginals() throws IOException {
+        DigestSet found = new DigestSet(config.getIndex().getExpectedOriginals());
+        String source;
+        if (storage.isLocal()) {
+            Path originalsPath = Paths.get(config.getOriginalsDir());
+            addFileNames(originalsPath, found);
+            source = originalsPath.toString();
+        } else {
+            addKeys(storage.originals(), found);
+            source = storage.originals().location("");
+        }
+        if (config.getChunkStore().isEnabled()) {
+            addFileNames(Paths.get(config.getChunkStore().getDir(), ChunkStoreService.MANIFESTS_DIR), found);
+        }
+
+        long expected = Math.max(config.getIndex().getExpectedOriginals(), found.size() * 2);
+        BloomFilter rebuilt = BloomFilter.create(expected, config.getIndex().getBloomFalsePositiveRate());
+        found.forEach(rebuilt::put);
+        logger.info("Rebuilt originals filter from {}: {} hashes, sized for {}", source, found.size(), expected);
+        return rebuilt;
+    }
+
+    private static void addFileNames(Path dir, DigestSet found) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.filter(Files::isRegularFile)
+                    .map(file -> Digests.fromFileName(file.getFileName().toString()))
+                    .filter(digest -> digest != null)
+                    .forEach(found::add);
+        }
+    }
+
+    private static void addKeys(ObjectStore originals, DigestSet found) throws IOException {
+        List<CompletableFuture<List<String>>> shards = new ArrayList<>();
+        for (int h0 = 0; h0 < 16; h0++) {
+            shards.add(originals.list(Character.forDigit(h0, 16) + "/"));
+        }
+        for (CompletableFuture<List<String>> shard : shards) {
+            for (String key : ObjectStore.await(shard)) {
+                byte[] digest = Digests.fromFileName(key.substring(key.lastIndexOf('/') + 1));
+                if (digest != null) {
+                    found.add(digest);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public synchronized void saveFilter() {
+        if (filter == null) {
+            return;
+        }
+        try {
+            filter.save(filterFile());
+            logger.info("Saved originals filter with {} hashes to {}", filter.insertions(), filterFile());
+        } catch (IOException e) {
+            logger.warn("Could not save originals filter to {}: {}", filterFile(), e.getMessage());
+        }
+    }
+
+    private BloomFilter filter() {
+        BloomFilter current = filter;
+        if (current == null) {
+            synchronized (this) {
+                if (filter == null) {
+                    filter = loadOrRebuildFilter();
+                }
+                current = filter;
+            }
+        }
+        return current;
+    }
+
+    private BloomFilter loadOrRebuildFilter() {
+        Path file = filterFile();
+        try {
+            if (Files.exists(file)) {
+                BloomFilter loaded = BloomFilter.load(file);
+                Files.delete(file);
+                if (loaded.falsePositiveRate() == config.getIndex().getBloomFalsePositiveRate()
+                        && !loaded.isSaturated()) {
+                    logger.info("Loaded originals filter with {} hashes from {}", loaded.insertions(), file);
+                    return loaded;
+                }
+                logger.info("Originals filter in {} is saturated or was built for another rate, rebuilding", file);
+            } else {
+                logger.info("No originals filter found in {}, rebuilding", file);
+            }
+            return buildFilterFromOriginals();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not prepare originals filter " + file, e);
+        }
+    }
+
+    private Path filterFile() {
+        return Paths.get(config.getStateDir(), FILTER_FILE);
+    }
+}
@@ -0,0 +1,65 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.io.SubsampledImageReader;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.OptionalLong;
+import java.util.Set;
+
+@Service
+public class PerceptualHashService {
+
+    // Decoding is subsampled down to roughly this width before the final resize
+    private static final int DECODE_TARGET_WIDTH = 128;
+
+    /**
+     * Returns {@code true} if ImageIO can decode files with this extension.
+     */
+    public boolean supports(String extension) {
+        return ReadableSuffixes.SUFFIXES.contains(extension.toLowerCase(Locale.ROOT));
+    }
+
+    // Holder class: ImageIO's plugin scan is only paid by runs that actually decode images
+    private static final class ReadableSuffixes {
+        static final Set<String> SUFFIXES = Set.of(ImageIO.getReaderFileSuffixes());
+    }
+
+    /**
+     * Computes a 64-bit difference hash (dHash): the image is reduced to 9x8 grayscale and each
+     * bit records whether a pixel is brighter than its right-hand neighbour. Re-encoded, resized
+     * or EXIF-stripped copies of the same picture land within a few bits of each other.
+     */
+    public OptionalLong calculateDHash(Path file) throws IOException {
+        BufferedImage image = SubsampledImageReader.read(file,
+                (width, height) -> Math.min(width / DECODE_TARGET_WIDTH, height / DECODE_TARGET_WIDTH));
+        if (image == null) {
+            return OptionalLong.empty();
+        }
+
+        BufferedImage small = new BufferedImage(9, 8, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = small.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, 9, 8, null);
+        } finally {
+            g.dispose();
+        }
+
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                int left = small.getRaster().getSample(x, y, 0);
+                int right = small.getRaster().getSample(x + 1, y, 0);
+                hash = (hash << 1) | (left > right ? 1 : 0);
+            }
+        }
+        return OptionalLong.of(hash);
+    }
+}
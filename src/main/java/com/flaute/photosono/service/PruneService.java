@@ -0,0 +1,338 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.index.DigestLongMap;
+import com.flaute.photosono.index.Digests;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.NotLinkException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds timeline and unknown-date links whose original is gone, and the day and shard
+ * directories left empty, then removes them or lists them in {@code broken-links.txt} in the
+ * state directory.
+ * <p>
+ * The originals tree is listed once, by name only, into a map from content hash to the
+ * extensions present. Each link is then judged from {@code readlink} alone: a target inside the
+ * originals tree is looked up in that map instead of being stat'ed, which matters with millions
+ * of links on a slow disk. Only targets the map cannot judge (outside the originals tree or with
+ * an unusual name) are checked on the file system, and every link is confirmed missing there
+ * before it is deleted, so originals added while the pass runs are never lost.
+ * <p>
+ * Both trees have a fixed depth ({@code yyyy/MM/dd} and {@code {h0}/{h1}}), so directories are
+ * found by listing alone and each leaf directory is pruned by one worker.
+ */
+@Service
+public class PruneService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PruneService.class);
+
+    static final String REPORT_FILE = "broken-links.txt";
+
+    private static final int TIMELINE_DEPTH = 3;
+    private static final int UNKNOWN_DATE_DEPTH = 2;
+    // Bit 0 of an index value: an original with an extension that has no code
+    private static final long OTHER_EXTENSION = 1L;
+
+    private final PhotosonoConfig config;
+
+    public PruneService(PhotosonoConfig config) {
+        this.config = config;
+    }
+
+    public void prune() {
+        long start = System.nanoTime();
+        Path originals = absolute(config.getOriginalsDir());
+        boolean delete = config.getPrune().isDelete();
+        int threads = Math.max(1, config.getPrune().getThreads());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Semaphore inFlight = new Semaphore(threads * 2);
+        Path reportFile = Paths.get(config.getStateDir(), REPORT_FILE);
+        Pass pass = null;
+        try {
+            Files.createDirectories(reportFile.toAbsolutePath().getParent());
+            try (BufferedWriter report = Files.newBufferedWriter(reportFile)) {
+                DigestLongMap index = indexOriginals(originals, executor, inFlight);
+                pass = new Pass(originals, index, delete, report);
+                logger.info("Indexed {} originals for pruning in {} ms", index.size(),
+                        (System.nanoTime() - start) / 1_000_000);
+
+                List<Future<?>> tasks = new ArrayList<>();
+                submitTree(absolute(config.getTimelineDir()), TIMELINE_DEPTH, pass, executor, inFlight, tasks);
+                submitTree(absolute(config.getUnknownDateDir()), UNKNOWN_DATE_DEPTH, pass, executor, inFlight, tasks);
+                awaitAll(tasks, pass.errors);
+            }
+        } catch (IOException e) {
+            logger.error("Error pruning links, report at {}", reportFile, e);
+        } finally {
+            executor.shutdown();
+        }
+        if (pass == null) {
+            return;
+        }
+
+        logger.info("--- Prune Summary ---");
+        logger.info("Links checked:         {}", pass.links.sum());
+        logger.info("Checked on disk:       {}", pass.statted.sum());
+        logger.info("Broken links:          {}", pass.broken.sum());
+        logger.info("Empty directories:     {}", pass.emptyDirs.sum());
+        logger.info("Removed:               {}", delete ? "yes" : "no, report only");
+        logger.info("Report:                {}", reportFile);
+        if (pass.errors.sum() > 0) {
+            logger.error("Errors encountered:    {}", pass.errors.sum());
+        }
+        logger.info("Took {} ms", (System.nanoTime() - start) / 1_000_000);
+        logger.info("---------------------");
+    }
+
+    private static void submitTree(Path root, int depth, Pass pass, ExecutorService executor, Semaphore inFlight,
+            List<Future<?>> tasks) throws IOException {
+        for (Path dir : leafDirectories(root, depth)) {
+            tasks.add(submit(executor, inFlight, () -> pass.pruneDirectory(root, dir)));
+        }
+    }
+
+    /**
+     * Maps every original's hash to a bit set of the extension codes it is stored under, from
+     * directory listings only.
+     */
+    private DigestLongMap indexOriginals(Path originals, ExecutorService executor, Semaphore inFlight)
+            throws IOException {
+        DigestLongMap index = new DigestLongMap(config.getIndex().getExpectedOriginals());
+        LongAdder errors = new LongAdder();
+        List<Future<?>> tasks = new ArrayList<>();
+        for (Path shard : leafDirectories(originals, 2)) {
+            tasks.add(submit(executor, inFlight, () -> {
+                // One shard directory holds every copy of a hash, so no other task touches these entries
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(shard)) {
+                    for (Path file : files) {
+                        String name = file.getFileName().toString();
+                        byte[] digest = Digests.fromFileName(name);
+                        if (digest != null) {
+                            index.put(digest, index.get(digest, 0L) | extensionBit(name));
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        awaitAll(tasks, errors);
+        if (errors.sum() > 0) {
+            throw new IOException("Could not list " + errors.sum() + " originals directories");
+        }
+        return index;
+    }
+
+    private static final class Pass {
+        final Path originals;
+        final DigestLongMap index;
+        final boolean delete;
+        final BufferedWriter report;
+        final LongAdder links = new LongAdder();
+        final LongAdder statted = new LongAdder();
+        final LongAdder broken = new LongAdder();
+        final LongAdder emptyDirs = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        Pass(Path originals, DigestLongMap index, boolean delete, BufferedWriter report) {
+            this.originals = originals;
+            this.index = index;
+            this.delete = delete;
+            this.report = report;
+        }
+
+        void pruneDirectory(Path root, Path dir) {
+            int remaining = 0;
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path link : entries) {
+                    Path target;
+                    try {
+                        target = Files.readSymbolicLink(link);
+                    } catch (NotLinkException e) {
+                        remaining++;
+                        continue;
+                    }
+                    links.increment();
+                    if (isLive(link, target)) {
+                        remaining++;
+                        continue;
+                    }
+                    if (!delete) {
+                        broken.increment();
+                        report("broken", link + " -> " + target);
+                        remaining++;
+                    } else if (Files.exists(link)) {
+                        // The original arrived after the index was built
+                        remaining++;
+                    } else if (Files.deleteIfExists(link)) {
+                        broken.increment();
+                        report("broken", link + " -> " + target);
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Error pruning directory: {}", dir, e);
+                errors.increment();
+                return;
+            }
+            if (remaining == 0) {
+                removeEmpty(root, dir);
+            }
+        }
+
+        /**
+         * Judges a link from its target path, touching the disk only if the index cannot tell.
+         */
+        private boolean isLive(Path link, Path target) {
+            Path resolved = link.getParent().resolve(target).normalize();
+            if (resolved.startsWith(originals) && resolved.getNameCount() == originals.getNameCount() + 3) {
+                String name = resolved.getFileName().toString();
+                byte[] digest = Digests.fromFileName(name);
+                if (digest != null && inOwnShard(resolved, name)) {
+                    long extensions = index.get(digest, 0L);
+                    long bit = extensionBit(name);
+                    if (bit != OTHER_EXTENSION || (extensions & OTHER_EXTENSION) == 0) {
+                        return (extensions & bit) != 0;
+                    }
+                }
+            }
+            statted.increment();
+            return Files.exists(link);
+        }
+
+        private void removeEmpty(Path root, Path dir) {
+            if (!delete) {
+                emptyDirs.increment();
+                report("empty", dir.toString());
+                return;
+            }
+            // Sibling workers may empty the same parents; whoever finds them empty removes them
+            for (Path current = dir; !current.equals(root); current = current.getParent()) {
+                try {
+                    Files.delete(current);
+                    emptyDirs.increment();
+                    report("empty", current.toString());
+                } catch (DirectoryNotEmptyException | NoSuchFileException e) {
+                    return;
+                } catch (IOException e) {
+                    logger.warn("Could not remove empty directory {}: {}", current, e.getMessage());
+                    return;
+                }
+            }
+        }
+
+        private void report(String kind, String line) {
+            logger.debug("Prune {}: {}", kind, line);
+            synchronized (report) {
+                try {
+                    report.write(kind);
+                    report.write(' ');
+                    report.write(line);
+                    report.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists the directories {@code depth} levels below {@code root}, plus shallower directories
+     * that have nothing in them. Entries are assumed to be directories down to that depth.
+     */
+    private static List<Path> leafDirectories(Path root, int depth) throws IOException {
+        List<Path> level = new ArrayList<>();
+        if (!Files.isDirectory(root)) {
+            return level;
+        }
+        level.add(root);
+        List<Path> leaves = new ArrayList<>();
+        for (int i = 0; i < depth; i++) {
+            List<Path> next = new ArrayList<>();
+            for (Path dir : level) {
+                int children = 0;
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                    for (Path entry : entries) {
+                        next.add(entry);
+                        children++;
+                    }
+                } catch (NotDirectoryException e) {
+                    // A stray file above leaf level: nothing to prune below it
+                    continue;
+                }
+                if (children == 0 && !dir.equals(root)) {
+                    leaves.add(dir);
+                }
+            }
+            level = next;
+        }
+        for (Path dir : level) {
+            if (Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+                leaves.add(dir);
+            }
+        }
+        return leaves;
+    }
+
+    private static long extensionBit(String name) {
+        int dot = name.lastIndexOf('.');
+        int code = dot == -1 ? 0 : TimelineIndexService.extensionCode(name.substring(dot + 1));
+        return 1L << code;
+    }
+
+    private static boolean inOwnShard(Path original, String name) {
+        Path shard = original.getParent();
+        return shard.getFileName().toString().equals(name.substring(1, 2))
+                && shard.getParent().getFileName().toString().equals(name.substring(0, 1));
+    }
+
+    private static Path absolute(String dir) {
+        return Paths.get(dir).toAbsolutePath().normalize();
+    }
+
+    private static Future<?> submit(ExecutorService executor, Semaphore inFlight, Runnable task) {
+        inFlight.acquireUninterruptibly();
+        return executor.submit(() -> {
+            try {
+                task.run();
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private static void awaitAll(List<Future<?>> tasks, LongAdder errors) {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                logger.error("Prune task failed", e.getCause());
+                errors.increment();
+            }
+        }
+    }
+}
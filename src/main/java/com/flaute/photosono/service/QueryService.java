@@ -0,0 +1,322 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.index.CatalogIndex;
+import com.flaute.photosono.index.Digests;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Embedded HTTP/JSON query endpoint over the catalog, for daemon mode.
+ * <p>
+ * All lookups are answered from the {@link CatalogService} indexes:
+ * <ul>
+ * <li>{@code GET /api/hashes/{sha256}} - date and every source path of one original</li>
+ * <li>{@code GET /api/dates?from=2019-07&to=2019-08} - dated originals, by year, month or day</li>
+ * <li>{@code GET /api/sources?prefix=/input/phone} - source records by path prefix</li>
+ * <li>{@code GET /api/extensions/{ext}} - source records by normalized extension</li>
+ * </ul>
+ * List endpoints accept {@code offset} and {@code limit} and report the {@code total} match count.
+ */
+@Service
+public class QueryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryService.class);
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    private final PhotosonoConfig config;
+    private final CatalogService catalogService;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public QueryService(PhotosonoConfig config, CatalogService catalogService) {
+        this.config = config;
+        this.catalogService = catalogService;
+    }
+
+    /**
+     * Starts the server and blocks until the application shuts down.
+     */
+    public void serve() throws IOException {
+        start();
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts the server without blocking and returns the bound port.
+     */
+    public synchronized int start() throws IOException {
+        // Build the indexes before accepting requests
+        catalogService.snapshot();
+
+        server = HttpServer.create(new InetSocketAddress(config.getQuery().getBindAddress(), config.getQuery().getPort()),
+                0);
+        executor = Executors.newFixedThreadPool(Math.max(1, config.getQuery().getThreads()));
+        server.setExecutor(executor);
+        server.createContext("/api/hashes/", exchange -> handle(exchange, this::hash));
+        server.createContext("/api/dates", exchange -> handle(exchange, this::dates));
+        server.createContext("/api/sources", exchange -> handle(exchange, this::sources));
+        server.createContext("/api/extensions/", exchange -> handle(exchange, this::extensions));
+        server.start();
+        int port = server.getAddress().getPort();
+        logger.info("Query service listening on {}:{}", config.getQuery().getBindAddress(), port);
+        return port;
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(1);
+            executor.shutdownNow();
+            server = null;
+            logger.info("Query service stopped");
+        }
+        stopped.countDown();
+    }
+
+    private record Response(int status, String body) {
+    }
+
+    private static final class BadRequest extends RuntimeException {
+        BadRequest(String message) {
+            super(message);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        Response handle(Request request) throws IOException;
+    }
+
+    private record Request(String path, Map<String, String> parameters) {
+
+        String parameter(String name) {
+            return parameters.get(name);
+        }
+
+        long offset() {
+            return parseLong(parameters.getOrDefault("offset", "0"), "offset");
+        }
+
+        int limit(int max) {
+            long limit = parseLong(parameters.getOrDefault("limit", Integer.toString(DEFAULT_PAGE_SIZE)), "limit");
+            return (int) Math.max(0, Math.min(limit, max));
+        }
+
+        private static long parseLong(String value, String name) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new BadRequest("Invalid " + name + ": " + value);
+            }
+        }
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        Response response;
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                response = new Response(405, error("Only GET is supported"));
+            } else {
+                response = handler.handle(new Request(exchange.getRequestURI().getPath(),
+                        parseQuery(exchange.getRequestURI().getRawQuery())));
+            }
+        } catch (BadRequest e) {
+            response = new Response(400, error(e.getMessage()));
+        } catch (Exception e) {
+            logger.error("Error answering query {}", exchange.getRequestURI(), e);
+            response = new Response(500, error("Internal error"));
+        }
+
+        byte[] body = response.body().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.status(), body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private Response hash(Request request) throws IOException {
+        String sha256 = request.path().substring("/api/hashes/".length()).toLowerCase();
+        byte[] digest = Digests.fromHex(sha256);
+        if (digest == null) {
+            throw new BadRequest("Not a SHA-256 hash: " + sha256);
+        }
+        CatalogService.Snapshot snapshot = catalogService.snapshot();
+        List<CatalogIndex.Source> sources = snapshot.index().sourcesByHash(digest);
+        OptionalLong entry = snapshot.timelineEntry(digest);
+        if (sources.isEmpty() && entry.isEmpty()) {
+            return new Response(404, error("Unknown hash: " + sha256));
+        }
+
+        StringBuilder json = new StringBuilder("{\"sha256\":").append(quote(sha256));
+        if (entry.isPresent()) {
+            OptionalLong second = TimelineIndexService.epochSecond(entry.getAsLong());
+            json.append(",\"date\":").append(second.isPresent() ? quote(instant(second.getAsLong())) : "null");
+            json.append(",\"extension\":").append(quote(TimelineIndexService.extension(entry.getAsLong())));
+        }
+        json.append(",\"sources\":");
+        appendArray(json, sources, QueryService::source);
+        return new Response(200, json.append('}').toString());
+    }
+
+    private Response dates(Request request) throws IOException {
+        String from = request.parameter("from");
+        if (from == null) {
+            throw new BadRequest("Missing parameter: from");
+        }
+        String to = request.parameter("to") != null ? request.parameter("to") : from;
+        long[] fromRange = dateRange(from);
+        long[] toRange = dateRange(to);
+        CatalogIndex.Page<CatalogIndex.Dated> page = catalogService.snapshot().index()
+                .originalsByDate(fromRange[0], toRange[1], request.offset(), request.limit(maxPageSize()));
+        return new Response(200, page(page, dated -> "{\"sha256\":" + quote(dated.sha256()) + ",\"date\":"
+                + quote(instant(dated.epochSecond())) + ",\"extension\":" + quote(dated.extension()) + "}"));
+    }
+
+    private Response sources(Request request) throws IOException {
+        String prefix = request.parameter("prefix") != null ? request.parameter("prefix") : "";
+        CatalogIndex.Page<CatalogIndex.Source> page = catalogService.snapshot().index()
+                .sourcesByPathPrefix(prefix, request.offset(), request.limit(maxPageSize()));
+        return new Response(200, page(page, QueryService::source));
+    }
+
+    private Response extensions(Request request) throws IOException {
+        String extension = request.path().substring("/api/extensions/".length()).toLowerCase();
+        CatalogIndex.Page<CatalogIndex.Source> page = catalogService.snapshot().index()
+                .sourcesByExtension(extension, request.offset(), request.limit(maxPageSize()));
+        return new Response(200, page(page, QueryService::source));
+    }
+
+    private int maxPageSize() {
+        return config.getQuery().getMaxPageSize();
+    }
+
+    /**
+     * Parses {@code yyyy}, {@code yyyy-MM} or {@code yyyy-MM-dd} into {@code [start, end)} epoch seconds.
+     */
+    private static long[] dateRange(String value) {
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            LocalDate start;
+            LocalDate end;
+            switch (value.length()) {
+                case 4 -> {
+                    start = Year.parse(value).atDay(1);
+                    end = start.plusYears(1);
+                }
+                case 7 -> {
+                    start = YearMonth.parse(value).atDay(1);
+                    end = start.plusMonths(1);
+                }
+                default -> {
+                    start = LocalDate.parse(value);
+                    end = start.plusDays(1);
+                }
+            }
+            return new long[] { start.atStartOfDay(zone).toEpochSecond(), end.atStartOfDay(zone).toEpochSecond() };
+        } catch (DateTimeParseException e) {
+            throw new BadRequest("Invalid date: " + value);
+        }
+    }
+
+    private static String source(CatalogIndex.Source source) {
+        return "{\"path\":" + quote(source.path()) + ",\"sha256\":" + quote(source.sha256()) + ",\"extension\":"
+                + quote(source.extension()) + ",\"result\":" + quote(source.result()) + ",\"recordedAt\":"
+                + quote(Instant.ofEpochMilli(source.recordedAt()).toString()) + "}";
+    }
+
+    private static <T> String page(CatalogIndex.Page<T> page, Function<T, String> item) {
+        StringBuilder json = new StringBuilder("{\"total\":").append(page.total())
+                .append(",\"offset\":").append(page.offset())
+                .append(",\"items\":");
+        appendArray(json, page.items(), item);
+        return json.append('}').toString();
+    }
+
+    private static <T> void appendArray(StringBuilder json, List<T> items, Function<T, String> item) {
+        json.append('[');
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(item.apply(items.get(i)));
+        }
+        json.append(']');
+    }
+
+    private static String instant(long epochSecond) {
+        return Instant.ofEpochSecond(epochSecond).toString();
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + quote(message) + "}";
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                case '\r' -> quoted.append("\\r");
+                case '\t' -> quoted.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq == -1 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq == -1 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            parameters.put(name, value);
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,313 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.index.Digests;
+import com.flaute.photosono.io.ByteRateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Verifies the originals store against its own file names.
+ * <p>
+ * Originals are named by their SHA-256, so re-hashing a file and comparing with its name detects
+ * bit rot. The store is scrubbed shard by shard ({@code {h0}/{h1}}) in sorted order; the last
+ * completed shard is checkpointed in the state directory so an interrupted pass resumes where it
+ * stopped. Mismatching files are moved to the quarantine directory, which leaves the hash free to
+ * be placed again by a later import of an intact copy. A later bad copy of the same original is
+ * quarantined under a numbered name next to the earlier one instead of replacing it.
+ * <p>
+ * Scrub threads run at normal priority; only the byte rate limit keeps a pass from competing with
+ * other I/O.
+ * <p>
+ * In continuous mode a new pass starts once {@code period} has passed since the previous one
+ * started, and never sooner than {@code min-interval}, so a small store or an unpaced first pass
+ * does not turn into a busy loop. A pass that fails is logged and the next one resumes from the
+ * last checkpoint. Continuous scrubbing only returns when interrupted; the runner starts it on its
+ * own thread after the other phases.
+ */
+@Service
+public class ScrubService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScrubService.class);
+
+    static final String STATE_FILE = "scrub.properties";
+
+    private static final String LAST_SHARD = "lastShard";
+    private static final String PASS_BYTES = "passBytes";
+    private static final String LAST_PASS_BYTES = "lastPassBytes";
+    private static final String LAST_PASS_COMPLETED = "lastPassCompleted";
+
+    private final PhotosonoConfig config;
+    private final HashService hashService;
+
+    public ScrubService(PhotosonoConfig config, HashService hashService) {
+        this.config = config;
+        this.hashService = hashService;
+    }
+
+    public void scrubOriginalsDirectory() {
+        if (!config.getScrub().isEnabled()) {
+            return;
+        }
+
+        while (true) {
+            long started = System.nanoTime();
+            boolean completed = scrubPass();
+            if (!config.getScrub().isContinuous() || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            if (!completed) {
+                logger.warn("Scrub pass did not complete, retrying at the next pass");
+            }
+            long waitNanos = passInterval().toNanos() - (System.nanoTime() - started);
+            try {
+                if (waitNanos > 0) {
+                    logger.info("Next scrub pass in {} s", TimeUnit.NANOSECONDS.toSeconds(waitNanos));
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Time from the start of one continuous pass to the start of the next.
+     */
+    private Duration passInterval() {
+        Duration period = config.getScrub().getPeriod();
+        Duration floor = config.getScrub().getMinInterval();
+        Duration interval = period == null ? Duration.ZERO : period;
+        return floor != null && floor.compareTo(interval) > 0 ? floor : interval;
+    }
+
+    /**
+     * Runs or resumes one pass over the store. Returns {@code true} if the pass reached the end.
+     */
+    private boolean scrubPass() {
+        logger.info("Scrubbing originals directory: {}", config.getOriginalsDir());
+        Path originalsPath = Paths.get(config.getOriginalsDir());
+
+        if (!Files.exists(originalsPath)) {
+            logger.warn("Originals directory does not exist: {}", originalsPath);
+            return false;
+        }
+
+        Path stateFile = Paths.get(config.getStateDir(), STATE_FILE);
+        Properties state = loadState(stateFile);
+        String lastShard = state.getProperty(LAST_SHARD, "");
+        long lastPassBytes = Long.parseLong(state.getProperty(LAST_PASS_BYTES, "0"));
+        AtomicLong passBytes = new AtomicLong(Long.parseLong(state.getProperty(PASS_BYTES, "0")));
+        if (!lastShard.isEmpty()) {
+            logger.info("Resuming scrub after shard {}", lastShard);
+        }
+
+        ByteRateLimiter limiter = new ByteRateLimiter(effectiveRate(lastPassBytes));
+        if (limiter.getBytesPerSecond() > 0) {
+            logger.info("Scrub limited to {} bytes/s", limiter.getBytesPerSecond());
+        }
+
+        AtomicInteger verified = new AtomicInteger(0);
+        AtomicInteger quarantined = new AtomicInteger(0);
+        AtomicInteger unrecognized = new AtomicInteger(0);
+        AtomicInteger errors = new AtomicInteger(0);
+
+        int threads = Math.max(1, config.getScrub().getThreads());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, scrubThreads());
+        boolean completed = false;
+        try {
+            for (String shard : listShards(originalsPath)) {
+                if (shard.compareTo(lastShard) <= 0) {
+                    continue;
+                }
+                List<Future<?>> pending = new ArrayList<>();
+                for (Path file : listFiles(originalsPath.resolve(shard))) {
+                    pending.add(executor.submit(() -> {
+                        try {
+                            long size = Files.size(file);
+                            switch (verify(file, limiter)) {
+                                case VERIFIED -> verified.incrementAndGet();
+                                case QUARANTINED -> quarantined.incrementAndGet();
+                                case UNRECOGNIZED -> unrecognized.incrementAndGet();
+                            }
+                            passBytes.addAndGet(size);
+                        } catch (Exception e) {
+                            logger.error("Error scrubbing file: {}", file, e);
+                            errors.incrementAndGet();
+                        }
+                    }));
+                }
+                for (Future<?> future : pending) {
+                    future.get();
+                }
+                state.setProperty(LAST_SHARD, shard);
+                state.setProperty(PASS_BYTES, Long.toString(passBytes.get()));
+                saveState(stateFile, state);
+            }
+
+            state.setProperty(LAST_SHARD, "");
+            state.setProperty(PASS_BYTES, "0");
+            state.setProperty(LAST_PASS_BYTES, Long.toString(passBytes.get()));
+            state.setProperty(LAST_PASS_COMPLETED, Instant.now().toString());
+            saveState(stateFile, state);
+            completed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Scrub interrupted, will resume after shard {}", state.getProperty(LAST_SHARD));
+        } catch (IOException | ExecutionException e) {
+            logger.error("Error scrubbing originals directory: {}", originalsPath, e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        logger.info("--- Scrub Summary ---");
+        logger.info("Pass completed:      {}", completed);
+        logger.info("Files verified:      {}", verified.get());
+        logger.info("Files quarantined:   {}", quarantined.get());
+        logger.info("Unrecognized names:  {}", unrecognized.get());
+        if (errors.get() > 0) {
+            logger.error("Errors encountered:  {}", errors.get());
+        }
+        logger.info("---------------------");
+        return completed;
+    }
+
+    private enum Verification {
+        VERIFIED,
+        QUARANTINED,
+        UNRECOGNIZED
+    }
+
+    private Verification verify(Path file, ByteRateLimiter limiter) throws Exception {
+        String fileName = file.getFileName().toString();
+        byte[] expected = Digests.fromFileName(fileName);
+        if (expected == null) {
+            return Verification.UNRECOGNIZED;
+        }
+
+        String expectedHash = Digests.toHex(expected);
+        String actualHash = hashService.calculateSHA256(file, limiter);
+        if (expectedHash.equals(actualHash)) {
+            return Verification.VERIFIED;
+        }
+
+        Path quarantineDir = Paths.get(config.getQuarantineDir(), expectedHash.substring(0, 1),
+                expectedHash.substring(1, 2));
+        Files.createDirectories(quarantineDir);
+        Path target = quarantine(file, quarantineDir, fileName);
+        logger.error("Hash mismatch for {} (actual {}), moved to {}", file, actualHash, target);
+        return Verification.QUARANTINED;
+    }
+
+    /**
+     * Moves the file into the quarantine directory, numbering the name if an earlier bad copy of
+     * the same original is already there.
+     */
+    private static Path quarantine(Path file, Path quarantineDir, String fileName) throws IOException {
+        int dot = fileName.indexOf('.');
+        String stem = dot < 0 ? fileName : fileName.substring(0, dot);
+        String extension = dot < 0 ? "" : fileName.substring(dot);
+        Path target = quarantineDir.resolve(fileName);
+        for (int copy = 1; ; copy++) {
+            try {
+                return Files.move(file, target);
+            } catch (FileAlreadyExistsException e) {
+                target = quarantineDir.resolve(stem + "-" + copy + extension);
+            }
+        }
+    }
+
+    /**
+     * Configured limit, lowered further when a period is set so that a pass of the size last
+     * observed spreads across that period.
+     */
+    private long effectiveRate(long lastPassBytes) {
+        long limit = config.getScrub().getMaxBytesPerSecond();
+        Duration period = config.getScrub().getPeriod();
+        if (period == null || period.isZero() || lastPassBytes <= 0) {
+            return limit;
+        }
+        long paced = Math.max(1, lastPassBytes / Math.max(1, period.toSeconds()));
+        return limit > 0 ? Math.min(limit, paced) : paced;
+    }
+
+    private List<String> listShards(Path originalsPath) throws IOException {
+        List<String> shards = new ArrayList<>();
+        for (Path first : listDirectories(originalsPath)) {
+            for (Path second : listDirectories(first)) {
+                shards.add(first.getFileName() + "/" + second.getFileName());
+            }
+        }
+        return shards;
+    }
+
+    private List<Path> listDirectories(Path dir) throws IOException {
+        try (Stream<Path> children = Files.list(dir)) {
+            return children.filter(Files::isDirectory).sorted().toList();
+        }
+    }
+
+    private List<Path> listFiles(Path dir) throws IOException {
+        try (Stream<Path> children = Files.list(dir)) {
+            return children.filter(Files::isRegularFile).sorted().toList();
+        }
+    }
+
+    private Properties loadState(Path stateFile) {
+        Properties state = new Properties();
+        if (Files.exists(stateFile)) {
+            try (InputStream in = Files.newInputStream(stateFile)) {
+                state.load(in);
+            } catch (IOException e) {
+                logger.warn("Could not read scrub state {}, starting a new pass: {}", stateFile, e.getMessage());
+                state.clear();
+            }
+        }
+        return state;
+    }
+
+    private void saveState(Path stateFile, Properties state) throws IOException {
+        Files.createDirectories(stateFile.toAbsolutePath().getParent());
+        Path temp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            state.store(out, "photosono scrub progress");
+        }
+        Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static ThreadFactory scrubThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "scrub-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
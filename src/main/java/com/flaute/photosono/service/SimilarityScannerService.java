@@ -0,0 +1,204 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.index.DigestLongMap;
+import com.flaute.photosono.index.Digests;
+import com.flaute.photosono.index.NearDuplicateIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Finds near-duplicate images in the originals store using perceptual hashes.
+ * <p>
+ * Hashes are computed once per original and kept in the state directory, so later runs only
+ * decode new originals. Clustering runs over primitive arrays and writes one line of
+ * space-separated content hashes per cluster.
+ */
+@Service
+public class SimilarityScannerService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SimilarityScannerService.class);
+
+    static final String HASHES_FILE = "perceptual-hashes.bin";
+    static final String REPORT_FILE = "near-duplicates.txt";
+
+    private final PhotosonoConfig config;
+    private final PerceptualHashService perceptualHashService;
+
+    public SimilarityScannerService(PhotosonoConfig config, PerceptualHashService perceptualHashService) {
+        this.config = config;
+        this.perceptualHashService = perceptualHashService;
+    }
+
+    public void scanOriginalsDirectory() {
+        if (!config.getSimilarity().isEnabled()) {
+            return;
+        }
+
+        logger.info("Scanning originals directory for near-duplicates: {}", config.getOriginalsDir());
+        Path originalsPath = Paths.get(config.getOriginalsDir());
+
+        if (!Files.exists(originalsPath)) {
+            logger.warn("Originals directory does not exist: {}", originalsPath);
+            return;
+        }
+
+        Path hashesFile = Paths.get(config.getStateDir(), HASHES_FILE);
+        DigestLongMap hashes;
+        try {
+            hashes = Files.exists(hashesFile)
+                    ? DigestLongMap.load(hashesFile, config.getIndex().getExpectedOriginals())
+                    : new DigestLongMap(config.getIndex().getExpectedOriginals());
+        } catch (IOException e) {
+            logger.error("Could not load perceptual hashes from {}", hashesFile, e);
+            return;
+        }
+
+        AtomicInteger total = new AtomicInteger(0);
+        AtomicInteger hashed = new AtomicInteger(0);
+        AtomicInteger cached = new AtomicInteger(0);
+        AtomicInteger unsupported = new AtomicInteger(0);
+        AtomicInteger errors = new AtomicInteger(0);
+
+        int threads = Math.max(1, config.getSimilarity().getThreads());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // Bounds the number of queued files so the walk never runs far ahead of the decoders
+        Semaphore inFlight = new Semaphore(threads * 2);
+        try (Stream<Path> paths = Files.walk(originalsPath)) {
+            paths.filter(Files::isRegularFile)
+                    .forEach(file -> {
+                        total.incrementAndGet();
+                        byte[] digest = Digests.fromFileName(file.getFileName().toString());
+                        if (digest == null || !perceptualHashService.supports(getExtension(file))) {
+                            unsupported.incrementAndGet();
+                            return;
+                        }
+                        if (hashes.containsKey(digest)) {
+                            cached.incrementAndGet();
+                            return;
+                        }
+                        inFlight.acquireUninterruptibly();
+                        executor.execute(() -> {
+                            try {
+                                OptionalLong dHash = perceptualHashService.calculateDHash(file);
+                                if (dHash.isPresent()) {
+                                    hashes.put(digest, dHash.getAsLong());
+                                    hashed.incrementAndGet();
+                                } else {
+                                    unsupported.incrementAndGet();
+                                }
+                            } catch (Exception e) {
+                                logger.debug("Could not compute perceptual hash for {}: {}", file, e.getMessage());
+                                errors.incrementAndGet();
+                            } finally {
+                                inFlight.release();
+                            }
+                        });
+                    });
+        } catch (IOException e) {
+            logger.error("Error scanning originals directory: {}", originalsPath, e);
+        } finally {
+            executor.shutdown();
+            awaitTermination(executor);
+        }
+
+        int clusters = 0;
+        long members = 0;
+        try {
+            hashes.save(hashesFile);
+            List<int[]> found = writeReport(hashes, Paths.get(config.getStateDir(), REPORT_FILE));
+            clusters = found.size();
+            members = found.stream().mapToLong(cluster -> cluster.length).sum();
+        } catch (IOException e) {
+            logger.error("Error writing near-duplicate results to {}", config.getStateDir(), e);
+            errors.incrementAndGet();
+        }
+
+        logger.info("--- Similarity Summary ---");
+        logger.info("Total files found:     {}", total.get());
+        logger.info("Newly hashed:          {}", hashed.get());
+        logger.info("Previously hashed:     {}", cached.get());
+        logger.info("Not decodable:         {}", unsupported.get());
+        logger.info("Near-duplicate groups: {} ({} files)", clusters, members);
+        if (errors.get() > 0) {
+            logger.error("Errors encountered:    {}", errors.get());
+        }
+        logger.info("--------------------------");
+    }
+
+    private List<int[]> writeReport(DigestLongMap hashes, Path reportFile) throws IOException {
+        int count = Math.toIntExact(hashes.size());
+        long[] values = new long[count];
+        int[] next = { 0 };
+        hashes.forEach((digest, value) -> {
+            if (next[0] < count) {
+                values[next[0]++] = value;
+            }
+        });
+
+        List<int[]> clusters = NearDuplicateIndex.findClusters(values, next[0],
+                config.getSimilarity().getMaxDistance());
+
+        // Second pass in the same order resolves ordinals back to content hashes
+        int[] clusterOf = new int[next[0]];
+        Arrays.fill(clusterOf, -1);
+        for (int c = 0; c < clusters.size(); c++) {
+            for (int member : clusters.get(c)) {
+                clusterOf[member] = c;
+            }
+        }
+        StringBuilder[] lines = new StringBuilder[clusters.size()];
+        int[] ordinal = { 0 };
+        hashes.forEach((digest, value) -> {
+            int i = ordinal[0]++;
+            if (i < clusterOf.length && clusterOf[i] >= 0) {
+                int c = clusterOf[i];
+                if (lines[c] == null) {
+                    lines[c] = new StringBuilder();
+                } else {
+                    lines[c].append(' ');
+                }
+                lines[c].append(Digests.toHex(digest));
+            }
+        });
+
+        Files.createDirectories(reportFile.toAbsolutePath().getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(reportFile)) {
+            for (StringBuilder line : lines) {
+                writer.write(line.toString());
+                writer.newLine();
+            }
+        }
+        return clusters;
+    }
+
+    private void awaitTermination(ExecutorService executor) {
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String getExtension(Path file) {
+        String fileName = file.getFileName().toString();
+        int lastDot = fileName.lastIndexOf('.');
+        return (lastDot == -1) ? "" : fileName.substring(lastDot + 1);
+    }
+}
@@ -0,0 +1,146 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.io.CopyEngine;
+import com.flaute.photosono.storage.LocalObjectStore;
+import com.flaute.photosono.storage.MemoryObjectStore;
+import com.flaute.photosono.storage.ObjectStore;
+import com.flaute.photosono.storage.S3ObjectStore;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Hands out the output stores on the backend selected by {@code photosono.storage.type}:
+ * {@code local} (the configured directories), {@code s3} (one prefix per store in a bucket) or
+ * {@code memory}.
+ * <p>
+ * The timeline and unknown-date stores are trees of relative links into the originals directory
+ * and are always local. The phases that read originals as files (timeline, similarity, scrub and
+ * the chunk store) therefore need the {@code local} backend; {@link #requireLocalOriginals}
+ * refuses them on any other.
+ */
+@Service
+public class StorageService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageService.class);
+
+    private final PhotosonoConfig config;
+    private final IoGovernorService io;
+    private final BufferPoolService buffers;
+    private final Map<String, ObjectStore> stores = new ConcurrentHashMap<>();
+
+    private ExecutorService executor;
+
+    public StorageService(PhotosonoConfig config, IoGovernorService io, BufferPoolService buffers) {
+        this.config = config;
+        this.io = io;
+        this.buffers = buffers;
+    }
+
+    /**
+     * Returns {@code true} if the stores are the configured local directories.
+     */
+    public boolean isLocal() {
+        return "local".equals(type());
+    }
+
+    /**
+     * Fails if originals are not on local disk, where {@code phase} reads them.
+     */
+    public void requireLocalOriginals(String phase) {
+        if (!isLocal()) {
+            throw new IllegalStateException("The " + phase + " phase reads originals from local disk and cannot run "
+                    + "with storage type " + type() + "; disable it or use local storage");
+        }
+    }
+
+    public ObjectStore originals() {
+        return store("originals", config::getOriginalsDir);
+    }
+
+    public ObjectStore unknownType() {
+        return store("unknown-type", config::getUnknownTypeDir);
+    }
+
+    public ObjectStore corrupted() {
+        return store("corrupted", config::getCorruptedDir);
+    }
+
+    public ObjectStore invalidSize() {
+        return store("invalid-size", config::getInvalidSizeDir);
+    }
+
+    public ObjectStore thumbnails() {
+        return store("thumbnails", () -> config.getThumbnail().getDir());
+    }
+
+    public ObjectStore timeline() {
+        return stores.computeIfAbsent("timeline", name -> local(config.getTimelineDir()));
+    }
+
+    public ObjectStore unknownDate() {
+        return stores.computeIfAbsent("unknown-date", name -> local(config.getUnknownDateDir()));
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private ObjectStore store(String name, Supplier<String> dir) {
+        return stores.computeIfAbsent(name, key -> {
+            PhotosonoConfig.Storage storage = config.getStorage();
+            return switch (type()) {
+                case "local" -> local(dir.get());
+                case "memory" -> new MemoryObjectStore(name);
+                case "s3" -> {
+                    PhotosonoConfig.S3 s3 = storage.getS3();
+                    String prefix = (s3.getPrefix() == null ? "" : s3.getPrefix()) + name + "/";
+                    logger.info("Storing {} in s3://{}/{} at {}", name, s3.getBucket(), prefix, s3.getEndpoint());
+                    yield new S3ObjectStore(URI.create(s3.getEndpoint()), s3.getRegion(), s3.getBucket(), prefix,
+                            s3.getAccessKey(), s3.getSecretKey(), s3.getMaxConcurrency());
+                }
+                default -> throw new IllegalStateException("Unknown storage type: " + storage.getType());
+            };
+        });
+    }
+
+    private String type() {
+        String type = config.getStorage().getType();
+        return type == null ? "local" : type.toLowerCase();
+    }
+
+    private ObjectStore local(String dir) {
+        return new LocalObjectStore(Paths.get(dir), executor(), copyEngine());
+    }
+
+    private CopyEngine copyEngine() {
+        PhotosonoConfig.Copy copy = config.getCopy();
+        return new CopyEngine(buffers.pool(), copy.isDirectIo(), copy.getDirectThreshold(), copy.getSyncBytes(),
+                io.governor());
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            int threads = Math.max(1, config.getStorage().getThreads());
+            executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "storage");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,236 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.index.DigestSet;
+import com.flaute.photosono.index.Digests;
+import com.flaute.photosono.io.SubsampledImageReader;
+import com.flaute.photosono.storage.ObjectStore;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Renders a JPEG thumbnail for every placed image into {@code thumbnails/{h0}/{h1}/{sha}.jpg},
+ * so viewers never have to decode an original just to show a preview.
+ * <p>
+ * Rendering runs on its own pool, sized for the CPU rather than the disks. The existence probe
+ * and the upload stay in flight on the store rather than holding a render thread for a round
+ * trip. Callers hand over at most {@code queue-size} pending images, counted until their upload
+ * completes, and then block, so a slow render pool or store holds ingestion back instead of
+ * buffering decoded work without bound. Each hash is rendered once per run and
+ * only if the store does not have it yet. Images are decoded subsampled to just above the
+ * thumbnail size.
+ */
+@Service
+public class ThumbnailService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
+
+    private final PhotosonoConfig config;
+    private final StorageService storage;
+    private final PerceptualHashService images;
+    private final DigestSet submitted;
+
+    private final LongAdder rendered = new LongAdder();
+    private final LongAdder present = new LongAdder();
+    private final LongAdder undecodable = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private ExecutorService executor;
+    private Semaphore pending;
+
+    public ThumbnailService(PhotosonoConfig config, StorageService storage, PerceptualHashService images) {
+        this.config = config;
+        this.storage = storage;
+        this.images = images;
+        this.submitted = new DigestSet(config.getThumbnail().isEnabled() ? config.getIndex().getExpectedOriginals() : 1);
+    }
+
+    /**
+     * Queues a thumbnail for the original with this hash, decoded from {@code source} (any copy of
+     * the same content). Blocks while the queue is full; does nothing for formats ImageIO cannot
+     * read or hashes already queued.
+     */
+    public void submit(String sha256, Path source, String extension) {
+        if (!config.getThumbnail().isEnabled() || !images.supports(extension)) {
+            return;
+        }
+        byte[] digest = Digests.fromHex(sha256);
+        if (digest == null || !submitted.add(digest)) {
+            return;
+        }
+        Semaphore slots = slots();
+        slots.acquireUninterruptibly();
+        try {
+            ObjectStore store = storage.thumbnails();
+            String key = key(sha256);
+            store.exists(key)
+                    .thenComposeAsync(exists -> {
+                        if (exists) {
+                            present.increment();
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        return render(sha256, source, store, key);
+                    }, executor)
+                    .whenComplete((done, e) -> {
+                        if (e != null) {
+                            Throwable cause = e instanceof CompletionException && e.getCause() != null
+                                    ? e.getCause() : e;
+                            logger.warn("Could not store thumbnail for {}: {}", sha256, cause.toString());
+                            errors.increment();
+                        }
+                        slots.release();
+                    });
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for every queued thumbnail and logs what was rendered.
+     */
+    public void awaitIdle() {
+        Semaphore slots;
+        synchronized (this) {
+            slots = pending;
+        }
+        if (slots == null) {
+            return;
+        }
+        int capacity = queueSize();
+        slots.acquireUninterruptibly(capacity);
+        slots.release(capacity);
+        logger.info("Thumbnails rendered: {}, already present: {}, undecodable: {}, errors: {}", rendered.sum(),
+                present.sum(), undecodable.sum(), errors.sum());
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    static String key(String sha256) {
+        return sha256.charAt(0) + "/" + sha256.charAt(1) + "/" + sha256 + ".jpg";
+    }
+
+    /**
+     * Decodes and scales on the calling render thread, then hands the upload to the store.
+     */
+    private CompletableFuture<Void> render(String sha256, Path source, ObjectStore store, String key) {
+        PhotosonoConfig.Thumbnail settings = config.getThumbnail();
+        Path temp = null;
+        try {
+            int size = Math.max(1, settings.getSize());
+            BufferedImage image = SubsampledImageReader.read(source, (width, height) -> Math.max(width, height) / size);
+            if (image == null) {
+                undecodable.increment();
+                return CompletableFuture.completedFuture(null);
+            }
+            temp = Files.createTempFile("thumbnail-", ".jpg");
+            writeJpeg(scale(image, size), temp, settings.getQuality());
+        } catch (Exception | LinkageError e) {
+            // Broken images can throw anything from deep inside the decoders
+            logger.warn("Could not render thumbnail for {} from {}: {}", sha256, source, e.toString());
+            errors.increment();
+            deleteQuietly(temp);
+            return CompletableFuture.completedFuture(null);
+        }
+        Path thumbnail = temp;
+        return store.putIfAbsent(key, thumbnail).handle((written, e) -> {
+            deleteQuietly(thumbnail);
+            if (e != null) {
+                throw e instanceof CompletionException completion ? completion : new CompletionException(e);
+            }
+            if (written) {
+                rendered.increment();
+                logger.debug("Rendered thumbnail for {} from {}", sha256, source);
+            } else {
+                present.increment();
+            }
+            return null;
+        });
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.debug("Could not delete {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Scales to fit a {@code size} square, keeping the aspect ratio. Never scales up.
+     */
+    private static BufferedImage scale(BufferedImage image, int size) {
+        double factor = Math.min(1.0, (double) size / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+        // JPEG has no alpha, so always draw onto plain RGB
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private static void writeJpeg(BufferedImage image, Path target, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private int queueSize() {
+        return Math.max(1, config.getThumbnail().getQueueSize());
+    }
+
+    private synchronized Semaphore slots() {
+        if (executor == null) {
+            int threads = Math.max(1, config.getThumbnail().getThreads());
+            executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "thumbnail");
+                thread.setDaemon(true);
+                return thread;
+            });
+            pending = new Semaphore(queueSize());
+        }
+        return pending;
+    }
+}
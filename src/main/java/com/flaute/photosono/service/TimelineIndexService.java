@@ -0,0 +1,146 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.index.DigestLongMap;
+import com.flaute.photosono.index.Digests;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.OptionalLong;
+
+/**
+ * Persistent hash -> (creation date, extension) index of every original the timeline has seen.
+ * <p>
+ * Each entry is packed into one {@code long} of an off-heap digest map: the top byte is the
+ * extension code and the remaining 56 bits hold the epoch second (offset to stay positive), or
+ * all ones when no date was found. This lets the timeline be rebuilt without reopening media.
+ */
+@Service
+public class TimelineIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimelineIndexService.class);
+
+    static final String INDEX_FILE = "timeline-index.bin";
+
+    // Append only: codes are persisted
+    private static final List<String> EXTENSIONS = List.of(
+            "jpg", "jpeg", "png", "gif", "bmp", "webp", "heic", "heif", "mp4", "mov", "avi");
+
+    private static final long DATE_MASK = (1L << 56) - 1;
+    private static final long NO_DATE = DATE_MASK;
+    private static final long SECONDS_OFFSET = 1L << 54;
+
+    private final PhotosonoConfig config;
+    private volatile DigestLongMap entries;
+
+    public TimelineIndexService(PhotosonoConfig config) {
+        this.config = config;
+    }
+
+    public void recordDate(Path original, Date date) {
+        record(original, Math.floorDiv(date.getTime(), 1000L) + SECONDS_OFFSET);
+    }
+
+    public void recordUnknownDate(Path original) {
+        record(original, NO_DATE);
+    }
+
+    /**
+     * All recorded entries, loaded from the state directory on first use.
+     */
+    public DigestLongMap entries() {
+        DigestLongMap current = entries;
+        if (current == null) {
+            synchronized (this) {
+                if (entries == null) {
+                    entries = load();
+                }
+                current = entries;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the epoch second of an entry, or empty for originals without a date.
+     */
+    public static OptionalLong epochSecond(long entry) {
+        long date = entry & DATE_MASK;
+        return date == NO_DATE ? OptionalLong.empty() : OptionalLong.of(date - SECONDS_OFFSET);
+    }
+
+    public static String extension(long entry) {
+        int code = (int) (entry >>> 56);
+        return code >= 1 && code <= EXTENSIONS.size() ? EXTENSIONS.get(code - 1) : "";
+    }
+
+    /**
+     * Returns the persisted code of an extension (case-insensitive), or 0 if it has none.
+     */
+    static int extensionCode(String extension) {
+        return EXTENSIONS.indexOf(extension.toLowerCase(Locale.ROOT)) + 1;
+    }
+
+    /**
+     * Reads the index as last saved, independent of unsaved changes in this process.
+     */
+    public DigestLongMap readSaved() {
+        return load();
+    }
+
+    public Path savedFile() {
+        return indexFile();
+    }
+
+    @PreDestroy
+    public synchronized void save() {
+        if (entries == null) {
+            return;
+        }
+        Path file = indexFile();
+        try {
+            entries.save(file);
+            logger.info("Saved timeline index with {} entries to {}", entries.size(), file);
+        } catch (IOException e) {
+            logger.warn("Could not save timeline index to {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void record(Path original, long date) {
+        String fileName = original.getFileName().toString();
+        byte[] digest = Digests.fromFileName(fileName);
+        int lastDot = fileName.lastIndexOf('.');
+        int code = lastDot == -1 ? -1 : extensionCode(fileName.substring(lastDot + 1)) - 1;
+        if (digest == null || code < 0) {
+            logger.debug("Not indexing {} for timeline rebuilds", original);
+            return;
+        }
+        entries().put(digest, ((long) (code + 1) << 56) | date);
+    }
+
+    private DigestLongMap load() {
+        Path file = indexFile();
+        long expected = config.getIndex().getExpectedOriginals();
+        if (Files.exists(file)) {
+            try {
+                return DigestLongMap.load(file, expected);
+            } catch (IOException e) {
+                logger.warn("Could not read timeline index {}, starting empty: {}", file, e.getMessage());
+            }
+        }
+        return new DigestLongMap(expected);
+    }
+
+    private Path indexFile() {
+        return Paths.get(config.getStateDir(), INDEX_FILE);
+    }
+}
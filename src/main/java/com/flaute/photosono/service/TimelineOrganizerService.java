@@ -1,27 +1,42 @@
 package com.flaute.photosono.service;
 
+import com.drew.metadata.Metadata;
 import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.index.CatalogIndex;
+import com.flaute.photosono.index.Digests;
+import com.flaute.photosono.storage.ObjectStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 @Service
 public class TimelineOrganizerService {
 
     private static final Logger logger = LoggerFactory.getLogger(TimelineOrganizerService.class);
 
+    // Names claimed by other nodes between resolving and linking before giving up on a file
+    private static final int MAX_LINK_ATTEMPTS = 100;
+
     private final PhotosonoConfig config;
     private final DateExtractorService dateExtractorService;
     private final HashService hashService;
+    private final TimelineIndexService timelineIndex;
+    private final AuditJournalService journal;
+    private final StorageService storage;
+    private final CatalogService catalogService;
+    private final ViewService views;
 
     public enum Result {
         TIMELINE,
@@ -30,21 +45,85 @@ public class TimelineOrganizerService {
         ERROR
     }
 
+    /**
+     * Where a file was linked; {@code target} is {@code null} when no link was written.
+     */
+    private record Placement(Result result, String target) {
+    }
+
     public TimelineOrganizerService(PhotosonoConfig config, DateExtractorService dateExtractorService,
-            HashService hashService) {
+            HashService hashService, TimelineIndexService timelineIndex, AuditJournalService journal,
+            StorageService storage, CatalogService catalogService, ViewService views) {
         this.config = config;
         this.dateExtractorService = dateExtractorService;
         this.hashService = hashService;
+        this.timelineIndex = timelineIndex;
+        this.journal = journal;
+        this.storage = storage;
+        this.catalogService = catalogService;
+        this.views = views;
     }
 
     public Result organizeFile(Path file) {
-        logger.info("Processing file for timeline organization: {}", file);
-        return dateExtractorService.extractCreationDate(file)
-                .map(date -> linkToTimeline(file, date))
-                .orElseGet(() -> linkToUnknownDate(file));
+        logger.debug("Processing file for timeline organization: {}", file);
+        long start = System.nanoTime();
+        // Originals are named by their hash, so it is known without reading the file
+        byte[] digest = Digests.fromFileName(file.getFileName().toString());
+        // The date and every view share one parse of the metadata, made only if one of them needs it
+        Supplier<Metadata> metadata = parseOnce(file);
+        Optional<Date> date = dateExtractorService.extractCreationDate(file, metadata, () -> originalNames(digest));
+        Placement placement;
+        if (date.isPresent()) {
+            timelineIndex.recordDate(file, date.get());
+            placement = linkToTimeline(file, date.get());
+        } else {
+            timelineIndex.recordUnknownDate(file);
+            placement = linkToUnknownDate(file);
+        }
+        views.add(file, date.orElse(null), metadata);
+        String sha256 = digest != null ? Digests.toHex(digest) : null;
+        journal.record(AuditJournalService.Action.TIMELINE, file, sha256, placement.result(), placement.target(),
+                start);
+        return placement.result();
     }
 
-    private Result linkToTimeline(Path source, Date date) {
+    /**
+     * How many dates metadata and file names supplied, and how many files stayed undated.
+     */
+    public Map<String, Long> dateSourceCounts() {
+        return dateExtractorService.dateSourceCounts();
+    }
+
+    private Supplier<Metadata> parseOnce(Path file) {
+        Metadata[] parsed = new Metadata[1];
+        boolean[] read = new boolean[1];
+        return () -> {
+            if (!read[0]) {
+                parsed[0] = dateExtractorService.readMetadata(file);
+                read[0] = true;
+            }
+            return parsed[0];
+        };
+    }
+
+    /**
+     * The paths this original was ingested from, as recorded in the catalog during dedupe.
+     */
+    private List<String> originalNames(byte[] digest) {
+        if (digest == null) {
+            return List.of();
+        }
+        try {
+            return catalogService.snapshot().index().sourcesByHash(digest).stream()
+                    .map(CatalogIndex.Source::path)
+                    .toList();
+        } catch (IOException e) {
+            logger.debug("Could not look up original names in the catalog: {}", e.getMessage());
+            return List.of();
+        }
+    }
+
+    private Placement linkToTimeline(Path source, Date date) {
         try {
             SimpleDateFormat dirFormatter = new SimpleDateFormat("yyyy/MM/dd");
             SimpleDateFormat fileFormatter = new SimpleDateFormat("yyyyMMdd-HHmmss");
@@ -53,27 +132,35 @@ public class TimelineOrganizerService {
             String baseFileName = fileFormatter.format(date);
             String extension = getExtension(source);
 
-            Path targetDir = Paths.get(config.getTimelineDir(), datePath);
-            Files.createDirectories(targetDir);
-
-            Optional<Path> targetFile = resolveTargetFile(source, targetDir, baseFileName, extension);
-
-            if (targetFile.isPresent()) {
-                createRelativeSymlink(source, targetFile.get());
-                logger.info("Linked {} into timeline: {}", source, targetFile.get());
-                return Result.TIMELINE;
-            } else {
-                logger.info("Identical file already exists in timeline for {}, skipping.", baseFileName);
-                return Result.SKIPPED;
+            ObjectStore timeline = storage.timeline();
+            for (int attempt = 1; ; attempt++) {
+                Optional<String> targetKey = resolveTargetKey(timeline, source, datePath + "/" + baseFileName,
+                        extension);
+
+                if (targetKey.isPresent()) {
+                    // Another node may take this name since it was resolved; resolve again then
+                    if (!ObjectStore.await(timeline.link(targetKey.get(), source.toString()))) {
+                        if (attempt == MAX_LINK_ATTEMPTS) {
+                            throw new IOException("Timeline name " + targetKey.get() + " stays taken");
+                        }
+                        continue;
+                    }
+                    String target = timeline.location(targetKey.get());
+                    logger.debug("Linked {} into timeline: {}", source, target);
+                    return new Placement(Result.TIMELINE, target);
+                } else {
+                    logger.debug("Identical file already exists in timeline for {}, skipping.", baseFileName);
+                    return new Placement(Result.SKIPPED, null);
+                }
             }
 
         } catch (Exception e) {
             logger.error("Error linking file to timeline: {}", source, e);
-            return Result.ERROR;
+            return new Placement(Result.ERROR, null);
         }
     }
 
-    private Result linkToUnknownDate(Path source) {
+    private Placement linkToUnknownDate(Path source) {
         try {
             String sha256 = hashService.calculateSHA256(source);
             String extension = getExtension(source);
@@ -81,61 +168,64 @@ public class TimelineOrganizerService {
 
             // Use structured directory for unknown files:
             // /unknown-date/{h0}/{h1}/{hash}.ext
-            Path unknownDir = Paths.get(config.getUnknownDateDir(), sha256.substring(0, 1), sha256.substring(1, 2));
-            Files.createDirectories(unknownDir);
+            ObjectStore unknownDate = storage.unknownDate();
+            String key = sha256.charAt(0) + "/" + sha256.charAt(1) + "/" + targetFileName;
+            String target = unknownDate.location(key);
 
-            Path targetFile = unknownDir.resolve(targetFileName);
-
-            if (Files.exists(targetFile)) {
-                logger.info("Link already exists in unknown-date folder: {}", targetFile);
-                return Result.SKIPPED;
+            if (!ObjectStore.await(unknownDate.link(key, source.toString()))) {
+                logger.debug("Link already exists in unknown-date folder: {}", target);
+                return new Placement(Result.SKIPPED, target);
             }
 
-            createRelativeSymlink(source, targetFile);
-            logger.info("No date found, linked {} to unknown-date: {}", source, targetFile);
-            return Result.UNKNOWN_DATE;
+            logger.debug("No date found, linked {} to unknown-date: {}", source, target);
+            return new Placement(Result.UNKNOWN_DATE, target);
 
         } catch (Exception e) {
             logger.error("Error linking file to unknown-date folder: {}", source, e);
-            return Result.ERROR;
+            return new Placement(Result.ERROR, null);
         }
     }
 
-    private void createRelativeSymlink(Path source, Path target) throws IOException {
-        // Ensure parent directories exist (redundant but safe)
-        Files.createDirectories(target.getParent());
-        Path relativeSource = target.getParent().relativize(source);
-        Files.createSymbolicLink(target, relativeSource);
-    }
-
-    private Optional<Path> resolveTargetFile(Path source, Path targetDir, String baseName, String extension)
+    private Optional<String> resolveTargetKey(ObjectStore timeline, Path source, String baseKey, String extension)
             throws IOException, NoSuchAlgorithmException {
-        Path target = targetDir.resolve(baseName + "." + extension);
-        if (!Files.exists(target)) {
-            return Optional.of(target);
+        String key = baseKey + "." + extension;
+        if (!ObjectStore.await(timeline.exists(key))) {
+            return Optional.of(key);
         }
 
         // Check if existing file (or link target) is identical
         String sourceHash = hashService.calculateSHA256(source);
-        String targetHash = hashService.calculateSHA256(target);
-
-        if (sourceHash.equals(targetHash)) {
+        if (isSameContent(timeline, key, sourceHash)) {
             return Optional.empty(); // Identical file, skip
         }
 
         int counter = 1;
         while (true) {
-            target = targetDir.resolve(baseName + "-" + counter + "." + extension);
-            if (!Files.exists(target)) {
-                return Optional.of(target);
+            key = baseKey + "-" + counter + "." + extension;
+            if (!ObjectStore.await(timeline.exists(key))) {
+                return Optional.of(key);
             }
-            if (sourceHash.equals(hashService.calculateSHA256(target))) {
+            if (isSameContent(timeline, key, sourceHash)) {
                 return Optional.empty(); // Identical file with counter, skip
             }
             counter++;
         }
     }
 
+    /**
+     * Whether the timeline entry under {@code key} has this hash. A dangling link has no content;
+     * it keeps its name until pruned, so the file goes under the next free name.
+     */
+    private boolean isSameContent(ObjectStore timeline, String key, String sha256)
+            throws IOException, NoSuchAlgorithmException {
+        try {
+            // The timeline store is always local
+            return sha256.equals(hashService.calculateSHA256(Paths.get(timeline.location(key))));
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
     private String getExtension(Path file) {
         String fileName = file.getFileName().toString();
         int lastDot = fileName.lastIndexOf('.');
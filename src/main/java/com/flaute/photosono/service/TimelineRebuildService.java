@@ -0,0 +1,309 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.index.DigestLongMap;
+import com.flaute.photosono.index.Digests;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Regenerates the timeline and unknown-date link trees from the {@link TimelineIndexService}
+ * alone, without opening any original.
+ * <p>
+ * Entries are sorted by creation second, which also orders them by day directory, and each
+ * directory is handled as one batch: it is listed once, then all of its links are created by
+ * one worker. Entries sharing a second are ordered by hash so counters are stable across rebuilds.
+ */
+@Service
+public class TimelineRebuildService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimelineRebuildService.class);
+
+    private static final DateTimeFormatter DIR_FORMAT = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+    private static final DateTimeFormatter FILE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    // Sort keys pack (second - MIN_SECOND) above a 27-bit ordinal
+    private static final int ORDINAL_BITS = 27;
+    private static final long MIN_SECOND = -5_364_662_400L; // 1800-01-01T00:00:00Z
+    private static final long MAX_SECOND = MIN_SECOND + (1L << (63 - ORDINAL_BITS)) - 1;
+
+    private final PhotosonoConfig config;
+    private final TimelineIndexService timelineIndex;
+
+    public TimelineRebuildService(PhotosonoConfig config, TimelineIndexService timelineIndex) {
+        this.config = config;
+        this.timelineIndex = timelineIndex;
+    }
+
+    public void rebuildTimeline() {
+        DigestLongMap entries = timelineIndex.entries();
+        int capacity = Math.toIntExact(entries.size());
+        if (capacity >= 1 << ORDINAL_BITS) {
+            throw new IllegalStateException("Too many timeline entries to rebuild in one pass: " + capacity);
+        }
+        logger.info("Rebuilding timeline from {} indexed originals", capacity);
+
+        byte[] digests = new byte[capacity * 32];
+        byte[] extensions = new byte[capacity];
+        long[] dated = new long[capacity];
+        int[] undated = new int[capacity];
+        int[] counts = new int[3]; // ordinals, dated, undated
+        AtomicInteger errors = new AtomicInteger(0);
+
+        entries.forEach((digest, entry) -> {
+            int ordinal = counts[0];
+            if (ordinal >= capacity) {
+                return;
+            }
+            String extension = TimelineIndexService.extension(entry);
+            OptionalLong second = TimelineIndexService.epochSecond(entry);
+            if (extension.isEmpty() || (second.isPresent()
+                    && (second.getAsLong() < MIN_SECOND || second.getAsLong() > MAX_SECOND))) {
+                errors.incrementAndGet();
+                return;
+            }
+            counts[0]++;
+            System.arraycopy(digest, 0, digests, ordinal * 32, 32);
+            extensions[ordinal] = (byte) (entry >>> 56);
+            if (second.isPresent()) {
+                dated[counts[1]++] = ((second.getAsLong() - MIN_SECOND) << ORDINAL_BITS) | ordinal;
+            } else {
+                undated[counts[2]++] = ordinal;
+            }
+        });
+
+        Arrays.sort(dated, 0, counts[1]);
+        groupByShard(undated, counts[2], digests);
+
+        Batches batches = new Batches(digests, extensions, errors);
+        int threads = Math.max(1, config.getTimeline().getRebuildThreads());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Semaphore inFlight = new Semaphore(threads * 2);
+        try {
+            ZoneId zone = ZoneId.systemDefault();
+            int start = 0;
+            while (start < counts[1]) {
+                String day = dayOf(dated[start], zone);
+                int end = start + 1;
+                while (end < counts[1] && dayOf(dated[end], zone).equals(day)) {
+                    end++;
+                }
+                long[] batch = Arrays.copyOfRange(dated, start, end);
+                submit(executor, inFlight, () -> batches.linkDay(Paths.get(config.getTimelineDir(), day), batch, zone));
+                start = end;
+            }
+
+            start = 0;
+            while (start < counts[2]) {
+                byte shard = digests[undated[start] * 32];
+                int end = start + 1;
+                while (end < counts[2] && digests[undated[end] * 32] == shard) {
+                    end++;
+                }
+                int[] batch = Arrays.copyOfRange(undated, start, end);
+                submit(executor, inFlight, () -> batches.linkUnknownDate(batch));
+                start = end;
+            }
+        } finally {
+            executor.shutdown();
+            awaitTermination(executor);
+        }
+
+        logger.info("--- Timeline Rebuild Summary ---");
+        logger.info("Indexed originals:     {}", capacity);
+        logger.info("Links created:         {}", batches.created.get());
+        logger.info("Links replaced:        {}", batches.replaced.get());
+        logger.info("Links already correct: {}", batches.unchanged.get());
+        if (errors.get() > 0) {
+            logger.error("Errors encountered:    {}", errors.get());
+        }
+        logger.info("--------------------------------");
+    }
+
+    private final class Batches {
+        final byte[] digests;
+        final byte[] extensions;
+        final AtomicInteger errors;
+        final AtomicInteger created = new AtomicInteger(0);
+        final AtomicInteger replaced = new AtomicInteger(0);
+        final AtomicInteger unchanged = new AtomicInteger(0);
+
+        Batches(byte[] digests, byte[] extensions, AtomicInteger errors) {
+            this.digests = digests;
+            this.extensions = extensions;
+            this.errors = errors;
+        }
+
+        void linkDay(Path dir, long[] keys, ZoneId zone) {
+            int[] ordinals = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                ordinals[i] = (int) (keys[i] & ((1L << ORDINAL_BITS) - 1));
+            }
+            // Keys are sorted by second then ordinal; reorder each same-second run by hash
+            int runStart = 0;
+            for (int i = 1; i <= keys.length; i++) {
+                if (i == keys.length || (keys[i] >>> ORDINAL_BITS) != (keys[runStart] >>> ORDINAL_BITS)) {
+                    if (i - runStart > 1) {
+                        int[] run = Arrays.copyOfRange(ordinals, runStart, i);
+                        sortByDigest(run, run.length, digests);
+                        System.arraycopy(run, 0, ordinals, runStart, run.length);
+                    }
+                    runStart = i;
+                }
+            }
+
+            try {
+                Files.createDirectories(dir);
+                Set<String> existing = list(dir);
+                Map<String, Integer> counters = new HashMap<>();
+                for (int i = 0; i < ordinals.length; i++) {
+                    long second = (keys[i] >>> ORDINAL_BITS) + MIN_SECOND;
+                    int ordinal = ordinals[i];
+                    String extension = extensionAt(ordinal);
+                    String baseName = FILE_FORMAT.format(Instant.ofEpochSecond(second).atZone(zone));
+                    int counter = counters.merge(baseName + "." + extension, 1, Integer::sum) - 1;
+                    String name = baseName + (counter == 0 ? "" : "-" + counter) + "." + extension;
+                    link(dir, name, ordinal, existing);
+                }
+            } catch (IOException e) {
+                logger.error("Error rebuilding timeline directory: {}", dir, e);
+                errors.incrementAndGet();
+            }
+        }
+
+        void linkUnknownDate(int[] ordinals) {
+            String first = Digests.toHex(Arrays.copyOfRange(digests, ordinals[0] * 32, ordinals[0] * 32 + 32));
+            Path dir = Paths.get(config.getUnknownDateDir(), first.substring(0, 1), first.substring(1, 2));
+            try {
+                Files.createDirectories(dir);
+                Set<String> existing = list(dir);
+                for (int ordinal : ordinals) {
+                    link(dir, hexAt(ordinal) + "." + extensionAt(ordinal), ordinal, existing);
+                }
+            } catch (IOException e) {
+                logger.error("Error rebuilding unknown-date directory: {}", dir, e);
+                errors.incrementAndGet();
+            }
+        }
+
+        private void link(Path dir, String name, int ordinal, Set<String> existing) {
+            String sha256 = hexAt(ordinal);
+            Path original = Paths.get(config.getOriginalsDir(), sha256.substring(0, 1), sha256.substring(1, 2),
+                    sha256 + "." + extensionAt(ordinal));
+            Path link = dir.resolve(name);
+            Path relativeSource = dir.relativize(original);
+            try {
+                if (existing.contains(name)) {
+                    if (!Files.isSymbolicLink(link)) {
+                        logger.warn("Not replacing non-link file in timeline: {}", link);
+                        errors.incrementAndGet();
+                        return;
+                    }
+                    if (Files.readSymbolicLink(link).equals(relativeSource)) {
+                        unchanged.incrementAndGet();
+                        return;
+                    }
+                    Files.delete(link);
+                    Files.createSymbolicLink(link, relativeSource);
+                    replaced.incrementAndGet();
+                    return;
+                }
+                Files.createSymbolicLink(link, relativeSource);
+                created.incrementAndGet();
+            } catch (IOException e) {
+                logger.error("Error creating link {} -> {}", link, relativeSource, e);
+                errors.incrementAndGet();
+            }
+        }
+
+        private String hexAt(int ordinal) {
+            return Digests.toHex(Arrays.copyOfRange(digests, ordinal * 32, ordinal * 32 + 32));
+        }
+
+        private String extensionAt(int ordinal) {
+            return TimelineIndexService.extension((long) (extensions[ordinal] & 0xff) << 56);
+        }
+    }
+
+    /**
+     * Counting sort on the first digest byte, which selects the {h0}/{h1} shard directory.
+     */
+    private static void groupByShard(int[] ordinals, int count, byte[] digests) {
+        int[] offsets = new int[257];
+        for (int i = 0; i < count; i++) {
+            offsets[(digests[ordinals[i] * 32] & 0xff) + 1]++;
+        }
+        for (int i = 0; i < 256; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] sorted = new int[count];
+        for (int i = 0; i < count; i++) {
+            sorted[offsets[digests[ordinals[i] * 32] & 0xff]++] = ordinals[i];
+        }
+        System.arraycopy(sorted, 0, ordinals, 0, count);
+    }
+
+    private static String dayOf(long key, ZoneId zone) {
+        ZonedDateTime time = Instant.ofEpochSecond((key >>> ORDINAL_BITS) + MIN_SECOND).atZone(zone);
+        return DIR_FORMAT.format(time);
+    }
+
+    private static Set<String> list(Path dir) throws IOException {
+        try (Stream<Path> children = Files.list(dir)) {
+            return children.map(child -> child.getFileName().toString()).collect(Collectors.toSet());
+        }
+    }
+
+    private static void sortByDigest(int[] ordinals, int count, byte[] digests) {
+        Integer[] boxed = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            boxed[i] = ordinals[i];
+        }
+        Arrays.sort(boxed, (a, b) -> Arrays.compareUnsigned(digests, a * 32, a * 32 + 32, digests, b * 32,
+                b * 32 + 32));
+        for (int i = 0; i < count; i++) {
+            ordinals[i] = boxed[i];
+        }
+    }
+
+    private static void submit(ExecutorService executor, Semaphore inFlight, Runnable task) {
+        inFlight.acquireUninterruptibly();
+        executor.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -6,23 +6,43 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
+/**
+ * Links every original into the timeline, one {@code h0/h1} directory at a time.
+ * <p>
+ * In cluster mode a directory finished by any node is skipped until it changes. Its version is
+ * the directory's modification time plus a generation id kept in the timeline directory, so a
+ * timeline that is wiped to be rebuilt gets a new generation and every directory is linked again
+ * without clearing the lease markers by hand.
+ */
 @Service
 public class TimelineScannerService {
 
     private static final Logger logger = LoggerFactory.getLogger(TimelineScannerService.class);
 
+    static final String GENERATION_FILE = ".photosono-generation";
+
     private final PhotosonoConfig config;
     private final TimelineOrganizerService organizerService;
+    private final TimelineIndexService timelineIndex;
+    private final LeaseService leaseService;
+    private final ViewService views;
 
-    public TimelineScannerService(PhotosonoConfig config, TimelineOrganizerService organizerService) {
+    public TimelineScannerService(PhotosonoConfig config, TimelineOrganizerService organizerService,
+            TimelineIndexService timelineIndex, LeaseService leaseService, ViewService views) {
         this.config = config;
         this.organizerService = organizerService;
+        this.timelineIndex = timelineIndex;
+        this.leaseService = leaseService;
+        this.views = views;
     }
 
     public void scanOriginalsDirectory() {
@@ -43,31 +63,96 @@ public class TimelineScannerService {
         AtomicInteger unknownDate = new AtomicInteger(0);
         AtomicInteger skipped = new AtomicInteger(0);
         AtomicInteger errors = new AtomicInteger(0);
+        int otherNodeShards = 0;
 
-        try (Stream<Path> paths = Files.walk(originalsPath)) {
-            paths.filter(Files::isRegularFile)
-                    .forEach(file -> {
-                        total.incrementAndGet();
-                        TimelineOrganizerService.Result result = organizerService.organizeFile(file);
-                        switch (result) {
-                            case TIMELINE -> timeline.incrementAndGet();
-                            case UNKNOWN_DATE -> unknownDate.incrementAndGet();
-                            case SKIPPED -> skipped.incrementAndGet();
-                            case ERROR -> errors.incrementAndGet();
-                        }
-                    });
+        // Each hash-prefix directory (h0/h1) is one shard of work that a single node claims
+        try (Stream<Path> dirs = Files.walk(originalsPath)) {
+            LeaseService.Phase phase = leaseService.begin("timeline");
+            String generation = config.getCluster().isEnabled() ? timelineGeneration() : "";
+            // Archive entries in the staging directory are not placed yet
+            for (Path dir : dirs.filter(dir -> Files.isDirectory(dir)
+                    && !dir.getFileName().toString().equals(FileProcessorService.STAGING_DIR)).toList()) {
+                try (LeaseService.Lease lease = phase.tryAcquire(originalsPath.relativize(dir).toString(),
+                        shardVersion(dir) + generation)) {
+                    if (lease == null) {
+                        otherNodeShards++;
+                        continue;
+                    }
+                    int errorsBefore = errors.get();
+                    try (Stream<Path> files = Files.list(dir)) {
+                        // Once the lease is lost the rest of the shard belongs to the node that took it over
+                        files.filter(Files::isRegularFile)
+                                .sorted()
+                                .takeWhile(file -> !lease.isLost())
+                                .forEach(file -> {
+                                    total.incrementAndGet();
+                                    TimelineOrganizerService.Result result = organizerService.organizeFile(file);
+                                    switch (result) {
+                                        case TIMELINE -> timeline.incrementAndGet();
+                                        case UNKNOWN_DATE -> unknownDate.incrementAndGet();
+                                        case SKIPPED -> skipped.incrementAndGet();
+                                        case ERROR -> errors.incrementAndGet();
+                                    }
+                                });
+                    }
+                    if (config.getCluster().isEnabled()) {
+                        // A completed shard is not revisited, so its view links must be on disk first
+                        views.flush();
+                    }
+                    if (errors.get() == errorsBefore) {
+                        lease.complete();
+                    }
+                }
+            }
         } catch (IOException e) {
             logger.error("Error scanning originals directory: {}", originalsPath, e);
         }
+        views.flush();
+        timelineIndex.save();
 
         logger.info("--- Timeline Summary ---");
         logger.info("Total files found:     {}", total.get());
         logger.info("Links to Timeline:     {}", timeline.get());
         logger.info("Links to Unknown Date: {}", unknownDate.get());
         logger.info("Existing links skipped: {}", skipped.get());
+        organizerService.dateSourceCounts()
+                .forEach((source, count) -> logger.info("Dated by {}: {}", source, count));
+        views.logSummary();
+        if (config.getCluster().isEnabled()) {
+            logger.info("Shards left to other nodes: {}", otherNodeShards);
+        }
         if (errors.get() > 0) {
             logger.error("Errors encountered:    {}", errors.get());
         }
         logger.info("------------------------");
     }
+
+    /**
+     * The id of the current timeline tree, created by the first node to find it missing.
+     */
+    private String timelineGeneration() throws IOException {
+        Path file = Paths.get(config.getTimelineDir(), GENERATION_FILE);
+        if (!Files.exists(file)) {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), GENERATION_FILE, ".tmp");
+            try {
+                Files.writeString(temp, UUID.randomUUID().toString(), StandardCharsets.UTF_8);
+                // A link cannot replace an existing file, so of two racing nodes only one id wins
+                Files.createLink(file, temp);
+                logger.info("Started timeline generation in {}", file.getParent());
+            } catch (FileAlreadyExistsException e) {
+                // Another node created it first
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return "@" + Files.readString(file, StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * A directory's entries change when files are added or removed, and so does its modification time.
+     */
+    private static String shardVersion(Path dir) throws IOException {
+        return Long.toString(Files.getLastModifiedTime(dir).toMillis());
+    }
 }
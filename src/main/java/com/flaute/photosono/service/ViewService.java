@@ -0,0 +1,306 @@
+package com.flaute.photosono.service;
+
+import com.drew.metadata.Directory;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.mov.metadata.QuickTimeMetadataDirectory;
+import com.flaute.photosono.config.PhotosonoConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Extra link trees next to the timeline, each laid out by a path template under
+ * {@code views.dir}, for example {@code by-camera/{make}/{model}/{yyyy}}. Templates use
+ * {@code {yyyy}}, {@code {MM}}, {@code {dd}}, {@code {make}}, {@code {model}}, {@code {type}}
+ * ({@code photo} or {@code video}) and {@code {ext}}; a value that is not known becomes
+ * {@code unknown}. A {@code photo:} or {@code video:} prefix limits a view to that type.
+ * <p>
+ * Views are filled during the timeline pass from the date and metadata already read for the
+ * timeline, so any number of views costs no extra read of an original. Links are buffered and
+ * written grouped by target directory: each directory is created and listed once per batch
+ * rather than once per link.
+ */
+@Service
+public class ViewService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ViewService.class);
+
+    enum MediaType {
+        PHOTO,
+        VIDEO
+    }
+
+    static final String UNKNOWN = "unknown";
+    private static final Set<String> VIDEO_EXTENSIONS = Set.of("mp4", "mov", "avi");
+    private static final Set<String> PLACEHOLDERS = Set.of("yyyy", "MM", "dd", "make", "model", "type", "ext");
+    private static final Set<String> CAMERA_PLACEHOLDERS = Set.of("make", "model");
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{([^}]*)}");
+    private static final DateTimeFormatter FILE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    // Dated link names carry this much of the hash to tell apart files from the same second
+    private static final int SHORT_HASH = 8;
+
+    record View(String template, MediaType only) {
+    }
+
+    private record Link(String name, String fallbackName, Path original) {
+    }
+
+    private final PhotosonoConfig config;
+    private final List<View> views;
+    private final boolean needsCamera;
+
+    // Guarded by this: target directory -> links to create there
+    private final Map<Path, List<Link>> pending = new HashMap<>();
+    private int pendingLinks;
+
+    private final AtomicInteger created = new AtomicInteger(0);
+    private final AtomicInteger present = new AtomicInteger(0);
+    private final AtomicInteger errors = new AtomicInteger(0);
+
+    public ViewService(PhotosonoConfig config) {
+        this.config = config;
+        List<String> definitions = config.getViews().getDefinitions();
+        this.views = definitions == null ? List.of() : definitions.stream()
+                .filter(definition -> definition != null && !definition.isBlank())
+                .map(ViewService::parse)
+                .toList();
+        this.needsCamera = views.stream().anyMatch(view -> placeholders(view.template()).stream()
+                .anyMatch(CAMERA_PLACEHOLDERS::contains));
+    }
+
+    public boolean isEnabled() {
+        return !views.isEmpty();
+    }
+
+    /**
+     * Queues links to {@code original} in every view that takes it. {@code date} is {@code null}
+     * for undated files; {@code metadata} is only asked for when a view uses the camera.
+     */
+    public void add(Path original, Date date, Supplier<Metadata> metadata) {
+        if (views.isEmpty()) {
+            return;
+        }
+        String fileName = original.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String extension = dot < 0 ? "" : fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+        MediaType type = VIDEO_EXTENSIONS.contains(extension) ? MediaType.VIDEO : MediaType.PHOTO;
+
+        Map<String, String> values = new HashMap<>();
+        values.put("type", type.name().toLowerCase(Locale.ROOT));
+        values.put("ext", extension.isEmpty() ? UNKNOWN : extension);
+        ZonedDateTime time = date == null ? null : date.toInstant().atZone(ZoneId.systemDefault());
+        values.put("yyyy", time == null ? UNKNOWN : String.format("%04d", time.getYear()));
+        values.put("MM", time == null ? UNKNOWN : String.format("%02d", time.getMonthValue()));
+        values.put("dd", time == null ? UNKNOWN : String.format("%02d", time.getDayOfMonth()));
+        if (needsCamera) {
+            Metadata parsed = metadata.get();
+            values.put("make", segment(camera(parsed, ExifIFD0Directory.TAG_MAKE,
+                    QuickTimeMetadataDirectory.TAG_MAKE)));
+            values.put("model", segment(camera(parsed, ExifIFD0Directory.TAG_MODEL,
+                    QuickTimeMetadataDirectory.TAG_MODEL)));
+        }
+
+        // Originals are named <hash>.<ext>, which stays the name for undated files
+        Path absolute = original.toAbsolutePath().normalize();
+        String hash = dot < 0 ? fileName : fileName.substring(0, dot);
+        String suffix = dot < 0 ? "" : fileName.substring(dot);
+        String prefix = time == null ? "" : FILE_FORMAT.format(time) + "-";
+        String name = time == null ? fileName
+                : prefix + hash.substring(0, Math.min(SHORT_HASH, hash.length())) + suffix;
+        String fallbackName = prefix + fileName;
+        Path root = Paths.get(config.getViews().getDir()).toAbsolutePath().normalize();
+
+        List<Path> targets = new ArrayList<>();
+        for (View view : views) {
+            if (view.only() != null && view.only() != type) {
+                continue;
+            }
+            Path dir = root.resolve(expand(view.template(), values)).normalize();
+            if (!dir.startsWith(root)) {
+                logger.warn("View {} leaves the views directory for {}, skipping", view.template(), original);
+                continue;
+            }
+            targets.add(dir);
+        }
+        Map<Path, List<Link>> batch = null;
+        synchronized (this) {
+            for (Path dir : targets) {
+                pending.computeIfAbsent(dir, key -> new ArrayList<>()).add(new Link(name, fallbackName, absolute));
+                pendingLinks++;
+            }
+            if (pendingLinks >= config.getViews().getBatchSize()) {
+                batch = takePending();
+            }
+        }
+        if (batch != null) {
+            write(batch);
+        }
+    }
+
+    /**
+     * Writes every queued link.
+     */
+    public void flush() {
+        Map<Path, List<Link>> batch;
+        synchronized (this) {
+            batch = takePending();
+        }
+        write(batch);
+    }
+
+    public void logSummary() {
+        if (views.isEmpty()) {
+            return;
+        }
+        logger.info("Views: {} links created, {} already present, {} errors in {} views", created.get(),
+                present.get(), errors.get(), views.size());
+    }
+
+    private Map<Path, List<Link>> takePending() {
+        Map<Path, List<Link>> batch = new HashMap<>(pending);
+        pending.clear();
+        pendingLinks = 0;
+        return batch;
+    }
+
+    private void write(Map<Path, List<Link>> batch) {
+        batch.forEach(this::linkDirectory);
+    }
+
+    private void linkDirectory(Path dir, List<Link> links) {
+        Set<String> existing;
+        try {
+            Files.createDirectories(dir);
+            try (Stream<Path> entries = Files.list(dir)) {
+                existing = entries.map(entry -> entry.getFileName().toString())
+                        .collect(Collectors.toCollection(HashSet::new));
+            }
+        } catch (IOException e) {
+            logger.error("Error preparing view directory: {}", dir, e);
+            errors.addAndGet(links.size());
+            return;
+        }
+        for (Link link : links) {
+            Path relative = dir.relativize(link.original());
+            try {
+                String name = link.name();
+                if (existing.contains(name) && !pointsTo(dir.resolve(name), relative)) {
+                    // Another original from the same second with the same hash prefix
+                    name = link.fallbackName();
+                }
+                if (existing.contains(name)) {
+                    if (pointsTo(dir.resolve(name), relative)) {
+                        present.incrementAndGet();
+                    } else {
+                        logger.warn("Not replacing {} in view", dir.resolve(name));
+                        errors.incrementAndGet();
+                    }
+                    continue;
+                }
+                Files.createSymbolicLink(dir.resolve(name), relative);
+                existing.add(name);
+                created.incrementAndGet();
+            } catch (IOException e) {
+                logger.error("Error creating view link in {} for {}", dir, link.original(), e);
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    private static boolean pointsTo(Path link, Path target) throws IOException {
+        return Files.isSymbolicLink(link) && Files.readSymbolicLink(link).equals(target);
+    }
+
+    static View parse(String definition) {
+        String template = definition.trim();
+        MediaType only = null;
+        int colon = template.indexOf(':');
+        if (colon >= 0) {
+            try {
+                only = MediaType.valueOf(template.substring(0, colon).trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("View type must be photo or video: " + definition);
+            }
+            template = template.substring(colon + 1).trim();
+        }
+        if (template.isEmpty() || template.startsWith("/")) {
+            throw new IllegalArgumentException("View template must be a relative path: " + definition);
+        }
+        for (String part : template.split("/")) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..")) {
+                throw new IllegalArgumentException("View template has an empty or relative segment: " + definition);
+            }
+        }
+        for (String placeholder : placeholders(template)) {
+            if (!PLACEHOLDERS.contains(placeholder)) {
+                throw new IllegalArgumentException("Unknown placeholder {" + placeholder + "} in view: " + definition);
+            }
+        }
+        return new View(template, only);
+    }
+
+    private static List<String> placeholders(String template) {
+        List<String> names = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER.matcher(template);
+        while (matcher.find()) {
+            names.add(matcher.group(1));
+        }
+        return names;
+    }
+
+    private static String expand(String template, Map<String, String> values) {
+        return PLACEHOLDER.matcher(template).replaceAll(match -> Matcher.quoteReplacement(
+                values.getOrDefault(match.group(1), UNKNOWN)));
+    }
+
+    private static String camera(Metadata metadata, int exifTag, int quickTimeTag) {
+        if (metadata == null) {
+            return null;
+        }
+        String value = string(metadata.getFirstDirectoryOfType(ExifIFD0Directory.class), exifTag);
+        return value != null ? value
+                : string(metadata.getFirstDirectoryOfType(QuickTimeMetadataDirectory.class), quickTimeTag);
+    }
+
+    private static String string(Directory directory, int tag) {
+        String value = directory == null ? null : directory.getString(tag);
+        return value == null || value.isBlank() ? null : value;
+    }
+
+    /**
+     * Makes a metadata value safe as one directory name.
+     */
+    static String segment(String value) {
+        if (value == null) {
+            return UNKNOWN;
+        }
+        String cleaned = value.trim().replaceAll("[\\p{Cntrl}/\\\\:*?\"<>|]", "_").replaceAll("\\s+", " ");
+        if (cleaned.startsWith(".")) {
+            cleaned = "_" + cleaned.substring(1);
+        }
+        return cleaned.isEmpty() ? UNKNOWN : cleaned;
+    }
+}
@@ -0,0 +1,87 @@
+package com.flaute.photosono.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Exercises the per-file code paths on generated samples without touching any configured
+ * directory.
+ * <p>
+ * Used as the training run for a class data sharing archive: everything loaded here (image
+ * codecs, metadata-extractor readers, hashing) is then mapped from the archive at startup
+ * instead of being loaded and verified again on every short batch run. On a single core this
+ * took a no-op dedupe run from about 3.3 s to about 1.3 s; most of what remains is Spring
+ * creating the context, so the archive alone does not get a short run under a second.
+ * <p>
+ * A sample that no codec decodes fails the warmup, since an archive trained without the
+ * decoders would silently miss the classes it exists for.
+ */
+@Service
+public class WarmupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WarmupService.class);
+
+    // Smallest ISO base media header metadata-extractor recognizes as MP4
+    private static final byte[] MP4_HEADER = HexFormat.of().parseHex(
+            "00000018" + "66747970" + "69736f6d" + "00000000" + "69736f6d" + "6d703431");
+
+    private final HashService hashService;
+    private final DateExtractorService dateExtractorService;
+    private final PerceptualHashService perceptualHashService;
+
+    public WarmupService(HashService hashService, DateExtractorService dateExtractorService,
+            PerceptualHashService perceptualHashService) {
+        this.hashService = hashService;
+        this.dateExtractorService = dateExtractorService;
+        this.perceptualHashService = perceptualHashService;
+    }
+
+    public void warmup() throws Exception {
+        long start = System.nanoTime();
+        Path dir = Files.createTempDirectory("photosono-warmup");
+        try {
+            BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, x % image.getHeight(), 0xffffff);
+            }
+            Path jpeg = dir.resolve("sample.jpg");
+            Path png = dir.resolve("sample.png");
+            Path mp4 = dir.resolve("sample.mp4");
+            ImageIO.write(image, "jpg", jpeg.toFile());
+            ImageIO.write(image, "png", png.toFile());
+            Files.write(mp4, MP4_HEADER);
+
+            for (Path sample : List.of(jpeg, png, mp4)) {
+                hashService.calculateSHA256(sample);
+                dateExtractorService.extractCreationDate(sample);
+            }
+            for (Path sample : List.of(jpeg, png)) {
+                if (perceptualHashService.calculateDHash(sample).isEmpty()) {
+                    throw new IllegalStateException("No image decoder read warmup sample " + sample.getFileName());
+                }
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+        logger.info("Warmup completed in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
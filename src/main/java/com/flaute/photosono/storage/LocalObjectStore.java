@@ -0,0 +1,152 @@
+package com.flaute.photosono.storage;
+
+import com.flaute.photosono.io.CopyEngine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+/**
+ * Stores objects as files below a root directory, with keys mapped to relative paths. Links are
+ * relative symbolic links, so a tree of links stays valid when the stores are mounted elsewhere.
+ * <p>
+ * File system calls block, so they run on the given executor; its size bounds how many operations
+ * are in flight at once.
+ */
+public class LocalObjectStore implements ObjectStore {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private final Path root;
+    private final Executor executor;
+    private final CopyEngine copyEngine;
+
+    public LocalObjectStore(Path root, Executor executor) {
+        this(root, executor, CopyEngine.buffered(DEFAULT_BUFFER_SIZE));
+    }
+
+    public LocalObjectStore(Path root, Executor executor, CopyEngine copyEngine) {
+        this.root = root;
+        this.executor = executor;
+        this.copyEngine = copyEngine;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> exists(String key) {
+        // A dangling link still occupies the key
+        return run(() -> Files.exists(resolve(key), LinkOption.NOFOLLOW_LINKS));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> putIfAbsent(String key, Path source) {
+        return run(() -> {
+            Path target = resolve(key);
+            Files.createDirectories(target.getParent());
+            try {
+                copyEngine.copy(source, target);
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Hard-links the source into place and then removes it, which is an atomic rename that never
+     * replaces an existing object. Falls back to copying across file systems.
+     */
+    @Override
+    public CompletableFuture<Boolean> moveIfAbsent(String key, Path source) {
+        return run(() -> {
+            Path target = resolve(key);
+            Files.createDirectories(target.getParent());
+            try {
+                Files.createLink(target, source);
+            } catch (FileAlreadyExistsException e) {
+                return false;
+            } catch (IOException | UnsupportedOperationException e) {
+                try {
+                    copyEngine.copy(source, target);
+                } catch (FileAlreadyExistsException exists) {
+                    return false;
+                }
+            }
+            Files.delete(source);
+            return true;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> link(String key, String target) {
+        return run(() -> {
+            Path link = resolve(key);
+            Files.createDirectories(link.getParent());
+            Path relative = link.toAbsolutePath().getParent().relativize(Paths.get(target).toAbsolutePath());
+            try {
+                Files.createSymbolicLink(link, relative);
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                return false;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<String>> list(String prefix) {
+        return run(() -> {
+            // Only the directory holding the prefix's last complete segment needs walking
+            int slash = prefix.lastIndexOf('/');
+            Path start = slash < 0 ? root : resolve(prefix.substring(0, slash));
+            if (!Files.isDirectory(start)) {
+                return List.of();
+            }
+            try (Stream<Path> paths = Files.walk(start)) {
+                return paths.filter(path -> !Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+                        .map(this::key)
+                        .filter(key -> key.startsWith(prefix))
+                        .sorted()
+                        .toList();
+            }
+        });
+    }
+
+    @Override
+    public String location(String key) {
+        return resolve(key).toString();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    private Path resolve(String key) {
+        return root.resolve(key);
+    }
+
+    private String key(Path path) {
+        return root.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+    }
+
+    private <T> CompletableFuture<T> run(IoCall<T> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return call.call();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    @FunctionalInterface
+    private interface IoCall<T> {
+        T call() throws IOException;
+    }
+}
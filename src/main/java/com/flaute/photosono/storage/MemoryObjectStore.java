@@ -0,0 +1,77 @@
+package com.flaute.photosono.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps objects on the heap. Meant for tests and dry runs; everything is lost on exit.
+ */
+public class MemoryObjectStore implements ObjectStore {
+
+    private record Entry(byte[] content, String link) {
+    }
+
+    private final String name;
+    private final ConcurrentNavigableMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    public MemoryObjectStore(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> exists(String key) {
+        return CompletableFuture.completedFuture(entries.containsKey(key));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> putIfAbsent(String key, Path source) {
+        if (entries.containsKey(key)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        try {
+            Entry entry = new Entry(Files.readAllBytes(source), null);
+            return CompletableFuture.completedFuture(entries.putIfAbsent(key, entry) == null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new UncheckedIOException(e));
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> link(String key, String target) {
+        return CompletableFuture.completedFuture(entries.putIfAbsent(key, new Entry(null, target)) == null);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> list(String prefix) {
+        return CompletableFuture.completedFuture(entries.tailMap(prefix, true).keySet().stream()
+                .takeWhile(key -> key.startsWith(prefix))
+                .toList());
+    }
+
+    @Override
+    public String location(String key) {
+        return "memory://" + name + "/" + key;
+    }
+
+    /**
+     * Content stored under {@code key}, or {@code null} if it is absent or a link.
+     */
+    public byte[] content(String key) {
+        Entry entry = entries.get(key);
+        return entry != null ? entry.content() : null;
+    }
+
+    /**
+     * Target of the link under {@code key}, or {@code null} if it is absent or not a link.
+     */
+    public String linkTarget(String key) {
+        Entry entry = entries.get(key);
+        return entry != null ? entry.link() : null;
+    }
+}
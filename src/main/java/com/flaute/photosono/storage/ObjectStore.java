@@ -0,0 +1,128 @@
+package com.flaute.photosono.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A flat namespace of immutable objects that the output stores (originals, rejected files,
+ * timeline links) are written to.
+ * <p>
+ * Keys are relative, {@code /}-separated names such as {@code a/b/<hash>.jpg}. Every operation
+ * returns immediately with a future, so callers can keep many requests in flight against a remote
+ * backend instead of paying one round trip per file. Objects are never overwritten: writes only
+ * succeed if the key is still free, which lets concurrent writers of the same content race safely.
+ * <p>
+ * Deduplication leaves uploads of new originals and thumbnails in flight while its workers go on.
+ * It still waits for an existence probe, but only for content the originals filter may already
+ * hold. Timeline links are always local, and each one is awaited because a taken name decides
+ * the next name to try.
+ */
+public interface ObjectStore {
+
+    /**
+     * Completes with {@code true} if an object or link exists under {@code key}.
+     */
+    CompletableFuture<Boolean> exists(String key);
+
+    /**
+     * Stores the content of {@code source} under {@code key}. Completes with {@code false} without
+     * writing anything if the key is already taken.
+     */
+    CompletableFuture<Boolean> putIfAbsent(String key, Path source);
+
+    /**
+     * Like {@link #putIfAbsent}, but hands {@code source} over: it is gone once the future
+     * completes with {@code true}, and left in place otherwise. Stores on the same file system
+     * can do this without copying.
+     */
+    default CompletableFuture<Boolean> moveIfAbsent(String key, Path source) {
+        return putIfAbsent(key, source).thenApply(stored -> {
+            if (stored) {
+                try {
+                    Files.deleteIfExists(source);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return stored;
+        });
+    }
+
+    /**
+     * Creates {@code key} as a reference to {@code target}, a location as returned by
+     * {@link #location(String)} of this or another store. Completes with {@code false} if the key is
+     * already taken.
+     */
+    CompletableFuture<Boolean> link(String key, String target);
+
+    /**
+     * Completes with all keys starting with {@code prefix}, in ascending order.
+     */
+    CompletableFuture<List<String>> list(String prefix);
+
+    /**
+     * Where the object under {@code key} lives, for links, logs and the audit journal.
+     */
+    String location(String key);
+
+    /**
+     * Checks many keys at once. Completes with each key mapped to whether it exists.
+     */
+    default CompletableFuture<Map<String, Boolean>> existsAll(Collection<String> keys) {
+        Map<String, CompletableFuture<Boolean>> pending = new TreeMap<>();
+        for (String key : keys) {
+            pending.put(key, exists(key));
+        }
+        return collect(pending);
+    }
+
+    /**
+     * Stores many files at once. Completes with each key mapped to whether it was written.
+     */
+    default CompletableFuture<Map<String, Boolean>> putAllIfAbsent(Map<String, Path> sources) {
+        Map<String, CompletableFuture<Boolean>> pending = new TreeMap<>();
+        sources.forEach((key, source) -> pending.put(key, putIfAbsent(key, source)));
+        return collect(pending);
+    }
+
+    /**
+     * Waits for a store operation, rethrowing its failure as an {@link IOException}.
+     */
+    static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for storage", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException unchecked) {
+                throw unchecked.getCause();
+            }
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static CompletableFuture<Map<String, Boolean>> collect(Map<String, CompletableFuture<Boolean>> pending) {
+        return CompletableFuture.allOf(pending.values().toArray(CompletableFuture[]::new))
+                .thenApply(done -> {
+                    Map<String, Boolean> results = new TreeMap<>();
+                    pending.forEach((key, future) -> results.put(key, future.join()));
+                    return results;
+                })
+                .exceptionallyCompose(e -> CompletableFuture.failedFuture(
+                        e instanceof CompletionException && e.getCause() != null ? e.getCause() : e));
+    }
+}
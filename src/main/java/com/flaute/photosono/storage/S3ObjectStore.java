@@ -0,0 +1,238 @@
+package com.flaute.photosono.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stores objects in an S3-compatible bucket, addressed path-style as
+ * {@code <endpoint>/<bucket>/<prefix><key>} and signed with SigV4.
+ * <p>
+ * Requests are sent asynchronously over a shared {@link HttpClient}; at most
+ * {@code maxConcurrency} are in flight and the rest wait in a queue, so a large batch is pipelined
+ * over the kept-alive connections instead of paying one blocking round trip per object. Writes use
+ * {@code If-None-Match: *} so an existing object is never replaced. Links are empty objects
+ * carrying their target in the {@value #LINK_HEADER} metadata header.
+ */
+public class S3ObjectStore implements ObjectStore {
+
+    static final String LINK_HEADER = "x-amz-meta-photosono-link";
+
+    private static final Pattern KEY = Pattern.compile("<Key>(.*?)</Key>");
+    private static final Pattern NEXT_TOKEN = Pattern.compile("<NextContinuationToken>(.*?)</NextContinuationToken>");
+
+    private final URI endpoint;
+    private final String bucket;
+    private final String prefix;
+    private final SigV4Signer signer;
+    private final HttpClient client;
+    private final int maxConcurrency;
+
+    private final Deque<Runnable> waiting = new ArrayDeque<>();
+    private int inFlight;
+
+    public S3ObjectStore(URI endpoint, String region, String bucket, String prefix, String accessKey,
+            String secretKey, int maxConcurrency) {
+        this.endpoint = endpoint;
+        this.bucket = bucket;
+        this.prefix = prefix == null ? "" : prefix;
+        this.signer = new SigV4Signer(region, accessKey, secretKey);
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> exists(String key) {
+        return send("HEAD", objectPath(key), Map.of(), Map.of(), HttpRequest.BodyPublishers.noBody(),
+                SigV4Signer.EMPTY_PAYLOAD)
+                .thenApply(response -> switch (response.statusCode()) {
+                    case 200 -> true;
+                    case 404 -> false;
+                    default -> throw failure("HEAD", key, response);
+                });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> putIfAbsent(String key, Path source) {
+        return send("PUT", objectPath(key), Map.of(), Map.of("if-none-match", "*"), () -> {
+            try {
+                return HttpRequest.BodyPublishers.ofFile(source);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, SigV4Signer.UNSIGNED_PAYLOAD).thenApply(response -> created("PUT", key, response));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> link(String key, String target) {
+        return send("PUT", objectPath(key), Map.of(), Map.of("if-none-match", "*", LINK_HEADER, target),
+                HttpRequest.BodyPublishers.noBody(), SigV4Signer.EMPTY_PAYLOAD)
+                .thenApply(response -> created("PUT", key, response));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> list(String keyPrefix) {
+        return listFrom(keyPrefix, null, new ArrayList<>());
+    }
+
+    @Override
+    public String location(String key) {
+        return "s3://" + bucket + "/" + prefix + key;
+    }
+
+    private CompletableFuture<List<String>> listFrom(String keyPrefix, String token, List<String> keys) {
+        Map<String, String> query = new LinkedHashMap<>();
+        query.put("list-type", "2");
+        query.put("prefix", prefix + keyPrefix);
+        if (token != null) {
+            query.put("continuation-token", token);
+        }
+        return send("GET", "/" + bucket, query, Map.of(), HttpRequest.BodyPublishers.noBody(),
+                SigV4Signer.EMPTY_PAYLOAD)
+                .thenCompose(response -> {
+                    if (response.statusCode() != 200) {
+                        throw failure("LIST", keyPrefix, response);
+                    }
+                    Matcher key = KEY.matcher(response.body());
+                    while (key.find()) {
+                        keys.add(unescape(key.group(1)).substring(prefix.length()));
+                    }
+                    Matcher next = NEXT_TOKEN.matcher(response.body());
+                    if (next.find()) {
+                        return listFrom(keyPrefix, unescape(next.group(1)), keys);
+                    }
+                    keys.sort(null);
+                    return CompletableFuture.completedFuture(keys);
+                });
+    }
+
+    private String objectPath(String key) {
+        return "/" + bucket + "/" + prefix + key;
+    }
+
+    private CompletableFuture<HttpResponse<String>> send(String method, String path, Map<String, String> query,
+            Map<String, String> extraHeaders, HttpRequest.BodyPublisher body, String payloadHash) {
+        return send(method, path, query, extraHeaders, () -> body, payloadHash);
+    }
+
+    private CompletableFuture<HttpResponse<String>> send(String method, String path, Map<String, String> query,
+            Map<String, String> extraHeaders, Supplier<HttpRequest.BodyPublisher> body, String payloadHash) {
+        return limited(() -> {
+            SortedMap<String, String> signed = new TreeMap<>();
+            signed.put("host", endpoint.getPort() == -1 ? endpoint.getHost()
+                    : endpoint.getHost() + ":" + endpoint.getPort());
+            signed.put("x-amz-content-sha256", payloadHash);
+            signed.put("x-amz-date", SigV4Signer.amzDate(Instant.now()));
+            extraHeaders.forEach((name, value) -> {
+                if (name.startsWith("x-amz-")) {
+                    signed.put(name, value);
+                }
+            });
+
+            String queryString = SigV4Signer.canonicalQuery(query);
+            URI uri = endpoint.resolve(SigV4Signer.encodePath(path)
+                    + (queryString.isEmpty() ? "" : "?" + queryString));
+            HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                    .timeout(Duration.ofMinutes(5))
+                    .method(method, body.get())
+                    .header("Authorization", signer.authorization(method, path, query, signed, payloadHash));
+            signed.forEach((name, value) -> {
+                if (!name.equals("host")) {
+                    request.header(name, value);
+                }
+            });
+            extraHeaders.forEach((name, value) -> {
+                if (!signed.containsKey(name)) {
+                    request.header(name, value);
+                }
+            });
+            return client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString());
+        });
+    }
+
+    /**
+     * Starts the call now if fewer than {@code maxConcurrency} calls are in flight, otherwise once
+     * an earlier call completes.
+     */
+    private <T> CompletableFuture<T> limited(Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = () -> {
+            CompletableFuture<T> started;
+            try {
+                started = call.get();
+            } catch (RuntimeException e) {
+                started = CompletableFuture.failedFuture(e);
+            }
+            started.whenComplete((value, error) -> {
+                release();
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+        synchronized (waiting) {
+            if (inFlight >= maxConcurrency) {
+                waiting.add(start);
+                return result;
+            }
+            inFlight++;
+        }
+        start.run();
+        return result;
+    }
+
+    private void release() {
+        Runnable next;
+        synchronized (waiting) {
+            next = waiting.poll();
+            if (next == null) {
+                inFlight--;
+            }
+        }
+        if (next != null) {
+            next.run();
+        }
+    }
+
+    private static boolean created(String method, String key, HttpResponse<String> response) {
+        return switch (response.statusCode()) {
+            case 200, 201 -> true;
+            // 409 is a concurrent conditional write of the same key that lost
+            case 409, 412 -> false;
+            default -> throw failure(method, key, response);
+        };
+    }
+
+    private static UncheckedIOException failure(String method, String key, HttpResponse<String> response) {
+        return new UncheckedIOException(new IOException(
+                method + " " + key + " failed with HTTP " + response.statusCode() + ": " + response.body()));
+    }
+
+    private static String unescape(String xml) {
+        return xml.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'")
+                .replace("&amp;", "&");
+    }
+}
@@ -0,0 +1,128 @@
+package com.flaute.photosono.storage;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * AWS Signature Version 4 for S3 requests, signed in the {@code Authorization} header.
+ */
+final class SigV4Signer {
+
+    static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    static final String EMPTY_PAYLOAD = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String SERVICE = "s3";
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    private final String region;
+    private final String accessKey;
+    private final String secretKey;
+
+    SigV4Signer(String region, String accessKey, String secretKey) {
+        this.region = region;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+    }
+
+    static String amzDate(Instant time) {
+        return AMZ_DATE.format(time);
+    }
+
+    /**
+     * Returns the {@code Authorization} header value. {@code headers} must hold every header to
+     * sign, including {@code host}, {@code x-amz-date} and {@code x-amz-content-sha256}, with
+     * lower-case names.
+     */
+    String authorization(String method, String path, Map<String, String> query, SortedMap<String, String> headers,
+            String payloadHash) {
+        String amzDate = headers.get("x-amz-date");
+        String date = amzDate.substring(0, 8);
+        String scope = date + "/" + region + "/" + SERVICE + "/aws4_request";
+
+        String signedHeaders = String.join(";", headers.keySet());
+        String canonicalRequest = method + "\n"
+                + encodePath(path) + "\n"
+                + canonicalQuery(query) + "\n"
+                + headers.entrySet().stream()
+                        .map(header -> header.getKey() + ":" + header.getValue().trim() + "\n")
+                        .collect(Collectors.joining())
+                + "\n"
+                + signedHeaders + "\n"
+                + payloadHash;
+        String stringToSign = ALGORITHM + "\n" + amzDate + "\n" + scope + "\n" + sha256Hex(canonicalRequest);
+
+        byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+        key = hmac(key, region);
+        key = hmac(key, SERVICE);
+        key = hmac(key, "aws4_request");
+        String signature = HexFormat.of().formatHex(hmac(key, stringToSign));
+
+        return ALGORITHM + " Credential=" + accessKey + "/" + scope + ", SignedHeaders=" + signedHeaders
+                + ", Signature=" + signature;
+    }
+
+    static String canonicalQuery(Map<String, String> query) {
+        SortedMap<String, String> encoded = new TreeMap<>();
+        query.forEach((name, value) -> encoded.put(encode(name), encode(value)));
+        return encoded.entrySet().stream()
+                .map(parameter -> parameter.getKey() + "=" + parameter.getValue())
+                .collect(Collectors.joining("&"));
+    }
+
+    /**
+     * URI-encodes every path segment, keeping the separating slashes.
+     */
+    static String encodePath(String path) {
+        return Arrays.stream(path.split("/", -1)).map(SigV4Signer::encode).collect(Collectors.joining("/"));
+    }
+
+    /**
+     * RFC 3986 percent-encoding of everything but unreserved characters, as SigV4 requires.
+     */
+    static String encode(String value) {
+        StringBuilder out = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~') {
+                out.append(c);
+            } else {
+                out.append('%').append(HexFormat.of().withUpperCase().toHexDigits(b));
+            }
+        }
+        return out.toString();
+    }
+
+    private static String sha256Hex(String value) {
+        try {
+            return HexFormat.of().formatHex(
+                    MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
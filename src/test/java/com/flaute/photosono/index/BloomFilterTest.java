@@ -0,0 +1,61 @@
+package com.flaute.photosono.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilterTest {
+
+    @Test
+    void testNoFalseNegativesAndBoundedFalsePositives() {
+        BloomFilter filter = BloomFilter.create(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put(digest(i));
+        }
+
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain(digest(i)));
+        }
+
+        int falsePositives = 0;
+        for (int i = 10_000; i < 30_000; i++) {
+            if (filter.mightContain(digest(i))) {
+                falsePositives++;
+            }
+        }
+        // Expected around 1%, allow generous slack
+        assertTrue(falsePositives < 600, "Too many false positives: " + falsePositives);
+        assertFalse(filter.isSaturated());
+    }
+
+    @Test
+    void testSaveAndLoad(@TempDir Path tempDir) throws IOException {
+        BloomFilter filter = BloomFilter.create(100, 0.001);
+        filter.put(digest(1));
+        filter.put(digest(2));
+
+        Path file = tempDir.resolve("originals.bloom");
+        filter.save(file);
+        BloomFilter loaded = BloomFilter.load(file);
+
+        assertTrue(loaded.mightContain(digest(1)));
+        assertTrue(loaded.mightContain(digest(2)));
+        assertEquals(2, loaded.insertions());
+        assertEquals(0.001, loaded.falsePositiveRate());
+        assertEquals(100, loaded.expectedInsertions());
+    }
+
+    private static byte[] digest(int i) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(Integer.toString(i).getBytes());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
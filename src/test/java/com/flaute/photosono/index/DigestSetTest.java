@@ -0,0 +1,117 @@
+package com.flaute.photosono.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DigestSetTest {
+
+    @Test
+    void testAddAndContainsAcrossGrowth() {
+        DigestSet set = new DigestSet(1);
+
+        for (int i = 0; i < 20_000; i++) {
+            assertTrue(set.add(digest(i)));
+        }
+        assertFalse(set.add(digest(42)), "Second add of the same digest should report a duplicate");
+
+        assertEquals(20_000, set.size());
+        for (int i = 0; i < 20_000; i++) {
+            assertTrue(set.contains(digest(i)));
+        }
+        assertFalse(set.contains(digest(20_000)));
+    }
+
+    @Test
+    void testAllZeroDigest() {
+        DigestSet set = new DigestSet(16);
+        byte[] zero = new byte[32];
+
+        assertFalse(set.contains(zero));
+        assertTrue(set.add(zero));
+        assertTrue(set.contains(zero));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void testPresizedFootprint() {
+        DigestSet set = new DigestSet(1_000_000);
+
+        // 32-byte slots at a 0.8 load factor
+        assertTrue(set.reservedBytes() / 1_000_000.0 < 48.0);
+    }
+
+    @Test
+    void testConcurrentInserts() throws Exception {
+        DigestSet set = new DigestSet(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicLong added = new AtomicLong();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    // Every thread inserts the same range, so each digest is added exactly once
+                    for (int i = 0; i < 10_000; i++) {
+                        if (set.add(digest(i))) {
+                            added.incrementAndGet();
+                        }
+                        assertTrue(set.contains(digest(i)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(10_000, added.get());
+        assertEquals(10_000, set.size());
+    }
+
+    @Test
+    void testSaveAndLoad(@TempDir Path tempDir) throws IOException {
+        DigestLongMap map = new DigestLongMap(16);
+        for (int i = 0; i < 1_000; i++) {
+            map.put(digest(i), i * 7L);
+        }
+
+        Path file = tempDir.resolve("state/map.bin");
+        map.save(file);
+        DigestLongMap loaded = DigestLongMap.load(file, 1_000);
+
+        assertEquals(1_000, loaded.size());
+        assertEquals(7L * 999, loaded.get(digest(999), -1));
+        assertEquals(-1, loaded.get(digest(1_000), -1));
+        assertThrows(IOException.class, () -> DigestSet.load(file, 1_000));
+    }
+
+    @Test
+    void testHexRoundTrip() {
+        byte[] digest = digest(1);
+        assertArrayEquals(digest, Digests.fromHex(Digests.toHex(digest)));
+        assertNull(Digests.fromHex("aabbccddeeff"));
+    }
+
+    private static byte[] digest(int i) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(Integer.toString(i).getBytes());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
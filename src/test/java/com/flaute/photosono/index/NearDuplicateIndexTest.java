@@ -0,0 +1,37 @@
+package com.flaute.photosono.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearDuplicateIndexTest {
+
+    @Test
+    void testFindsHashesWithinDistance() {
+        Random random = new Random(42);
+        long[] hashes = new long[1_000];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = random.nextLong();
+        }
+        // 10 differs from 0 by three bits, 20 from 10 by one bit; 30 is four bits away from 0
+        hashes[10] = hashes[0] ^ 0b111L << 5;
+        hashes[20] = hashes[10] ^ (1L << 63);
+        hashes[30] = hashes[0] ^ 0xFL << 40;
+
+        List<int[]> clusters = NearDuplicateIndex.findClusters(hashes, hashes.length, 3);
+
+        assertEquals(1, clusters.size());
+        int[] cluster = clusters.get(0);
+        Arrays.sort(cluster);
+        assertArrayEquals(new int[] { 0, 10, 20 }, cluster);
+    }
+
+    @Test
+    void testRejectsUnsupportedDistance() {
+        assertThrows(IllegalArgumentException.class, () -> NearDuplicateIndex.findClusters(new long[0], 0, 0));
+    }
+}
@@ -0,0 +1,91 @@
+package com.flaute.photosono.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveLimitTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    void testDoublesWhileThroughputScalesThenBacksOffOnQueueing() {
+        AdaptiveLimit limit = new AdaptiveLimit(1, 64, 100, clock::get);
+
+        // A device that serves every file in 10 ms however many run at once, up to 8
+        int windows = 0;
+        while (limit.limit() < 8 && windows++ < 10) {
+            window(limit, limit.limit(), 10 * MILLI);
+        }
+        assertEquals(8, limit.limit());
+        assertEquals(0, limit.stats().decreases());
+
+        // Past 8 files in flight the device only queues: same throughput, latency grows with the limit
+        window(limit, 8, 10 * MILLI * limit.limit() / 8);
+        window(limit, 8, 10 * MILLI * limit.limit() / 8);
+
+        assertTrue(limit.limit() < 16, "limit " + limit.limit());
+        assertEquals(1, limit.stats().decreases());
+        assertEquals(16, limit.stats().highest());
+    }
+
+    @Test
+    void testProbesByOneAfterTheFirstCut() {
+        AdaptiveLimit limit = new AdaptiveLimit(2, 64, 100, clock::get);
+        window(limit, 2, 10 * MILLI);
+        assertEquals(4, limit.limit());
+        // Throughput halves: both rates drop
+        window(limit, 1, 10 * MILLI);
+        assertEquals(3, limit.limit());
+        // Steady again: one more at a time
+        window(limit, 1, 10 * MILLI);
+        assertEquals(4, limit.limit());
+        window(limit, 1, 10 * MILLI);
+        assertEquals(5, limit.limit());
+    }
+
+    @Test
+    void testStaysWithinRange() {
+        AdaptiveLimit limit = new AdaptiveLimit(2, 3, 100, clock::get);
+        for (int i = 0; i < 5; i++) {
+            window(limit, 3, 10 * MILLI);
+        }
+        assertEquals(3, limit.limit());
+        for (int i = 0; i < 5; i++) {
+            window(limit, 1, 25 * MILLI);
+        }
+        assertEquals(2, limit.limit());
+        assertEquals(2, limit.stats().lowest());
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveLimit(0, 4, 100));
+    }
+
+    @Test
+    void testWaitsForAFullWindow() {
+        AdaptiveLimit limit = new AdaptiveLimit(1, 8, 100, clock::get);
+        for (int i = 0; i < 10; i++) {
+            clock.addAndGet(MILLI);
+            assertFalse(limit.record(MILLI, 1000));
+        }
+        assertEquals(1, limit.limit());
+    }
+
+    /**
+     * Runs 100 ms with {@code concurrency} files of 1 MB in flight, each taking {@code latency}.
+     */
+    private void window(AdaptiveLimit limit, int concurrency, long latency) {
+        long files = 100 * MILLI / latency * concurrency;
+        long step = 100 * MILLI / files;
+        for (long i = 0; i < files; i++) {
+            clock.addAndGet(step);
+            limit.record(latency, 1 << 20);
+        }
+        // Rounding may leave the window a little short of its end
+        clock.addAndGet(100 * MILLI - step * files);
+        limit.record(latency, 1 << 20);
+    }
+}
@@ -0,0 +1,148 @@
+package com.flaute.photosono.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArchiveReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRecognizesArchiveNames() {
+        assertTrue(ArchiveReader.isArchive("takeout-001.zip"));
+        assertTrue(ArchiveReader.isArchive("backup.TAR"));
+        assertTrue(ArchiveReader.isArchive("backup.tar.gz"));
+        assertTrue(ArchiveReader.isArchive("backup.tgz"));
+        assertFalse(ArchiveReader.isArchive("photo.jpg"));
+        assertFalse(ArchiveReader.isArchive("notes.gz"));
+    }
+
+    @Test
+    void testReadsZipEntries() throws IOException {
+        Path archive = tempDir.resolve("takeout.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+            zip.putNextEntry(new ZipEntry("Photos/"));
+            zip.putNextEntry(new ZipEntry("Photos/a.jpg"));
+            zip.write("first".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("Photos/b.jpg"));
+            zip.write("second".getBytes(StandardCharsets.UTF_8));
+        }
+
+        Map<String, String> entries = readAll(archive);
+
+        assertEquals(Map.of("Photos/a.jpg", "first", "Photos/b.jpg", "second"), entries);
+    }
+
+    @Test
+    void testReadsTarEntriesWithLongNames() throws IOException {
+        String longName = "DCIM/" + "nested/".repeat(20) + "IMG_0001.jpg";
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        entry(tar, "DCIM/", '5', new byte[0]);
+        entry(tar, "././@LongLink", 'L', (longName + "\0").getBytes(StandardCharsets.UTF_8));
+        entry(tar, longName.substring(0, 99), '0', "long".getBytes(StandardCharsets.UTF_8));
+        entry(tar, "PaxHeaders/x", 'x', pax("path", "DCIM/pax-ü.jpg"));
+        entry(tar, "ignored", '0', "pax".getBytes(StandardCharsets.UTF_8));
+        entry(tar, "DCIM/link.jpg", '2', new byte[0]);
+        entry(tar, "DCIM/big.mov", '0', new byte[1500]);
+        tar.write(new byte[1024]);
+
+        Path plain = Files.write(tempDir.resolve("backup.tar"), tar.toByteArray());
+        Path compressed = tempDir.resolve("backup.tar.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed))) {
+            out.write(tar.toByteArray());
+        }
+
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put(longName, "long");
+        expected.put("DCIM/pax-ü.jpg", "pax");
+        expected.put("DCIM/big.mov", new String(new byte[1500], StandardCharsets.UTF_8));
+        assertEquals(expected, readAll(plain));
+        assertEquals(expected, readAll(compressed));
+    }
+
+    @Test
+    void testSkipsUnreadContent() throws IOException {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        entry(tar, "a.jpg", '0', new byte[700]);
+        entry(tar, "b.jpg", '0', "b".getBytes(StandardCharsets.UTF_8));
+        tar.write(new byte[1024]);
+        Path archive = Files.write(tempDir.resolve("partial.tar"), tar.toByteArray());
+        StringBuilder names = new StringBuilder();
+
+        int count = ArchiveReader.read(archive, (name, content) -> {
+            names.append(name).append(' ');
+            content.read();
+        });
+
+        assertEquals(2, count);
+        assertEquals("a.jpg b.jpg ", names.toString());
+    }
+
+    @Test
+    void testRejectsTruncatedTar() throws IOException {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        entry(tar, "a.jpg", '0', new byte[2000]);
+        byte[] bytes = tar.toByteArray();
+        Path archive = Files.write(tempDir.resolve("cut.tar"), Arrays.copyOf(bytes, 1000));
+
+        assertThrows(IOException.class, () -> readAll(archive));
+    }
+
+    private static Map<String, String> readAll(Path archive) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        ArchiveReader.read(archive, (name, content) -> entries.put(name,
+                new String(content.readAllBytes(), StandardCharsets.UTF_8)));
+        return entries;
+    }
+
+    private static void entry(ByteArrayOutputStream tar, String name, char type, byte[] content) throws IOException {
+        byte[] header = new byte[512];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(100, nameBytes.length));
+        octal(header, 100, 8, 0644);
+        octal(header, 124, 12, content.length);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        int checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        octal(header, 148, 7, checksum);
+        tar.write(header);
+        tar.write(content);
+        tar.write(new byte[(512 - content.length % 512) % 512]);
+    }
+
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = String.format("%0" + (length - 1) + "o", value);
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0, header, offset, length - 1);
+    }
+
+    private static byte[] pax(String key, String value) {
+        String record = " " + key + "=" + value + "\n";
+        int length = record.getBytes(StandardCharsets.UTF_8).length;
+        length += String.valueOf(length + String.valueOf(length).length()).length();
+        return (length + record).getBytes(StandardCharsets.UTF_8);
+    }
+}
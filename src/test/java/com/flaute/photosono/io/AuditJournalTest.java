@@ -0,0 +1,114 @@
+package com.flaute.photosono.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditJournalTest {
+
+    private static final String HASH = "ab".repeat(32);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testEntriesRoundTripAcrossReopen() throws IOException {
+        Path file = tempDir.resolve("journal/actions.bin");
+        try (AuditJournal journal = AuditJournal.open(file, 4)) {
+            journal.append(new AuditJournal.Entry(1000L, "DEDUPE", "PROCESSED", 42, HASH, "/in/a.jpg",
+                    "/originals/a/b/" + HASH + ".jpg"));
+            journal.append(new AuditJournal.Entry(2000L, "DEDUPE", "ERROR", 7, null, "/in/b.jpg", null));
+        }
+        try (AuditJournal journal = AuditJournal.open(file, 4)) {
+            journal.append(new AuditJournal.Entry(3000L, "TIMELINE", "SKIPPED", 1, "not-a-hash", "/o/c.jpg", null));
+        }
+
+        List<AuditJournal.Entry> entries = new ArrayList<>();
+        AuditJournal.read(file, entries::add);
+
+        assertEquals(3, entries.size());
+        assertEquals(new AuditJournal.Entry(1000L, "DEDUPE", "PROCESSED", 42, HASH, "/in/a.jpg",
+                "/originals/a/b/" + HASH + ".jpg"), entries.get(0));
+        assertNull(entries.get(1).sha256());
+        assertNull(entries.get(1).target());
+        assertNull(entries.get(2).sha256());
+        assertEquals("TIMELINE", entries.get(2).action());
+    }
+
+    @Test
+    void testConcurrentProducersLoseNothing() throws Exception {
+        Path file = tempDir.resolve("actions.bin");
+        AuditJournal journal = AuditJournal.open(file, 16);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            pool.execute(() -> {
+                for (int i = 0; i < 2500; i++) {
+                    journal.append(new AuditJournal.Entry(i, "DEDUPE", "SKIPPED", i, HASH,
+                            "/in/" + thread + "/" + i, null));
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        journal.close();
+
+        long[] count = new long[1];
+        AuditJournal.read(file, entry -> count[0]++);
+        assertEquals(10_000, count[0]);
+    }
+
+    @Test
+    void testTruncatedTailIsIgnored() throws IOException {
+        Path file = tempDir.resolve("actions.bin");
+        try (AuditJournal journal = AuditJournal.open(file, 4)) {
+            journal.append(new AuditJournal.Entry(1L, "DEDUPE", "PROCESSED", 1, HASH, "/in/a.jpg", null));
+        }
+        Files.write(file, new byte[] { 0, 0, 0, 50, 1, 2 }, StandardOpenOption.APPEND);
+
+        long[] count = new long[1];
+        AuditJournal.read(file, entry -> count[0]++);
+        assertEquals(1, count[0]);
+    }
+
+    @Test
+    void testAppendsAfterTruncatedTail() throws IOException {
+        Path file = tempDir.resolve("actions.bin");
+        try (AuditJournal journal = AuditJournal.open(file, 4)) {
+            journal.append(new AuditJournal.Entry(1L, "DEDUPE", "PROCESSED", 1, HASH, "/in/a.jpg", null));
+        }
+        // A crash in the middle of the next record
+        byte[] torn = AuditJournal.encode(new AuditJournal.Entry(2L, "DEDUPE", "PROCESSED", 1, HASH, "/in/b.jpg",
+                "/originals/b.jpg"));
+        Files.write(file, Arrays.copyOf(torn, torn.length / 2), StandardOpenOption.APPEND);
+
+        try (AuditJournal journal = AuditJournal.open(file, 4)) {
+            journal.append(new AuditJournal.Entry(3L, "TIMELINE", "LINKED", 2, HASH, "/o/c.jpg", "/t/c.jpg"));
+        }
+
+        List<AuditJournal.Entry> entries = new ArrayList<>();
+        AuditJournal.read(file, entries::add);
+        assertEquals(List.of(1L, 3L), entries.stream().map(AuditJournal.Entry::timestamp).toList());
+        assertEquals("/t/c.jpg", entries.get(1).target());
+    }
+
+    @Test
+    void testRefusesForeignFile() throws IOException {
+        Path file = Files.writeString(tempDir.resolve("notes.txt"), "not a journal");
+
+        assertThrows(IOException.class, () -> AuditJournal.open(file, 4));
+        assertEquals("not a journal", Files.readString(file));
+    }
+}
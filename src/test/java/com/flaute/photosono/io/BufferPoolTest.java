@@ -0,0 +1,50 @@
+package com.flaute.photosono.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+
+    @Test
+    void testReusesAlignedDirectBuffers() throws Exception {
+        BufferPool pool = new BufferPool(8192, 2);
+
+        ByteBuffer first = pool.acquire();
+        assertTrue(first.isDirect());
+        assertEquals(8192, first.capacity());
+        assertEquals(0, first.alignmentOffset(0, BufferPool.ALIGNMENT));
+        first.putInt(42);
+        pool.release(first);
+
+        ByteBuffer again = pool.acquire();
+        assertSame(first, again);
+        assertEquals(0, again.position());
+        assertEquals(new BufferPool.Stats(2, 1, 1, 0, 0), pool.stats());
+    }
+
+    @Test
+    void testWaitsUntilEnoughBuffersAreFree() throws Exception {
+        BufferPool pool = new BufferPool(4096, 2);
+        ByteBuffer held = pool.acquire();
+
+        CompletableFuture<ByteBuffer[]> pair = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.acquire(2);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(pair.isDone());
+
+        pool.release(held);
+        assertEquals(2, pair.get(5, TimeUnit.SECONDS).length);
+        assertEquals(1, pool.stats().waits());
+        assertThrows(IllegalArgumentException.class, () -> pool.acquire(3));
+    }
+}
@@ -0,0 +1,29 @@
+package com.flaute.photosono.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteRateLimiterTest {
+
+    @Test
+    void testThrottlesBeyondBurst() {
+        ByteRateLimiter limiter = new ByteRateLimiter(1_000_000);
+
+        long start = System.nanoTime();
+        // First second is covered by the burst allowance, the rest must be paid for
+        for (int i = 0; i < 15; i++) {
+            limiter.acquire(100_000);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis >= 300, "Expected throttling, took " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void testUnlimitedNeverWaits() {
+        assertEquals(0, ByteRateLimiter.UNLIMITED.acquire(Long.MAX_VALUE / 2));
+    }
+}
@@ -0,0 +1,83 @@
+package com.flaute.photosono.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CopyEngineTest {
+
+    private static final int BUFFER = 64 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testCopiesEverySizeAcrossBufferBoundaries() throws IOException {
+        CopyEngine engine = new CopyEngine(BUFFER, false, Long.MAX_VALUE, BUFFER * 2L);
+        for (int size : new int[] { 0, 1, 4095, BUFFER - 1, BUFFER, BUFFER + 1, BUFFER * 5 + 17 }) {
+            assertCopied(engine, size);
+        }
+    }
+
+    @Test
+    void testDirectIoCopiesOrFallsBack() throws IOException {
+        // The JDK offers O_DIRECT; whether it is accepted depends on the file system under the temp directory
+        assertTrue(CopyEngine.isDirectIoAvailable());
+        CopyEngine engine = new CopyEngine(BUFFER, true, 0, 0);
+        for (int size : new int[] { 1, 4096, BUFFER, BUFFER * 3, BUFFER * 3 + 4095 }) {
+            assertCopied(engine, size);
+        }
+    }
+
+    @Test
+    void testPooledCopiesReuseTheirBuffers() throws IOException {
+        BufferPool pool = new BufferPool(BUFFER, 2);
+        CopyEngine engine = new CopyEngine(pool, true, BUFFER, 0, IoGovernor.UNLIMITED);
+        for (int size : new int[] { 0, 100, BUFFER * 2 + 1, BUFFER * 3 }) {
+            assertCopied(engine, size);
+        }
+
+        BufferPool.Stats stats = pool.stats();
+        assertEquals(8, stats.acquired());
+        assertEquals(2, stats.allocated());
+        assertEquals(6, stats.hits());
+    }
+
+    @Test
+    void testRefusesExistingTargetAndCleansUpFailures() throws IOException {
+        CopyEngine engine = new CopyEngine(BUFFER, true, 0, 0);
+        Path source = Files.write(tempDir.resolve("source"), random(1000));
+        Path target = Files.writeString(tempDir.resolve("target"), "existing");
+
+        assertThrows(FileAlreadyExistsException.class, () -> engine.copy(source, target));
+        assertEquals("existing", Files.readString(target));
+
+        Path missing = tempDir.resolve("missing");
+        Path orphan = tempDir.resolve("orphan");
+        assertThrows(NoSuchFileException.class, () -> engine.copy(missing, orphan));
+        assertFalse(Files.exists(orphan));
+    }
+
+    private void assertCopied(CopyEngine engine, int size) throws IOException {
+        byte[] content = random(size);
+        Path source = Files.write(tempDir.resolve("in-" + size), content);
+        Path target = tempDir.resolve("out-" + size);
+
+        assertEquals(size, engine.copy(source, target));
+        assertArrayEquals(content, Files.readAllBytes(target), "size " + size);
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,83 @@
+package com.flaute.photosono.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExternalSorterTest {
+
+    private static final ExternalSorter.Codec<Long> LONGS = new ExternalSorter.Codec<>() {
+        @Override
+        public void write(DataOutput out, Long value) throws IOException {
+            out.writeLong(value);
+        }
+
+        @Override
+        public Long read(DataInput in) throws IOException {
+            return in.readLong();
+        }
+
+        @Override
+        public long heapSize(Long value) {
+            return 8;
+        }
+    };
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testSortsInMemoryWithoutSpilling() throws IOException {
+        try (ExternalSorter<Long> sorter = new ExternalSorter<>(tempDir, Comparator.naturalOrder(), LONGS, 1024)) {
+            for (long value : new long[] { 3, 1, 2 }) {
+                sorter.add(value);
+            }
+            List<Long> sorted = new ArrayList<>();
+            sorter.forEachSorted(sorted::add);
+
+            assertEquals(List.of(1L, 2L, 3L), sorted);
+            assertEquals(0, runFiles());
+        }
+    }
+
+    @Test
+    void testMergesMoreRunsThanOnePassCanOpen() throws IOException {
+        Random random = new Random(1);
+        List<Long> expected = new ArrayList<>();
+        // 8 records per run gives 250 runs, so the merge needs more than one pass
+        try (ExternalSorter<Long> sorter = new ExternalSorter<>(tempDir, Comparator.naturalOrder(), LONGS, 64)) {
+            for (int i = 0; i < 2000; i++) {
+                long value = random.nextInt(500);
+                expected.add(value);
+                sorter.add(value);
+            }
+            assertTrue(runFiles() > 64);
+
+            List<Long> sorted = new ArrayList<>();
+            sorter.forEachSorted(sorted::add);
+
+            expected.sort(Comparator.naturalOrder());
+            assertEquals(expected, sorted);
+            assertEquals(2000, sorter.count());
+        }
+        assertEquals(0, runFiles());
+    }
+
+    private long runFiles() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.flaute.photosono.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FastCdcTest {
+
+    @Test
+    void testChunkSizesStayWithinBounds() throws IOException {
+        FastCdc chunker = new FastCdc(4096);
+        byte[] data = randomBytes(1 << 20, 1);
+
+        List<byte[]> chunks = split(chunker, data);
+
+        long total = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            int length = chunks.get(i).length;
+            assertTrue(length <= chunker.getMaxSize());
+            if (i < chunks.size() - 1) {
+                assertTrue(length >= chunker.getMinSize());
+            }
+            total += length;
+        }
+        assertEquals(data.length, total);
+        // Normalized chunking keeps the mean near the configured average
+        double mean = (double) data.length / chunks.size();
+        assertTrue(mean > 2048 && mean < 8192, "Mean chunk size was " + mean);
+    }
+
+    @Test
+    void testBoundariesResynchronizeAfterPrefixChange() throws IOException {
+        FastCdc chunker = new FastCdc(4096);
+        byte[] original = randomBytes(512 * 1024, 2);
+        // A trimmed clip: the first 10000 bytes are gone and a new header was prepended
+        byte[] header = randomBytes(777, 3);
+        byte[] edited = new byte[header.length + original.length - 10_000];
+        System.arraycopy(header, 0, edited, 0, header.length);
+        System.arraycopy(original, 10_000, edited, header.length, original.length - 10_000);
+
+        Set<String> originalChunks = new HashSet<>();
+        for (byte[] chunk : split(chunker, original)) {
+            originalChunks.add(Arrays.toString(chunk));
+        }
+        List<byte[]> editedChunks = split(chunker, edited);
+        long shared = editedChunks.stream().filter(chunk -> originalChunks.contains(Arrays.toString(chunk)))
+                .mapToLong(chunk -> chunk.length).sum();
+
+        assertTrue(shared > edited.length * 0.9, "Only " + shared + " of " + edited.length + " bytes shared");
+    }
+
+    @Test
+    void testRejectsInvalidAverage() {
+        assertThrows(IllegalArgumentException.class, () -> new FastCdc(1000));
+        assertThrows(IllegalArgumentException.class, () -> new FastCdc(128));
+    }
+
+    private static List<byte[]> split(FastCdc chunker, byte[] data) throws IOException {
+        List<byte[]> chunks = new ArrayList<>();
+        chunker.split(Channels.newChannel(new ByteArrayInputStream(data)),
+                (buffer, offset, length) -> chunks.add(Arrays.copyOfRange(buffer, offset, offset + length)));
+        return chunks;
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,105 @@
+package com.flaute.photosono.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IoGovernorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testParsesScheduleAcrossMidnight() {
+        List<IoGovernor.Window> schedule = IoGovernor.parseSchedule("22:00-07:00=unlimited, 07:00-22:00=20M/100");
+
+        assertEquals(2, schedule.size());
+        assertEquals(IoGovernor.Budget.UNLIMITED, schedule.get(0).budget());
+        assertEquals(new IoGovernor.Budget(20L << 20, 100), schedule.get(1).budget());
+        assertTrue(schedule.get(0).contains(LocalTime.of(23, 30)));
+        assertTrue(schedule.get(0).contains(LocalTime.of(6, 59)));
+        assertFalse(schedule.get(0).contains(LocalTime.of(7, 0)));
+        assertEquals(new IoGovernor.Budget(512L << 10, 0), IoGovernor.Budget.parse("512KB"));
+        assertThrows(IllegalArgumentException.class, () -> IoGovernor.parseSchedule("always=1M"));
+    }
+
+    @Test
+    void testScheduleSwitchesBudgetWithTimeOfDay() {
+        MutableClock clock = new MutableClock(Instant.parse("2024-05-01T12:00:00Z"));
+        IoGovernor governor = new IoGovernor(new IoGovernor.Budget(1 << 20, 0),
+                IoGovernor.parseSchedule("09:00-18:00=64K/10"), clock);
+
+        assertEquals(new IoGovernor.Budget(64 << 10, 10), governor.getActiveBudget());
+
+        clock.now = Instant.parse("2024-05-01T19:00:00Z");
+        assertEquals(new IoGovernor.Budget(1 << 20, 0), governor.getActiveBudget());
+    }
+
+    @Test
+    void testOperationBudgetThrottlesSmallReads() {
+        IoGovernor governor = new IoGovernor(new IoGovernor.Budget(0, 100), List.of());
+
+        long start = System.nanoTime();
+        // The first second is covered by the burst allowance, the rest must be paid for
+        for (int i = 0; i < 150; i++) {
+            governor.acquire(1);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis >= 300, "Expected throttling, took " + elapsedMillis + " ms");
+        IoGovernor.Stats stats = governor.stats();
+        assertEquals(150, stats.operations());
+        assertEquals(150, stats.bytes());
+        assertTrue(stats.throttledOperations() > 0);
+        assertTrue(stats.throttledNanos() > 0);
+    }
+
+    @Test
+    void testInputStreamChargesReads() throws Exception {
+        Path file = Files.write(tempDir.resolve("data.bin"), new byte[100_000]);
+        IoGovernor governor = new IoGovernor(new IoGovernor.Budget(1 << 30, 0), List.of());
+
+        try (InputStream in = governor.newInputStream(file)) {
+            assertEquals(100_000, in.readAllBytes().length);
+        }
+
+        assertEquals(100_000, governor.stats().bytes());
+        assertEquals(0, governor.stats().throttledOperations());
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
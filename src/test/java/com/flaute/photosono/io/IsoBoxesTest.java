@@ -0,0 +1,62 @@
+package com.flaute.photosono.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IsoBoxesTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testAcceptsConsistentMovie() throws IOException {
+        byte[] movie = movie();
+
+        assertNull(IsoBoxes.verify(Files.write(tempDir.resolve("ok.mp4"), movie)));
+    }
+
+    @Test
+    void testRejectsTruncatedAndMalformedFiles() throws IOException {
+        byte[] movie = movie();
+        Path truncated = Files.write(tempDir.resolve("cut.mp4"), Arrays.copyOf(movie, movie.length - 10));
+        Path noMovie = Files.write(tempDir.resolve("nomoov.mp4"), concat(box("ftyp", new byte[8]),
+                box("mdat", new byte[32])));
+        byte[] badChild = concat(box("ftyp", new byte[8]), box("moov", box("trak", new byte[4])));
+        // The trak claims more than its moov holds
+        ByteBuffer.wrap(badChild).putInt(16 + 8, 100);
+        Path overflow = Files.write(tempDir.resolve("child.mp4"), badChild);
+
+        assertTrue(IsoBoxes.verify(truncated).startsWith("box mdat"), IsoBoxes.verify(truncated));
+        assertEquals("no moov box", IsoBoxes.verify(noMovie));
+        assertTrue(IsoBoxes.verify(overflow).startsWith("box trak"), IsoBoxes.verify(overflow));
+    }
+
+    private static byte[] movie() throws IOException {
+        byte[] track = box("trak", concat(box("tkhd", new byte[20]), box("udta", new byte[4])));
+        return concat(box("ftyp", new byte[8]), box("moov", concat(box("mvhd", new byte[20]), track)),
+                box("mdat", new byte[1000]));
+    }
+
+    private static byte[] box(String type, byte[] payload) {
+        return ByteBuffer.allocate(8 + payload.length).putInt(8 + payload.length)
+                .put(type.getBytes(StandardCharsets.ISO_8859_1)).put(payload).array();
+    }
+
+    private static byte[] concat(byte[]... parts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        return out.toByteArray();
+    }
+}
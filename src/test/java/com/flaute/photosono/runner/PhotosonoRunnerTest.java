@@ -0,0 +1,79 @@
+package com.flaute.photosono.runner;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.service.AuditJournalService;
+import com.flaute.photosono.service.BufferPoolService;
+import com.flaute.photosono.service.ChunkStoreService;
+import com.flaute.photosono.service.DateExtractorService;
+import com.flaute.photosono.service.DuplicateReportService;
+import com.flaute.photosono.service.FileScannerService;
+import com.flaute.photosono.service.HashService;
+import com.flaute.photosono.service.IoGovernorService;
+import com.flaute.photosono.service.MediaValidationService;
+import com.flaute.photosono.service.OriginalsIndexService;
+import com.flaute.photosono.service.PerceptualHashService;
+import com.flaute.photosono.service.PruneService;
+import com.flaute.photosono.service.QueryService;
+import com.flaute.photosono.service.ScrubService;
+import com.flaute.photosono.service.SimilarityScannerService;
+import com.flaute.photosono.service.StorageService;
+import com.flaute.photosono.service.ThumbnailService;
+import com.flaute.photosono.service.TimelineRebuildService;
+import com.flaute.photosono.service.TimelineScannerService;
+import com.flaute.photosono.service.WarmupService;
+import org.junit.jupiter.api.Test;
+
+import java.util.OptionalLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class PhotosonoRunnerTest {
+
+    private final PhotosonoConfig config = new PhotosonoConfig();
+    private final IoGovernorService io = new IoGovernorService(config);
+    private final PerceptualHashService perceptualHashService = spy(new PerceptualHashService());
+    private final WarmupService warmupService = new WarmupService(
+            new HashService(config, io, new BufferPoolService(config)), new DateExtractorService(config, io),
+            perceptualHashService);
+    private final FileScannerService fileScannerService = mock(FileScannerService.class);
+
+    @Test
+    void testWarmupExitsZero() {
+        PhotosonoRunner runner = newRunner();
+
+        runner.run("warmup");
+
+        assertEquals(0, runner.getExitCode());
+    }
+
+    @Test
+    void testUndecodedWarmupSampleExitsNonZero() throws Exception {
+        doReturn(OptionalLong.empty()).when(perceptualHashService).calculateDHash(any());
+        PhotosonoRunner runner = newRunner();
+
+        runner.run("warmup");
+
+        assertEquals(1, runner.getExitCode());
+    }
+
+    @Test
+    void testFailedPhaseExitsNonZero() throws Exception {
+        doThrow(new IllegalStateException("boom")).when(fileScannerService).scanInputDirectory();
+        PhotosonoRunner runner = newRunner();
+
+        runner.run("dedupe");
+
+        assertEquals(1, runner.getExitCode());
+    }
+
+    private PhotosonoRunner newRunner() {
+        return new PhotosonoRunner(fileScannerService, mock(TimelineScannerService.class),
+                mock(OriginalsIndexService.class), mock(SimilarityScannerService.class), mock(ScrubService.class),
+                mock(TimelineRebuildService.class), mock(QueryService.class), mock(AuditJournalService.class),
+                mock(ChunkStoreService.class), warmupService, io, mock(PruneService.class),
+                mock(ThumbnailService.class), mock(BufferPoolService.class), mock(DuplicateReportService.class),
+                mock(MediaValidationService.class), mock(StorageService.class), config);
+    }
+}
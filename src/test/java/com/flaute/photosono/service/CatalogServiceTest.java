@@ -0,0 +1,100 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.index.CatalogIndex;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CatalogServiceTest {
+
+    private static final String A = "ab" + "0".repeat(62);
+    private static final String B = "cd" + "0".repeat(62);
+
+    @TempDir
+    Path tempDir;
+
+    private PhotosonoConfig config;
+    private TimelineIndexService timelineIndex;
+    private CatalogService catalogService;
+
+    @BeforeEach
+    void setUp() {
+        config = new PhotosonoConfig();
+        config.setStateDir(tempDir.resolve("state").toString());
+        timelineIndex = new TimelineIndexService(config);
+        catalogService = new CatalogService(config, timelineIndex);
+    }
+
+    @AfterEach
+    void tearDown() {
+        catalogService.close();
+    }
+
+    @Test
+    void testPreviousSnapshotIsServedWhileRebuilding() throws Exception {
+        catalogService.recordSource(tempDir.resolve("input/IMG_1.jpg"), A, "jpg",
+                FileProcessorService.Result.PROCESSED);
+        CatalogService.Snapshot first = catalogService.snapshot();
+        assertEquals(1, first.index().sourceCount());
+
+        catalogService.recordSource(tempDir.resolve("input/IMG_2.jpg"), B, "jpg",
+                FileProcessorService.Result.PROCESSED);
+        assertSame(first, catalogService.snapshot());
+
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        CatalogService.Snapshot latest = first;
+        while (latest.index().sourceCount() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            latest = catalogService.snapshot();
+        }
+        assertEquals(2, latest.index().sourceCount());
+    }
+
+    @Test
+    void testRerunOverUnchangedInputsDoesNotGrowTheCatalog() throws Exception {
+        Path source = tempDir.resolve("input/IMG_1.jpg");
+        catalogService.recordSource(source, A, "jpg", FileProcessorService.Result.PROCESSED);
+        catalogService.recordSource(source, A, "jpg", FileProcessorService.Result.SKIPPED);
+        catalogService.recordSource(source, A, "jpg", FileProcessorService.Result.SKIPPED);
+        catalogService.snapshot();
+        long logSize = Files.size(logFile());
+
+        catalogService.recordSource(source, A, "jpg", FileProcessorService.Result.SKIPPED);
+        catalogService.snapshot();
+        assertEquals(logSize, Files.size(logFile()));
+
+        CatalogIndex.Page<CatalogIndex.Source> page = catalogService.snapshot().index()
+                .sourcesByPathPrefix(source.toAbsolutePath().normalize().toString(), 0, 10);
+        assertEquals(2, page.total());
+        assertEquals("PROCESSED", page.items().get(0).result());
+        assertEquals("SKIPPED", page.items().get(1).result());
+    }
+
+    @Test
+    void testChangedRecordForAPathIsStillAppended() throws Exception {
+        Path source = tempDir.resolve("input/IMG_1.jpg");
+        catalogService.recordSource(source, A, "jpg", FileProcessorService.Result.PROCESSED);
+        catalogService.snapshot();
+
+        catalogService.recordSource(source, B, "jpg", FileProcessorService.Result.PROCESSED);
+        catalogService.close();
+        CatalogService reopened = new CatalogService(config, timelineIndex);
+        try {
+            assertEquals(B, reopened.snapshot().index()
+                    .latestByPath(source.toAbsolutePath().normalize().toString()).sha256());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private Path logFile() {
+        return Path.of(config.getStateDir(), CatalogService.CATALOG_DIR, CatalogService.SOURCES_LOG);
+    }
+}
@@ -0,0 +1,166 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkStoreServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private PhotosonoConfig config;
+    private ChunkStoreService chunkStoreService;
+
+    @BeforeEach
+    void setUp() {
+        config = new PhotosonoConfig();
+        config.setOriginalsDir(tempDir.resolve("originals").toString());
+        config.getChunkStore().setEnabled(true);
+        config.getChunkStore().setDir(tempDir.resolve("chunks").toString());
+        config.getChunkStore().setAverageChunkSize(4096);
+        config.getChunkStore().setThreads(2);
+        chunkStoreService = new ChunkStoreService(config);
+    }
+
+    @Test
+    void testTrimmedClipReusesChunks() throws Exception {
+        byte[] clip = new byte[400 * 1024];
+        new Random(7).nextBytes(clip);
+        byte[] trimmed = Arrays.copyOfRange(clip, 50_000, clip.length);
+        String clipHash = writeOriginal(clip, "mp4");
+        String trimmedHash = writeOriginal(trimmed, "mov");
+        writeOriginal(new byte[] { 1, 2, 3 }, "jpg");
+
+        chunkStoreService.chunkOriginalsDirectory();
+
+        assertTrue(chunkStoreService.hasManifest(clipHash));
+        assertTrue(chunkStoreService.hasManifest(trimmedHash));
+        Properties stats = new Properties();
+        try (InputStream in = Files.newInputStream(tempDir.resolve("chunks/chunk-store.properties"))) {
+            stats.load(in);
+        }
+        assertEquals(clip.length + trimmed.length, Long.parseLong(stats.getProperty("logicalBytes")));
+        long stored = Long.parseLong(stats.getProperty("storedBytes"));
+        assertTrue(stored < clip.length * 1.1, "Stored " + stored + " bytes for two overlapping clips");
+
+        try (InputStream in = chunkStoreService.open(trimmedHash)) {
+            assertArrayEquals(trimmed, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void testRemovedOriginalsCanBeRestored() throws Exception {
+        config.getChunkStore().setRemoveOriginals(true);
+        config.getTimeline().setEnabled(false);
+        byte[] clip = new byte[100 * 1024];
+        new Random(11).nextBytes(clip);
+        String hash = writeOriginal(clip, "mp4");
+        Path original = originalPath(hash, "mp4");
+
+        chunkStoreService.chunkOriginalsDirectory();
+        assertFalse(Files.exists(original));
+
+        chunkStoreService.restoreOriginals();
+        assertArrayEquals(clip, Files.readAllBytes(original));
+    }
+
+    @Test
+    void testMissingChunkIsWrittenAgainBeforeTheOriginalGoes() throws Exception {
+        byte[] clip = new byte[100 * 1024];
+        new Random(17).nextBytes(clip);
+        String hash = writeOriginal(clip, "mp4");
+        chunkStoreService.chunkOriginalsDirectory();
+        Path chunk;
+        try (Stream<Path> chunks = Files.walk(tempDir.resolve("chunks/chunks"))) {
+            chunk = chunks.filter(Files::isRegularFile).findFirst().orElseThrow();
+        }
+        Files.delete(chunk);
+
+        config.getChunkStore().setRemoveOriginals(true);
+        config.getTimeline().setEnabled(false);
+        chunkStoreService.chunkOriginalsDirectory();
+
+        assertTrue(Files.exists(chunk));
+        assertFalse(Files.exists(originalPath(hash, "mp4")));
+        try (InputStream in = chunkStoreService.open(hash)) {
+            assertArrayEquals(clip, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void testOriginalStaysWhenTheChunkedCopyDoesNotReadBack() throws Exception {
+        config.getChunkStore().setRemoveOriginals(true);
+        config.getTimeline().setEnabled(false);
+        String hash = "ab".repeat(32);
+        Path original = originalPath(hash, "mp4");
+        Files.createDirectories(original.getParent());
+        Files.write(original, new byte[10_000]);
+        // A manifest naming no chunks, as if the content were empty
+        Path manifest = tempDir.resolve("chunks/manifests/a/b/" + hash + ".manifest");
+        Files.createDirectories(manifest.getParent());
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(manifest))) {
+            out.writeInt(0x5053434d);
+            out.writeUTF("mp4");
+            out.writeLong(0);
+            out.writeInt(0);
+        }
+
+        chunkStoreService.chunkOriginalsDirectory();
+
+        assertTrue(Files.exists(original));
+    }
+
+    @Test
+    void testOriginalsStayWhileTimelineLinksToThem() throws Exception {
+        config.getChunkStore().setRemoveOriginals(true);
+        byte[] clip = new byte[100 * 1024];
+        new Random(13).nextBytes(clip);
+        String hash = writeOriginal(clip, "mp4");
+
+        chunkStoreService.chunkOriginalsDirectory();
+
+        assertTrue(chunkStoreService.hasManifest(hash));
+        assertTrue(Files.exists(originalPath(hash, "mp4")));
+    }
+
+    @Test
+    void testMismatchedContentIsNotChunked() throws Exception {
+        String hash = "ab".repeat(32);
+        Path original = originalPath(hash, "mp4");
+        Files.createDirectories(original.getParent());
+        Files.write(original, new byte[10_000]);
+
+        chunkStoreService.chunkOriginalsDirectory();
+
+        assertFalse(chunkStoreService.hasManifest(hash));
+        assertTrue(Files.exists(original));
+    }
+
+    private String writeOriginal(byte[] content, String extension) throws Exception {
+        String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        Path path = originalPath(hash, extension);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content);
+        return hash;
+    }
+
+    private Path originalPath(String hash, String extension) {
+        return tempDir.resolve("originals").resolve(hash.substring(0, 1)).resolve(hash.substring(1, 2))
+                .resolve(hash + "." + extension);
+    }
+}
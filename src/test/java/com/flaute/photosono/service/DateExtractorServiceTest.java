@@ -1,19 +1,23 @@
 package com.flaute.photosono.service;
 
+import com.flaute.photosono.config.PhotosonoConfig;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
-import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.*;
 
 class DateExtractorServiceTest {
 
-    private final DateExtractorService dateExtractorService = new DateExtractorService();
+    private final DateExtractorService dateExtractorService = extractor(new PhotosonoConfig());
 
     @Test
     void testExtractCreationDateNoMetadata(@TempDir Path tempDir) throws IOException {
@@ -25,4 +29,57 @@ class DateExtractorServiceTest {
         // Now that filesystem fallback is removed, this should be empty
         assertFalse(date.isPresent());
     }
+
+    @Test
+    void testDateFromCommonFileNames() {
+        assertEquals(date("2019-07-04T15:30:12Z"), dateExtractorService.dateFromFileName("IMG_20190704_153012.jpg"));
+        assertEquals(date("2023-01-01T12:00:00Z"), dateExtractorService.dateFromFileName("PXL_20230101_120000123.mp4"));
+        assertEquals(date("2020-01-01T00:00:00Z"), dateExtractorService.dateFromFileName("VID-20200101-WA0001.mp4"));
+        assertEquals(date("2021-03-04T10:11:12Z"),
+                dateExtractorService.dateFromFileName("Screenshot_2021-03-04-10-11-12.png"));
+        assertEquals(Optional.empty(), dateExtractorService.dateFromFileName("IMG_20190231_153012.jpg"));
+        assertEquals(Optional.empty(), dateExtractorService.dateFromFileName(
+                "a3f1c2d4e5b6a7980112233445566778899aabbccddeeff00112233445566778.jpg"));
+    }
+
+    @Test
+    void testFallsBackToOriginalNameWhenMetadataHasNoDate(@TempDir Path tempDir) throws IOException {
+        Path original = Files.writeString(tempDir.resolve("abcdef.jpg"), "no metadata");
+
+        Optional<Date> date = dateExtractorService.extractCreationDate(original,
+                () -> List.of("/input/whatsapp/IMG-20200101-WA0001.jpg"));
+
+        assertEquals(date("2020-01-01T00:00:00Z"), date);
+        assertEquals(Map.of("metadata", 0L, "filename", 1L, "none", 0L), dateExtractorService.dateSourceCounts());
+    }
+
+    @Test
+    void testFileNameFirstSkipsReadingTheFile(@TempDir Path tempDir) {
+        PhotosonoConfig config = new PhotosonoConfig();
+        config.getTimeline().setDateSources(List.of("filename", "metadata"));
+        DateExtractorService extractor = extractor(config);
+
+        // The file does not exist, so only the name can have supplied the date
+        Optional<Date> date = extractor.extractCreationDate(tempDir.resolve("IMG_20190704_153012.jpg"), List::of);
+
+        assertEquals(date("2019-07-04T15:30:12Z"), date);
+        assertEquals(Optional.empty(), extractor.extractCreationDate(tempDir.resolve("missing.jpg"), List::of));
+        assertEquals(Map.of("filename", 1L, "metadata", 0L, "none", 1L), extractor.dateSourceCounts());
+    }
+
+    @Test
+    void testRejectsPatternWithoutDateGroups() {
+        PhotosonoConfig config = new PhotosonoConfig();
+        config.getTimeline().setFilenamePatterns(List.of("(?<y>\\d{4})"));
+
+        assertThrows(IllegalArgumentException.class, () -> extractor(config));
+    }
+
+    private static DateExtractorService extractor(PhotosonoConfig config) {
+        return new DateExtractorService(config, new IoGovernorService(new PhotosonoConfig()));
+    }
+
+    private static Optional<Date> date(String instant) {
+        return Optional.of(Date.from(Instant.parse(instant)));
+    }
 }
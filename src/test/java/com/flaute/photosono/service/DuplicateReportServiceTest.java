@@ -0,0 +1,71 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DuplicateReportServiceTest {
+
+    private static final String A = "aa" + "0".repeat(62);
+    private static final String B = "bb" + "0".repeat(62);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testGroupsCopiesAcrossSpilledRuns() throws IOException {
+        PhotosonoConfig config = new PhotosonoConfig();
+        config.setStateDir(tempDir.resolve("state").toString());
+        config.getDuplicateReport().setEnabled(true);
+        // Small enough that every record spills a run of its own
+        config.getDuplicateReport().setSortMemory(1);
+        DuplicateReportService service = new DuplicateReportService(config);
+
+        Path first = file("card/DCIM/a.jpg", 100);
+        Path second = file("backup/a.jpg", 100);
+        Path third = file("card/DCIM/a-copy.jpg", 100);
+        Path unique = file("card/DCIM/b.jpg", 50);
+        service.record(first, A);
+        service.record(unique, B);
+        service.record(second, A);
+        service.record(third, A);
+
+        service.writeReport();
+
+        Path state = tempDir.resolve("state");
+        assertEquals(List.of(A + " size=100 copies=3 wasted=200", "  " + second.toAbsolutePath(),
+                "  " + third.toAbsolutePath(), "  " + first.toAbsolutePath()),
+                Files.readAllLines(state.resolve(DuplicateReportService.REPORT_FILE)));
+        assertEquals(List.of("200 bytes in 2 files " + tempDir.resolve("card/DCIM").toAbsolutePath(),
+                "100 bytes in 1 files " + tempDir.resolve("backup").toAbsolutePath()),
+                Files.readAllLines(state.resolve(DuplicateReportService.DIRECTORIES_FILE)));
+        try (var runs = Files.list(state.resolve("duplicate-report"))) {
+            assertEquals(0, runs.count());
+        }
+    }
+
+    @Test
+    void testDisabledRecordsNothing() {
+        PhotosonoConfig config = new PhotosonoConfig();
+        config.setStateDir(tempDir.resolve("state").toString());
+        DuplicateReportService service = new DuplicateReportService(config);
+
+        service.record(tempDir.resolve("missing.jpg"), A);
+        service.writeReport();
+
+        assertFalse(Files.exists(tempDir.resolve("state")));
+    }
+
+    private Path file(String name, int size) throws IOException {
+        Path file = tempDir.resolve(name);
+        Files.createDirectories(file.getParent());
+        return Files.write(file, new byte[size]);
+    }
+}
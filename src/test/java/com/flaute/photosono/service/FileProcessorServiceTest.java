@@ -8,12 +8,24 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class FileProcessorServiceTest {
@@ -24,14 +36,37 @@ class FileProcessorServiceTest {
     private PhotosonoConfig config;
     @Mock
     private HashService hashService;
+    @Mock
+    private OriginalsIndexService originalsIndex;
+    @Mock
+    private CatalogService catalogService;
+    @Mock
+    private AuditJournalService journal;
+    @Mock
+    private ChunkStoreService chunkStore;
+    @Mock
+    private ThumbnailService thumbnails;
+    @Mock
+    private DuplicateReportService duplicateReport;
+    @Mock
+    private MediaValidationService validation;
 
     @TempDir
     Path tempDir;
 
+    private final PhotosonoConfig.Archive archive = new PhotosonoConfig.Archive();
+
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        fileProcessorService = new FileProcessorService(config, hashService);
+        when(validation.isIntact(any(), any(), any())).thenReturn(true);
+        when(config.getStorage()).thenReturn(new PhotosonoConfig.Storage());
+        when(config.getCopy()).thenReturn(new PhotosonoConfig.Copy());
+        when(config.getArchive()).thenReturn(archive);
+        IoGovernorService io = new IoGovernorService(new PhotosonoConfig());
+        StorageService storage = new StorageService(config, io, new BufferPoolService(new PhotosonoConfig()));
+        fileProcessorService = new FileProcessorService(config, hashService, originalsIndex, catalogService,
+                journal, chunkStore, storage, io, thumbnails, duplicateReport, validation);
     }
 
     @Test
@@ -46,7 +81,7 @@ class FileProcessorServiceTest {
         when(config.getOriginalsDir()).thenReturn(originalsBaseDir.toString());
         when(config.getMinWidth()).thenReturn(10);
         when(config.getMinHeight()).thenReturn(10);
-        when(hashService.calculateSHA256(inputFile)).thenReturn("aabbccddeeff");
+        when(hashService.calculateInputSHA256(inputFile)).thenReturn("aabbccddeeff");
 
         FileProcessorService.Result result = fileProcessorService.processFile(inputFile);
 
@@ -55,6 +90,49 @@ class FileProcessorServiceTest {
         assertEquals(FileProcessorService.Result.PROCESSED, result);
         Path expectedPath = originalsBaseDir.resolve("a/a/aabbccddeeff.jpg");
         assertTrue(Files.exists(expectedPath));
+        verify(originalsIndex).markKnown("aabbccddeeff");
+        verify(catalogService).recordSource(inputFile, "aabbccddeeff", "jpg", FileProcessorService.Result.PROCESSED);
+        verify(journal).record(eq(AuditJournalService.Action.DEDUPE), eq(inputFile), eq("aabbccddeeff"),
+                eq(FileProcessorService.Result.PROCESSED), eq(expectedPath.toString()), anyLong());
+        verify(thumbnails).submit("aabbccddeeff", inputFile, "jpg");
+        verify(duplicateReport).record(inputFile, "aabbccddeeff", inputFile);
+    }
+
+    @Test
+    void testProcessKnownHashSkipsValidation() throws IOException, NoSuchAlgorithmException {
+        Path inputFile = tempDir.resolve("corrupted-but-known.jpg");
+        Files.writeString(inputFile, "not a jpeg");
+
+        when(hashService.calculateInputSHA256(inputFile)).thenReturn("aabbccddeeff");
+        when(originalsIndex.isKnown("aabbccddeeff")).thenReturn(true);
+
+        FileProcessorService.Result result = fileProcessorService.processFile(inputFile);
+
+        assertEquals(FileProcessorService.Result.SKIPPED, result);
+        verify(config, never()).getOriginalsDir();
+    }
+
+    @Test
+    void testProcessFileExistingDespiteFilterMiss() throws IOException, NoSuchAlgorithmException {
+        Path inputFile = tempDir.resolve("test.jpg");
+        Files.write(inputFile, new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9 });
+
+        Path originalsBaseDir = tempDir.resolve("originals");
+        Path existing = originalsBaseDir.resolve("a/a/aabbccddeeff.jpg");
+        Files.createDirectories(existing.getParent());
+        Files.writeString(existing, "existing content");
+
+        when(config.getOriginalsDir()).thenReturn(originalsBaseDir.toString());
+        when(hashService.calculateInputSHA256(inputFile)).thenReturn("aabbccddeeff");
+        when(originalsIndex.mightContain("aabbccddeeff")).thenReturn(false);
+
+        FileProcessorService.Result result = fileProcessorService.processFile(inputFile);
+
+        assertEquals(FileProcessorService.Result.SKIPPED, result);
+        assertEquals("existing content", Files.readString(existing));
+        verify(originalsIndex).markKnown("aabbccddeeff");
+        // A filter miss needs no manifest probe either
+        verify(chunkStore, never()).hasManifest(any());
     }
 
     @Test
@@ -79,7 +157,7 @@ class FileProcessorServiceTest {
         when(config.getInvalidSizeDir()).thenReturn(invalidSizeDir.toString());
         when(config.getMinWidth()).thenReturn(100);
         when(config.getMinHeight()).thenReturn(100);
-        when(hashService.calculateSHA256(inputFile)).thenReturn("112233445566");
+        when(hashService.calculateInputSHA256(inputFile)).thenReturn("112233445566");
 
         FileProcessorService.Result result = fileProcessorService.processFile(inputFile);
 
@@ -97,7 +175,7 @@ class FileProcessorServiceTest {
         Files.createDirectories(corruptedBaseDir);
 
         when(config.getCorruptedDir()).thenReturn(corruptedBaseDir.toString());
-        when(hashService.calculateSHA256(inputFile)).thenReturn("112233445566");
+        when(hashService.calculateInputSHA256(inputFile)).thenReturn("112233445566");
 
         FileProcessorService.Result result = fileProcessorService.processFile(inputFile);
 
@@ -115,7 +193,7 @@ class FileProcessorServiceTest {
         Files.createDirectories(unknownTypeDir);
 
         when(config.getUnknownTypeDir()).thenReturn(unknownTypeDir.toString());
-        when(hashService.calculateSHA256(inputFile)).thenReturn("aabbccddeeff");
+        when(hashService.calculateInputSHA256(inputFile)).thenReturn("aabbccddeeff");
 
         FileProcessorService.Result result = fileProcessorService.processFile(inputFile);
 
@@ -139,7 +217,7 @@ class FileProcessorServiceTest {
         Files.writeString(nestedDir.resolve("aabbccddeeff.txt"), "existing content");
 
         when(config.getUnknownTypeDir()).thenReturn(unknownTypeDir.toString());
-        when(hashService.calculateSHA256(inputFile1)).thenReturn("aabbccddeeff");
+        when(hashService.calculateInputSHA256(inputFile1)).thenReturn("aabbccddeeff");
 
         FileProcessorService.Result result = fileProcessorService.processFile(inputFile1);
 
@@ -149,4 +227,92 @@ class FileProcessorServiceTest {
         assertFalse(Files.exists(suffixPath), "Collision should result in skipping, not a suffix");
         assertEquals("existing content", Files.readString(nestedDir.resolve("aabbccddeeff.txt")));
     }
+
+    @Test
+    void testProcessArchiveEntries() throws IOException, NoSuchAlgorithmException {
+        Path archiveFile = tempDir.resolve("takeout.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archiveFile))) {
+            zip.putNextEntry(new ZipEntry("Photos/IMG_1.jpg"));
+            zip.write(new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9 });
+            zip.putNextEntry(new ZipEntry("Photos/IMG_1.jpg.json"));
+            zip.write("{}".getBytes(StandardCharsets.UTF_8));
+        }
+        Path originalsBaseDir = tempDir.resolve("originals");
+        Path unknownTypeDir = tempDir.resolve("unknown-type");
+        Path staging = tempDir.resolve("staging");
+        archive.setEnabled(true);
+        archive.setStagingDir(staging.toString());
+        when(config.getOriginalsDir()).thenReturn(originalsBaseDir.toString());
+        when(config.getUnknownTypeDir()).thenReturn(unknownTypeDir.toString());
+        when(hashService.spool(any(), any())).thenAnswer(invocation -> {
+            Path target = invocation.getArgument(1);
+            Files.copy(invocation.<InputStream>getArgument(0), target, StandardCopyOption.REPLACE_EXISTING);
+            return Files.size(target) == 4 ? "aabbccddeeff" : "112233445566";
+        });
+
+        FileProcessorService.Result result = fileProcessorService.processFile(archiveFile);
+
+        assertEquals(FileProcessorService.Result.PROCESSED, result);
+        Path photo = originalsBaseDir.resolve("a/a/aabbccddeeff.jpg");
+        assertEquals(4, Files.size(photo));
+        assertTrue(Files.exists(unknownTypeDir.resolve("1/1/112233445566.json")));
+        try (Stream<Path> left = Files.list(staging)) {
+            assertEquals(0, left.count(), "Staged entries should be removed");
+        }
+        Path entry = tempDir.resolve("takeout.zip!/Photos/IMG_1.jpg");
+        verify(catalogService).recordSource(entry, "aabbccddeeff", "jpg", FileProcessorService.Result.PROCESSED);
+        verify(journal).record(eq(AuditJournalService.Action.DEDUPE), eq(entry), eq("aabbccddeeff"),
+                eq(FileProcessorService.Result.PROCESSED), eq(photo.toString()), anyLong());
+        verify(thumbnails).submit("aabbccddeeff", photo, "jpg");
+        verify(hashService, never()).calculateInputSHA256(any());
+    }
+
+    @Test
+    void testKnownArchiveEntryIsNotStaged() throws IOException {
+        Path archiveFile = tempDir.resolve("takeout.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archiveFile))) {
+            zip.putNextEntry(new ZipEntry("Photos/IMG_1.jpg"));
+            zip.write(new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9 });
+        }
+        archive.setEnabled(true);
+        when(config.getOriginalsDir()).thenReturn(tempDir.resolve("originals").toString());
+        when(hashService.calculateInMemorySHA256(any())).thenReturn("aabbccddeeff");
+        when(originalsIndex.isKnown("aabbccddeeff")).thenReturn(true);
+        List<FileProcessorService.Result> entries = new ArrayList<>();
+
+        FileProcessorService.Result result = fileProcessorService.processFile(archiveFile,
+                (entryResult, bytes, nanos) -> entries.add(entryResult));
+
+        assertEquals(FileProcessorService.Result.PROCESSED, result);
+        assertEquals(List.of(FileProcessorService.Result.SKIPPED), entries);
+        verify(hashService, never()).spool(any(), any());
+        Path entry = tempDir.resolve("takeout.zip!/Photos/IMG_1.jpg");
+        verify(duplicateReport).record(entry, "aabbccddeeff", 4L);
+        verify(catalogService).recordSource(entry, "aabbccddeeff", "jpg", FileProcessorService.Result.SKIPPED);
+    }
+
+    @Test
+    void testArchiveEntriesAreStagedInsideOriginals() throws IOException {
+        Path archiveFile = tempDir.resolve("takeout.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archiveFile))) {
+            zip.putNextEntry(new ZipEntry("IMG_1.jpg"));
+            zip.write(new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9 });
+        }
+        Path originalsBaseDir = tempDir.resolve("originals");
+        archive.setEnabled(true);
+        when(config.getOriginalsDir()).thenReturn(originalsBaseDir.toString());
+        List<Path> staged = new ArrayList<>();
+        when(hashService.spool(any(), any())).thenAnswer(invocation -> {
+            Path target = invocation.getArgument(1);
+            staged.add(target);
+            Files.copy(invocation.<InputStream>getArgument(0), target, StandardCopyOption.REPLACE_EXISTING);
+            return "aabbccddeeff";
+        });
+
+        fileProcessorService.processFile(archiveFile);
+
+        assertEquals(originalsBaseDir.resolve(FileProcessorService.STAGING_DIR), staged.get(0).getParent());
+        assertFalse(Files.exists(staged.get(0)));
+        assertEquals(4, Files.size(originalsBaseDir.resolve("a/a/aabbccddeeff.jpg")));
+    }
 }
@@ -10,6 +10,17 @@ import org.mockito.MockitoAnnotations;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 import static org.mockito.Mockito.*;
 
@@ -24,15 +35,23 @@ class FileScannerServiceTest {
     @Mock
     private FileProcessorService processorService;
 
+    @Mock
+    private LeaseService leaseService;
+
     @TempDir
     Path tempDir;
 
     @BeforeEach
-    void setUp() {
+    void setUp() throws IOException {
         MockitoAnnotations.openMocks(this);
-        fileScannerService = new FileScannerService(config, processorService);
+        when(config.getCluster()).thenReturn(new PhotosonoConfig.Cluster());
+        when(leaseService.begin(anyString())).thenReturn(LeaseService.Phase.local());
+        fileScannerService = new FileScannerService(config, processorService, leaseService);
         when(config.getDeduplication()).thenReturn(deduplication);
         when(deduplication.isEnabled()).thenReturn(true);
+        // The scanner submits files; most tests stub the synchronous call it completes with
+        when(processorService.submitFile(any(), any())).thenAnswer(invocation -> CompletableFuture.completedFuture(
+                processorService.processFile(invocation.getArgument(0), invocation.getArgument(1))));
     }
 
     @Test
@@ -45,12 +64,12 @@ class FileScannerServiceTest {
         Files.writeString(file2, "content2");
 
         when(config.getInputDir()).thenReturn(inputDir.toString());
-        when(processorService.processFile(any())).thenReturn(FileProcessorService.Result.PROCESSED);
+        when(processorService.processFile(any(), any())).thenReturn(FileProcessorService.Result.PROCESSED);
 
         fileScannerService.scanInputDirectory();
 
-        verify(processorService).processFile(file1);
-        verify(processorService).processFile(file2);
+        verify(processorService).processFile(eq(file1), any());
+        verify(processorService).processFile(eq(file2), any());
     }
 
     @Test
@@ -61,11 +80,11 @@ class FileScannerServiceTest {
         Files.writeString(file1, "content");
 
         when(config.getInputDir()).thenReturn(inputDir.toString());
-        when(processorService.processFile(file1)).thenReturn(FileProcessorService.Result.UNKNOWN_TYPE);
+        when(processorService.processFile(eq(file1), any())).thenReturn(FileProcessorService.Result.UNKNOWN_TYPE);
 
         fileScannerService.scanInputDirectory();
 
-        verify(processorService).processFile(file1);
+        verify(processorService).processFile(eq(file1), any());
     }
 
     @Test
@@ -76,4 +95,316 @@ class FileScannerServiceTest {
 
         verifyNoInteractions(processorService);
     }
+
+    @Test
+    void testHigherPrioritySourceGoesFirst() throws IOException {
+        Path archive = createSource("archive", 3);
+        Path phone = createSource("phone", 3);
+        when(config.getSources()).thenReturn(List.of(source("archive", archive, 0, 1),
+                source("phone", phone, 10, 1)));
+        when(deduplication.getThreads()).thenReturn(1);
+        List<Path> order = Collections.synchronizedList(new ArrayList<>());
+        when(processorService.processFile(any(), any())).thenAnswer(invocation -> {
+            order.add(invocation.getArgument(0));
+            return FileProcessorService.Result.PROCESSED;
+        });
+
+        fileScannerService.scanInputDirectory();
+
+        assertEquals(6, order.size());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(order.get(i).startsWith(phone), order.toString());
+        }
+    }
+
+    @Test
+    void testEqualPrioritySourcesTakeTurns() throws IOException {
+        Path first = createSource("first", 3);
+        Path second = createSource("second", 3);
+        when(config.getSources()).thenReturn(List.of(source("first", first, 0, 1), source("second", second, 0, 1)));
+        when(deduplication.getThreads()).thenReturn(1);
+        List<Path> order = Collections.synchronizedList(new ArrayList<>());
+        when(processorService.processFile(any(), any())).thenAnswer(invocation -> {
+            order.add(invocation.getArgument(0));
+            return FileProcessorService.Result.PROCESSED;
+        });
+
+        fileScannerService.scanInputDirectory();
+
+        assertEquals(6, order.size());
+        for (int i = 0; i < 6; i++) {
+            assertTrue(order.get(i).startsWith(i % 2 == 0 ? first : second), order.toString());
+        }
+    }
+
+    @Test
+    void testSourceConcurrencyLimit() throws IOException {
+        Path slow = createSource("slow", 8);
+        Path fast = createSource("fast", 8);
+        when(config.getSources()).thenReturn(List.of(source("slow", slow, 0, 1), source("fast", fast, 0, 3)));
+        when(deduplication.getThreads()).thenReturn(4);
+        Map<Path, AtomicInteger> running = new ConcurrentHashMap<>();
+        Map<Path, AtomicInteger> peak = new ConcurrentHashMap<>();
+        when(processorService.processFile(any(), any())).thenAnswer(invocation -> {
+            Path root = ((Path) invocation.getArgument(0)).getParent();
+            int now = running.computeIfAbsent(root, key -> new AtomicInteger()).incrementAndGet();
+            peak.computeIfAbsent(root, key -> new AtomicInteger()).accumulateAndGet(now, Math::max);
+            Thread.sleep(20);
+            running.get(root).decrementAndGet();
+            return FileProcessorService.Result.PROCESSED;
+        });
+
+        fileScannerService.scanInputDirectory();
+
+        verify(processorService, times(16)).processFile(any(), any());
+        assertEquals(1, peak.get(slow).get());
+        assertTrue(peak.get(fast).get() <= 3);
+    }
+
+    @Test
+    void testAdaptiveLimitGrowsWithinThreads() throws IOException {
+        Path input = createSource("input", 40);
+        when(config.getInputDir()).thenReturn(input.toString());
+        when(config.getStateDir()).thenReturn(tempDir.resolve("state").toString());
+        when(deduplication.getThreads()).thenReturn(8);
+        when(deduplication.isAdaptiveThreads()).thenReturn(true);
+        when(deduplication.getMinThreads()).thenReturn(1);
+        when(deduplication.getAdaptiveWindowMillis()).thenReturn(1L);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        when(processorService.processFile(any(), any())).thenAnswer(invocation -> {
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(5);
+            running.decrementAndGet();
+            return FileProcessorService.Result.PROCESSED;
+        });
+
+        fileScannerService.scanInputDirectory();
+
+        verify(processorService, times(40)).processFile(any(), any());
+        assertTrue(peak.get() <= 8);
+        Properties stats = new Properties();
+        try (var in = Files.newInputStream(tempDir.resolve("state").resolve(FileScannerService.STATS_FILE))) {
+            stats.load(in);
+        }
+        assertEquals("1", stats.getProperty(FileScannerService.ADAPTIVE_PREFIX + "lowest"));
+        assertTrue(Integer.parseInt(stats.getProperty(FileScannerService.ADAPTIVE_PREFIX + "highest")) >= 2);
+    }
+
+    @Test
+    void testDisabledSourceIsSkippedAndStatsArePerSource() throws IOException {
+        Path enabled = createSource("enabled", 2);
+        Path disabled = createSource("disabled", 2);
+        PhotosonoConfig.Source off = source("disabled", disabled, 0, 1);
+        off.setEnabled(false);
+        when(config.getSources()).thenReturn(List.of(source("enabled", enabled, 0, 1), off));
+        when(config.getStateDir()).thenReturn(tempDir.resolve("state").toString());
+        when(deduplication.getThreads()).thenReturn(2);
+        when(processorService.processFile(any(), any())).thenReturn(FileProcessorService.Result.SKIPPED);
+
+        fileScannerService.scanInputDirectory();
+
+        verify(processorService, times(2)).processFile(any(), any());
+        Properties stats = new Properties();
+        try (var in = Files.newInputStream(tempDir.resolve("state").resolve(FileScannerService.STATS_FILE))) {
+            stats.load(in);
+        }
+        assertEquals("2", stats.getProperty("enabled.files"));
+        assertEquals("2", stats.getProperty("enabled.skipped"));
+        assertNull(stats.getProperty("disabled.files"));
+    }
+
+    @Test
+    void testArchiveEntriesAreCountedOneByOne() throws IOException {
+        Path dir = createSource("takeout", 1);
+        when(config.getSources()).thenReturn(List.of(source("takeout", dir, 0, 1)));
+        when(config.getStateDir()).thenReturn(tempDir.resolve("state").toString());
+        when(deduplication.getThreads()).thenReturn(1);
+        when(processorService.processFile(any(), any())).thenAnswer(invocation -> {
+            FileProcessorService.EntryListener entries = invocation.getArgument(1);
+            entries.entry(FileProcessorService.Result.PROCESSED, 100, 1_000);
+            entries.entry(FileProcessorService.Result.SKIPPED, 100, 1_000);
+            entries.entry(FileProcessorService.Result.SKIPPED, 100, 1_000);
+            return FileProcessorService.Result.PROCESSED;
+        });
+
+        fileScannerService.scanInputDirectory();
+
+        Properties stats = new Properties();
+        try (var in = Files.newInputStream(tempDir.resolve("state").resolve(FileScannerService.STATS_FILE))) {
+            stats.load(in);
+        }
+        assertEquals("3", stats.getProperty("takeout.files"));
+        assertEquals("1", stats.getProperty("takeout.processed"));
+        assertEquals("2", stats.getProperty("takeout.skipped"));
+    }
+
+    @Test
+    void testWorkersMoveOnWhileUploadsAreInFlight() throws IOException {
+        Path dir = createSource("card", 3);
+        when(config.getSources()).thenReturn(List.of(source("card", dir, 0, 1)));
+        when(config.getStateDir()).thenReturn(tempDir.resolve("state").toString());
+        when(deduplication.getThreads()).thenReturn(1);
+        List<CompletableFuture<FileProcessorService.Result>> uploads = new ArrayList<>();
+        doAnswer(invocation -> {
+            CompletableFuture<FileProcessorService.Result> upload = new CompletableFuture<>();
+            synchronized (uploads) {
+                uploads.add(upload);
+                if (uploads.size() == 3) {
+                    // Only completes once the single worker has been handed every file
+                    uploads.forEach(pending -> CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS)
+                            .execute(() -> pending.complete(FileProcessorService.Result.PROCESSED)));
+                }
+            }
+            return upload;
+        }).when(processorService).submitFile(any(), any());
+
+        fileScannerService.scanInputDirectory();
+
+        Properties stats = new Properties();
+        try (var in = Files.newInputStream(tempDir.resolve("state").resolve(FileScannerService.STATS_FILE))) {
+            stats.load(in);
+        }
+        assertEquals("3", stats.getProperty("card.processed"));
+    }
+
+    @Test
+    void testLargeFilesAreLimitedToTheirShareOfWorkers() throws IOException {
+        Path dir = Files.createDirectories(tempDir.resolve("mixed"));
+        for (int i = 0; i < 4; i++) {
+            Files.write(dir.resolve("video" + i + ".mp4"), new byte[1000]);
+        }
+        for (int i = 0; i < 8; i++) {
+            Files.write(dir.resolve("photo" + i + ".jpg"), new byte[10]);
+        }
+        when(config.getSources()).thenReturn(List.of(source("mixed", dir, 0, 4)));
+        when(deduplication.getThreads()).thenReturn(4);
+        when(deduplication.getLargeFileThreshold()).thenReturn(1000L);
+        when(deduplication.getLargeFileShare()).thenReturn(0.5);
+        AtomicInteger runningLarge = new AtomicInteger();
+        AtomicInteger peakLarge = new AtomicInteger();
+        List<Path> started = Collections.synchronizedList(new ArrayList<>());
+        when(processorService.processFile(any(), any())).thenAnswer(invocation -> {
+            Path file = invocation.getArgument(0);
+            started.add(file);
+            if (file.toString().endsWith(".mp4")) {
+                peakLarge.accumulateAndGet(runningLarge.incrementAndGet(), Math::max);
+                Thread.sleep(200);
+                runningLarge.decrementAndGet();
+            } else {
+                Thread.sleep(5);
+            }
+            return FileProcessorService.Result.PROCESSED;
+        });
+
+        fileScannerService.scanInputDirectory();
+
+        assertEquals(12, started.size());
+        assertEquals(2, peakLarge.get());
+        // Photos keep flowing on the other workers while the first two videos run
+        List<Path> videos = started.stream().filter(file -> file.toString().endsWith(".mp4")).toList();
+        int lastPhoto = 0;
+        for (int i = 0; i < started.size(); i++) {
+            if (started.get(i).toString().endsWith(".jpg")) {
+                lastPhoto = i;
+            }
+        }
+        assertTrue(lastPhoto < started.indexOf(videos.get(2)), started.toString());
+    }
+
+    @Test
+    void testSmallestFirst() throws IOException {
+        Path dir = Files.createDirectories(tempDir.resolve("sized"));
+        Path big = Files.write(dir.resolve("a.jpg"), new byte[300]);
+        Path medium = Files.write(dir.resolve("b.jpg"), new byte[200]);
+        Path tiny = Files.write(dir.resolve("c.jpg"), new byte[100]);
+        when(config.getSources()).thenReturn(List.of(source("sized", dir, 0, 1)));
+        when(deduplication.getThreads()).thenReturn(1);
+        when(deduplication.isSmallestFirst()).thenReturn(true);
+        List<Path> order = Collections.synchronizedList(new ArrayList<>());
+        when(processorService.processFile(any(), any())).thenAnswer(invocation -> {
+            order.add(invocation.getArgument(0));
+            return FileProcessorService.Result.PROCESSED;
+        });
+
+        fileScannerService.scanInputDirectory();
+
+        assertEquals(List.of(tiny, medium, big), order);
+    }
+
+    @Test
+    void testDirectoryRemovedMidRunOnlySkipsThatDirectory() throws IOException {
+        Path card = createSource("card", 1);
+        Path gone = Files.createDirectories(card.resolve("DCIM"));
+        Files.writeString(gone.resolve("IMG_0001.jpg"), "later");
+        Path phone = createSource("phone", 2);
+        when(config.getSources()).thenReturn(List.of(source("card", card, 10, 1), source("phone", phone, 0, 1)));
+        when(config.getStateDir()).thenReturn(tempDir.resolve("state").toString());
+        when(deduplication.getThreads()).thenReturn(2);
+        List<Path> processed = Collections.synchronizedList(new ArrayList<>());
+        when(processorService.processFile(any(), any())).thenAnswer(invocation -> {
+            Path file = invocation.getArgument(0);
+            if (file.getParent().equals(card)) {
+                // The card is rewritten after its directories were walked
+                try (var files = Files.list(gone)) {
+                    for (Path child : files.toList()) {
+                        Files.delete(child);
+                    }
+                }
+                Files.delete(gone);
+            }
+            processed.add(file);
+            return FileProcessorService.Result.PROCESSED;
+        });
+
+        fileScannerService.scanInputDirectory();
+
+        assertEquals(3, processed.size(), processed.toString());
+        assertEquals(2, processed.stream().filter(file -> file.startsWith(phone)).count());
+        Properties stats = new Properties();
+        try (var in = Files.newInputStream(tempDir.resolve("state").resolve(FileScannerService.STATS_FILE))) {
+            stats.load(in);
+        }
+        assertEquals("1", stats.getProperty("card.listingErrors"));
+        assertEquals("0", stats.getProperty("phone.listingErrors"));
+    }
+
+    @Test
+    void testFilesOfALostShardAreNotHandedOut() throws IOException {
+        Path phone = createSource("phone", 3);
+        when(config.getSources()).thenReturn(List.of(source("phone", phone, 0, 1)));
+        when(deduplication.getThreads()).thenReturn(1);
+        LeaseService.Phase phase = mock(LeaseService.Phase.class);
+        LeaseService.Lease lease = mock(LeaseService.Lease.class);
+        when(leaseService.begin(anyString())).thenReturn(phase);
+        when(phase.tryAcquire(anyString(), anyString())).thenReturn(lease);
+        // Another node takes the shard over while the first file is processed
+        when(processorService.processFile(any(), any())).thenAnswer(invocation -> {
+            when(lease.isLost()).thenReturn(true);
+            return FileProcessorService.Result.PROCESSED;
+        });
+
+        fileScannerService.scanInputDirectory();
+
+        verify(processorService, times(1)).processFile(any(), any());
+        verify(lease, never()).complete();
+        verify(lease).close();
+    }
+
+    private Path createSource(String name, int files) throws IOException {
+        Path dir = Files.createDirectories(tempDir.resolve(name));
+        for (int i = 0; i < files; i++) {
+            Files.writeString(dir.resolve(name + i + ".jpg"), name + i);
+        }
+        return dir;
+    }
+
+    private static PhotosonoConfig.Source source(String name, Path dir, int priority, int concurrency) {
+        PhotosonoConfig.Source source = new PhotosonoConfig.Source();
+        source.setName(name);
+        source.setDir(dir.toString());
+        source.setPriority(priority);
+        source.setConcurrency(concurrency);
+        return source;
+    }
 }
@@ -1,18 +1,27 @@
 package com.flaute.photosono.service;
 
+import com.flaute.photosono.config.PhotosonoConfig;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.time.Instant;
 import java.security.NoSuchAlgorithmException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class HashServiceTest {
 
-    private final HashService hashService = new HashService();
+    private final PhotosonoConfig config = new PhotosonoConfig();
+    private final HashService hashService =
+            new HashService(config, new IoGovernorService(config), new BufferPoolService(config));
 
     @Test
     void testCalculateSHA256(@TempDir Path tempDir) throws IOException, NoSuchAlgorithmException {
@@ -25,4 +34,42 @@ class HashServiceTest {
 
         assertEquals(expectedHash, actualHash);
     }
+
+    @Test
+    void testTrustsStoredHashWhileSizeAndTimeMatch(@TempDir Path tempDir) throws Exception {
+        config.getDeduplication().setXattrHashCache(true);
+        Path testFile = tempDir.resolve("test.txt");
+        Files.writeString(testFile, "Hello, Photosono!");
+        Files.setLastModifiedTime(testFile, FileTime.from(Instant.parse("2024-01-01T00:00:00Z")));
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(testFile, UserDefinedFileAttributeView.class);
+        assumeTrue(view != null && supportsXattrs(view), "No user xattrs on the temp file system");
+
+        String actual = hashService.calculateInputSHA256(testFile);
+        assertEquals("830ed3a5e2ff1036d0709136ad2ff94f2188d217d180a1e1c5c14e18081d497e", actual);
+
+        // Replace the stored hash: it is served as long as the stamp matches
+        String forged = "f".repeat(64);
+        String stored = StandardCharsets.US_ASCII.decode(read(view)).toString();
+        view.write(HashService.HASH_ATTRIBUTE, StandardCharsets.US_ASCII.encode(forged + stored.substring(64)));
+        assertEquals(forged, hashService.calculateInputSHA256(testFile));
+
+        // A touched file is hashed again
+        Files.setLastModifiedTime(testFile, FileTime.from(Instant.parse("2024-01-02T00:00:00Z")));
+        assertEquals(actual, hashService.calculateInputSHA256(testFile));
+    }
+
+    private static boolean supportsXattrs(UserDefinedFileAttributeView view) {
+        try {
+            view.list();
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private static ByteBuffer read(UserDefinedFileAttributeView view) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(view.size(HashService.HASH_ATTRIBUTE));
+        view.read(HashService.HASH_ATTRIBUTE, buffer);
+        return buffer.flip();
+    }
 }
@@ -0,0 +1,199 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeaseServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testNodesClaimDisjointShards() throws Exception {
+        int nodes = 4;
+        int shards = 200;
+        Set<String> claimed = ConcurrentHashMap.newKeySet();
+        List<String> duplicates = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(nodes);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int n = 0; n < nodes; n++) {
+            LeaseService node = node("node-" + n, Duration.ofMinutes(1));
+            results.add(pool.submit(() -> {
+                LeaseService.Phase phase = node.begin("dedupe");
+                int mine = 0;
+                for (int s = 0; s < shards; s++) {
+                    try (LeaseService.Lease lease = phase.tryAcquire("dir-" + s, "1")) {
+                        if (lease == null) {
+                            continue;
+                        }
+                        if (!claimed.add("dir-" + s)) {
+                            synchronized (duplicates) {
+                                duplicates.add("dir-" + s);
+                            }
+                        }
+                        mine++;
+                        lease.complete();
+                    }
+                }
+                return mine;
+            }));
+        }
+        int total = 0;
+        for (Future<Integer> result : results) {
+            total += result.get();
+        }
+        pool.shutdown();
+
+        assertEquals(List.of(), duplicates);
+        assertEquals(shards, total);
+        assertEquals(shards, claimed.size());
+    }
+
+    @Test
+    void testLiveLeaseBlocksAndExpiredLeaseIsReclaimed() throws Exception {
+        LeaseService first = node("first", Duration.ofSeconds(30));
+        LeaseService second = node("second", Duration.ofSeconds(30));
+
+        LeaseService.Lease held = first.begin("timeline").tryAcquire("a/b", "1");
+        assertNotNull(held);
+        assertNull(second.begin("timeline").tryAcquire("a/b", "1"));
+
+        // The first node dies: its lease stops being renewed and ages past the TTL
+        Path leaseFile;
+        try (Stream<Path> files = Files.list(tempDir.resolve("leases/timeline"))) {
+            leaseFile = files.filter(file -> file.toString().endsWith(".lease")).findFirst().orElseThrow();
+        }
+        Files.setLastModifiedTime(leaseFile, FileTime.from(Instant.now().minus(Duration.ofMinutes(5))));
+
+        LeaseService.Lease reclaimed = second.begin("timeline").tryAcquire("a/b", "1");
+        assertNotNull(reclaimed);
+        assertEquals("second a/b", Files.readString(leaseFile));
+
+        // The old owner notices on its next heartbeat and leaves the new lease alone
+        first.renewAll();
+        held.close();
+        assertTrue(Files.exists(leaseFile));
+        reclaimed.close();
+        assertFalse(Files.exists(leaseFile));
+    }
+
+    @Test
+    void testLostLeaseIsNotMarkedDone() throws Exception {
+        LeaseService first = node("first", Duration.ofSeconds(30));
+        LeaseService second = node("second", Duration.ofSeconds(30));
+
+        LeaseService.Lease held = first.begin("dedupe").tryAcquire("photos", "1");
+        Path leaseFile = leaseFile("dedupe");
+        Files.setLastModifiedTime(leaseFile, FileTime.from(Instant.now().minus(Duration.ofMinutes(5))));
+        LeaseService.Lease reclaimed = second.begin("dedupe").tryAcquire("photos", "1");
+        assertNotNull(reclaimed);
+
+        // The old owner finishes before its next heartbeat would have noticed
+        held.complete();
+        assertTrue(held.isLost());
+        assertFalse(Files.exists(leaseFile.resolveSibling(leaseFile.getFileName().toString()
+                .replace(".lease", ".done"))));
+        assertEquals("second photos", Files.readString(leaseFile));
+        reclaimed.close();
+    }
+
+    @Test
+    void testRenewalRefreshesTheLeaseInPlace() throws Exception {
+        LeaseService node = node("first", Duration.ofSeconds(30));
+        LeaseService.Lease held = node.begin("dedupe").tryAcquire("photos", "1");
+        Path leaseFile = leaseFile("dedupe");
+        FileTime old = FileTime.from(Instant.now().minus(Duration.ofMinutes(5)));
+        Files.setLastModifiedTime(leaseFile, old);
+
+        node.renewAll();
+
+        assertFalse(held.isLost());
+        assertTrue(Files.getLastModifiedTime(leaseFile).compareTo(old) > 0);
+        assertEquals("first photos", Files.readString(leaseFile));
+        try (Stream<Path> files = Files.list(leaseFile.getParent())) {
+            assertEquals(1, files.count());
+        }
+        held.close();
+    }
+
+    @Test
+    void testLeaseNotRenewedInTimeIsGivenUpInsteadOfRewritten() throws Exception {
+        LeaseService node = node("first", Duration.ofMillis(200));
+        LeaseService.Lease held = node.begin("dedupe").tryAcquire("photos", "1");
+        Path leaseFile = leaseFile("dedupe");
+        FileTime old = FileTime.from(Instant.now().minus(Duration.ofMinutes(5)));
+        Files.setLastModifiedTime(leaseFile, old);
+        Thread.sleep(300);
+
+        node.renewAll();
+
+        assertTrue(held.isLost());
+        assertEquals(old, Files.getLastModifiedTime(leaseFile));
+        held.close();
+    }
+
+    @Test
+    void testCompletedShardsAreSkippedUntilTheyChange() throws Exception {
+        LeaseService first = node("first", Duration.ofSeconds(30));
+        LeaseService second = node("second", Duration.ofSeconds(30));
+
+        first.begin("dedupe").tryAcquire("photos", "100").complete();
+        assertNull(second.begin("dedupe").tryAcquire("photos", "100"));
+
+        LeaseService.Lease changed = second.begin("dedupe").tryAcquire("photos", "200");
+        assertNotNull(changed);
+        changed.close();
+
+        // Released without completing, so the shard is still pending
+        LeaseService.Lease retried = first.begin("dedupe").tryAcquire("photos", "200");
+        assertNotNull(retried);
+        retried.close();
+    }
+
+    @Test
+    void testDisabledGrantsEverything() throws Exception {
+        PhotosonoConfig config = new PhotosonoConfig();
+        LeaseService service = new LeaseService(config);
+
+        Set<LeaseService.Lease> leases = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            LeaseService.Lease lease = service.begin("dedupe").tryAcquire("same", "1");
+            assertNotNull(lease);
+            leases.add(lease);
+        }
+        assertFalse(Files.exists(tempDir.resolve("leases")));
+    }
+
+    private Path leaseFile(String phase) throws Exception {
+        try (Stream<Path> files = Files.list(tempDir.resolve("leases").resolve(phase))) {
+            return files.filter(file -> file.toString().endsWith(".lease")).findFirst().orElseThrow();
+        }
+    }
+
+    private LeaseService node(String nodeId, Duration ttl) {
+        PhotosonoConfig config = new PhotosonoConfig();
+        config.getCluster().setEnabled(true);
+        config.getCluster().setLeaseDir(tempDir.resolve("leases").toString());
+        config.getCluster().setNodeId(nodeId);
+        config.getCluster().setLeaseTtl(ttl);
+        return new LeaseService(config);
+    }
+}
@@ -0,0 +1,116 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaValidationServiceTest {
+
+    private static final String A = "aa" + "0".repeat(62);
+    private static final String B = "bb" + "0".repeat(62);
+
+    private PhotosonoConfig config;
+    private MediaValidationService validation;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        config = new PhotosonoConfig();
+        config.getValidation().setDeep(true);
+        config.getValidation().setThreads(2);
+        validation = new MediaValidationService(config, new PerceptualHashService());
+    }
+
+    @AfterEach
+    void tearDown() {
+        validation.shutdown();
+    }
+
+    @Test
+    void testDetectsTruncatedJpeg() throws IOException {
+        Path intact = jpeg("intact.jpg");
+        byte[] bytes = Files.readAllBytes(intact);
+        Path truncated = Files.write(tempDir.resolve("truncated.jpg"), Arrays.copyOf(bytes, bytes.length / 2));
+
+        assertTrue(validation.isIntact(intact, A, "jpg"));
+        assertFalse(validation.isIntact(truncated, B, "jpg"));
+    }
+
+    @Test
+    void testVerdictsAreCachedByHash() throws IOException {
+        Path intact = jpeg("intact.jpg");
+        assertTrue(validation.isIntact(intact, A, "jpg"));
+
+        // Same hash: judged from the cache, even though this path does not exist
+        assertTrue(validation.isIntact(tempDir.resolve("copy.jpg"), A, "jpg"));
+    }
+
+    @Test
+    void testTimeoutExcludesTimeQueued() throws Exception {
+        Path intact = jpeg("intact.jpg");
+        byte[] bytes = Files.readAllBytes(intact);
+        Path truncated = Files.write(tempDir.resolve("truncated.jpg"), Arrays.copyOf(bytes, bytes.length / 2));
+        long start = System.nanoTime();
+        assertFalse(validation.isIntact(truncated, B, "jpg"));
+        long checkMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        // One validation thread and far more files than fit into one timeout
+        validation.shutdown();
+        config.getValidation().setThreads(1);
+        config.getValidation().setTimeoutMillis(Math.max(100, checkMillis * 5));
+        validation = new MediaValidationService(config, new PerceptualHashService());
+        int files = (int) (config.getValidation().getTimeoutMillis() / checkMillis) * 3;
+        ExecutorService workers = Executors.newFixedThreadPool(files);
+        List<Future<Boolean>> verdicts = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            String sha256 = String.format("%064x", i + 1);
+            verdicts.add(workers.submit(() -> validation.isIntact(truncated, sha256, "jpg")));
+        }
+        for (Future<Boolean> verdict : verdicts) {
+            assertFalse(verdict.get(), "A queued file was let through unchecked");
+        }
+        workers.shutdown();
+    }
+
+    @Test
+    void testDisabledOrUnknownFormatsPass() throws IOException {
+        Path garbage = Files.writeString(tempDir.resolve("garbage.heic"), "not an image");
+        assertTrue(validation.isIntact(garbage, A, "heic"));
+
+        config.getValidation().setDeep(false);
+        assertTrue(validation.isIntact(Files.writeString(tempDir.resolve("garbage.mp4"), "x"), B, "mp4"));
+    }
+
+    private Path jpeg(String name) throws IOException {
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        Path file = tempDir.resolve(name);
+        ImageIO.write(image, "jpg", file.toFile());
+        return file;
+    }
+}
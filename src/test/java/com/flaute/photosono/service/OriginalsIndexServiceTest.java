@@ -0,0 +1,105 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import com.flaute.photosono.storage.ObjectStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OriginalsIndexServiceTest {
+
+    private static final String EXISTING = "a1" + "0".repeat(62);
+    private static final String PLACED = "b2" + "1".repeat(62);
+    private static final String MISSING = "c3" + "2".repeat(62);
+
+    private PhotosonoConfig config;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        config = new PhotosonoConfig();
+        config.setOriginalsDir(tempDir.resolve("originals").toString());
+        config.setStateDir(tempDir.resolve("state").toString());
+
+        Path existing = tempDir.resolve("originals/a/1/" + EXISTING + ".jpg");
+        Files.createDirectories(existing.getParent());
+        Files.writeString(existing, "content");
+    }
+
+    @Test
+    void testFilterIsRebuiltFromOriginals() {
+        OriginalsIndexService service = newService();
+
+        assertTrue(service.mightContain(EXISTING));
+        assertFalse(service.mightContain(MISSING));
+        assertFalse(service.isKnown(EXISTING), "Run-local set only holds hashes seen in this run");
+        assertTrue(service.mightContain("not-a-digest"), "Unparseable hashes must always be probed");
+    }
+
+    @Test
+    void testFilterSurvivesCleanShutdown() {
+        OriginalsIndexService first = newService();
+        first.markKnown(PLACED);
+        assertTrue(first.isKnown(PLACED));
+        assertFalse(Files.exists(tempDir.resolve("state").resolve(OriginalsIndexService.FILTER_FILE)),
+                "Filter file must not exist while the filter is in use");
+        first.saveFilter();
+
+        OriginalsIndexService second = newService();
+        assertTrue(second.mightContain(PLACED), "Placement recorded by the previous run should be loaded");
+        assertTrue(second.mightContain(EXISTING));
+    }
+
+    @Test
+    void testFilterIncludesChunkedOriginals() throws IOException {
+        config.getChunkStore().setEnabled(true);
+        config.getChunkStore().setDir(tempDir.resolve("chunks").toString());
+        Path manifest = tempDir.resolve("chunks/manifests/b/2/" + PLACED + ".manifest");
+        Files.createDirectories(manifest.getParent());
+        Files.writeString(manifest, "manifest");
+
+        OriginalsIndexService service = newService();
+
+        assertTrue(service.mightContain(PLACED), "An original removed after chunking is still stored");
+        assertTrue(service.mightContain(EXISTING));
+        assertFalse(service.mightContain(MISSING));
+    }
+
+    @Test
+    void testFilterIsSeededFromRemoteOriginals() throws IOException {
+        config.getStorage().setType("memory");
+        StorageService storage = newStorage();
+        Path upload = Files.writeString(tempDir.resolve("upload.jpg"), "content");
+        ObjectStore.await(storage.originals().putIfAbsent("b/2/" + PLACED + ".jpg", upload));
+
+        OriginalsIndexService service = new OriginalsIndexService(config, storage);
+
+        assertTrue(service.mightContain(PLACED), "Remote originals are listed, not the local tree");
+        assertFalse(service.mightContain(EXISTING));
+        assertThrows(IllegalStateException.class, () -> storage.requireLocalOriginals("timeline"));
+    }
+
+    @Test
+    void testDisabledFilterAlwaysProbes() {
+        config.getIndex().setBloomEnabled(false);
+        OriginalsIndexService service = newService();
+
+        assertTrue(service.mightContain(MISSING));
+    }
+
+    private OriginalsIndexService newService() {
+        return new OriginalsIndexService(config, newStorage());
+    }
+
+    private StorageService newStorage() {
+        return new StorageService(config, new IoGovernorService(config), new BufferPoolService(config));
+    }
+}
@@ -0,0 +1,64 @@
+package com.flaute.photosono.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.OptionalLong;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PerceptualHashServiceTest {
+
+    private final PerceptualHashService perceptualHashService = new PerceptualHashService();
+
+    @Test
+    void testResizedCopyIsNearIdentical(@TempDir Path tempDir) throws IOException {
+        Path original = tempDir.resolve("original.png");
+        Path resized = tempDir.resolve("resized.jpg");
+        Path other = tempDir.resolve("other.png");
+        ImageIO.write(picture(800, 600, 1), "png", original.toFile());
+        ImageIO.write(picture(200, 150, 1), "jpg", resized.toFile());
+        ImageIO.write(picture(800, 600, 2), "png", other.toFile());
+
+        long a = perceptualHashService.calculateDHash(original).orElseThrow();
+        long b = perceptualHashService.calculateDHash(resized).orElseThrow();
+        long c = perceptualHashService.calculateDHash(other).orElseThrow();
+
+        assertTrue(Long.bitCount(a ^ b) <= 3, "Resized copy should be within 3 bits");
+        assertTrue(Long.bitCount(a ^ c) > 10, "Different picture should be far away");
+    }
+
+    @Test
+    void testUndecodableFile(@TempDir Path tempDir) throws IOException {
+        Path file = tempDir.resolve("broken.jpg");
+        Files.writeString(file, "not an image");
+
+        assertEquals(OptionalLong.empty(), perceptualHashService.calculateDHash(file));
+        assertTrue(perceptualHashService.supports("JPG"));
+        assertFalse(perceptualHashService.supports("mp4"));
+    }
+
+    private static BufferedImage picture(int width, int height, long seed) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        Random random = new Random(seed);
+        // Coarse 9x8 grid of random shades, drawn to scale so resizing preserves it
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 9; x++) {
+                int shade = random.nextInt(256);
+                g.setColor(new Color(shade, shade, shade));
+                g.fillRect(x * width / 9, y * height / 8, width / 9 + 1, height / 8 + 1);
+            }
+        }
+        g.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,95 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PruneServiceTest {
+
+    private static final String A = "ab" + "0".repeat(62);
+    private static final String B = "cd" + "0".repeat(62);
+    private static final String C = "ef" + "0".repeat(62);
+
+    private PhotosonoConfig config;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        config = new PhotosonoConfig();
+        config.setOriginalsDir(tempDir.resolve("originals").toString());
+        config.setTimelineDir(tempDir.resolve("timeline").toString());
+        config.setUnknownDateDir(tempDir.resolve("unknown-date").toString());
+        config.setStateDir(tempDir.resolve("state").toString());
+        config.getPrune().setThreads(2);
+    }
+
+    @Test
+    void testReportsWithoutRemoving() throws IOException {
+        Path live = link("timeline/2020/01/01/20200101-100000.jpg", original(A, "jpg"));
+        Path dangling = link("timeline/2020/01/02/20200102-100000.jpg",
+                tempDir.resolve("originals/c/d/" + B + ".jpg"));
+        Files.createDirectories(tempDir.resolve("unknown-date/e/f"));
+
+        new PruneService(config).prune();
+
+        assertTrue(Files.isSymbolicLink(live));
+        assertTrue(Files.isSymbolicLink(dangling));
+        List<String> report = Files.readAllLines(tempDir.resolve("state").resolve(PruneService.REPORT_FILE));
+        assertEquals(2, report.size());
+        assertTrue(report.contains("broken " + dangling.toAbsolutePath() + " -> " + Files.readSymbolicLink(dangling)));
+        assertTrue(report.contains("empty " + tempDir.resolve("unknown-date/e/f").toAbsolutePath()));
+    }
+
+    @Test
+    void testRemovesBrokenLinksAndEmptiedDirectories() throws IOException {
+        Path live = link("timeline/2020/01/01/20200101-100000.jpg", original(A, "jpg"));
+        // Same hash, but no original with this extension
+        Path wrongExtension = link("timeline/2020/01/01/20200101-100000.png",
+                tempDir.resolve("originals/a/b/" + A + ".png"));
+        Path dangling = link("timeline/2021/05/06/20210506-100000.jpg",
+                tempDir.resolve("originals/c/d/" + B + ".jpg"));
+        Path danglingUnknown = link("unknown-date/e/f/" + C + ".mp4",
+                tempDir.resolve("originals/e/f/" + C + ".mp4"));
+        // Unusual target outside the originals tree is checked on disk
+        Path elsewhere = link("timeline/2020/01/01/20200101-110000.jpg",
+                Files.writeString(tempDir.resolve("elsewhere.jpg"), "x"));
+        config.getPrune().setDelete(true);
+
+        new PruneService(config).prune();
+
+        assertTrue(Files.isSymbolicLink(live));
+        assertTrue(Files.isSymbolicLink(elsewhere));
+        assertFalse(Files.exists(wrongExtension, LinkOption.NOFOLLOW_LINKS));
+        assertFalse(Files.exists(dangling, LinkOption.NOFOLLOW_LINKS));
+        assertFalse(Files.exists(danglingUnknown, LinkOption.NOFOLLOW_LINKS));
+        // Emptied leaf directories go, and so do parents they leave empty
+        assertFalse(Files.exists(tempDir.resolve("timeline/2021")));
+        assertFalse(Files.exists(tempDir.resolve("unknown-date/e")));
+        assertTrue(Files.isDirectory(tempDir.resolve("timeline/2020/01/01")));
+        assertTrue(Files.isDirectory(tempDir.resolve("unknown-date")));
+    }
+
+    private Path original(String sha256, String extension) throws IOException {
+        Path file = tempDir.resolve("originals").resolve(sha256.substring(0, 1)).resolve(sha256.substring(1, 2))
+                .resolve(sha256 + "." + extension);
+        Files.createDirectories(file.getParent());
+        return Files.writeString(file, sha256);
+    }
+
+    private Path link(String name, Path target) throws IOException {
+        Path link = tempDir.resolve(name);
+        Files.createDirectories(link.getParent());
+        return Files.createSymbolicLink(link, link.getParent().relativize(target));
+    }
+}
@@ -0,0 +1,121 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryServiceTest {
+
+    private static final String A = "ab" + "0".repeat(62);
+    private static final String B = "cd" + "0".repeat(62);
+
+    @TempDir
+    Path tempDir;
+
+    private PhotosonoConfig config;
+    private TimelineIndexService timelineIndex;
+    private CatalogService catalogService;
+    private QueryService queryService;
+    private HttpClient client;
+    private int port;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        config = new PhotosonoConfig();
+        config.setStateDir(tempDir.resolve("state").toString());
+        config.getQuery().setPort(0);
+
+        timelineIndex = new TimelineIndexService(config);
+        catalogService = new CatalogService(config, timelineIndex);
+        catalogService.recordSource(tempDir.resolve("input/phone/IMG_1.jpeg"), A, "jpg",
+                FileProcessorService.Result.PROCESSED);
+        catalogService.recordSource(tempDir.resolve("input/backup/IMG_1.jpg"), A, "jpg",
+                FileProcessorService.Result.SKIPPED);
+        catalogService.recordSource(tempDir.resolve("input/phone/VID_2.mp4"), B, "mp4",
+                FileProcessorService.Result.PROCESSED);
+
+        Date date = Date.from(LocalDateTime.of(2019, 7, 14, 12, 0).atZone(ZoneId.systemDefault()).toInstant());
+        timelineIndex.recordDate(tempDir.resolve("originals/a/b/" + A + ".jpg"), date);
+        timelineIndex.recordUnknownDate(tempDir.resolve("originals/c/d/" + B + ".mp4"));
+        timelineIndex.save();
+
+        queryService = new QueryService(config, catalogService);
+        port = queryService.start();
+        client = HttpClient.newHttpClient();
+    }
+
+    @AfterEach
+    void tearDown() {
+        queryService.stop();
+        catalogService.close();
+    }
+
+    @Test
+    void testHashLookupReturnsDateAndAllSources() throws Exception {
+        HttpResponse<String> response = get("/api/hashes/" + A);
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().contains("\"extension\":\"jpg\""));
+        assertTrue(response.body().contains("\"date\":\"2019-07-14T"));
+        assertTrue(response.body().contains("IMG_1.jpeg"));
+        assertTrue(response.body().contains("\"result\":\"SKIPPED\""));
+
+        assertEquals(404, get("/api/hashes/" + "ee".repeat(32)).statusCode());
+        assertEquals(400, get("/api/hashes/not-a-hash").statusCode());
+    }
+
+    @Test
+    void testDateRangeAndPaging() throws Exception {
+        HttpResponse<String> july = get("/api/dates?from=2019-07");
+        assertEquals(200, july.statusCode());
+        assertTrue(july.body().startsWith("{\"total\":1,"));
+        assertTrue(july.body().contains(A));
+
+        assertTrue(get("/api/dates?from=2019-08&to=2020").body().startsWith("{\"total\":0,"));
+        assertEquals(400, get("/api/dates?from=July").statusCode());
+    }
+
+    @Test
+    void testPrefixAndExtensionQueries() throws Exception {
+        String prefix = tempDir.resolve("input/phone").toAbsolutePath().toString();
+        HttpResponse<String> phone = get("/api/sources?prefix=" + prefix + "&limit=1");
+        assertTrue(phone.body().startsWith("{\"total\":2,"));
+        assertEquals(1, phone.body().split("\"path\"").length - 1);
+
+        HttpResponse<String> videos = get("/api/extensions/mp4");
+        assertTrue(videos.body().startsWith("{\"total\":1,"));
+        assertTrue(videos.body().contains("VID_2.mp4"));
+    }
+
+    @Test
+    void testNewRecordsAreVisibleToLaterQueries() throws Exception {
+        catalogService.recordSource(tempDir.resolve("input/card/IMG_3.mp4"), B, "mp4",
+                FileProcessorService.Result.SKIPPED);
+
+        // The first query after the append may still see the previous snapshot
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!get("/api/extensions/mp4").body().startsWith("{\"total\":2,") && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(get("/api/extensions/mp4").body().startsWith("{\"total\":2,"));
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+}
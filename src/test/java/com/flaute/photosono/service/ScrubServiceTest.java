@@ -0,0 +1,159 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ScrubServiceTest {
+
+    private final HashService hashService = spy(newHashService());
+    private PhotosonoConfig config;
+    private ScrubService scrubService;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        config = new PhotosonoConfig();
+        config.setOriginalsDir(tempDir.resolve("originals").toString());
+        config.setQuarantineDir(tempDir.resolve("quarantine").toString());
+        config.setStateDir(tempDir.resolve("state").toString());
+        config.getScrub().setEnabled(true);
+        scrubService = new ScrubService(config, hashService);
+    }
+
+    @Test
+    void testQuarantinesMismatchingOriginals() throws Exception {
+        Path intact = original("intact content");
+        Path rotten = original("rotten content");
+        Files.writeString(rotten, "rotten c0ntent");
+
+        scrubService.scrubOriginalsDirectory();
+
+        assertTrue(Files.exists(intact));
+        assertFalse(Files.exists(rotten), "Mismatching original should leave the store");
+        Path quarantined = tempDir.resolve("quarantine").resolve(rotten.getParent().getParent().getFileName())
+                .resolve(rotten.getParent().getFileName()).resolve(rotten.getFileName());
+        assertTrue(Files.exists(quarantined));
+
+        Properties state = state();
+        assertEquals("", state.getProperty("lastShard"), "Completed pass should reset the checkpoint");
+        assertEquals(Long.toString(Files.size(intact) + Files.size(quarantined)), state.getProperty("lastPassBytes"));
+    }
+
+    @Test
+    void testResumesAfterCheckpointedShard() throws Exception {
+        Path first = original("first");
+        Path second = original("second");
+        Path earlier = first.toString().compareTo(second.toString()) < 0 ? first : second;
+        Path later = earlier == first ? second : first;
+
+        String shard = earlier.getParent().getParent().getFileName() + "/" + earlier.getParent().getFileName();
+        Files.createDirectories(tempDir.resolve("state"));
+        Files.writeString(tempDir.resolve("state/scrub.properties"), "lastShard=" + shard + "\n");
+
+        scrubService.scrubOriginalsDirectory();
+
+        verify(hashService, never()).calculateSHA256(eq(earlier), any());
+        verify(hashService).calculateSHA256(eq(later), any());
+    }
+
+    @Test
+    void testScrubDisabled() throws Exception {
+        original("content");
+        config.getScrub().setEnabled(false);
+
+        scrubService.scrubOriginalsDirectory();
+
+        verifyNoInteractions(hashService);
+    }
+
+    @Test
+    void testContinuousPassesKeepTheirInterval() throws Exception {
+        Path file = original("content");
+        config.getScrub().setContinuous(true);
+        config.getScrub().setMinInterval(Duration.ofMillis(300));
+
+        Thread scrub = Thread.ofPlatform().start(scrubService::scrubOriginalsDirectory);
+        Thread.sleep(700);
+        scrub.interrupt();
+        scrub.join(5000);
+
+        assertFalse(scrub.isAlive());
+        // Passes start at 0, 300 and 600 ms rather than back to back
+        verify(hashService, atLeast(2)).calculateSHA256(eq(file), any());
+        verify(hashService, atMost(3)).calculateSHA256(eq(file), any());
+    }
+
+    @Test
+    void testSecondBadCopyDoesNotReplaceTheQuarantinedOne() throws Exception {
+        Path rotten = original("content");
+        Files.writeString(rotten, "first bad copy");
+        scrubService.scrubOriginalsDirectory();
+        Files.writeString(rotten, "second bad copy");
+        scrubService.scrubOriginalsDirectory();
+
+        Path quarantineDir = tempDir.resolve("quarantine").resolve(rotten.getParent().getParent().getFileName())
+                .resolve(rotten.getParent().getFileName());
+        String name = rotten.getFileName().toString();
+        assertEquals("first bad copy", Files.readString(quarantineDir.resolve(name)));
+        assertEquals("second bad copy", Files.readString(quarantineDir.resolve(name.replace(".jpg", "-1.jpg"))));
+    }
+
+    @Test
+    void testContinuousScrubOutlivesAFailedPass() throws Exception {
+        Path file = original("content");
+        // The checkpoint cannot be saved, so every pass fails after its first shard
+        Files.writeString(tempDir.resolve("state"), "not a directory");
+        config.getScrub().setContinuous(true);
+        config.getScrub().setMinInterval(Duration.ofMillis(300));
+
+        Thread scrub = Thread.ofPlatform().start(scrubService::scrubOriginalsDirectory);
+        Thread.sleep(700);
+        assertTrue(scrub.isAlive());
+        scrub.interrupt();
+        scrub.join(5000);
+
+        assertFalse(scrub.isAlive());
+        verify(hashService, atLeast(2)).calculateSHA256(eq(file), any());
+    }
+
+    private Path original(String content) throws Exception {
+        Path temp = tempDir.resolve("temp");
+        Files.writeString(temp, content);
+        // Hashed outside the spy, so tests only see the scrub's own calls
+        String sha256 = newHashService().calculateSHA256(temp);
+        Path file = tempDir.resolve("originals").resolve(sha256.substring(0, 1)).resolve(sha256.substring(1, 2))
+                .resolve(sha256 + ".jpg");
+        Files.createDirectories(file.getParent());
+        Files.move(temp, file);
+        return file;
+    }
+
+    private Properties state() throws IOException {
+        Properties state = new Properties();
+        try (InputStream in = Files.newInputStream(tempDir.resolve("state/scrub.properties"))) {
+            state.load(in);
+        }
+        return state;
+    }
+
+    private static HashService newHashService() {
+        PhotosonoConfig defaults = new PhotosonoConfig();
+        return new HashService(defaults, new IoGovernorService(defaults), new BufferPoolService(defaults));
+    }
+}
@@ -0,0 +1,87 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.OptionalLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class SimilarityScannerServiceTest {
+
+    private static final String A = "a" + "0".repeat(63);
+    private static final String B = "b" + "0".repeat(63);
+    private static final String C = "c" + "0".repeat(63);
+
+    private SimilarityScannerService similarityScannerService;
+    private PhotosonoConfig config;
+
+    @Mock
+    private PerceptualHashService perceptualHashService;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        config = new PhotosonoConfig();
+        config.setOriginalsDir(tempDir.resolve("originals").toString());
+        config.setStateDir(tempDir.resolve("state").toString());
+        config.getSimilarity().setEnabled(true);
+        config.getSimilarity().setThreads(2);
+        similarityScannerService = new SimilarityScannerService(config, perceptualHashService);
+        when(perceptualHashService.supports(anyString())).thenReturn(true);
+    }
+
+    @Test
+    void testReportsNearDuplicatesAndCachesHashes() throws IOException {
+        Path a = original(A);
+        Path b = original(B);
+        Path c = original(C);
+        when(perceptualHashService.calculateDHash(a)).thenReturn(OptionalLong.of(0xF0F0F0F0F0F0F0F0L));
+        when(perceptualHashService.calculateDHash(b)).thenReturn(OptionalLong.of(0xF0F0F0F0F0F0F0F1L));
+        when(perceptualHashService.calculateDHash(c)).thenReturn(OptionalLong.of(0x0123456789ABCDEFL));
+
+        similarityScannerService.scanOriginalsDirectory();
+
+        List<String> report = Files.readAllLines(tempDir.resolve("state/near-duplicates.txt"));
+        assertEquals(1, report.size());
+        assertTrue(report.get(0).contains(A) && report.get(0).contains(B));
+        assertFalse(report.get(0).contains(C));
+
+        similarityScannerService.scanOriginalsDirectory();
+
+        // Second run reuses the stored hashes instead of decoding again
+        verify(perceptualHashService, times(3)).calculateDHash(any());
+        assertEquals(report, Files.readAllLines(tempDir.resolve("state/near-duplicates.txt")));
+    }
+
+    @Test
+    void testScanDisabled() {
+        config.getSimilarity().setEnabled(false);
+
+        similarityScannerService.scanOriginalsDirectory();
+
+        verifyNoInteractions(perceptualHashService);
+    }
+
+    private Path original(String sha256) throws IOException {
+        Path file = tempDir.resolve("originals").resolve(sha256.substring(0, 1)).resolve(sha256.substring(1, 2))
+                .resolve(sha256 + ".jpg");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, sha256);
+        return file;
+    }
+}
@@ -0,0 +1,89 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThumbnailServiceTest {
+
+    private static final String A = "ab" + "1".repeat(62);
+    private static final String B = "cd" + "2".repeat(62);
+
+    @TempDir
+    Path tempDir;
+
+    private PhotosonoConfig config;
+    private ThumbnailService thumbnails;
+
+    @BeforeEach
+    void setUp() {
+        config = new PhotosonoConfig();
+        config.getThumbnail().setEnabled(true);
+        config.getThumbnail().setDir(tempDir.resolve("thumbnails").toString());
+        config.getThumbnail().setSize(64);
+        config.getThumbnail().setThreads(2);
+        config.getThumbnail().setQueueSize(2);
+        StorageService storage = new StorageService(config, new IoGovernorService(config),
+                new BufferPoolService(config));
+        thumbnails = new ThumbnailService(config, storage, new PerceptualHashService());
+    }
+
+    @AfterEach
+    void tearDown() {
+        thumbnails.shutdown();
+    }
+
+    @Test
+    void testRendersFittedJpegIntoShardedStore() throws IOException {
+        Path source = tempDir.resolve("wide.png");
+        ImageIO.write(new BufferedImage(800, 400, BufferedImage.TYPE_INT_ARGB), "png", source.toFile());
+
+        thumbnails.submit(A, source, "png");
+        thumbnails.awaitIdle();
+
+        Path thumbnail = tempDir.resolve("thumbnails/a/b/" + A + ".jpg");
+        BufferedImage image = ImageIO.read(thumbnail.toFile());
+        assertEquals(64, image.getWidth());
+        assertEquals(32, image.getHeight());
+    }
+
+    @Test
+    void testSkipsRenderedHashesAndUnreadableInput() throws IOException {
+        Path source = tempDir.resolve("photo.png");
+        ImageIO.write(new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB), "png", source.toFile());
+        Path existing = tempDir.resolve("thumbnails/a/b/" + A + ".jpg");
+        Files.createDirectories(existing.getParent());
+        Files.writeString(existing, "rendered earlier");
+        Path broken = Files.writeString(tempDir.resolve("broken.jpg"), "not an image");
+
+        thumbnails.submit(A, source, "png");
+        thumbnails.submit(B, broken, "jpg");
+        thumbnails.submit(B, source, "mp4");
+        thumbnails.awaitIdle();
+
+        assertEquals("rendered earlier", Files.readString(existing));
+        assertFalse(Files.exists(tempDir.resolve("thumbnails/c/d/" + B + ".jpg")));
+    }
+
+    @Test
+    void testDisabledDoesNothing() throws IOException {
+        config.getThumbnail().setEnabled(false);
+        Path source = tempDir.resolve("photo.png");
+        ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), "png", source.toFile());
+
+        thumbnails.submit(A, source, "png");
+        thumbnails.awaitIdle();
+
+        assertFalse(Files.exists(tempDir.resolve("thumbnails")));
+    }
+}
@@ -9,12 +9,14 @@ import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Optional;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
@@ -28,6 +30,14 @@ class TimelineOrganizerServiceTest {
     private DateExtractorService dateExtractorService;
     @Mock
     private HashService hashService;
+    @Mock
+    private TimelineIndexService timelineIndex;
+    @Mock
+    private AuditJournalService journal;
+    @Mock
+    private CatalogService catalogService;
+    @Mock
+    private ViewService views;
 
     @TempDir
     Path tempDir;
@@ -35,7 +45,13 @@ class TimelineOrganizerServiceTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        timelineOrganizerService = new TimelineOrganizerService(config, dateExtractorService, hashService);
+        when(config.getStorage()).thenReturn(new PhotosonoConfig.Storage());
+        when(config.getCopy()).thenReturn(new PhotosonoConfig.Copy());
+        PhotosonoConfig defaults = new PhotosonoConfig();
+        StorageService storage = new StorageService(config, new IoGovernorService(defaults),
+                new BufferPoolService(defaults));
+        timelineOrganizerService = new TimelineOrganizerService(config, dateExtractorService, hashService, timelineIndex,
+                journal, storage, catalogService, views);
     }
 
     @Test
@@ -54,7 +70,7 @@ class TimelineOrganizerServiceTest {
         cal.set(2026, Calendar.FEBRUARY, 8, 10, 0, 0);
         Date testDate = cal.getTime();
 
-        when(dateExtractorService.extractCreationDate(sourceFile)).thenReturn(Optional.of(testDate));
+        when(dateExtractorService.extractCreationDate(eq(sourceFile), any(), any())).thenReturn(Optional.of(testDate));
         when(hashService.calculateSHA256(any())).thenReturn("hash123");
 
         timelineOrganizerService.organizeFile(sourceFile);
@@ -65,6 +81,8 @@ class TimelineOrganizerServiceTest {
 
         Path target = Files.readSymbolicLink(expectedPath);
         assertTrue(!target.isAbsolute(), "Symlink should be relative");
+        verify(timelineIndex).recordDate(sourceFile, testDate);
+        verify(views).add(eq(sourceFile), eq(testDate), any());
     }
 
     @Test
@@ -85,7 +103,7 @@ class TimelineOrganizerServiceTest {
         cal.set(2026, Calendar.FEBRUARY, 8, 10, 0, 0);
         Date testDate = cal.getTime();
 
-        when(dateExtractorService.extractCreationDate(sourceFile)).thenReturn(Optional.of(testDate));
+        when(dateExtractorService.extractCreationDate(eq(sourceFile), any(), any())).thenReturn(Optional.of(testDate));
         when(hashService.calculateSHA256(any())).thenReturn("hash123");
 
         timelineOrganizerService.organizeFile(sourceFile);
@@ -113,7 +131,7 @@ class TimelineOrganizerServiceTest {
         cal.set(2026, Calendar.FEBRUARY, 8, 10, 0, 0);
         Date testDate = cal.getTime();
 
-        when(dateExtractorService.extractCreationDate(sourceFile)).thenReturn(Optional.of(testDate));
+        when(dateExtractorService.extractCreationDate(eq(sourceFile), any(), any())).thenReturn(Optional.of(testDate));
 
         // Return different hashes
         when(hashService.calculateSHA256(sourceFile)).thenReturn("hash_new");
@@ -127,6 +145,31 @@ class TimelineOrganizerServiceTest {
         assertTrue(Files.isSymbolicLink(conflictPath));
     }
 
+    @Test
+    void testDanglingLinkKeepsItsName() throws IOException, NoSuchAlgorithmException {
+        Path sourceFile = tempDir.resolve("originals/a/b/hash_new.jpg");
+        Files.createDirectories(sourceFile.getParent());
+        Files.writeString(sourceFile, "content");
+
+        Path timelineDir = tempDir.resolve("timeline");
+        Path dayDir = Files.createDirectories(timelineDir.resolve("2026/02/08"));
+        Path dangling = dayDir.resolve("20260208-100000.jpg");
+        Files.createSymbolicLink(dangling, Path.of("../../../../originals/c/d/removed.jpg"));
+
+        when(config.getTimelineDir()).thenReturn(timelineDir.toString());
+        Calendar cal = Calendar.getInstance();
+        cal.set(2026, Calendar.FEBRUARY, 8, 10, 0, 0);
+        when(dateExtractorService.extractCreationDate(eq(sourceFile), any(), any()))
+                .thenReturn(Optional.of(cal.getTime()));
+        when(hashService.calculateSHA256(sourceFile)).thenReturn("hash_new");
+        when(hashService.calculateSHA256(dangling)).thenThrow(new NoSuchFileException(dangling.toString()));
+
+        assertEquals(TimelineOrganizerService.Result.TIMELINE, timelineOrganizerService.organizeFile(sourceFile));
+
+        assertTrue(Files.isSymbolicLink(dayDir.resolve("20260208-100000-1.jpg")));
+        assertTrue(Files.isSymbolicLink(dangling), "The dangling link is left for prune");
+    }
+
     @Test
     void testOrganizeFileNoDateToUnknownDate() throws IOException, NoSuchAlgorithmException {
         Path sourceFile = tempDir.resolve("originals/a/b/unknownhash.jpg");
@@ -137,7 +180,7 @@ class TimelineOrganizerServiceTest {
         Files.createDirectories(unknownDateDir);
 
         when(config.getUnknownDateDir()).thenReturn(unknownDateDir.toString());
-        when(dateExtractorService.extractCreationDate(sourceFile)).thenReturn(Optional.empty());
+        when(dateExtractorService.extractCreationDate(eq(sourceFile), any(), any())).thenReturn(Optional.empty());
         when(hashService.calculateSHA256(sourceFile)).thenReturn("unknownhash");
 
         timelineOrganizerService.organizeFile(sourceFile);
@@ -146,5 +189,6 @@ class TimelineOrganizerServiceTest {
         Path expectedPath = unknownDateDir.resolve("u/n/unknownhash.jpg");
         assertTrue(Files.exists(expectedPath), "Symlink should exist in nested structure under unknown-date");
         assertTrue(Files.isSymbolicLink(expectedPath), "File should be a symbolic link");
+        verify(timelineIndex).recordUnknownDate(sourceFile);
     }
 }
@@ -0,0 +1,83 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Calendar;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimelineRebuildServiceTest {
+
+    private static final String A = "ab" + "0".repeat(62);
+    private static final String B = "cd" + "0".repeat(62);
+    private static final String C = "ef" + "0".repeat(62);
+
+    private PhotosonoConfig config;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        config = new PhotosonoConfig();
+        config.setOriginalsDir(tempDir.resolve("originals").toString());
+        config.setTimelineDir(tempDir.resolve("timeline").toString());
+        config.setUnknownDateDir(tempDir.resolve("unknown-date").toString());
+        config.setStateDir(tempDir.resolve("state").toString());
+    }
+
+    @Test
+    void testRebuildsLinksFromSavedIndex() throws IOException {
+        Calendar cal = Calendar.getInstance();
+        cal.set(2026, Calendar.FEBRUARY, 8, 10, 0, 0);
+        Date date = cal.getTime();
+
+        TimelineIndexService recorder = new TimelineIndexService(config);
+        recorder.recordDate(original(B, "jpg"), date);
+        recorder.recordDate(original(A, "jpg"), date);
+        recorder.recordUnknownDate(original(C, "mp4"));
+        recorder.save();
+
+        // Fresh services see only what was persisted
+        TimelineRebuildService rebuildService = new TimelineRebuildService(config,
+                new TimelineIndexService(config));
+        rebuildService.rebuildTimeline();
+
+        Path day = tempDir.resolve("timeline/2026/02/08");
+        assertEquals(day.relativize(original(A, "jpg")), Files.readSymbolicLink(day.resolve("20260208-100000.jpg")));
+        assertEquals(day.relativize(original(B, "jpg")),
+                Files.readSymbolicLink(day.resolve("20260208-100000-1.jpg")));
+        Path unknown = tempDir.resolve("unknown-date/e/f/" + C + ".mp4");
+        assertTrue(Files.isSymbolicLink(unknown));
+        assertEquals(original(C, "mp4").toAbsolutePath().normalize(),
+                unknown.getParent().resolve(Files.readSymbolicLink(unknown)).toAbsolutePath().normalize());
+
+        // A second rebuild leaves correct links untouched
+        rebuildService.rebuildTimeline();
+        try (var files = Files.list(day)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    void testIgnoresNonIndexableNames() {
+        TimelineIndexService index = new TimelineIndexService(config);
+
+        index.recordUnknownDate(tempDir.resolve("originals/x/y/not-a-hash.jpg"));
+        index.recordUnknownDate(tempDir.resolve("originals/a/b/" + A + ".txt"));
+
+        assertEquals(0, index.entries().size());
+    }
+
+    private Path original(String sha256, String extension) {
+        return tempDir.resolve("originals").resolve(sha256.substring(0, 1)).resolve(sha256.substring(1, 2))
+                .resolve(sha256 + "." + extension);
+    }
+}
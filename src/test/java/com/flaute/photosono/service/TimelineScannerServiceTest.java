@@ -23,14 +23,24 @@ class TimelineScannerServiceTest {
     private PhotosonoConfig.Timeline timeline;
     @Mock
     private TimelineOrganizerService organizerService;
+    @Mock
+    private TimelineIndexService timelineIndex;
+
+    @Mock
+    private LeaseService leaseService;
+    @Mock
+    private ViewService views;
 
     @TempDir
     Path tempDir;
 
     @BeforeEach
-    void setUp() {
+    void setUp() throws IOException {
         MockitoAnnotations.openMocks(this);
-        timelineScannerService = new TimelineScannerService(config, organizerService);
+        when(config.getCluster()).thenReturn(new PhotosonoConfig.Cluster());
+        when(leaseService.begin(anyString())).thenReturn(LeaseService.Phase.local());
+        timelineScannerService = new TimelineScannerService(config, organizerService, timelineIndex, leaseService,
+                views);
         when(config.getTimeline()).thenReturn(timeline);
         when(timeline.isEnabled()).thenReturn(true);
     }
@@ -50,6 +60,38 @@ class TimelineScannerServiceTest {
         timelineScannerService.scanOriginalsDirectory();
 
         verify(organizerService).organizeFile(file1);
+        verify(views).flush();
+        verify(timelineIndex).save();
+    }
+
+    @Test
+    void testWipedTimelineIsLinkedAgainInClusterMode() throws IOException {
+        Path originalsDir = tempDir.resolve("originals");
+        Path file = Files.createDirectories(originalsDir.resolve("a/b")).resolve("hash.jpg");
+        Files.writeString(file, "content");
+        Path timelineDir = tempDir.resolve("timeline");
+        PhotosonoConfig.Cluster cluster = new PhotosonoConfig.Cluster();
+        cluster.setEnabled(true);
+        cluster.setLeaseDir(tempDir.resolve("leases").toString());
+        cluster.setNodeId("node");
+        when(config.getCluster()).thenReturn(cluster);
+        when(config.getOriginalsDir()).thenReturn(originalsDir.toString());
+        when(config.getTimelineDir()).thenReturn(timelineDir.toString());
+        when(organizerService.organizeFile(any())).thenReturn(TimelineOrganizerService.Result.TIMELINE);
+        LeaseService leases = new LeaseService(config);
+        TimelineScannerService scanner = new TimelineScannerService(config, organizerService, timelineIndex, leases,
+                views);
+
+        scanner.scanOriginalsDirectory();
+        scanner.scanOriginalsDirectory();
+        verify(organizerService, times(1)).organizeFile(file);
+
+        // Wiped to be rebuilt: the finished shards no longer count
+        Files.delete(timelineDir.resolve(TimelineScannerService.GENERATION_FILE));
+        Files.delete(timelineDir);
+        scanner.scanOriginalsDirectory();
+        verify(organizerService, times(2)).organizeFile(file);
+        leases.shutdown();
     }
 
     @Test
@@ -0,0 +1,105 @@
+package com.flaute.photosono.service;
+
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.flaute.photosono.config.PhotosonoConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ViewServiceTest {
+
+    private static final String PHOTO = "ab" + "1".repeat(62);
+    private static final String VIDEO = "cd" + "2".repeat(62);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testLinksIntoEveryMatchingViewFromOneParse() throws IOException {
+        ViewService views = new ViewService(config(List.of("by-camera/{make}/{model}/{yyyy}",
+                "video:videos/{yyyy}/{MM}", "by-type/{type}")));
+        Path photo = original(PHOTO + ".jpg");
+        Path video = original(VIDEO + ".mp4");
+        Date date = Date.from(LocalDateTime.of(2021, 3, 4, 10, 11, 12).atZone(ZoneId.systemDefault()).toInstant());
+        AtomicInteger parses = new AtomicInteger();
+        Supplier<Metadata> camera = () -> {
+            parses.incrementAndGet();
+            Metadata metadata = new Metadata();
+            ExifIFD0Directory exif = new ExifIFD0Directory();
+            exif.setString(ExifIFD0Directory.TAG_MAKE, "Canon");
+            exif.setString(ExifIFD0Directory.TAG_MODEL, "EOS 5D/II");
+            metadata.addDirectory(exif);
+            return metadata;
+        };
+
+        views.add(photo, date, camera);
+        views.add(video, null, Metadata::new);
+        // Nothing is written before the batch is flushed
+        assertFalse(Files.exists(tempDir.resolve("views")));
+        views.flush();
+
+        Path views2021 = tempDir.resolve("views/by-camera/Canon/EOS 5D_II/2021");
+        Path photoLink = views2021.resolve("20210304-101112-ab111111.jpg");
+        assertTrue(Files.isSymbolicLink(photoLink));
+        assertEquals(photo, photoLink.getParent().resolve(Files.readSymbolicLink(photoLink)).normalize());
+        assertTrue(Files.isSymbolicLink(tempDir.resolve("views/by-camera/unknown/unknown/unknown/" + VIDEO + ".mp4")));
+        assertTrue(Files.isSymbolicLink(tempDir.resolve("views/videos/unknown/unknown/" + VIDEO + ".mp4")));
+        assertTrue(Files.isSymbolicLink(tempDir.resolve("views/by-type/photo/20210304-101112-ab111111.jpg")));
+        assertTrue(Files.isSymbolicLink(tempDir.resolve("views/by-type/video/" + VIDEO + ".mp4")));
+        assertFalse(Files.exists(tempDir.resolve("views/videos/2021")), "Photos stay out of video views");
+        assertEquals(1, parses.get());
+    }
+
+    @Test
+    void testRerunKeepsExistingLinks() throws IOException {
+        PhotosonoConfig config = config(List.of("all/{ext}"));
+        Path photo = original(PHOTO + ".jpg");
+
+        ViewService first = new ViewService(config);
+        first.add(photo, null, Metadata::new);
+        first.flush();
+        ViewService second = new ViewService(config);
+        second.add(photo, null, () -> fail("Metadata is not needed"));
+        second.flush();
+
+        try (var links = Files.list(tempDir.resolve("views/all/jpg"))) {
+            assertEquals(1, links.count());
+        }
+    }
+
+    @Test
+    void testRejectsInvalidDefinitions() {
+        assertThrows(IllegalArgumentException.class, () -> ViewService.parse("by/{lens}"));
+        assertThrows(IllegalArgumentException.class, () -> ViewService.parse("audio:music/{yyyy}"));
+        assertThrows(IllegalArgumentException.class, () -> ViewService.parse("../outside/{yyyy}"));
+        assertEquals(ViewService.MediaType.VIDEO, ViewService.parse("Video: clips/{yyyy}").only());
+        assertEquals("unknown", ViewService.segment("  "));
+        assertEquals("_hidden", ViewService.segment(".hidden"));
+    }
+
+    private PhotosonoConfig config(List<String> definitions) {
+        PhotosonoConfig config = new PhotosonoConfig();
+        config.getViews().setDir(tempDir.resolve("views").toString());
+        config.getViews().setDefinitions(definitions);
+        return config;
+    }
+
+    private Path original(String name) throws IOException {
+        Path file = tempDir.resolve("originals").resolve(name.substring(0, 1)).resolve(name.substring(1, 2))
+                .resolve(name);
+        Files.createDirectories(file.getParent());
+        return Files.writeString(file, name);
+    }
+}
@@ -0,0 +1,52 @@
+package com.flaute.photosono.service;
+
+import com.flaute.photosono.config.PhotosonoConfig;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+class WarmupServiceTest {
+
+    private final PhotosonoConfig config = new PhotosonoConfig();
+    private final IoGovernorService io = new IoGovernorService(config);
+    private final HashService hashService = spy(new HashService(config, io, new BufferPoolService(config)));
+    private final DateExtractorService dateExtractorService = spy(new DateExtractorService(config, io));
+    private final PerceptualHashService perceptualHashService = spy(new PerceptualHashService());
+
+    @Test
+    void testWarmupExercisesRealServices() throws Exception {
+        List<OptionalLong> dHashes = new ArrayList<>();
+        doAnswer(invocation -> {
+            OptionalLong dHash = (OptionalLong) invocation.callRealMethod();
+            dHashes.add(dHash);
+            return dHash;
+        }).when(perceptualHashService).calculateDHash(any());
+
+        new WarmupService(hashService, dateExtractorService, perceptualHashService).warmup();
+
+        for (String sample : new String[] { "sample.jpg", "sample.png", "sample.mp4" }) {
+            verify(hashService).calculateSHA256(argThat((Path path) -> path.endsWith(sample)));
+            verify(dateExtractorService).extractCreationDate(argThat((Path path) -> path.endsWith(sample)));
+        }
+        // Both images went through a real decoder, so its classes are in the training run
+        assertEquals(2, dHashes.size());
+        assertTrue(dHashes.stream().allMatch(OptionalLong::isPresent));
+    }
+
+    @Test
+    void testUndecodableSampleFailsWarmup() throws Exception {
+        doReturn(OptionalLong.empty()).when(perceptualHashService).calculateDHash(any());
+
+        WarmupService warmupService = new WarmupService(hashService, dateExtractorService, perceptualHashService);
+
+        assertThrows(IllegalStateException.class, warmupService::warmup);
+    }
+}
@@ -0,0 +1,99 @@
+package com.flaute.photosono.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObjectStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void testLocalStoreContract() throws Exception {
+        LocalObjectStore store = new LocalObjectStore(tempDir.resolve("store"), executor);
+        assertContract(store);
+
+        Path stored = tempDir.resolve("store/a/b/ab1.jpg");
+        assertEquals("one", Files.readString(stored));
+        Path link = tempDir.resolve("store/links/ab1.jpg");
+        assertTrue(Files.isSymbolicLink(link));
+        assertFalse(Files.readSymbolicLink(link).isAbsolute());
+        assertEquals("one", Files.readString(link));
+        assertEquals("staged", Files.readString(tempDir.resolve("store/m/v/mv1.jpg")));
+    }
+
+    @Test
+    void testMemoryStoreContract() throws Exception {
+        MemoryObjectStore store = new MemoryObjectStore("test");
+        assertContract(store);
+
+        assertArrayEquals("one".getBytes(), store.content("a/b/ab1.jpg"));
+        assertEquals(store.location("a/b/ab1.jpg"), store.linkTarget("links/ab1.jpg"));
+    }
+
+    @Test
+    void testLocalDanglingLinkStillOccupiesKey() throws Exception {
+        LocalObjectStore store = new LocalObjectStore(tempDir.resolve("store"), executor);
+        assertTrue(ObjectStore.await(store.link("gone.jpg", tempDir.resolve("missing.jpg").toString())));
+
+        assertTrue(ObjectStore.await(store.exists("gone.jpg")));
+        assertFalse(ObjectStore.await(store.link("gone.jpg", tempDir.resolve("other.jpg").toString())));
+    }
+
+    /**
+     * Behaviour every backend must share; also run against the S3 stand-in.
+     */
+    static void assertContract(ObjectStore store) throws Exception {
+        Path dir = Files.createTempDirectory("object-store");
+        Path one = Files.writeString(dir.resolve("one"), "one");
+        Path two = Files.writeString(dir.resolve("two"), "two");
+
+        assertFalse(ObjectStore.await(store.exists("a/b/ab1.jpg")));
+        assertTrue(ObjectStore.await(store.putIfAbsent("a/b/ab1.jpg", one)));
+        assertFalse(ObjectStore.await(store.putIfAbsent("a/b/ab1.jpg", two)), "objects are never replaced");
+        assertTrue(ObjectStore.await(store.exists("a/b/ab1.jpg")));
+
+        Map<String, Boolean> written = ObjectStore.await(store.putAllIfAbsent(Map.of(
+                "a/b/ab2.jpg", two, "a/c/ac1.jpg", one, "a/b/ab1.jpg", two)));
+        assertEquals(Map.of("a/b/ab1.jpg", false, "a/b/ab2.jpg", true, "a/c/ac1.jpg", true), written);
+
+        assertTrue(ObjectStore.await(store.link("links/ab1.jpg", store.location("a/b/ab1.jpg"))));
+        assertFalse(ObjectStore.await(store.link("links/ab1.jpg", store.location("a/b/ab2.jpg"))));
+
+        assertEquals(List.of("a/b/ab1.jpg", "a/b/ab2.jpg"), ObjectStore.await(store.list("a/b/")));
+        assertEquals(List.of("a/b/ab1.jpg", "a/b/ab2.jpg", "a/c/ac1.jpg"), ObjectStore.await(store.list("a/")));
+        assertEquals(List.of("a/b/ab1.jpg", "a/b/ab2.jpg"), ObjectStore.await(store.list("a/b/ab")));
+        assertEquals(List.of(), ObjectStore.await(store.list("z/")));
+
+        assertEquals(Map.of("a/b/ab1.jpg", true, "links/ab1.jpg", true, "x/y/missing.jpg", false),
+                ObjectStore.await(store.existsAll(List.of("a/b/ab1.jpg", "links/ab1.jpg", "x/y/missing.jpg"))));
+
+        Path staged = Files.writeString(dir.resolve("staged"), "staged");
+        assertFalse(ObjectStore.await(store.moveIfAbsent("a/b/ab1.jpg", staged)));
+        assertTrue(Files.exists(staged), "a refused move leaves the source");
+        assertTrue(ObjectStore.await(store.moveIfAbsent("m/v/mv1.jpg", staged)));
+        assertFalse(Files.exists(staged));
+        assertTrue(ObjectStore.await(store.exists("m/v/mv1.jpg")));
+
+        assertThrows(java.io.IOException.class,
+                () -> ObjectStore.await(store.putIfAbsent("a/d/missing.jpg", Paths.get(dir.toString(), "nope"))));
+    }
+}